@@ -4,9 +4,10 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
@@ -25,6 +26,7 @@ import com.anysoft.util.Properties;
 import com.anysoft.util.PropertiesConstants;
 import com.anysoft.util.XmlElementProperties;
 import com.anysoft.util.XmlTools;
+import com.logicbus.backend.AbstractAccessController.Sweeper;
 import com.logicbus.backend.AccessController;
 import com.logicbus.backend.Context;
 import com.logicbus.models.catalog.Path;
@@ -60,17 +62,25 @@ import com.logicbus.models.servant.ServiceDescription;
  * 
  * @version 1.6.8.3 [20170328 duanyy] <br>
  * - 访问控制对象取SessionId <br>
+ * 
+ * @version 1.6.10.13 [20171108 duanyy] <br>
+ * - 去掉共享锁，访问统计改为无锁的原子计数 <br>
+ * - 访问列表有界，空闲的会话将被清除(acm.maxSessions,acm.idleTime)，清除逻辑复用{@link Sweeper} <br>
+ * 
+ * @version 1.6.10.14 [20171110 duanyy] <br>
+ * - 支持ACM模型中的速率限制，报告和指标中增加被拒绝次数(rejected) <br>
+ * - 重新装入时清除速率限制的状态 <br>
  */
 public abstract class ACMAccessController implements AccessController {
 	/**
 	 * 访问列表
 	 */
-	protected Hashtable<String,AccessStat> acl = new Hashtable<String,AccessStat>();
+	protected ConcurrentHashMap<String,AccessStat> acl = new ConcurrentHashMap<String,AccessStat>();
 
 	/**
-	 * 锁
+	 * 访问列表的清除器
 	 */
-	protected ReentrantLock lock = new ReentrantLock();
+	protected Sweeper sweeper = new Sweeper();
 	
 	/**
 	 * ACM缓存管理器
@@ -117,6 +127,8 @@ public abstract class ACMAccessController implements AccessController {
 		}
 		
 		configure(p);
+		//速率限制规则已经重建，原有的状态不再有效
+		resetLimitStates();
 	}
 	
 	@Override
@@ -125,6 +137,7 @@ public abstract class ACMAccessController implements AccessController {
 		defaultAcm = acmCache.get(defaultAcmId);
 		appField = props.GetValue("acm.appArguName", appField);		
 		metricsId = PropertiesConstants.getString(props, "acm.metrics.id", metricsId);
+		sweeper.configure(props);
 	}		
 	
 	protected String getACMObject(String sessionId,Path serviceId, ServiceDescription servant,
@@ -143,9 +156,24 @@ public abstract class ACMAccessController implements AccessController {
 
 	@Override
 	public void reload(String id){
-		// nothing to do
+		resetLimitStates();
 	}	
 	
+	/**
+	 * 清除所有会话的速率限制状态
+	 * 
+	 * <p>
+	 * ACM配置重新装入之后，速率限制按新的规则重新计数.
+	 * 
+	 * @since 1.6.10.14
+	 */
+	protected void resetLimitStates(){
+		Iterator<AccessStat> iter = acl.values().iterator();
+		while (iter.hasNext()){
+			iter.next().resetLimitStates();
+		}
+	}
+	
 	@Override
 	public int accessStart(String sessionId,Path serviceId, ServiceDescription servant,
 			Context ctx) {
@@ -164,45 +192,30 @@ public abstract class ACMAccessController implements AccessController {
 			return verified;
 		}
 		
-		lock.lock();
-		try{
-			String acmObject = getACMObject(sessionId,serviceId,servant,ctx);
-			AccessStat current = acl.get(acmObject);	
-			if (current == null){
-				current = new AccessStat();
-				acl.put(acmObject, current);
+		long now = System.currentTimeMillis();
+		String acmObject = getACMObject(sessionId,serviceId,servant,ctx);
+		AccessStat current = acl.get(acmObject);	
+		while (current == null || !current.start(now)){
+			if (current != null){
+				//已经被清除
+				acl.remove(acmObject, current);
 			}
-			
-			current.timesTotal ++;
-			current.thread ++;
-			current.waitCnt = lock.getQueueLength();
-			long timestamp = System.currentTimeMillis();
-			timestamp = (timestamp / 60000)*60000;
-			if (timestamp != current.timestamp){
-				//新的周期
-				current.timesOneMin = 1;
-				current.timestamp = timestamp;
-			}else{
-				current.timesOneMin ++;
+			AccessStat newStat = new AccessStat(acmObject);
+			current = acl.putIfAbsent(acmObject, newStat);
+			if (current == null){
+				current = newStat;
+				sweeper.sweep(acl, now);
 			}
-			
-			return acm.getPriority(ctx.getClientIp(), serviceId.getPath(), current);
-		}finally{
-			lock.unlock();
 		}
+		return acm.getPriority(ctx.getClientIp(), serviceId.getPath(), current);
 	}
 
 	@Override
 	public int accessEnd(String sessionId,Path serviceId, ServiceDescription servant, Context ctx) {
-		lock.lock();
-		try{
-			String acmObject = getACMObject(sessionId,serviceId,servant,ctx);
-			AccessStat current = acl.get(acmObject);
-			if (current != null){
-				current.thread --;
-			}
-		}finally{
-			lock.unlock();
+		String acmObject = getACMObject(sessionId,serviceId,servant,ctx);
+		AccessStat current = acl.get(acmObject);
+		if (current != null){
+			current.end();
 		}
 		return 0;
 	}
@@ -228,6 +241,10 @@ public abstract class ACMAccessController implements AccessController {
 				if (match){
 					if (current >= offset && current < offset + limit){
 						AccessStat value = acl.get(key);
+						if (value == null){
+							//已经被清除
+							continue;
+						}
 						Element eAcl = doc.createElement("acl");
 						
 						eAcl.setAttribute("session", key);
@@ -235,6 +252,7 @@ public abstract class ACMAccessController implements AccessController {
 						eAcl.setAttribute("timesTotal", String.valueOf(value.timesTotal));
 						eAcl.setAttribute("timesOneMin",String.valueOf(value.timesOneMin));
 						eAcl.setAttribute("waitCnt", String.valueOf(value.waitCnt));
+						eAcl.setAttribute("rejected", String.valueOf(value.rejected));
 						
 						root.appendChild(eAcl);						
 					}
@@ -268,6 +286,10 @@ public abstract class ACMAccessController implements AccessController {
 				if (match){
 						if (current >= offset && current < offset + limit){
 							AccessStat value = acl.get(key);
+							if (value == null){
+								//已经被清除
+								continue;
+							}
 							
 							Map<String,Object> mAcl = new HashMap<String,Object>();
 
@@ -276,6 +298,7 @@ public abstract class ACMAccessController implements AccessController {
 							mAcl.put("timesTotal", String.valueOf(value.timesTotal));
 							mAcl.put("timesOneMin",String.valueOf(value.timesOneMin));
 							mAcl.put("waitCnt", String.valueOf(value.waitCnt));
+							mAcl.put("rejected", String.valueOf(value.rejected));
 							
 							acls.add(mAcl);							
 						}
@@ -297,6 +320,9 @@ public abstract class ACMAccessController implements AccessController {
 			while (keys.hasMoreElements()){
 				String key = keys.nextElement();
 				AccessStat value = acl.get(key);
+				if (value == null){
+					continue;
+				}
 				
 				Fragment f = new DefaultFragment(metricsId);
 				
@@ -310,6 +336,7 @@ public abstract class ACMAccessController implements AccessController {
 					meas.set("timesTotal", value.timesTotal,Method.avg);
 					meas.set("timesOneMin", value.timesOneMin,Method.avg);
 					meas.set("waitCnt", value.waitCnt,Method.avg);
+					meas.set("rejected", value.rejected,Method.avg);
 				}
 				
 				collector.metricsIncr(f);
@@ -38,6 +38,10 @@ import com.anysoft.util.XmlTools;
  * 
  * @version 1.6.5.5 [20160515 duanyy] <br>
  * - 增加credentials和verifier属性 <br>
+ * 
+ * @version 1.6.10.14 [20171110 duanyy] <br>
+ * - 模型和ACL可配置速率限制(rate,ratePeriod,rateBurst,rateMode,rateRedis)，参见{@link RateLimit} <br>
+ * - 拒绝访问时记录到访问统计中 <br>
  */
 
 public class AccessControlModel implements Cacheable {
@@ -77,6 +81,11 @@ public class AccessControlModel implements Cacheable {
 	 */
 	protected int priority = -1;
 	
+	/**
+	 * 速率限制，为空时不限制
+	 */
+	protected RateLimit rateLimit = null;
+	
 	/**
 	 * Constructor with id
 	 * @param _id id
@@ -119,6 +128,10 @@ public class AccessControlModel implements Cacheable {
 		return maxTimesPerMin;
 	}
 	
+	public RateLimit getRateLimit(){
+		return rateLimit;
+	}
+	
 	public boolean isExpired() {
 		//永不过期
 		return false;
@@ -136,6 +149,9 @@ public class AccessControlModel implements Cacheable {
 		root.setAttribute("priority", String.valueOf(priority));
 		root.setAttribute("verifier", verifier);
 		root.setAttribute("credentials", credentials);
+		if (rateLimit != null){
+			rateLimit.toXML(root);
+		}
 		
 		if (acls != null && acls.size() > 0){
 			Document doc = root.getOwnerDocument();
@@ -149,6 +165,9 @@ public class AccessControlModel implements Cacheable {
 				aclElement.setAttribute("maxThread", String.valueOf(acl.maxThread));
 				aclElement.setAttribute("maxTimesPerMin", String.valueOf(acl.maxTimesPerMin));
 				aclElement.setAttribute("priority", String.valueOf(acl.priority));
+				if (acl.rateLimit != null){
+					acl.rateLimit.toXML(aclElement);
+				}
 				
 				aclsElement.appendChild(aclElement);
 			}
@@ -168,6 +187,9 @@ public class AccessControlModel implements Cacheable {
 		json.put("priority", String.valueOf(priority));
 		json.put("verifier", verifier);
 		json.put("credentials", credentials);
+		if (rateLimit != null){
+			rateLimit.toJson(json);
+		}
 		
 		if (acls != null && acls.size() > 0){
 			ArrayList<Object> list = new ArrayList<Object>();
@@ -179,6 +201,9 @@ public class AccessControlModel implements Cacheable {
 				map.put("maxThread", String.valueOf(acl.maxThread));
 				map.put("maxTimesPerMin", String.valueOf(acl.maxTimesPerMin));
 				map.put("priority", String.valueOf(acl.priority));
+				if (acl.rateLimit != null){
+					acl.rateLimit.toJson(map);
+				}
 				
 				list.add(map);
 			}
@@ -197,6 +222,12 @@ public class AccessControlModel implements Cacheable {
 		priority = PropertiesConstants.getInt(props, "priority", priority);
 		verifier = PropertiesConstants.getString(props, "verifier", verifier);
 		credentials = PropertiesConstants.getString(props, "credentials", credentials);
+		rateLimit = RateLimit.newInstance(id, 
+				PropertiesConstants.getString(props, "rateMode", "token"), 
+				PropertiesConstants.getInt(props, "rate", 0), 
+				PropertiesConstants.getLong(props, "ratePeriod", 1000L), 
+				PropertiesConstants.getInt(props, "rateBurst", 0), 
+				PropertiesConstants.getString(props, "rateRedis", "default"));
 
 		NodeList aclsNodeList = XmlTools.getNodeListByPath(root, "acls/acl");
 		
@@ -217,6 +248,12 @@ public class AccessControlModel implements Cacheable {
 				acl.maxThread = PropertiesConstants.getInt(eProps, "maxThread", maxThread);
 				acl.maxTimesPerMin = PropertiesConstants.getInt(eProps, "maxTimesPerMin", maxTimesPerMin);
 				acl.priority = PropertiesConstants.getInt(eProps, "priority", priority);
+				acl.rateLimit = RateLimit.newInstance(id + "#" + i, 
+						PropertiesConstants.getString(eProps, "rateMode", "token"), 
+						PropertiesConstants.getInt(eProps, "rate", 0), 
+						PropertiesConstants.getLong(eProps, "ratePeriod", 1000L), 
+						PropertiesConstants.getInt(eProps, "rateBurst", 0), 
+						PropertiesConstants.getString(eProps, "rateRedis", "default"));
 				
 				acls.add(acl);
 			}
@@ -232,10 +269,17 @@ public class AccessControlModel implements Cacheable {
 		priority = JsonTools.getInt(json, "priority", priority);
 		verifier = JsonTools.getString(json, "verifier", verifier);
 		credentials = JsonTools.getString(json, "credentials", credentials);
+		rateLimit = RateLimit.newInstance(id, 
+				JsonTools.getString(json, "rateMode", "token"), 
+				JsonTools.getInt(json, "rate", 0), 
+				JsonTools.getLong(json, "ratePeriod", 1000L), 
+				JsonTools.getInt(json, "rateBurst", 0), 
+				JsonTools.getString(json, "rateRedis", "default"));
 		
 		Object _acls = json.get("acls");
 		if (_acls != null && _acls instanceof List){
 			List<Object> _aclsList = (List<Object>) _acls;
+			int index = 0;
 			for (Object _acl:_aclsList){
 				if (! (_acl instanceof Map)){
 					continue;
@@ -247,6 +291,12 @@ public class AccessControlModel implements Cacheable {
 				acl.maxThread = JsonTools.getInt(_aclMap, "maxThread", maxThread);
 				acl.maxTimesPerMin = JsonTools.getInt(_aclMap, "maxTimesPerMin", maxTimesPerMin);
 				acl.priority = JsonTools.getInt(_aclMap, "priority", priority);
+				acl.rateLimit = RateLimit.newInstance(id + "#" + (index ++), 
+						JsonTools.getString(_aclMap, "rateMode", rateLimit == null ? "token" : rateLimit.getMode()), 
+						JsonTools.getInt(_aclMap, "rate", rateLimit == null ? 0 : rateLimit.getRate()), 
+						JsonTools.getLong(_aclMap, "ratePeriod", rateLimit == null ? 1000L : rateLimit.getPeriod()), 
+						JsonTools.getInt(_aclMap, "rateBurst", rateLimit == null ? 0 : rateLimit.getBurst()), 
+						JsonTools.getString(_aclMap, "rateRedis", rateLimit == null ? "default" : rateLimit.getRedis()));
 				acls.add(acl);
 			}
 		}
@@ -263,6 +313,7 @@ public class AccessControlModel implements Cacheable {
 		int _maxThread = maxThread;
 		int _maxTimesPerMin = maxTimesPerMin;
 		int _priority = priority;
+		RateLimit _rateLimit = rateLimit;
 		
 		ACL acl = findACL(ip,service);
 		if (acl != null){
@@ -270,10 +321,18 @@ public class AccessControlModel implements Cacheable {
 			_maxThread = acl.maxThread;
 			_maxTimesPerMin = acl.maxTimesPerMin;
 			_priority = acl.priority;
+			_rateLimit = acl.rateLimit;
 		}
 		
 		if (stat.thread > _maxThread || stat.timesOneMin > _maxTimesPerMin){
 			//如果超过并发数，或者超多一分钟调用次数
+			stat.reject();
+			return -1;
+		}
+		
+		if (_rateLimit != null && !_rateLimit.tryAcquire(stat)){
+			//超过速率限制
+			stat.reject();
 			return -1;
 		}
 		return _priority;
@@ -310,6 +369,7 @@ public class AccessControlModel implements Cacheable {
 		public int maxThread;
 		public int maxTimesPerMin;
 		public int priority;
+		public RateLimit rateLimit = null;
 		protected StringMatcher ipMatcher = null;
 		protected StringMatcher serviceMatcher = null;
 		
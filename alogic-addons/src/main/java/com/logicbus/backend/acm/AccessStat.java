@@ -1,5 +1,10 @@
 package com.logicbus.backend.acm;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import com.logicbus.backend.AbstractAccessController;
+
 /**
  * 访问统计
  * 
@@ -9,27 +14,94 @@ package com.logicbus.backend.acm;
  * @author duanyy
  *
  * @since 1.2.3
+ * 
+ * @version 1.6.10.13 [20171108 duanyy] <br>
+ * - 改为原子计数，无需加锁 <br>
+ * - 增加最后访问时间 <br>
+ * 
+ * @version 1.6.10.14 [20171110 duanyy] <br>
+ * - 增加会话id，被拒绝次数以及速率限制的状态 <br>
+ * - 计数和清除逻辑复用{@link AbstractAccessController.AccessStat} <br>
  */
-public class AccessStat {
+public class AccessStat extends AbstractAccessController.AccessStat {
+	private static final AtomicLongFieldUpdater<AccessStat> REJECTED = 
+			AtomicLongFieldUpdater.newUpdater(AccessStat.class, "rejected");
+	
 	/**
-	 * 总调用次数
+	 * 会话id
+	 * @since 1.6.10.14
 	 */
-	protected long timesTotal = 0;
+	protected String id = "";
+	
 	/**
-	 * 最近一分钟调用次数
+	 * 被拒绝的次数
+	 * @since 1.6.10.14
 	 */
-	protected int timesOneMin = 0;
+	protected volatile long rejected = 0;
+	
 	/**
-	 * 当前接入进程个数
+	 * 速率限制的状态
+	 * @since 1.6.10.14
 	 */
-	protected int thread = 0;
+	protected volatile ConcurrentHashMap<RateLimit,Object> limitStates = null;
+	
+	public AccessStat(){
+		
+	}
+	
+	public AccessStat(String id){
+		this.id = id;
+	}
+	
+	public String getId(){
+		return id;
+	}
+	
+	public long getRejected(){
+		return rejected;
+	}
+	
+	/**
+	 * 记录一次拒绝
+	 * @since 1.6.10.14
+	 */
+	public void reject(){
+		REJECTED.incrementAndGet(this);
+	}
+	
 	/**
-	 * 时间戳(用于定义最近一分钟)
+	 * 清除所有速率限制的状态
+	 * @since 1.6.10.14
 	 */
-	protected long timestamp = 0;
+	public void resetLimitStates(){
+		limitStates = null;
+	}
 	
 	/**
-	 * 共享锁的等待线程数
+	 * 获取指定速率限制的状态，如果不存在则创建
+	 * @param limit 速率限制
+	 * @return 状态
+	 * @since 1.6.10.14
 	 */
-	protected long waitCnt = 0;
+	public Object getLimitState(RateLimit limit){
+		ConcurrentHashMap<RateLimit,Object> states = limitStates;
+		if (states == null){
+			synchronized (this){
+				states = limitStates;
+				if (states == null){
+					states = new ConcurrentHashMap<RateLimit,Object>(4);
+					limitStates = states;
+				}
+			}
+		}
+		Object state = states.get(limit);
+		if (state == null){
+			Object newState = limit.newState(this);
+			state = states.putIfAbsent(limit, newState);
+			if (state == null){
+				state = newState;
+			}
+		}
+		return state;
+	}
 }
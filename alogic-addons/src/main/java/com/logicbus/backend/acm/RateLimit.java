@@ -0,0 +1,356 @@
+package com.logicbus.backend.acm;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.logicbus.redis.client.Client;
+import com.logicbus.redis.context.RedisPool;
+import com.logicbus.redis.context.RedisSource;
+import com.logicbus.redis.toolkit.ScriptTool;
+import com.logicbus.redis.util.RedisDataException;
+
+/**
+ * 速率限制
+ *
+ * <p>
+ * 在ACM模型或ACL中配置，限制每个会话在一个周期之内的访问次数，支持下列模式：<br>
+ * - token : 令牌桶，允许一定的突发(rateBurst)，采用GCRA算法，状态仅为一个长整数，无锁无分配; <br>
+ * - window : 滑动窗口，按当前窗口和上一窗口的加权计数进行限制，避免在周期开始时集中突发; <br>
+ * - cluster : 集群范围的滑动窗口，计数保存在Redis中(rateRedis)，通过Lua脚本原子地检查和计数，
+ * 脚本通过SCRIPT LOAD装入之后以EVALSHA调用，Redis不可用时放行; <br>
+ *
+ * <p>
+ * 参数如下：<br>
+ * - rate : 一个周期之内允许的访问次数，小于等于0时不限制; <br>
+ * - ratePeriod : 周期(毫秒)，缺省为1000; <br>
+ * - rateBurst : 令牌桶的容量，缺省和rate相同; <br>
+ * - rateMode : 模式,token,window或cluster，缺省为token; <br>
+ * - rateRedis : cluster模式下的Redis连接池id，缺省为default; <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.14
+ */
+public abstract class RateLimit {
+	/**
+	 * a slf4j logger
+	 */
+	protected static final Logger LOG = LoggerFactory.getLogger(RateLimit.class);
+
+	/**
+	 * 名称，用于区分不同的限制规则
+	 */
+	protected String name;
+
+	/**
+	 * 一个周期之内允许的访问次数
+	 */
+	protected int rate;
+
+	/**
+	 * 周期(毫秒)
+	 */
+	protected long period;
+
+	/**
+	 * 令牌桶容量
+	 */
+	protected int burst;
+
+	/**
+	 * Redis连接池id
+	 */
+	protected String redis;
+
+	protected RateLimit(String name,int rate,long period,int burst,String redis){
+		this.name = name;
+		this.rate = rate;
+		this.period = period <= 0 ? 1000L : period;
+		this.burst = burst <= 0 ? rate : burst;
+		this.redis = redis;
+	}
+
+	public int getRate(){return rate;}
+
+	public long getPeriod(){return period;}
+
+	public int getBurst(){return burst;}
+
+	public String getRedis(){return redis;}
+
+	/**
+	 * 获取模式
+	 * @return 模式
+	 */
+	public abstract String getMode();
+
+	/**
+	 * 创建会话级的状态
+	 * @param stat 会话的访问统计
+	 * @return 状态
+	 */
+	protected abstract Object newState(AccessStat stat);
+
+	/**
+	 * 尝试获取一次访问许可
+	 *
+	 * @param stat 会话的访问统计
+	 * @return 是否允许访问
+	 */
+	public boolean tryAcquire(AccessStat stat){
+		return tryAcquire(stat,stat.getLimitState(this));
+	}
+
+	/**
+	 * 尝试获取一次访问许可
+	 *
+	 * @param stat 会话的访问统计
+	 * @param state 会话级的状态
+	 * @return 是否允许访问
+	 */
+	protected abstract boolean tryAcquire(AccessStat stat,Object state);
+
+	public void toXML(Element e){
+		e.setAttribute("rate", String.valueOf(rate));
+		e.setAttribute("ratePeriod", String.valueOf(period));
+		e.setAttribute("rateBurst", String.valueOf(burst));
+		e.setAttribute("rateMode", getMode());
+		e.setAttribute("rateRedis", redis);
+	}
+
+	public void toJson(Map<String,Object> json){
+		json.put("rate", String.valueOf(rate));
+		json.put("ratePeriod", String.valueOf(period));
+		json.put("rateBurst", String.valueOf(burst));
+		json.put("rateMode", getMode());
+		json.put("rateRedis", redis);
+	}
+
+	/**
+	 * 创建速率限制
+	 *
+	 * @param name 名称
+	 * @param mode 模式
+	 * @param rate 一个周期之内允许的访问次数
+	 * @param period 周期(毫秒)
+	 * @param burst 令牌桶容量
+	 * @param redis Redis连接池id
+	 * @return 速率限制，当rate小于等于0时返回null
+	 */
+	public static RateLimit newInstance(String name,String mode,int rate,long period,int burst,String redis){
+		if (rate <= 0){
+			return null;
+		}
+		if ("window".equals(mode)){
+			return new SlidingWindow(name,rate,period,burst,redis);
+		}
+		if ("cluster".equals(mode)){
+			return new Cluster(name,rate,period,burst,redis);
+		}
+		return new TokenBucket(name,rate,period,burst,redis);
+	}
+
+	/**
+	 * 令牌桶
+	 *
+	 * <p>
+	 * 采用GCRA(Generic Cell Rate Algorithm)实现，状态为理论到达时间(纳秒)，通过CAS更新.
+	 */
+	public static class TokenBucket extends RateLimit{
+		/**
+		 * 每个令牌的间隔(纳秒)
+		 */
+		protected long interval;
+
+		/**
+		 * 可容忍的提前量(纳秒)
+		 */
+		protected long tolerance;
+
+		public TokenBucket(String name,int rate,long period,int burst,String redis){
+			super(name,rate,period,burst,redis);
+			interval = Math.max(1L, this.period * 1000000L / this.rate);
+			tolerance = interval * this.burst;
+		}
+
+		@Override
+		public String getMode() {
+			return "token";
+		}
+
+		@Override
+		protected Object newState(AccessStat stat) {
+			return new AtomicLong(System.nanoTime());
+		}
+
+		@Override
+		protected boolean tryAcquire(AccessStat stat, Object state) {
+			AtomicLong tat = (AtomicLong)state;
+			long now = System.nanoTime();
+			while (true){
+				long current = tat.get();
+				long next = (current - now < 0 ? now : current) + interval;
+				if (next - now > tolerance){
+					return false;
+				}
+				if (tat.compareAndSet(current, next)){
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 本地的滑动窗口
+	 */
+	public static class SlidingWindow extends RateLimit{
+
+		public SlidingWindow(String name,int rate,long period,int burst,String redis){
+			super(name,rate,period,burst,redis);
+		}
+
+		@Override
+		public String getMode() {
+			return "window";
+		}
+
+		@Override
+		protected Object newState(AccessStat stat) {
+			return new Window();
+		}
+
+		@Override
+		protected boolean tryAcquire(AccessStat stat, Object state) {
+			Window window = (Window)state;
+			long now = System.currentTimeMillis();
+			long start = (now / period) * period;
+			synchronized (window){
+				if (start != window.start){
+					window.previous = start - window.start == period ? window.current : 0;
+					window.current = 0;
+					window.start = start;
+				}
+				double weight = 1.0 - (double)(now - start) / period;
+				if (window.previous * weight + window.current >= rate){
+					return false;
+				}
+				window.current ++;
+				return true;
+			}
+		}
+
+		/**
+		 * 窗口状态
+		 */
+		protected static class Window {
+			protected long start = 0;
+			protected int current = 0;
+			protected int previous = 0;
+		}
+	}
+
+	/**
+	 * 集群范围的滑动窗口
+	 *
+	 * <p>
+	 * 每个周期的计数保存在Redis中，key为acm.rate:[规则名称]:[会话]:[周期序号]，存活时间为两个周期.
+	 */
+	public static class Cluster extends RateLimit{
+		/**
+		 * 检查并计数的脚本
+		 *
+		 * <p>
+		 * KEYS[1]为当前周期的key,KEYS[2]为上一周期的key,ARGV[1]为存活时间，ARGV[2]为上一周期的权重,
+		 * ARGV[3]为允许的访问次数.
+		 */
+		protected static final String SCRIPT =
+				"local prev = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+				"local cur = tonumber(redis.call('GET', KEYS[1]) or '0') " +
+				"if prev * tonumber(ARGV[2]) + cur >= tonumber(ARGV[3]) then return 0 end " +
+				"if redis.call('INCR', KEYS[1]) == 1 then redis.call('PEXPIRE', KEYS[1], ARGV[1]) end " +
+				"return 1";
+
+		/**
+		 * 脚本在服务端的sha1
+		 */
+		protected static volatile String sha1 = null;
+
+		public Cluster(String name,int rate,long period,int burst,String redis){
+			super(name,rate,period,burst,StringUtils.isEmpty(redis) ? "default" : redis);
+		}
+
+		@Override
+		public String getMode() {
+			return "cluster";
+		}
+
+		@Override
+		protected Object newState(AccessStat stat) {
+			return "acm.rate:" + name + ":" + stat.getId() + ":";
+		}
+
+		@Override
+		protected boolean tryAcquire(AccessStat stat, Object state) {
+			RedisPool pool = RedisSource.get().getPool(redis);
+			if (pool == null){
+				LOG.error("Can not find redis pool:" + redis);
+				return true;
+			}
+
+			long now = System.currentTimeMillis();
+			long index = now / period;
+			double weight = 1.0 - (double)(now - index * period) / period;
+			String prefix = (String)state;
+
+			Client client = null;
+			boolean error = false;
+			try {
+				client = pool.getClient();
+				ScriptTool tool = (ScriptTool)client.getToolKit(ScriptTool.class);
+				return eval(tool,prefix + index,prefix + (index - 1),
+						String.valueOf(period * 2),String.valueOf(weight),String.valueOf(rate)) > 0;
+			}catch (Exception ex){
+				error = true;
+				LOG.error("Failed to check rate limit,pass it:" + name,ex);
+				return true;
+			}finally{
+				if (client != null){
+					pool.recycle(client, error);
+				}
+			}
+		}
+		
+		/**
+		 * 通过EVALSHA执行脚本
+		 * 
+		 * <p>
+		 * 如果服务端没有该脚本(NOSCRIPT，例如服务端重启或执行了SCRIPT FLUSH)，重新装入之后再执行.
+		 * 
+		 * @param tool 脚本工具
+		 * @param params KEYS和ARGV
+		 * @return 脚本的返回值
+		 */
+		protected long eval(ScriptTool tool,String...params){
+			String sha = sha1;
+			if (sha != null){
+				try {
+					tool.evalsha(sha, 2, params);
+					return tool.getIntegerReply();
+				}catch (RedisDataException ex){
+					String msg = ex.getMessage();
+					if (msg == null || !msg.contains("NOSCRIPT")){
+						throw ex;
+					}
+				}
+			}
+			sha = tool.scriptLoad(SCRIPT);
+			sha1 = sha;
+			tool.evalsha(sha, 2, params);
+			return tool.getIntegerReply();
+		}
+	}
+}
@@ -10,8 +10,10 @@ import org.w3c.dom.Element;
 
 import com.anysoft.cache.Provider;
 import com.anysoft.util.Counter;
+import com.anysoft.util.DefaultProperties;
 import com.anysoft.util.JsonTools;
 import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
 import com.anysoft.util.Reportable;
 import com.anysoft.util.SimpleCounter;
 import com.anysoft.util.Watcher;
@@ -34,6 +36,9 @@ import com.anysoft.util.XmlElementProperties;
  * 
  * @version 1.6.7.9 [20170201 duanyy] <br>
  * - 采用SLF4j日志框架输出日志 <br>
+ * 
+ * @version 1.6.10.22 [20171129 duanyy] <br>
+ * - 以缓存的id作为统计的counter.id，以便写入环形数据库 <br>
  */
 public interface MultiFieldObjectProvider extends Provider<MultiFieldObject>,XMLConfigurable,Reportable {
 	
@@ -113,11 +118,14 @@ public interface MultiFieldObjectProvider extends Provider<MultiFieldObject>,XML
 			
 			Counter.TheFactory factory = new Counter.TheFactory();
 			
+			Properties counterProps = new DefaultProperties("cache",props);
+			counterProps.SetValue("counter.id", PropertiesConstants.getString(p, "id", ""));
+			counterProps.SetValue("counter.rrd.module", "cache");
 			try {
-				counter = factory.newInstance(element, props, "counter", SimpleCounter.class.getName());
+				counter = factory.newInstance(element, counterProps, "counter", SimpleCounter.class.getName());
 			}catch (Exception ex){
 				LOG.error("Can not create the Counter.Use Default.",ex);
-				counter = new SimpleCounter(p);
+				counter = new SimpleCounter(new XmlElementProperties(element,counterProps));
 			}
 			
 			onConfigure(element,p);
@@ -0,0 +1,555 @@
+package com.alogic.cache.local;
+
+import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.w3c.dom.Element;
+
+import com.alogic.cache.core.AbstractCacheStore;
+import com.alogic.cache.core.MultiFieldObject;
+import com.alogic.load.SingleFlight;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+
+/**
+ * 有界的并发CacheStore
+ *
+ * <p>
+ * 基于ConcurrentHashMap，读操作无锁；按LRU顺序淘汰，并采用TinyLFU准入策略，避免偶发的访问冲掉热点数据.
+ *
+ * <p>
+ * 参数如下:<br>
+ * - maxObjects : 最大对象个数，缺省为10240，小于等于0时不限制 <br>
+ * - maxWeight : 最大权重，缺省为0，即不限制；对象的权重按field个数估算，见{@link #weigh(MultiFieldObject)} <br>
+ * - ttl : 对象的缺省存活时间(毫秒)，缺省为30分钟，是否过期由ExpirePolicy决定 <br>
+ * - admission : 是否启用TinyLFU准入策略，缺省为true <br>
+ * - refreshAhead : 对象装入超过该时间(毫秒)后，在访问时进行后台刷新，缺省为0，即不刷新 <br>
+ * - serveStale : 对象过期后重新装入出错时，是否返回过期的对象，缺省为false <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.10
+ *
+ * @version 1.6.10.11 [20171103 duanyy] <br>
+ * - 同一id的并发装入只执行一次，增加后台刷新和出错时返回过期对象的功能 <br>
+ */
+public class BoundedCacheStore extends AbstractCacheStore{
+
+	/**
+	 * double数值格式化器
+	 */
+	private static final DecimalFormat DF = new DecimalFormat("#.0000");
+
+	/**
+	 * 最大对象个数
+	 */
+	protected int maxObjects = 10240;
+
+	/**
+	 * 最大权重
+	 */
+	protected long maxWeight = 0;
+
+	/**
+	 * Time To Live
+	 */
+	protected int ttl = 30 * 60 * 1000;
+
+	/**
+	 * 是否启用准入策略
+	 */
+	protected boolean admission = true;
+
+	/**
+	 * 后台刷新的时间(毫秒)
+	 */
+	protected long refreshAhead = 0;
+
+	/**
+	 * 出错时是否返回过期的对象
+	 */
+	protected boolean serveStale = false;
+
+	/**
+	 * 按id合并的装入
+	 */
+	protected SingleFlight<MultiFieldObject> singleFlight = new SingleFlight<MultiFieldObject>();
+
+	/**
+	 * 缓存的对象
+	 */
+	protected ConcurrentMap<String,Node> values = new ConcurrentHashMap<String,Node>();
+
+	/**
+	 * 淘汰锁，保护LRU链表和访问频率
+	 */
+	protected final ReentrantLock evictionLock = new ReentrantLock();
+
+	/**
+	 * LRU链表的头(最久未访问)
+	 */
+	protected Node head = null;
+
+	/**
+	 * LRU链表的尾(最近访问)
+	 */
+	protected Node tail = null;
+
+	/**
+	 * 当前权重
+	 */
+	protected long weight = 0;
+
+	/**
+	 * 访问频率
+	 */
+	protected FrequencySketch sketch = null;
+
+	/**
+	 * 请求次数
+	 */
+	protected AtomicLong requestTimes = new AtomicLong(0);
+
+	/**
+	 * 命中次数
+	 */
+	protected AtomicLong hitTimes = new AtomicLong(0);
+
+	/**
+	 * 淘汰次数
+	 */
+	protected AtomicLong evictedTimes = new AtomicLong(0);
+
+	/**
+	 * 过期次数
+	 */
+	protected AtomicLong expiredTimes = new AtomicLong(0);
+
+	/**
+	 * 装入次数
+	 */
+	protected AtomicLong loadTimes = new AtomicLong(0);
+
+	/**
+	 * 装入总时长(毫秒)
+	 */
+	protected AtomicLong loadDuration = new AtomicLong(0);
+
+	public long getRequestTimes(){return requestTimes.get();}
+
+	public long getHitTimes(){return hitTimes.get();}
+
+	public double getHitRate(){
+		long request = requestTimes.get();
+		return request <= 0 ? 0 : (double)hitTimes.get() / request;
+	}
+
+	public double getAvgLoadTime(){
+		long times = loadTimes.get();
+		return times <= 0 ? 0 : (double)loadDuration.get() / times;
+	}
+
+	@Override
+	public MultiFieldObject get(String id, boolean cacheAllowed) {
+		return load(id,cacheAllowed);
+	}
+
+	@Override
+	public MultiFieldObject expire(String id) {
+		Node found = values.get(id);
+		if (found != null){
+			evictionLock.lock();
+			try {
+				if (values.remove(id, found)){
+					unlink(found);
+				}
+			}finally{
+				evictionLock.unlock();
+			}
+			return found.value;
+		}
+		return null;
+	}
+
+	@Override
+	public void expireAll() {
+		evictionLock.lock();
+		try {
+			values.clear();
+			head = null;
+			tail = null;
+			weight = 0;
+		}finally{
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public MultiFieldObject set(String id, MultiFieldObject newValue) {
+		return set(id,newValue,ttl);
+	}
+
+	/**
+	 * 向缓存设置指定ID的数据，并指定存活时间
+	 * @param id 对象id
+	 * @param newValue 新的对象
+	 * @param ttl 存活时间(毫秒)
+	 * @return 老的对象（如果没有的话，为null)
+	 */
+	public MultiFieldObject set(String id, MultiFieldObject newValue,int ttl) {
+		if (newValue == null){
+			return expire(id);
+		}
+		Node node = new Node(id,newValue,System.currentTimeMillis(),ttl,weigh(newValue));
+		Node old = null;
+		evictionLock.lock();
+		try {
+			old = values.put(id, node);
+			if (old != null){
+				unlink(old);
+			}
+			linkLast(node);
+			if (sketch != null){
+				sketch.increment(id);
+			}
+			evict(node);
+		}finally{
+			evictionLock.unlock();
+		}
+		return old == null ? null : old.value;
+	}
+
+	@Override
+	public MultiFieldObject load(final String id, boolean cacheAllowed) {
+		if (!cacheAllowed){
+			return provider.load(id,cacheAllowed);
+		}
+
+		requestTimes.incrementAndGet();
+		long now = System.currentTimeMillis();
+		final Node found = values.get(id);
+		if (found != null){
+			if (!isExpired(found,now)){
+				hitTimes.incrementAndGet();
+				afterRead(found);
+				if (refreshAhead > 0 && now - found.timestamp >= refreshAhead){
+					refresh(id,found);
+				}
+				return found.value;
+			}
+			expiredTimes.incrementAndGet();
+		}
+
+		if (provider == null){
+			return null;
+		}
+
+		try {
+			//同一id的并发装入只执行一次
+			return singleFlight.execute(id, new Callable<MultiFieldObject>(){
+				@Override
+				public MultiFieldObject call() {
+					return loadFromProvider(id,found);
+				}
+			});
+		}catch (RuntimeException ex){
+			if (serveStale && found != null){
+				logger.warn("Failed to load object,the stale one is used:" + id,ex);
+				return found.value;
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * 在后台刷新对象
+	 * @param id 对象id
+	 * @param current 当前的节点
+	 */
+	protected void refresh(final String id,final Node current){
+		singleFlight.refresh(id, new Callable<MultiFieldObject>(){
+			@Override
+			public MultiFieldObject call() {
+				try {
+					return loadFromProvider(id,current);
+				}catch (RuntimeException ex){
+					logger.warn("Failed to refresh object:" + id,ex);
+					return current.value;
+				}
+			}
+		});
+	}
+
+	/**
+	 * 从provider装入对象，并替换缓存中的节点
+	 * @param id 对象id
+	 * @param current 当前的节点，可能为null
+	 * @return 装入的对象
+	 */
+	protected MultiFieldObject loadFromProvider(String id,Node current){
+		long start = System.currentTimeMillis();
+		MultiFieldObject found = provider.load(id, true);
+		loadTimes.incrementAndGet();
+		loadDuration.addAndGet(System.currentTimeMillis() - start);
+		if (found != null){ // NOSONAR
+			set(id,found);
+		}else if (current != null){
+			expire(id);
+		}
+		return found;
+	}
+
+	/**
+	 * 从缓存中获取对象，过期的对象将被清除
+	 * @param id 对象id
+	 * @return 对象，如果不存在或已过期，返回为null
+	 */
+	protected MultiFieldObject getIfPresent(String id){
+		Node found = values.get(id);
+		if (found == null){
+			return null;
+		}
+		if (isExpired(found,System.currentTimeMillis())){
+			expiredTimes.incrementAndGet();
+			expire(id);
+			return null;
+		}
+		afterRead(found);
+		return found.value;
+	}
+
+	protected boolean isExpired(Node node,long now){
+		return node.value.isExpired() || expirePolicy.isExpired(node.value, node.timestamp, now, node.ttl);
+	}
+
+	/**
+	 * 记录访问
+	 *
+	 * <p>
+	 * 只有在获取淘汰锁成功时才调整LRU顺序，竞争时放弃本次记录，以保证读操作不被阻塞.
+	 *
+	 * @param node 被访问的节点
+	 */
+	protected void afterRead(Node node){
+		if (evictionLock.tryLock()){
+			try {
+				if (node.linked){
+					unlink(node);
+					linkLast(node);
+				}
+				if (sketch != null){
+					sketch.increment(node.id);
+				}
+			}finally{
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 估算对象的权重
+	 * @param value 对象
+	 * @return 权重
+	 */
+	protected long weigh(MultiFieldObject value){
+		return 1 + value.count();
+	}
+
+	/**
+	 * 淘汰对象直到满足容量限制，须在淘汰锁内调用
+	 * @param candidate 新加入的对象
+	 */
+	protected void evict(Node candidate){
+		while (isOverflow() && head != null){
+			Node victim = head;
+			if (victim != candidate && sketch != null && candidate.linked
+					&& sketch.frequency(candidate.id) < sketch.frequency(victim.id)){
+				//新对象的访问频率低于待淘汰对象，淘汰新对象
+				victim = candidate;
+			}
+			values.remove(victim.id, victim);
+			unlink(victim);
+			evictedTimes.incrementAndGet();
+		}
+	}
+
+	protected boolean isOverflow(){
+		return (maxObjects > 0 && values.size() > maxObjects) || (maxWeight > 0 && weight > maxWeight);
+	}
+
+	protected void linkLast(Node node){
+		node.prev = tail;
+		node.next = null;
+		if (tail == null){
+			head = node;
+		}else{
+			tail.next = node;
+		}
+		tail = node;
+		node.linked = true;
+		weight += node.weight;
+	}
+
+	protected void unlink(Node node){
+		if (!node.linked){
+			return ;
+		}
+		if (node.prev == null){
+			head = node.next;
+		}else{
+			node.prev.next = node.next;
+		}
+		if (node.next == null){
+			tail = node.prev;
+		}else{
+			node.next.prev = node.prev;
+		}
+		node.prev = null;
+		node.next = null;
+		node.linked = false;
+		weight -= node.weight;
+	}
+
+	@Override
+	protected void onConfigure(Element e, Properties p) {
+		maxObjects = PropertiesConstants.getInt(p, "maxObjects", maxObjects);
+		maxWeight = PropertiesConstants.getLong(p, "maxWeight", maxWeight);
+		ttl = PropertiesConstants.getInt(p, "ttl", ttl);
+		admission = PropertiesConstants.getBoolean(p, "admission", admission);
+		refreshAhead = PropertiesConstants.getLong(p, "refreshAhead", refreshAhead);
+		serveStale = PropertiesConstants.getBoolean(p, "serveStale", serveStale);
+
+		if (admission){
+			sketch = new FrequencySketch(maxObjects > 0 ? maxObjects : 10240);
+		}
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			super.report(xml);
+			xml.setAttribute("objectCount",String.valueOf(values.size()));
+			xml.setAttribute("maxObjects",String.valueOf(maxObjects));
+			xml.setAttribute("weight",String.valueOf(weight));
+			xml.setAttribute("maxWeight",String.valueOf(maxWeight));
+			xml.setAttribute("requestTimes", String.valueOf(getRequestTimes()));
+			xml.setAttribute("hitTimes", String.valueOf(getHitTimes()));
+			xml.setAttribute("hitRate", DF.format(getHitRate()));
+			xml.setAttribute("evictedTimes", String.valueOf(evictedTimes.get()));
+			xml.setAttribute("expiredTimes", String.valueOf(expiredTimes.get()));
+			xml.setAttribute("loadTimes", String.valueOf(loadTimes.get()));
+			xml.setAttribute("avgLoadTime", DF.format(getAvgLoadTime()));
+			xml.setAttribute("sharedTimes", String.valueOf(singleFlight.getSharedCnt()));
+			xml.setAttribute("refreshTimes", String.valueOf(singleFlight.getRefreshCnt()));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			super.report(json);
+			json.put("objectCount", values.size());
+			json.put("maxObjects", maxObjects);
+			json.put("weight", weight);
+			json.put("maxWeight", maxWeight);
+			json.put("requestTimes", getRequestTimes());
+			json.put("hitTimes", getHitTimes());
+			json.put("hitRate", DF.format(getHitRate()));
+			json.put("evictedTimes", evictedTimes.get());
+			json.put("expiredTimes", expiredTimes.get());
+			json.put("loadTimes", loadTimes.get());
+			json.put("avgLoadTime", DF.format(getAvgLoadTime()));
+			json.put("sharedTimes", singleFlight.getSharedCnt());
+			json.put("refreshTimes", singleFlight.getRefreshCnt());
+		}
+	}
+
+	/**
+	 * 缓存节点
+	 */
+	protected static class Node {
+		protected final String id;
+		protected final MultiFieldObject value;
+		protected final long timestamp;
+		protected final int ttl;
+		protected final long weight;
+		protected Node prev = null;
+		protected Node next = null;
+		protected boolean linked = false;
+
+		protected Node(String id,MultiFieldObject value,long timestamp,int ttl,long weight){
+			this.id = id;
+			this.value = value;
+			this.timestamp = timestamp;
+			this.ttl = ttl;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * 访问频率估计(Count-Min Sketch)
+	 *
+	 * <p>
+	 * 每个计数器最大为15，累计次数达到样本数之后所有计数器减半，使频率随时间衰减.
+	 * 非线程安全，须在淘汰锁内调用.
+	 */
+	protected static class FrequencySketch {
+		protected static final int DEPTH = 4;
+		protected static final int[] SEEDS = {0x97cb3127, 0x5c6a2d1f, 0x8b3a9f61, 0x3d4e7a93};
+		protected final byte[][] table;
+		protected final int mask;
+		protected final int sampleSize;
+		protected int size = 0;
+
+		protected FrequencySketch(int capacity){
+			int width = 1;
+			while (width < capacity && width < (1 << 24)){
+				width <<= 1;
+			}
+			table = new byte[DEPTH][width];
+			mask = width - 1;
+			sampleSize = width * 10;
+		}
+
+		protected int index(String id,int i){
+			int h = id.hashCode() * SEEDS[i];
+			h ^= h >>> 16;
+			return h & mask;
+		}
+
+		protected void increment(String id){
+			boolean added = false;
+			for (int i = 0 ; i < DEPTH ; i ++){
+				int idx = index(id,i);
+				if (table[i][idx] < 15){
+					table[i][idx] ++;
+					added = true;
+				}
+			}
+			if (added && ++size >= sampleSize){
+				reset();
+			}
+		}
+
+		protected int frequency(String id){
+			int freq = Integer.MAX_VALUE;
+			for (int i = 0 ; i < DEPTH ; i ++){
+				freq = Math.min(freq, table[i][index(id,i)]);
+			}
+			return freq;
+		}
+
+		protected void reset(){
+			for (byte[] row:table){
+				for (int i = 0 ; i < row.length ; i ++){
+					row[i] = (byte)(row[i] >> 1);
+				}
+			}
+			size /= 2;
+		}
+	}
+}
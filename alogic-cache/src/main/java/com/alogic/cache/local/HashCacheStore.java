@@ -3,11 +3,13 @@ package com.alogic.cache.local;
 import java.text.DecimalFormat;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.w3c.dom.Element;
 
 import com.alogic.cache.core.AbstractCacheStore;
 import com.alogic.cache.core.MultiFieldObject;
+import com.alogic.load.SingleFlight;
 import com.anysoft.util.Properties;
 
 /**
@@ -21,6 +23,9 @@ import com.anysoft.util.Properties;
  * 
  * @version 1.6.4.19 [duanyy 20151218] <br>
  * - 按照SONAR建议修改代码 <br>
+ * 
+ * @version 1.6.10.11 [20171103 duanyy] <br>
+ * - 同一id的并发装入只执行一次，避免缓存击穿 <br>
  */
 public class HashCacheStore extends AbstractCacheStore{
 	
@@ -31,6 +36,11 @@ public class HashCacheStore extends AbstractCacheStore{
 	
 	protected Hashtable<String,MultiFieldObject> values = new Hashtable<String,MultiFieldObject>(); // NOSONAR
 	
+	/**
+	 * 按id合并的装入
+	 */
+	protected SingleFlight<MultiFieldObject> singleFlight = new SingleFlight<MultiFieldObject>();
+	
 	/**
 	 * 请求次数
 	 */
@@ -73,7 +83,7 @@ public class HashCacheStore extends AbstractCacheStore{
 	}
 	
 	@Override
-	public MultiFieldObject load(String id, boolean cacheAllowed) {
+	public MultiFieldObject load(final String id, boolean cacheAllowed) {
 		if (!cacheAllowed){
 			return provider.load(id,cacheAllowed);
 		}
@@ -85,12 +95,17 @@ public class HashCacheStore extends AbstractCacheStore{
 			MultiFieldObject found = values.get(id);
 			if (found == null){
 				if (provider != null){
-					found = provider.load(id, true);
-					if (found != null){ // NOSONAR
-						synchronized (this){
-							values.put(id, found);
-						}					
-					}
+					//同一id的并发装入只执行一次
+					found = singleFlight.execute(id, new Callable<MultiFieldObject>(){
+						@Override
+						public MultiFieldObject call() {
+							MultiFieldObject loaded = provider.load(id, true);
+							if (loaded != null){ // NOSONAR
+								values.put(id, loaded);
+							}
+							return loaded;
+						}
+					});
 				}
 			}else{
 				hit = true;
@@ -114,6 +129,7 @@ public class HashCacheStore extends AbstractCacheStore{
 			xml.setAttribute("requestTimes", String.valueOf(requestTimes));
 			xml.setAttribute("hitTimes", String.valueOf(hitTimes));
 			xml.setAttribute("hitRate", df.format(getHitRate()));
+			xml.setAttribute("sharedTimes", String.valueOf(singleFlight.getSharedCnt()));
 		}
 	}
 
@@ -125,6 +141,7 @@ public class HashCacheStore extends AbstractCacheStore{
 			json.put("requestTimes", requestTimes);
 			json.put("hitTimes", hitTimes);
 			json.put("hitRate", df.format(getHitRate()));
+			json.put("sharedTimes", singleFlight.getSharedCnt());
 		}
 	}
 
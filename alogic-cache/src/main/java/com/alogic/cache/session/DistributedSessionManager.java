@@ -16,6 +16,8 @@ import com.logicbus.backend.Session;
  * 
  * @author duanyy
  *
+ * @version 1.6.10.12 [20171106 duanyy] <br>
+ * - 读取会话时不再加锁，只在创建会话时加锁 <br>
  */
 public class DistributedSessionManager extends CachedSessionManager {
 	/**
@@ -42,18 +44,24 @@ public class DistributedSessionManager extends CachedSessionManager {
 					if (cache == null){
 						cache = getCacheStore();
 					}
-					MultiFieldObject sessionObject = cache.get(sessionId, true);
-					if (sessionObject != null){
-						HttpSession httpSession = request.getSession(true);
-						session = new CachedSession(sessionObject,httpSession);
-					}else{
-						//不存在
-						HttpSession httpSession = request.getSession(create);
-						if (httpSession != null){
-							CachedSessionObject newObject = new CachedSessionObject(sessionId);
-							sessionObject = cache.set(sessionId, newObject);
-							session = new CachedSession(sessionObject,httpSession);
+				}
+				//读取会话时不再加锁，只在创建时加锁
+				MultiFieldObject sessionObject = cache.get(sessionId, true);
+				if (sessionObject != null){
+					HttpSession httpSession = request.getSession(true);
+					session = new CachedSession(sessionObject,httpSession);
+				}else{
+					//不存在
+					HttpSession httpSession = request.getSession(create);
+					if (httpSession != null){
+						synchronized (this){
+							sessionObject = cache.get(sessionId, true);
+							if (sessionObject == null){
+								CachedSessionObject newObject = new CachedSessionObject(sessionId);
+								sessionObject = cache.set(sessionId, newObject);
+							}
 						}
+						session = new CachedSession(sessionObject,httpSession);
 					}
 				}				
 			}else{
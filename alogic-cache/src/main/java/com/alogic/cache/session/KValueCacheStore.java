@@ -25,8 +25,13 @@ import com.logicbus.kvalue.core.Table;
 /**
  * 基于KValue的缓存实现
  * 
+ * <p>
+ * 可通过参数nearCache启用进程内的近端缓存，近端缓存的参数见{@link NearCache}.
+ * 
  * @author duanyy
  *
+ * @version 1.6.10.12 [20171106 duanyy] <br>
+ * - 增加可选的近端缓存，减少读取时的Redis交互次数，多个节点之间通过发布/订阅保持一致 <br>
  */
 public class KValueCacheStore extends AbstractCacheStore {
 	/**
@@ -57,6 +62,11 @@ public class KValueCacheStore extends AbstractCacheStore {
 	 */
 	protected int ttl = 24 * 60;
 	
+	/**
+	 * 近端缓存，未启用时为null
+	 */
+	protected NearCache<NearMultiFieldObject> nearCache = null;
+	
 	public long getRequestTimes(){return requestTimes;}	
 	
 	public long getHitTimes(){return hitTimes;}
@@ -75,6 +85,12 @@ public class KValueCacheStore extends AbstractCacheStore {
 			xml.setAttribute("requestTimes", String.valueOf(requestTimes));
 			xml.setAttribute("hitTimes", String.valueOf(hitTimes));
 			xml.setAttribute("hitRate", df.format(getHitRate()));
+			
+			if (nearCache != null){
+				Element near = xml.getOwnerDocument().createElement("near");
+				nearCache.report(near);
+				xml.appendChild(near);
+			}
 		}
 	}
 
@@ -85,6 +101,12 @@ public class KValueCacheStore extends AbstractCacheStore {
 			json.put("requestTimes", requestTimes);
 			json.put("hitTimes", hitTimes);
 			json.put("hitRate", df.format(getHitRate()));
+			
+			if (nearCache != null){
+				Map<String,Object> near = new HashMap<String,Object>();
+				nearCache.report(near);
+				json.put("near", near);
+			}
 		}
 	}	
 	
@@ -101,6 +123,9 @@ public class KValueCacheStore extends AbstractCacheStore {
 	public MultiFieldObject expire(String id) {
 		KValueMultiFieldObject object = getCachedObject(id);
 		object.expire();
+		if (nearCache != null){
+			nearCache.invalidate(id);
+		}
 		return null;
 	}
 
@@ -111,6 +136,9 @@ public class KValueCacheStore extends AbstractCacheStore {
 		if (newValue != null){
 			newValue.copyTo(object);
 		}
+		if (nearCache != null){
+			nearCache.invalidate(id);
+		}
 		
 		return object;
 	}
@@ -136,6 +164,15 @@ public class KValueCacheStore extends AbstractCacheStore {
 		boolean hit = false;
 		
 		try {
+			if (nearCache != null){
+				//先看看近端缓存中有没有
+				NearMultiFieldObject near = nearCache.get(id);
+				if (near != null){
+					hit = true;
+					return near;
+				}
+			}
+			
 			//先看看cache中有没有
 			KValueMultiFieldObject found = getCachedObject(id);
 
@@ -149,7 +186,15 @@ public class KValueCacheStore extends AbstractCacheStore {
 			}else{
 				hit = true;
 			}
-			return found.exists() ? found : null;
+			if (!found.exists()){
+				return null;
+			}
+			if (nearCache != null){
+				NearMultiFieldObject near = new NearMultiFieldObject(found,nearCache);
+				nearCache.put(id, near);
+				return near;
+			}
+			return found;
 		}finally{
 			visited(1,hit);
 		}
@@ -177,6 +222,13 @@ public class KValueCacheStore extends AbstractCacheStore {
 		if (setTable == null){
 			throw new BaseException("core.data_not_found","Can not find a kvalue table named " + setTableName);
 		}		
+		
+		if (PropertiesConstants.getBoolean(p, "nearCache", false)){
+			if (nearCache != null){
+				nearCache.close();
+			}
+			nearCache = new NearCache<NearMultiFieldObject>("alogic.cache.near." + id(),p);
+		}
 	}
 
 	/**
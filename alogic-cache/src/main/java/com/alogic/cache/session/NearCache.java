@@ -0,0 +1,325 @@
+package com.alogic.cache.session;
+
+import java.text.DecimalFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Reportable;
+import com.logicbus.redis.client.Client;
+import com.logicbus.redis.context.RedisPool;
+import com.logicbus.redis.context.RedisSource;
+import com.logicbus.redis.toolkit.PubSubTool;
+
+/**
+ * 进程内的近端缓存
+ *
+ * <p>
+ * 在本地缓存少量对象，数量有限，存活时间较短。对象修改时通过Redis的发布/订阅机制通知其他节点失效，
+ * 以保持多个节点之间的一致性。
+ *
+ * <p>
+ * 参数如下:<br>
+ * - nearCache.ttl : 本地对象的存活时间(毫秒)，缺省为5000 <br>
+ * - nearCache.maxObjects : 本地对象的最大个数，缺省为1024 <br>
+ * - nearCache.redis : 用于发布/订阅的Redis连接池id，缺省为default，不能为多路复用连接池 <br>
+ * - nearCache.channel : 失效通知的频道 <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.12
+ *
+ * @param <O> 缓存对象
+ */
+public class NearCache<O> implements AutoCloseable,Reportable{
+	/**
+	 * a slf4j logger
+	 */
+	protected static final Logger LOG = LoggerFactory.getLogger(NearCache.class);
+
+	/**
+	 * double数值格式化器
+	 */
+	private static final DecimalFormat DF = new DecimalFormat("#.0000");
+
+	/**
+	 * 本节点的id，用于忽略本节点发出的通知
+	 */
+	protected final String nodeId = UUID.randomUUID().toString();
+
+	protected long ttl = 5000L;
+
+	protected int maxObjects = 1024;
+
+	protected String redisId = "default";
+
+	protected String channel;
+
+	/**
+	 * 本地缓存的对象
+	 */
+	protected Map<String,Entry<O>> objects = new ConcurrentHashMap<String,Entry<O>>();
+
+	/**
+	 * 订阅线程
+	 */
+	protected Subscriber subscriber = null;
+
+	protected AtomicLong requestTimes = new AtomicLong(0);
+
+	protected AtomicLong hitTimes = new AtomicLong(0);
+
+	protected AtomicLong invalidateTimes = new AtomicLong(0);
+
+	protected AtomicLong evictedTimes = new AtomicLong(0);
+
+	public NearCache(String dftChannel,Properties p){
+		ttl = PropertiesConstants.getLong(p, "nearCache.ttl", ttl);
+		maxObjects = PropertiesConstants.getInt(p, "nearCache.maxObjects", maxObjects);
+		maxObjects = maxObjects <= 0 ? 1024 : maxObjects;
+		redisId = PropertiesConstants.getString(p, "nearCache.redis", redisId);
+		channel = PropertiesConstants.getString(p, "nearCache.channel", dftChannel);
+
+		subscriber = new Subscriber();
+		subscriber.start();
+	}
+
+	public double getHitRate(){
+		long request = requestTimes.get();
+		return request <= 0 ? 0 : (double)hitTimes.get() / request;
+	}
+
+	/**
+	 * 获取本地缓存的对象
+	 * @param id 对象id
+	 * @return 对象，如果不存在或已过期，返回为null
+	 */
+	public O get(String id){
+		requestTimes.incrementAndGet();
+		Entry<O> found = objects.get(id);
+		if (found != null){
+			if (System.currentTimeMillis() - found.timestamp < ttl){
+				hitTimes.incrementAndGet();
+				return found.value;
+			}
+			objects.remove(id);
+		}
+		return null;
+	}
+
+	/**
+	 * 缓存对象到本地
+	 * @param id 对象id
+	 * @param value 对象
+	 */
+	public void put(String id,O value){
+		if (objects.size() >= maxObjects){
+			evict();
+		}
+		objects.put(id, new Entry<O>(value));
+	}
+
+	/**
+	 * 本地失效
+	 * @param id 对象id
+	 */
+	public void remove(String id){
+		objects.remove(id);
+	}
+
+	/**
+	 * 本地失效，并通知其他节点
+	 * @param id 对象id
+	 */
+	public void invalidate(String id){
+		objects.remove(id);
+		RedisPool pool = getPool();
+		if (pool == null){
+			return ;
+		}
+		Client client = null;
+		boolean error = false;
+		try {
+			client = pool.getClient();
+			PubSubTool tool = (PubSubTool)client.getToolKit(PubSubTool.class);
+			tool.publish(channel, nodeId + ':' + id);
+		}catch (Exception ex){
+			error = true;
+			LOG.error("Failed to publish invalidation:" + id,ex);
+		}finally{
+			if (client != null){
+				pool.recycle(client, error);
+			}
+		}
+	}
+
+	/**
+	 * 淘汰过期对象，如果仍然超出，淘汰最早的对象
+	 */
+	protected void evict(){
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String,Entry<O>>> iter = objects.entrySet().iterator();
+		String oldest = null;
+		long oldestTime = Long.MAX_VALUE;
+		while (iter.hasNext()){
+			Map.Entry<String,Entry<O>> entry = iter.next();
+			long timestamp = entry.getValue().timestamp;
+			if (now - timestamp >= ttl){
+				iter.remove();
+				evictedTimes.incrementAndGet();
+			}else if (timestamp < oldestTime){
+				oldestTime = timestamp;
+				oldest = entry.getKey();
+			}
+		}
+		if (objects.size() >= maxObjects && oldest != null){
+			objects.remove(oldest);
+			evictedTimes.incrementAndGet();
+		}
+	}
+
+	protected RedisPool getPool(){
+		RedisPool pool = RedisSource.get().getPool(redisId);
+		if (pool == null){
+			LOG.error("Can not find redis pool:" + redisId);
+		}
+		return pool;
+	}
+
+	@Override
+	public void close(){
+		if (subscriber != null){
+			subscriber.shutdown();
+			subscriber = null;
+		}
+		objects.clear();
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			xml.setAttribute("channel", channel);
+			xml.setAttribute("ttl", String.valueOf(ttl));
+			xml.setAttribute("objectCount", String.valueOf(objects.size()));
+			xml.setAttribute("maxObjects", String.valueOf(maxObjects));
+			xml.setAttribute("requestTimes", String.valueOf(requestTimes.get()));
+			xml.setAttribute("hitTimes", String.valueOf(hitTimes.get()));
+			xml.setAttribute("hitRate", DF.format(getHitRate()));
+			xml.setAttribute("invalidateTimes", String.valueOf(invalidateTimes.get()));
+			xml.setAttribute("evictedTimes", String.valueOf(evictedTimes.get()));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			json.put("channel", channel);
+			json.put("ttl", ttl);
+			json.put("objectCount", objects.size());
+			json.put("maxObjects", maxObjects);
+			json.put("requestTimes", requestTimes.get());
+			json.put("hitTimes", hitTimes.get());
+			json.put("hitRate", DF.format(getHitRate()));
+			json.put("invalidateTimes", invalidateTimes.get());
+			json.put("evictedTimes", evictedTimes.get());
+		}
+	}
+
+	/**
+	 * 本地缓存项
+	 */
+	protected static class Entry<O>{
+		protected final O value;
+		protected final long timestamp = System.currentTimeMillis();
+
+		protected Entry(O value){
+			this.value = value;
+		}
+	}
+
+	/**
+	 * 失效通知的订阅线程
+	 *
+	 * <p>
+	 * 订阅期间占用连接池中的一个连接，出错时清空本地缓存并重新订阅.
+	 */
+	protected class Subscriber extends Thread implements PubSubTool.Listener{
+		protected volatile boolean running = true;
+		protected volatile PubSubTool tool = null;
+
+		protected Subscriber(){
+			super("near-cache-" + channel);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running){
+				RedisPool pool = getPool();
+				Client client = null;
+				boolean error = false;
+				try {
+					if (pool != null){
+						client = pool.getClient();
+						tool = (PubSubTool)client.getToolKit(PubSubTool.class);
+						tool.subscribe(this, channel);
+					}
+				}catch (Exception ex){
+					error = true;
+					if (running){
+						LOG.error("Near cache subscriber is broken,retry later:" + channel,ex);
+					}
+				}finally{
+					tool = null;
+					if (client != null){
+						pool.recycle(client, error);
+					}
+				}
+				//订阅中断期间可能错过通知
+				objects.clear();
+				if (running){
+					try {
+						Thread.sleep(5000);
+					}catch (InterruptedException ex){
+						break;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void onSubscribe(String channel) {
+			LOG.info("Near cache subscribed:" + channel);
+		}
+
+		@Override
+		public void onMessage(String channel, String message) {
+			int idx = message.indexOf(':');
+			if (idx > 0 && nodeId.equals(message.substring(0, idx))){
+				return ;
+			}
+			objects.remove(idx < 0 ? message : message.substring(idx + 1));
+			invalidateTimes.incrementAndGet();
+		}
+
+		protected void shutdown(){
+			running = false;
+			PubSubTool current = tool;
+			if (current != null){
+				try {
+					current.unsubscribe();
+				}catch (Exception ex){
+					// ignore
+				}
+			}
+			interrupt();
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package com.alogic.cache.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.w3c.dom.Element;
+
+import com.alogic.cache.core.MultiFieldObject;
+import com.alogic.cache.session.KValueCacheStore.KValueMultiFieldObject;
+
+/**
+ * 带近端缓存的KValue缓存对象
+ *
+ * <p>
+ * 首次读取时一次性装入hash和set的全部数据，之后的读操作在本地完成；写操作直接写入KValue，
+ * 同时更新本地数据，并通知其他节点失效.
+ *
+ * @author duanyy
+ * @since 1.6.10.12
+ */
+public class NearMultiFieldObject implements MultiFieldObject {
+	protected static final char SEPERATOR = KValueMultiFieldObject.SEPERATOR;
+
+	/**
+	 * KValue中的对象
+	 */
+	protected KValueMultiFieldObject inner;
+
+	/**
+	 * 近端缓存
+	 */
+	protected NearCache<NearMultiFieldObject> nearCache;
+
+	/**
+	 * hash数据的快照
+	 */
+	protected volatile Map<String,String> hash = null;
+
+	/**
+	 * set数据的快照
+	 */
+	protected volatile Set<String> set = null;
+
+	public NearMultiFieldObject(KValueMultiFieldObject inner,NearCache<NearMultiFieldObject> nearCache){
+		this.inner = inner;
+		this.nearCache = nearCache;
+	}
+
+	protected Map<String,String> hash(){
+		Map<String,String> found = hash;
+		if (found == null){
+			synchronized (this){
+				found = hash;
+				if (found == null){
+					found = new ConcurrentHashMap<String,String>(inner.hash.getAll());
+					hash = found;
+				}
+			}
+		}
+		inner.visited();
+		return found;
+	}
+
+	protected Set<String> set(){
+		Set<String> found = set;
+		if (found == null){
+			synchronized (this){
+				found = set;
+				if (found == null){
+					found = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+					found.addAll(inner.set.getAll());
+					set = found;
+				}
+			}
+		}
+		inner.visited();
+		return found;
+	}
+
+	protected void updateHash(String key,String value){
+		Map<String,String> found = hash;
+		if (found != null){
+			if (value == null){
+				found.remove(key);
+			}else{
+				found.put(key, value);
+			}
+		}
+	}
+
+	/**
+	 * 数据已修改，通知其他节点
+	 */
+	protected void changed(){
+		nearCache.invalidate(getId());
+		nearCache.put(getId(), this);
+	}
+
+	@Override
+	public String getId() {
+		return inner.getId();
+	}
+
+	@Override
+	public boolean isExpired() {
+		return inner.isExpired();
+	}
+
+	@Override
+	public void expire() {
+		inner.expire();
+		nearCache.invalidate(getId());
+	}
+
+	@Override
+	public void toXML(Element e) {
+		inner.toXML(e);
+	}
+
+	@Override
+	public void fromXML(Element e) {
+		inner.fromXML(e);
+	}
+
+	@Override
+	public void toJson(Map<String, Object> json) {
+		inner.toJson(json);
+	}
+
+	@Override
+	public void fromJson(Map<String, Object> json) {
+		inner.fromJson(json);
+	}
+
+	@Override
+	public String getValue(String varName, Object context, String defaultValue) {
+		String value = hash().get(SEPERATOR + varName);
+		return value == null ? defaultValue : value;
+	}
+
+	@Override
+	public String getRawValue(String varName, Object context, String dftValue) {
+		return getValue(varName,context,dftValue);
+	}
+
+	@Override
+	public Object getContext(String varName) {
+		return this;
+	}
+
+	@Override
+	public void setField(String key, String value) {
+		inner.setField(key, value);
+		updateHash(SEPERATOR + key, value);
+		changed();
+	}
+
+	@Override
+	public String getField(String key, String dftValue) {
+		String value = hash().get(SEPERATOR + key);
+		return value == null ? dftValue : value;
+	}
+
+	@Override
+	public String hGet(String id, String field, String dftValue) {
+		String value = hash().get(id + SEPERATOR + field);
+		return value == null ? dftValue : value;
+	}
+
+	@Override
+	public void hSet(String id, String field, String value) {
+		inner.hSet(id, field, value);
+		updateHash(id + SEPERATOR + field, value);
+		changed();
+	}
+
+	@Override
+	public boolean hExist(String id, String field) {
+		return hash().containsKey(id + SEPERATOR + field);
+	}
+
+	@Override
+	public Map<String, String> hGetAll(String id) {
+		Map<String,String> filtered = new HashMap<String,String>();
+		Iterator<Entry<String,String>> iterator = hash().entrySet().iterator();
+		while (iterator.hasNext()){
+			Entry<String,String> entry = iterator.next();
+			String key = entry.getKey();
+			if (inner.isField(key,id)){
+				filtered.put(inner.extractField(key), entry.getValue());
+			}
+		}
+		return filtered;
+	}
+
+	@Override
+	public int hLen(String id) {
+		int count = 0;
+		for (String key:hash().keySet()){
+			if (inner.isField(key,id)){
+				count ++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String[] hKeys(String id) {
+		List<String> keys = new ArrayList<String>();
+		for (String key:hash().keySet()){
+			if (inner.isField(key,id)){
+				keys.add(inner.extractField(key));
+			}
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	@Override
+	public String[] hValues(String id) {
+		List<String> values = new ArrayList<String>();
+		Iterator<Entry<String,String>> iterator = hash().entrySet().iterator();
+		while (iterator.hasNext()){
+			Entry<String,String> entry = iterator.next();
+			if (inner.isField(entry.getKey(),id)){
+				values.add(entry.getValue());
+			}
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	@Override
+	public void sAdd(String id, String... member) {
+		inner.sAdd(id, member);
+		if (set != null){
+			for (String m:member){
+				set.add(id + SEPERATOR + m);
+			}
+		}
+		changed();
+	}
+
+	@Override
+	public void sDel(String id, String... member) {
+		inner.sDel(id, member);
+		if (set != null){
+			for (String m:member){
+				set.remove(id + SEPERATOR + m);
+			}
+		}
+		changed();
+	}
+
+	@Override
+	public int sSize(String id) {
+		int count = 0;
+		for (String m:set()){
+			if (inner.isField(m,id)){
+				count ++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String[] sMembers(String id) {
+		List<String> members = new ArrayList<String>();
+		for (String m:set()){
+			if (inner.isField(m,id)){
+				members.add(inner.extractField(m));
+			}
+		}
+		return members.toArray(new String[members.size()]);
+	}
+
+	@Override
+	public boolean sExist(String id, String member) {
+		return set().contains(id + SEPERATOR + member);
+	}
+
+	@Override
+	public void del(String id) {
+		inner.del(id);
+		if (hash != null){
+			hash.remove(SEPERATOR + id);
+		}
+		changed();
+	}
+
+	@Override
+	public void copyTo(MultiFieldObject another) {
+		inner.copyTo(another);
+	}
+
+	@Override
+	public long getLastVisitedTime() {
+		return inner.getLastVisitedTime();
+	}
+
+	@Override
+	public String[] keys() {
+		return hKeys("");
+	}
+
+	@Override
+	public int count() {
+		return hLen("");
+	}
+}
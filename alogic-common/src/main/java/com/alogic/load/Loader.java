@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
@@ -20,6 +21,7 @@ import com.anysoft.util.Factory;
 import com.anysoft.util.IOTools;
 import com.anysoft.util.JsonTools;
 import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
 import com.anysoft.util.Settings;
 import com.anysoft.util.XmlElementProperties;
 import com.anysoft.util.Reportable;
@@ -37,6 +39,9 @@ import com.anysoft.util.resource.ResourceFactory;
  * 
  * @version 1.6.7.9 [20170201 duanyy] <br>
  * - 采用SLF4j日志框架输出日志 <br>
+ * 
+ * @version 1.6.10.11 [20171103 duanyy] <br>
+ * - Cached按id合并并发装入，增加后台刷新和出错时返回过期对象的功能 <br>
  */
 public interface Loader<O extends Loadable> extends Configurable,XMLConfigurable,Reportable{
 	
@@ -206,7 +211,17 @@ public interface Loader<O extends Loadable> extends Configurable,XMLConfigurable
 	
 	/**
 	 * 缓存过的
+	 * 
+	 * <p>
+	 * 同一id的并发装入只执行一次，不同id之间互不阻塞；可通过下列参数进行配置: <br>
+	 * - loader.refreshAhead : 对象装入超过该时间(毫秒)后，在访问时进行后台刷新，缺省为0，即不刷新 <br>
+	 * - loader.serveStale : 对象过期后重新装入出错时，是否返回过期的对象，缺省为false <br>
+	 * 
 	 * @author duanyy
+	 * 
+	 * @version 1.6.10.11 [20171103 duanyy] <br>
+	 * - 按id合并并发装入，不再对整个Loader加锁 <br>
+	 * - 增加后台刷新和出错时返回过期对象的功能 <br>
 	 *
 	 * @param <O>
 	 */
@@ -214,38 +229,129 @@ public interface Loader<O extends Loadable> extends Configurable,XMLConfigurable
 		/**
 		 * 缓存的对象
 		 */
-		private Map<String,O> cachedObjects = new ConcurrentHashMap<String,O>();
+		private Map<String,Entry<O>> cachedObjects = new ConcurrentHashMap<String,Entry<O>>();
+		
+		/**
+		 * 按id合并的装入
+		 */
+		protected SingleFlight<O> singleFlight = new SingleFlight<O>();
+		
+		/**
+		 * 后台刷新的时间(毫秒)
+		 */
+		protected long refreshAhead = 0;
+		
+		/**
+		 * 出错时是否返回过期的对象
+		 */
+		protected boolean serveStale = false;
 		
 		@Override
-		public O load(String id, boolean cacheAllowed) {
-			O found = loadFromSelf(id,cacheAllowed);
-			if (found == null){
-				synchronized (this){
-					found = loadFromSelf(id,cacheAllowed);
-					if (found == null){
-						found = loadFromSink(id,cacheAllowed);
-						if (found != null){
-							cachedObjects.put(id, found);
+		public void configure(Properties p) {
+			super.configure(p);
+			refreshAhead = PropertiesConstants.getLong(p, "loader.refreshAhead", refreshAhead);
+			serveStale = PropertiesConstants.getBoolean(p, "loader.serveStale", serveStale);
+		}
+		
+		@Override
+		public O load(final String id, boolean cacheAllowed) {
+			if (!cacheAllowed){
+				return loadAndCache(id,false);
+			}
+			
+			final Entry<O> entry = cachedObjects.get(id);
+			if (entry != null && !entry.value.isExpired()){
+				if (refreshAhead > 0 && System.currentTimeMillis() - entry.timestamp >= refreshAhead){
+					singleFlight.refresh(id, new Callable<O>(){
+						@Override
+						public O call() {
+							try {
+								return loadAndCache(id,true);
+							}catch (RuntimeException ex){
+								LOG.warn("Failed to refresh object:" + id,ex);
+								return entry.value;
+							}
 						}
-					}
+					});
 				}
+				return entry.value;
 			}
 			
+			try {
+				return singleFlight.execute(id, new Callable<O>(){
+					@Override
+					public O call() {
+						return loadAndCache(id,true);
+					}
+				});
+			}catch (RuntimeException ex){
+				if (serveStale && entry != null){
+					LOG.warn("Failed to load object,the stale one is used:" + id,ex);
+					return entry.value;
+				}
+				throw ex;
+			}
+		}
+		
+		/**
+		 * 从sink中装入对象并缓存
+		 * @param id 对象id
+		 * @param cacheAllowed 是否允许缓存
+		 * @return 对象实例
+		 */
+		protected O loadAndCache(String id,boolean cacheAllowed){
+			O found = loadFromSink(id,cacheAllowed);
+			if (found != null){
+				cachedObjects.put(id, new Entry<O>(found));
+			}else{
+				cachedObjects.remove(id);
+			}
 			return found;
 		}
 		
 		@Override
 		protected O loadFromSelf(String id, boolean cacheAllowed) {
-			O found = null;
 			if (cacheAllowed){
-				found = cachedObjects.get(id);
-				if (found != null && found.isExpired()){
-					cachedObjects.remove(id);
-					found = null;
+				Entry<O> found = cachedObjects.get(id);
+				if (found != null && !found.value.isExpired()){
+					return found.value;
 				}
 			}
-			return found;
-		}	
+			return null;
+		}
+		
+		@Override
+		public void report(Element xml) {
+			if (xml != null){
+				super.report(xml);
+				XmlTools.setInt(xml, "cached", cachedObjects.size());
+				XmlTools.setLong(xml, "shared", singleFlight.getSharedCnt());
+				XmlTools.setLong(xml, "refresh", singleFlight.getRefreshCnt());
+			}
+		}
+
+		@Override
+		public void report(Map<String, Object> json) {
+			if (json != null){
+				super.report(json);
+				JsonTools.setInt(json, "cached", cachedObjects.size());
+				JsonTools.setLong(json, "shared", singleFlight.getSharedCnt());
+				JsonTools.setLong(json, "refresh", singleFlight.getRefreshCnt());
+			}
+		}
+		
+		/**
+		 * 缓存项
+		 */
+		protected static class Entry<O>{
+			protected final O value;
+			protected final long timestamp;
+			
+			protected Entry(O value){
+				this.value = value;
+				this.timestamp = System.currentTimeMillis();
+			}
+		}
 	}
 	
 	/**
@@ -0,0 +1,152 @@
+package com.alogic.load;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.anysoft.util.BaseException;
+
+/**
+ * 按key合并的装入
+ *
+ * <p>
+ * 同一key的并发装入只执行一次，其他调用者等待该次装入的结果，不同key之间互不阻塞.
+ * 同时提供后台刷新功能，刷新同样按key合并，刷新任务在共享的有界线程池中执行，队列满时放弃刷新.
+ *
+ * @author duanyy
+ * @since 1.6.10.11
+ *
+ * @param <V> 装入的对象类型
+ */
+public class SingleFlight<V> {
+
+	/**
+	 * 后台刷新线程池，所有实例共享
+	 */
+	protected static ThreadPoolExecutor refresher = null;
+
+	/**
+	 * 正在进行的装入
+	 */
+	protected ConcurrentHashMap<String,FutureTask<V>> flights = new ConcurrentHashMap<String,FutureTask<V>>();
+
+	/**
+	 * 合并的装入次数
+	 */
+	protected AtomicLong sharedCnt = new AtomicLong(0);
+
+	/**
+	 * 后台刷新次数
+	 */
+	protected AtomicLong refreshCnt = new AtomicLong(0);
+
+	public long getSharedCnt(){return sharedCnt.get();}
+
+	public long getRefreshCnt(){return refreshCnt.get();}
+
+	/**
+	 * 当前正在进行的装入数
+	 * @return 装入数
+	 */
+	public int getInflight(){return flights.size();}
+
+	/**
+	 * 装入指定key的对象
+	 *
+	 * <p>
+	 * 如果该key已经在装入中，等待其结果；否则在当前线程中执行装入.
+	 *
+	 * @param key key
+	 * @param loader 装入过程
+	 * @return 装入结果
+	 */
+	public V execute(String key,Callable<V> loader){
+		FutureTask<V> task = new FutureTask<V>(loader);
+		FutureTask<V> found = flights.putIfAbsent(key, task);
+		if (found == null){
+			found = task;
+			try {
+				task.run();
+			}finally{
+				flights.remove(key, task);
+			}
+		}else{
+			sharedCnt.incrementAndGet();
+		}
+		return get(found);
+	}
+
+	/**
+	 * 在后台刷新指定key的对象
+	 *
+	 * @param key key
+	 * @param loader 装入过程
+	 * @return 是否已提交，如果该key已经在装入中或者线程池已满，返回false
+	 */
+	public boolean refresh(final String key,Callable<V> loader){
+		final FutureTask<V> task = new FutureTask<V>(loader);
+		if (flights.putIfAbsent(key, task) != null){
+			return false;
+		}
+		try {
+			getRefresher().execute(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						task.run();
+					}finally{
+						flights.remove(key, task);
+					}
+				}
+			});
+			refreshCnt.incrementAndGet();
+			return true;
+		}catch (RejectedExecutionException ex){
+			flights.remove(key, task);
+			return false;
+		}
+	}
+
+	protected V get(FutureTask<V> task){
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BaseException("core.interrupted","Interrupted when waiting for loading.",e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException){
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error){
+				throw (Error)cause;
+			}
+			throw new BaseException("core.load_error",String.valueOf(cause),(Exception)cause);
+		}
+	}
+
+	protected static synchronized ThreadPoolExecutor getRefresher(){
+		if (refresher == null){
+			refresher = new ThreadPoolExecutor(2,2,60,TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(1024),new ThreadFactory(){
+				protected AtomicInteger seq = new AtomicInteger(0);
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r,"loader-refresher-" + seq.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			refresher.allowCoreThreadTimeOut(true);
+		}
+		return refresher;
+	}
+}
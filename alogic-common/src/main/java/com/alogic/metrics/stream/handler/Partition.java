@@ -0,0 +1,16 @@
+package com.alogic.metrics.stream.handler;
+
+import com.alogic.metrics.Fragment;
+import com.anysoft.stream.PartitionHandler;
+
+/**
+ * 按维度分区的分发处理器
+ * 
+ * @author duanyy
+ * @since 1.6.10.25
+ */
+public class Partition extends PartitionHandler<Fragment>{
+	public String getHandlerType(){
+		return "handler";
+	}
+}
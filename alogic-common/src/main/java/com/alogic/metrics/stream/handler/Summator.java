@@ -1,65 +1,135 @@
 package com.alogic.metrics.stream.handler;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.dom.Element;
 
 import com.alogic.metrics.Fragment;
 import com.anysoft.stream.Handler;
 import com.anysoft.stream.SlideHandler;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
 
 /**
  * 累加器
- * 
+ *
  * @author yyduan
  *
  * @since 1.6.6.13
  *
+ * @version 1.6.10.23 [20171201 duanyy] <br>
+ * - 按维度分段加锁累加，在flush时整体切换累加缓冲区(双缓冲)，避免flush前后的指标丢失或重复累计 <br>
+ * - 增加参数stripes，分段的数量，缺省为16 <br>
  */
 public class Summator extends SlideHandler<Fragment>{
-	protected Hashtable<String,Fragment> metrics = new Hashtable<String,Fragment>();
-	
+	/**
+	 * 当前的累加缓冲区
+	 */
+	protected volatile Buffer current = new Buffer(16);
+
+	/**
+	 * 分段的数量
+	 */
+	protected int stripes = 16;
+
+	@Override
+	protected void onConfigure(Element e, Properties p) {
+		super.onConfigure(e, p);
+		stripes = PropertiesConstants.getInt(p, "stripes", stripes, true);
+		current = new Buffer(stripes);
+	}
+
 	protected void incr(Fragment f){
-		String id = f.getStatsDimesion();
-		
-		Fragment found = metrics.get(id);
-		
-		if (found == null){
-			synchronized(metrics){
-				found = metrics.get(id);
-				if (found == null){
-					metrics.put(id, f);
-				}else{
-					found.incr(f);
+		while (true){
+			Buffer buffer = current;
+			buffer.writers.incrementAndGet();
+			try {
+				//如果在登记之前缓冲区已经被切换，转到新的缓冲区
+				if (buffer == current){
+					buffer.incr(f);
+					return;
 				}
+			}finally{
+				buffer.writers.decrementAndGet();
 			}
-		}else{
-			found.incr(f);
 		}
 	}
 
-	
+	@Override
 	protected void onHandle(Fragment _data,long t) {
 		incr(_data);
 	}
 
-	
+	@Override
 	protected void onFlush(long t) {
 		Handler<Fragment> handler = getSlidingHandler();
-		Iterator<Entry<String,Fragment>> iterator = metrics.entrySet().iterator();
-		
-		while (iterator.hasNext()){
-			Entry<String,Fragment> entry = iterator.next();
-			if (handler != null){
-				handler.handle(entry.getValue(),t);
-			}
+
+		//切换缓冲区
+		Buffer buffer = current;
+		current = new Buffer(stripes);
+
+		//等待正在写入旧缓冲区的线程完成
+		while (buffer.writers.get() > 0){
+			Thread.yield();
 		}
-		
+
 		if (handler != null){
+			for (Map<String,Fragment> stripe:buffer.stripes){
+				Iterator<Entry<String,Fragment>> iterator = stripe.entrySet().iterator();
+				while (iterator.hasNext()){
+					handler.handle(iterator.next().getValue(),t);
+				}
+			}
 			handler.flush(t);
 		}
-		
-		metrics.clear();
 	}
 
-}
\ No newline at end of file
+	/**
+	 * 累加缓冲区
+	 *
+	 * <p>按维度的hash分段，每段一个Map，累加时只锁定所在的段.
+	 *
+	 * @since 1.6.10.23
+	 */
+	protected static class Buffer {
+		/**
+		 * 正在写入的线程数
+		 */
+		protected final AtomicInteger writers = new AtomicInteger(0);
+
+		/**
+		 * 分段
+		 */
+		protected final Map<String,Fragment>[] stripes;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		protected Buffer(int size){
+			int n = 1;
+			while (n < size){
+				n <<= 1;
+			}
+			stripes = new Map[n];
+			for (int i = 0 ; i < n ; i ++){
+				stripes[i] = new HashMap<String,Fragment>();
+			}
+		}
+
+		protected void incr(Fragment f){
+			String id = f.getStatsDimesion();
+			int hash = id.hashCode();
+			Map<String,Fragment> stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+			synchronized (stripe){
+				Fragment found = stripe.get(id);
+				if (found == null){
+					stripe.put(id, f);
+				}else{
+					found.incr(f);
+				}
+			}
+		}
+	}
+}
@@ -27,6 +27,9 @@ import com.alogic.pool.CloseAware;
  * 
  * @version 1.6.9.9 [20170829 duanyy] <br>
  * - Pool的returnObject接口增加是否出错的参数 <br>
+ * 
+ * @version 1.6.10.7 [20171025 duanyy] <br>
+ * - 增加{@link #scanIdle(IdleChecker)}，以便子类对空闲对象进行检查 <br>
  */
 public abstract class Queued implements Pool,CloseAware {
 	/**
@@ -250,6 +253,58 @@ public abstract class Queued implements Pool,CloseAware {
 		}				
 	}
 
+	/**
+	 * 扫描空闲队列
+	 * 
+	 * <p>
+	 * 对当前空闲队列中的对象逐一进行检查，检查不通过的对象将被关闭.检查期间对象不在空闲队列中，不计入空闲个数;
+	 * 检查通过之后按空闲队列长度的限制重新归还.
+	 * 
+	 * @param checker 检查器
+	 * @return 被关闭的对象个数
+	 * 
+	 * @since 1.6.10.7
+	 */
+	protected int scanIdle(IdleChecker checker){
+		int closed = 0;
+		int count = idleCnt;
+		for (int i = 0 ; i < count ; i ++){
+			Object found = idleQueue.poll();
+			if (found == null){
+				break;
+			}
+			idleIncr(-1);
+			boolean keep = false;
+			try {
+				keep = checker.check(found);
+			}catch (Exception ex){
+				logger.error("Error when checking idle object",ex);
+			}
+			if (keep && idleCnt < idleQueueLength){
+				idleIncr(1);
+				idleQueue.offer(found);
+			}else{
+				close(found);
+				closed ++;
+			}
+		}
+		return closed;
+	}
+	
+	/**
+	 * 空闲对象检查器
+	 * 
+	 * @since 1.6.10.7
+	 */
+	public static interface IdleChecker {
+		/**
+		 * 检查空闲对象
+		 * @param pooled 空闲对象
+		 * @return 是否保留
+		 */
+		public boolean check(Object pooled);
+	}
+	
 	/**
 	 * 创建缓冲池对象
 	 * @return pooled
@@ -0,0 +1,96 @@
+package com.alogic.tlog.handler;
+
+import org.w3c.dom.Element;
+
+import com.alogic.tlog.TLog;
+import com.anysoft.stream.FileHandler;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+
+/**
+ * 直接写文件的tlog输出
+ * 
+ * <p>
+ * 输出格式和{@link Log4j}一致，但不经过日志框架，批量写出，支持按大小和时间滚动(参见{@link FileHandler}).
+ * 
+ * @author duanyy
+ * @since 1.6.10.26
+ */
+public class FileLogger extends FileHandler<TLog>{
+	
+	/**
+	 * 输出间隔符
+	 */
+	protected String delimeter = "%%";
+	
+	/**
+	 * 行间隔符
+	 */
+	protected String eol = "$$";
+	
+	/**
+	 * 应用
+	 */
+	protected String app;
+	
+	/**
+	 * 服务主机(ip:port)
+	 */
+	protected String hostPattern = "${server.ip}:${server.port}";
+	
+	protected String host = null;	
+	
+	@Override
+	protected void onConfigure(Element e, Properties p) {
+		super.onConfigure(e, p);
+		delimeter = PropertiesConstants.getString(p,"delimeter", delimeter);
+		eol = PropertiesConstants.getString(p,"eol", eol);
+		hostPattern = PropertiesConstants.getRaw(p,"host",hostPattern);
+		app = PropertiesConstants.getString(p, "app", "${server.app}");	
+	}
+
+	@Override
+	protected void format(TLog item, StringBuilder buf) {
+		if (host == null){
+			host = Settings.get().transform(hostPattern);
+		}
+		
+		buf.append(item.sn()).append(delimeter)
+		.append(item.order()).append(delimeter)
+		.append(app).append(delimeter)
+		.append(host).append(delimeter)
+		.append(item.type()).append(delimeter)
+		.append(item.method()).append(delimeter)
+		.append(item.startDate()).append(delimeter)
+		.append(item.duration()).append(delimeter)
+		.append(item.contentLength()).append(delimeter)
+		.append(item.code()).append(delimeter)
+		.append(item.parameter()).append(delimeter)
+		.append(item.keyword()).append(delimeter);
+		
+		String reason = item.reason();
+		if (reason != null){
+			for (int i = 0 ; i < reason.length() ; i ++){
+				char c = reason.charAt(i);
+				switch (c){
+				case '\r':
+					//windows下的\r\n替换为一个空格
+					if (i + 1 >= reason.length() || reason.charAt(i + 1) != '\n'){
+						buf.append(' ');
+					}
+					break;
+				case '\n':
+					buf.append(' ');
+					break;
+				case '|':
+					buf.append("&brvbar;");
+					break;
+				default:
+					buf.append(c);
+				}
+			}
+		}
+		buf.append(eol).append('\n');
+	}
+}
@@ -0,0 +1,15 @@
+package com.alogic.tlog.handler;
+
+import com.alogic.tlog.TLog;
+import com.anysoft.stream.PartitionHandler;
+
+/**
+ * 分区分发处理
+ * @author duanyy
+ * @since 1.6.10.25
+ */
+public class Partition extends PartitionHandler<TLog> {
+	public String getHandlerType(){
+		return "logger";
+	}
+}
@@ -26,6 +26,7 @@ import com.alogic.xscript.plugins.Duration;
 import com.alogic.xscript.plugins.Encrypt;
 import com.alogic.xscript.plugins.Except;
 import com.alogic.xscript.plugins.ForEach;
+import com.alogic.xscript.plugins.Fork;
 import com.alogic.xscript.plugins.Formula;
 import com.alogic.xscript.plugins.FromEnv;
 import com.alogic.xscript.plugins.FromSettings;
@@ -103,6 +104,9 @@ import com.anysoft.util.XmlElementProperties;
  * 
  * @version 1.6.10.1 [20170911 duanyy] <br>
  * - 增加incr,decr指令 <br>
+ * 
+ * @version 1.6.10.29 [20171215 duanyy] <br>
+ * - 增加fork指令 <br>
  */
 public abstract class AbstractLogiclet implements Logiclet,MetricsCollector{
 
@@ -189,6 +193,7 @@ public abstract class AbstractLogiclet implements Logiclet,MetricsCollector{
 	public static final String STMT_INCR = "incr";
 	public static final String STMT_DECR = "decr";
 	public static final String STMT_RAND = "rand";
+	public static final String STMT_FORK = "fork";
 	
 	protected static Handler<Fragment> metricsHandler = null;
 	
@@ -239,6 +244,7 @@ public abstract class AbstractLogiclet implements Logiclet,MetricsCollector{
 		staticModules.put(STMT_INCR,Incr.class);
 		staticModules.put(STMT_DECR, Decr.class);
 		staticModules.put(STMT_RAND, Rand.class);
+		staticModules.put(STMT_FORK, Fork.class);
 		
 		metricsHandler = MetricsHandlerFactory.getClientInstance();
 	}	
@@ -0,0 +1,482 @@
+package com.alogic.xscript;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.anysoft.util.DefaultProperties;
+import com.anysoft.util.IOTools;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Reportable;
+import com.anysoft.util.Settings;
+import com.anysoft.util.XmlElementProperties;
+import com.anysoft.util.XmlTools;
+import com.anysoft.util.resource.ResourceFactory;
+
+/**
+ * xscript异步执行线程池
+ *
+ * <p>
+ * 异步执行的插件(async,以及foreach,repeat的异步模式等)不再自行创建线程池，而是按名称共享有界的线程池，
+ * 线程池在XRC文件中统一配置，配置文件由环境变量xscript.executor.master(xscript.executor.secondary)指定，例如：<br>
+ * {@code <executors>} <br>
+ * {@code 	<executor id="default" threads="16" queueLength="1024" keepAlive="60000" policy="callerRuns"/>} <br>
+ * {@code </executors>} <br>
+ * 参数如下：<br>
+ * - threads : 最大线程数，缺省为16; <br>
+ * - queueLength : 等待队列长度，缺省为1024，为0时不排队; <br>
+ * - keepAlive : 空闲线程的存活时间(ms)，缺省为60000; <br>
+ * - policy : 线程池满时的处理策略，abort(拒绝，任务不执行),callerRuns(在调用线程中执行)，缺省为callerRuns; <br>
+ *
+ * <p>
+ * 未配置的名称使用default线程池，如果未配置default，按缺省参数创建.
+ * 在线程池的工作线程中再次提交的任务(嵌套的异步块)直接在当前线程中执行，避免线程池被等待中的任务占满而死锁.
+ *
+ * @author duanyy
+ * @since 1.6.10.28
+ */
+public class AsyncExecutor implements Reportable,AutoCloseable{
+	protected static final Logger LOG = LoggerFactory.getLogger(AsyncExecutor.class);
+
+	/**
+	 * 缺省配置文件
+	 */
+	public static final String DEFAULT =
+			"java:///com/alogic/xscript/xscript.executor.default.xml#" + AsyncExecutor.class.getName();
+
+	/**
+	 * 缺省线程池的名称
+	 */
+	public static final String DEFAULT_ID = "default";
+
+	/**
+	 * 线程池满时的处理策略
+	 */
+	public static enum Policy {
+		abort,
+		callerRuns
+	}
+
+	/**
+	 * 名称
+	 */
+	protected String id;
+
+	protected Policy policy = Policy.callerRuns;
+
+	protected ThreadPoolExecutor executor = null;
+
+	/**
+	 * 提交的任务数
+	 */
+	protected final AtomicLong submitted = new AtomicLong(0);
+
+	/**
+	 * 被拒绝的任务数
+	 */
+	protected final AtomicLong rejected = new AtomicLong(0);
+
+	/**
+	 * 在调用线程中执行的任务数
+	 */
+	protected final AtomicLong callerRuns = new AtomicLong(0);
+
+	/**
+	 * 等待超时的次数
+	 */
+	protected final AtomicLong timeouts = new AtomicLong(0);
+
+	public AsyncExecutor(String id,Properties p){
+		this.id = id;
+		int threads = PropertiesConstants.getInt(p, "threads", 16);
+		threads = threads <= 0 ? 16 : threads;
+		int queueLength = PropertiesConstants.getInt(p, "queueLength", 1024);
+		long keepAlive = PropertiesConstants.getLong(p, "keepAlive", 60000L);
+		String value = PropertiesConstants.getString(p, "policy", policy.name());
+		try {
+			policy = Policy.valueOf(value);
+		}catch (IllegalArgumentException ex){
+			LOG.error("Unknown executor policy:" + value + ",use callerRuns instead.");
+			policy = Policy.callerRuns;
+		}
+
+		BlockingQueue<Runnable> queue = queueLength > 0 ? new ArrayBlockingQueue<Runnable>(queueLength)
+				: new SynchronousQueue<Runnable>();
+		executor = new ThreadPoolExecutor(threads,threads,keepAlive,TimeUnit.MILLISECONDS,queue,
+				new WorkerThreadFactory(this),new RejectedExecutionHandler(){
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+				rejected.incrementAndGet();
+				throw new RejectedExecutionException("The xscript executor is full:" + AsyncExecutor.this.id);
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+
+		LOG.info(String.format("Xscript executor %s is created,threads=%d,queueLength=%d,policy=%s",
+				id,threads,queueLength,policy.name()));
+	}
+
+	public String getId(){
+		return id;
+	}
+
+	/**
+	 * 提交任务
+	 *
+	 * <p>
+	 * 当线程池已满时，按policy处理：callerRuns策略在当前线程中执行任务，其他策略返回null.
+	 *
+	 * @param task 任务
+	 * @return Future，如果任务被拒绝，返回null
+	 */
+	public Future<?> submit(Runnable task){
+		submitted.incrementAndGet();
+		if (isWorkerThread()){
+			//嵌套提交，直接在当前线程执行
+			return runInCaller(task);
+		}
+		try {
+			return executor.submit(task);
+		}catch (RejectedExecutionException ex){
+			if (policy == Policy.callerRuns){
+				return runInCaller(task);
+			}
+			LOG.warn(ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 将任务放入线程池，不在当前线程中执行
+	 *
+	 * <p>
+	 * 和{@link #submit(Runnable)}不同，任务总是放入线程池排队，即使在工作线程中调用也不在当前线程中执行;
+	 * 仅当线程池拒绝(已满)时返回null，由调用者自行决定如何执行(例如fork在等待期间自行执行尚未开始的分支).
+	 *
+	 * @param task 任务
+	 * @return Future，如果线程池拒绝，返回null
+	 */
+	public Future<?> offer(Runnable task){
+		submitted.incrementAndGet();
+		try {
+			return executor.submit(task);
+		}catch (RejectedExecutionException ex){
+			return null;
+		}
+	}
+
+	/**
+	 * 记录在调用线程中执行的任务
+	 */
+	public void ranInCaller(){
+		callerRuns.incrementAndGet();
+	}
+
+	protected Future<?> runInCaller(Runnable task){
+		callerRuns.incrementAndGet();
+		FutureTask<Object> future = new FutureTask<Object>(task,null);
+		future.run();
+		return future;
+	}
+
+	/**
+	 * 当前线程是否为本线程池的工作线程
+	 * @return 是否工作线程
+	 */
+	protected boolean isWorkerThread(){
+		Thread thread = Thread.currentThread();
+		return thread instanceof WorkerThread && ((WorkerThread)thread).owner == this;
+	}
+
+	/**
+	 * 创建一组并行任务
+	 * @param count 任务数
+	 * @return 并行任务
+	 */
+	public Join newJoin(int count){
+		return new Join(this,count);
+	}
+
+	/**
+	 * 最大线程数
+	 * @return 线程数
+	 */
+	public int getMaximumPoolSize(){
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * 当前等待的任务数
+	 * @return 任务数
+	 */
+	public int getQueueDepth(){
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public void close(){
+		executor.shutdown();
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			xml.setAttribute("id", id);
+			xml.setAttribute("policy", policy.name());
+			xml.setAttribute("maxThreads", String.valueOf(executor.getMaximumPoolSize()));
+			xml.setAttribute("threads", String.valueOf(executor.getPoolSize()));
+			xml.setAttribute("largestThreads", String.valueOf(executor.getLargestPoolSize()));
+			xml.setAttribute("active", String.valueOf(executor.getActiveCount()));
+			xml.setAttribute("queue", String.valueOf(getQueueDepth()));
+			xml.setAttribute("completed", String.valueOf(executor.getCompletedTaskCount()));
+			xml.setAttribute("submitted", String.valueOf(submitted.get()));
+			xml.setAttribute("rejected", String.valueOf(rejected.get()));
+			xml.setAttribute("callerRuns", String.valueOf(callerRuns.get()));
+			xml.setAttribute("timeout", String.valueOf(timeouts.get()));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			json.put("id", id);
+			json.put("policy", policy.name());
+			json.put("maxThreads", executor.getMaximumPoolSize());
+			json.put("threads", executor.getPoolSize());
+			json.put("largestThreads", executor.getLargestPoolSize());
+			json.put("active", executor.getActiveCount());
+			json.put("queue", getQueueDepth());
+			json.put("completed", executor.getCompletedTaskCount());
+			json.put("submitted", submitted.get());
+			json.put("rejected", rejected.get());
+			json.put("callerRuns", callerRuns.get());
+			json.put("timeout", timeouts.get());
+		}
+	}
+
+	/**
+	 * 一组并行任务
+	 *
+	 * <p>
+	 * 通过{@link #submit(Runnable)}提交的任务全部完成(包括被拒绝)之后，{@link #await(long, boolean)}返回.
+	 */
+	public static class Join {
+		protected AsyncExecutor executor;
+		protected CountDownLatch latch;
+		protected List<Future<?>> futures;
+
+		protected Join(AsyncExecutor executor,int count){
+			this.executor = executor;
+			this.latch = new CountDownLatch(count);
+			this.futures = new ArrayList<Future<?>>(count);
+		}
+
+		/**
+		 * 提交任务
+		 * @param task 任务
+		 * @return 是否被接受
+		 */
+		public boolean submit(final Runnable task){
+			Future<?> future = executor.submit(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						task.run();
+					}finally{
+						latch.countDown();
+					}
+				}
+			});
+			if (future == null){
+				latch.countDown();
+				return false;
+			}
+			futures.add(future);
+			return true;
+		}
+
+		/**
+		 * 等待所有任务完成
+		 * @param timeout 超时时间(ms)
+		 * @param cancel 超时之后是否中断尚未完成的任务
+		 * @return 是否全部完成
+		 * @throws InterruptedException
+		 */
+		public boolean await(long timeout,boolean cancel) throws InterruptedException{
+			if (latch.await(timeout, TimeUnit.MILLISECONDS)){
+				return true;
+			}
+			executor.timeouts.incrementAndGet();
+			if (cancel){
+				for (Future<?> future:futures){
+					future.cancel(true);
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 工作线程
+	 */
+	public static class WorkerThread extends Thread{
+		protected AsyncExecutor owner;
+
+		public WorkerThread(AsyncExecutor owner,Runnable r,String name){
+			super(r,name);
+			this.owner = owner;
+			setDaemon(true);
+		}
+	}
+
+	/**
+	 * 工作线程工厂
+	 */
+	public static class WorkerThreadFactory implements ThreadFactory{
+		protected AsyncExecutor owner;
+		protected AtomicInteger seq = new AtomicInteger(0);
+
+		public WorkerThreadFactory(AsyncExecutor owner){
+			this.owner = owner;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new WorkerThread(owner,r,"xscript-" + owner.id + "-" + seq.incrementAndGet());
+		}
+	}
+
+	/**
+	 * 已创建的线程池，以名称为key
+	 */
+	protected static volatile Map<String,AsyncExecutor> executors = null;
+
+	/**
+	 * 获取缺省线程池
+	 * @return 线程池
+	 */
+	public static AsyncExecutor get(){
+		return get(DEFAULT_ID);
+	}
+
+	/**
+	 * 按名称获取线程池，如果未配置，返回缺省线程池
+	 * @param id 名称
+	 * @return 线程池
+	 */
+	public static AsyncExecutor get(String id){
+		Map<String,AsyncExecutor> found = getExecutors();
+		AsyncExecutor executor = found.get(id);
+		if (executor == null){
+			executor = found.get(DEFAULT_ID);
+			if (executor == null){
+				synchronized (AsyncExecutor.class){
+					executor = found.get(DEFAULT_ID);
+					if (executor == null){
+						executor = new AsyncExecutor(DEFAULT_ID,new DefaultProperties());
+						found.put(DEFAULT_ID, executor);
+					}
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * 获取所有的线程池
+	 * @return 线程池列表
+	 */
+	public static Collection<AsyncExecutor> list(){
+		return getExecutors().values();
+	}
+
+	/**
+	 * 关闭所有的线程池
+	 */
+	public static synchronized void closeAll(){
+		if (executors != null){
+			for (AsyncExecutor executor:executors.values()){
+				executor.close();
+			}
+			executors = null;
+		}
+	}
+
+	protected static Map<String,AsyncExecutor> getExecutors(){
+		Map<String,AsyncExecutor> found = executors;
+		if (found == null){
+			synchronized (AsyncExecutor.class){
+				found = executors;
+				if (found == null){
+					Settings p = Settings.get();
+					String master = p.GetValue("xscript.executor.master", DEFAULT);
+					String secondary = p.GetValue("xscript.executor.secondary", DEFAULT);
+					found = loadFrom(master,secondary,p);
+					executors = found;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 从配置文件中装入线程池
+	 * @param master 主URL
+	 * @param secondary 备用URL
+	 * @param p 变量集
+	 * @return 线程池
+	 */
+	protected static Map<String,AsyncExecutor> loadFrom(String master,String secondary,Properties p){
+		Map<String,AsyncExecutor> result = new ConcurrentHashMap<String,AsyncExecutor>();
+		ResourceFactory rf = Settings.getResourceFactory();
+		InputStream in = null;
+		try {
+			in = rf.load(master,secondary, null);
+			Document doc = XmlTools.loadFromInputStream(in);
+			if (doc != null){
+				NodeList nodeList = XmlTools.getNodeListByPath(doc.getDocumentElement(), "executor");
+				for (int i = 0 ; i < nodeList.getLength() ; i ++){
+					Node n = nodeList.item(i);
+					if (n.getNodeType() != Node.ELEMENT_NODE){
+						continue;
+					}
+					Element e = (Element)n;
+					String id = e.getAttribute("id");
+					if (id == null || id.length() <= 0 || result.containsKey(id)){
+						continue;
+					}
+					result.put(id, new AsyncExecutor(id,new XmlElementProperties(e,p)));
+				}
+			}
+		}catch (Exception ex){
+			LOG.error("Error occurs when load xml file,source=" + master, ex);
+		}finally {
+			IOTools.closeStream(in);
+		}
+		return result;
+	}
+}
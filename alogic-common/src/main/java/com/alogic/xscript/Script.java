@@ -1,24 +1,19 @@
 package com.alogic.xscript;
 
-import java.io.InputStream;
-
 import org.apache.commons.lang3.StringUtils;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import com.alogic.xscript.log.Default;
 import com.alogic.xscript.log.LogInfo;
 import com.alogic.xscript.plugins.Segment;
-import com.anysoft.util.IOTools;
 import com.anysoft.util.Properties;
-import com.anysoft.util.Settings;
-import com.anysoft.util.XmlTools;
-import com.anysoft.util.resource.ResourceFactory;
 
 /**
  * Script
  * @author duanyy
  *
+ * @version 1.6.10.27 [20171211 duanyy] <br>
+ * - 按来源创建的脚本通过ScriptCache缓存，文件变化之后自动重新加载 <br>
  */
 public class Script extends Segment {
 	public Script(String tag, Logiclet p) {
@@ -61,6 +56,10 @@ public class Script extends Segment {
 	
 	/**
 	 * 根据XML配置文件的位置创建服务脚本
+	 * 
+	 * <p>
+	 * 通过{@link ScriptCache}缓存，同一来源和变量集返回同一脚本实例.
+	 * 
 	 * @param src XML配置文件位置
 	 * @param p 变量集
 	 * @return 脚本实例
@@ -69,44 +68,28 @@ public class Script extends Segment {
 		Script script = null;
 		
 		if (StringUtils.isNotBlank(src)){
-			ResourceFactory resourceFactory = Settings.getResourceFactory();
-			InputStream in = null;
-			try {
-				in = resourceFactory.load(src,null);
-				Document doc = XmlTools.loadFromInputStream(in);
-				
-				if (doc != null){
-					script = new Script("script",null);
-					script.configure(doc.getDocumentElement(), p);
-				}
-			}catch (Exception ex){
-				logger.error("The config file is not a valid file,url = " + src,ex);
-			}finally{
-				IOTools.close(in);
-			}			
+			script = ScriptCache.get().getScript(src, p);
 		}
 		
 		return script;		
 	}
 	
+	/**
+	 * 根据类的资源创建服务脚本
+	 * 
+	 * <p>
+	 * 通过{@link ScriptCache}缓存，同一来源和变量集返回同一脚本实例.
+	 * 
+	 * @param bootstrap 类名
+	 * @param path 资源路径
+	 * @param p 变量集
+	 * @return 脚本实例
+	 */
 	public static Script create(String bootstrap,String path,Properties p){
 		Script script = null;
 		
 		if (StringUtils.isNotBlank(bootstrap)){
-			InputStream in = null;
-			try {
-				Class<?> clazz = Settings.getClassLoader().loadClass(bootstrap);
-				in = clazz.getResourceAsStream(path);
-				Document doc = XmlTools.loadFromInputStream(in);
-				if (doc != null){
-					script = new Script("script",null);
-					script.configure(doc.getDocumentElement(), p);
-				}
-			}catch (Exception ex){
-				logger.error("The config file is not a valid file,url = " + path + "#" + bootstrap,ex);
-			}finally{
-				IOTools.close(in);
-			}			
+			script = ScriptCache.get().getScript(bootstrap, path, p);
 		}
 		
 		return script;			
@@ -0,0 +1,535 @@
+package com.alogic.xscript;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.anysoft.util.IOTools;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Reportable;
+import com.anysoft.util.Settings;
+import com.anysoft.util.XmlTools;
+import com.anysoft.util.resource.ResourceFactory;
+
+/**
+ * 脚本缓存
+ *
+ * <p>
+ * 按脚本的来源缓存解析之后的XML文档，以及在同一变量集下配置完成的脚本({@link Script})：<br>
+ * - 同一来源，同一变量集(按对象判断)再次创建时直接返回已配置的脚本; <br>
+ * - 同一来源，不同的变量集，复用已解析的文档，只重新配置; <br>
+ * - {@link com.alogic.xscript.plugins.Include}所包含的文档同样被缓存; <br>
+ *
+ * <p>
+ * 如果来源对应本地文件(file或者位于目录中的classpath资源)，按修改时间检查文件是否变化，变化之后重新加载.
+ * 为了避免频繁访问文件系统，检查的最小间隔为xscript.cache.checkInterval(ms,缺省为5000,小于等于0时不检查).
+ * 通过xscript.cache.enable=false可以关闭缓存.
+ *
+ * <p>
+ * 配置脚本期间通过Include加载的文档被记录为脚本的依赖，任何一个依赖的文档重新加载之后，脚本都会重新配置.
+ *
+ * <p>
+ * 频繁获取同一脚本的调用者(例如服务)可以先通过{@link #getSource(String)}获取来源，再通过{@link #getScript(Source, Properties)}
+ * 获取脚本，避免每次计算缓存的key.
+ *
+ * <p>
+ * 脚本在执行期间不修改自身的配置，可以被多个线程同时执行，因此可以在多个调用者之间共享.
+ *
+ * @author duanyy
+ * @since 1.6.10.27
+ */
+public class ScriptCache implements Reportable{
+	protected static final Logger LOG = LoggerFactory.getLogger(ScriptCache.class);
+
+	/**
+	 * 是否启用
+	 */
+	protected boolean enable = true;
+
+	/**
+	 * 检查文件变化的最小间隔
+	 */
+	protected long checkInterval = 5000L;
+
+	/**
+	 * 文档缓存
+	 */
+	protected Map<String,Source> sources = new ConcurrentHashMap<String,Source>();
+
+	/**
+	 * 当前线程正在配置的脚本所依赖的文档
+	 */
+	protected static final ThreadLocal<List<Dependency>> dependencies = new ThreadLocal<List<Dependency>>();
+
+	/**
+	 * 脚本缓存命中次数
+	 */
+	protected final AtomicLong hits = new AtomicLong(0);
+
+	/**
+	 * 脚本缓存未命中次数
+	 */
+	protected final AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * 配置脚本的次数
+	 */
+	protected final AtomicLong compiles = new AtomicLong(0);
+
+	/**
+	 * 加载文档的次数
+	 */
+	protected final AtomicLong loads = new AtomicLong(0);
+
+	/**
+	 * 由于文件变化而重新加载的次数
+	 */
+	protected final AtomicLong reloads = new AtomicLong(0);
+
+	public ScriptCache(Properties p){
+		enable = PropertiesConstants.getBoolean(p, "xscript.cache.enable", enable);
+		checkInterval = PropertiesConstants.getLong(p, "xscript.cache.checkInterval", checkInterval);
+	}
+
+	/**
+	 * 按ResourceFactory的URL获取脚本
+	 * @param src 脚本的URL
+	 * @param p 变量集
+	 * @return 脚本，如果加载失败，返回null
+	 */
+	public Script getScript(String src,Properties p){
+		return getScript(getSource(src),p);
+	}
+
+	/**
+	 * 按类的资源获取脚本
+	 * @param bootstrap 类名
+	 * @param path 资源路径
+	 * @param p 变量集
+	 * @return 脚本，如果加载失败，返回null
+	 */
+	public Script getScript(String bootstrap,String path,Properties p){
+		return getScript(getClassSource(bootstrap,path),p);
+	}
+
+	/**
+	 * 按ResourceFactory的URL获取脚本来源
+	 * @param src 脚本的URL
+	 * @return 脚本来源
+	 */
+	public Source getSource(String src){
+		return getSource(src,null);
+	}
+
+	/**
+	 * 按类的资源获取脚本来源
+	 * @param bootstrap 类名
+	 * @param path 资源路径
+	 * @return 脚本来源
+	 */
+	public Source getClassSource(String bootstrap,String path){
+		String key = path + "#" + bootstrap;
+		Source source = enable ? sources.get(key) : null;
+		if (source == null){
+			source = new ClassSource(key,bootstrap,path);
+			if (enable){
+				sources.put(key, source);
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * 获取已解析的文档
+	 * @param src 文档的URL
+	 * @param secondary 备用的URL
+	 * @return 文档，如果加载失败，返回null
+	 */
+	public Document getDocument(String src,String secondary){
+		Source source = getSource(src,secondary);
+		Document doc = source.getDocument(this);
+		List<Dependency> deps = dependencies.get();
+		if (deps != null && doc != null){
+			deps.add(new Dependency(source,doc));
+		}
+		return doc;
+	}
+
+	protected Source getSource(String src,String secondary){
+		String key = secondary == null || secondary.length() <= 0 ? src : src + "|" + secondary;
+		Source source = enable ? sources.get(key) : null;
+		if (source == null){
+			source = new Source(key,src,secondary);
+			if (enable){
+				sources.put(key, source);
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * 按来源获取脚本
+	 * @param source 脚本来源
+	 * @param p 变量集
+	 * @return 脚本，如果加载失败，返回null
+	 */
+	public Script getScript(Source source,Properties p){
+		Document doc = source.getDocument(this);
+		if (doc == null){
+			return null;
+		}
+		if (!enable){
+			misses.incrementAndGet();
+			return compile(doc,p).script;
+		}
+
+		Compiled found = source.last;
+		if (found == null || found.props.get() != p){
+			found = source.scripts.get(System.identityHashCode(p));
+		}
+		if (found != null && found.props.get() == p && found.isValid(this,doc)){
+			source.last = found;
+			hits.incrementAndGet();
+			return found.script;
+		}
+
+		misses.incrementAndGet();
+		Compiled compiled = compile(doc,p);
+		purge();
+		source.scripts.put(System.identityHashCode(p), compiled);
+		source.last = compiled;
+		return compiled.script;
+	}
+
+	/**
+	 * 根据文档配置脚本，同时记录配置期间加载的文档
+	 * @param doc 文档
+	 * @param p 变量集
+	 * @return 已配置的脚本
+	 */
+	protected Compiled compile(Document doc,Properties p){
+		compiles.incrementAndGet();
+		Script script = new Script("script",null);
+		List<Dependency> previous = dependencies.get();
+		List<Dependency> deps = new ArrayList<Dependency>();
+		dependencies.set(deps);
+		try {
+			//文档被多个线程共享，DOM的读取不保证线程安全
+			synchronized (doc){
+				script.configure(doc.getDocumentElement(), p);
+			}
+		}finally{
+			dependencies.set(previous);
+		}
+		if (previous != null){
+			//嵌套配置时，外层的脚本同样依赖这些文档
+			previous.addAll(deps);
+		}
+		return new Compiled(doc,p,script,deps.toArray(new Dependency[deps.size()]));
+	}
+
+	/**
+	 * 清除变量集已被回收的脚本
+	 */
+	protected void purge(){
+		for (Source source:sources.values()){
+			Iterator<Compiled> iterator = source.scripts.values().iterator();
+			while (iterator.hasNext()){
+				if (iterator.next().props.get() == null){
+					iterator.remove();
+				}
+			}
+			Compiled last = source.last;
+			if (last != null && last.props.get() == null){
+				source.last = null;
+			}
+		}
+	}
+
+	/**
+	 * 清除所有缓存
+	 */
+	public void clear(){
+		sources.clear();
+	}
+
+	/**
+	 * 已配置的脚本数
+	 * @return 脚本数
+	 */
+	public int getScriptCount(){
+		int count = 0;
+		for (Source source:sources.values()){
+			count += source.scripts.size();
+		}
+		return count;
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			xml.setAttribute("module", getClass().getName());
+			xml.setAttribute("enable", Boolean.toString(enable));
+			xml.setAttribute("checkInterval", String.valueOf(checkInterval));
+			xml.setAttribute("sources", String.valueOf(sources.size()));
+			xml.setAttribute("scripts", String.valueOf(getScriptCount()));
+			xml.setAttribute("hits", String.valueOf(hits.get()));
+			xml.setAttribute("misses", String.valueOf(misses.get()));
+			xml.setAttribute("hitRate", String.valueOf(getHitRate()));
+			xml.setAttribute("compiles", String.valueOf(compiles.get()));
+			xml.setAttribute("loads", String.valueOf(loads.get()));
+			xml.setAttribute("reloads", String.valueOf(reloads.get()));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			json.put("module", getClass().getName());
+			json.put("enable", enable);
+			json.put("checkInterval", checkInterval);
+			json.put("sources", sources.size());
+			json.put("scripts", getScriptCount());
+			json.put("hits", hits.get());
+			json.put("misses", misses.get());
+			json.put("hitRate", getHitRate());
+			json.put("compiles", compiles.get());
+			json.put("loads", loads.get());
+			json.put("reloads", reloads.get());
+		}
+	}
+
+	/**
+	 * 命中率(百分比)
+	 * @return 命中率
+	 */
+	public double getHitRate(){
+		long h = hits.get();
+		long total = h + misses.get();
+		return total <= 0 ? 0 : Math.round(h * 10000.0 / total) / 100.0;
+	}
+
+	/**
+	 * 已配置的脚本
+	 */
+	protected static class Compiled {
+		protected final Document doc;
+		protected final WeakReference<Properties> props;
+		protected final Script script;
+
+		/**
+		 * 配置期间所包含的文档
+		 */
+		protected final Dependency[] deps;
+
+		protected Compiled(Document doc,Properties p,Script script,Dependency[] deps){
+			this.doc = doc;
+			this.props = new WeakReference<Properties>(p);
+			this.script = script;
+			this.deps = deps;
+		}
+
+		/**
+		 * 脚本的文档以及所包含的文档是否都未重新加载
+		 * @param cache 缓存
+		 * @param current 脚本当前的文档
+		 * @return 是否有效
+		 */
+		protected boolean isValid(ScriptCache cache,Document current){
+			if (doc != current){
+				return false;
+			}
+			for (Dependency dep:deps){
+				if (dep.source.getDocument(cache) != dep.doc){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 所依赖的文档
+	 */
+	protected static class Dependency {
+		protected final Source source;
+
+		/**
+		 * 配置时的文档，文档重新加载之后为新的对象
+		 */
+		protected final Document doc;
+
+		protected Dependency(Source source,Document doc){
+			this.source = source;
+			this.doc = doc;
+		}
+	}
+
+	/**
+	 * 脚本来源
+	 */
+	public static class Source {
+		protected final String key;
+		protected final String src;
+		protected final String secondary;
+
+		/**
+		 * 按变量集(identityHashCode)缓存的已配置脚本
+		 */
+		protected final Map<Integer,Compiled> scripts = new ConcurrentHashMap<Integer,Compiled>();
+
+		/**
+		 * 最近一次命中的脚本
+		 */
+		protected volatile Compiled last = null;
+
+		/**
+		 * 已解析的文档
+		 */
+		protected volatile Document doc = null;
+
+		/**
+		 * 对应的本地文件，如果不是本地文件，为null
+		 */
+		protected File file = null;
+
+		/**
+		 * 加载时文件的修改时间
+		 */
+		protected long lastModified = 0;
+
+		/**
+		 * 上次检查的时间
+		 */
+		protected volatile long lastChecked = 0;
+
+		protected Source(String key,String src,String secondary){
+			this.key = key;
+			this.src = src;
+			this.secondary = secondary;
+		}
+
+		protected Document getDocument(ScriptCache cache){
+			Document current = doc;
+			if (current != null && !isModified(cache.checkInterval)){
+				return current;
+			}
+			synchronized (this){
+				//如果其他线程已经重新加载，直接返回
+				if (doc == current){
+					if (current != null){
+						cache.reloads.incrementAndGet();
+					}
+					cache.loads.incrementAndGet();
+					Document loaded = load();
+					if (loaded != null || doc == null){
+						doc = loaded;
+					}
+				}
+				return doc;
+			}
+		}
+
+		protected boolean isModified(long checkInterval){
+			if (file == null || checkInterval <= 0){
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			if (now - lastChecked < checkInterval){
+				return false;
+			}
+			lastChecked = now;
+			return file.lastModified() != lastModified;
+		}
+
+		protected Document load(){
+			ResourceFactory resourceFactory = Settings.getResourceFactory();
+			InputStream in = null;
+			try {
+				file = toFile(resourceFactory,src);
+				lastModified = file == null ? 0 : file.lastModified();
+				lastChecked = System.currentTimeMillis();
+				in = secondary == null || secondary.length() <= 0 ? 
+						resourceFactory.load(src, null) : resourceFactory.load(src, secondary, null);
+				return XmlTools.loadFromInputStream(in);
+			}catch (Exception ex){
+				LOG.error("The config file is not a valid file,url = " + src,ex);
+				return null;
+			}finally{
+				IOTools.close(in);
+			}
+		}
+
+		protected static File toFile(ResourceFactory resourceFactory,String src){
+			try {
+				return toFile(resourceFactory.createURL(src, null));
+			}catch (Exception ex){
+				//无法定位到文件，不检查变化
+				return null;
+			}
+		}
+
+		protected static File toFile(URL url){
+			if (url != null && "file".equals(url.getProtocol())){
+				try {
+					return new File(url.toURI());
+				}catch (Exception ex){
+					return new File(url.getPath());
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * 类资源的脚本来源
+	 */
+	public static class ClassSource extends Source{
+		protected final String bootstrap;
+
+		protected ClassSource(String key,String bootstrap,String path){
+			super(key,path,null);
+			this.bootstrap = bootstrap;
+		}
+
+		@Override
+		protected Document load(){
+			InputStream in = null;
+			try {
+				Class<?> clazz = Settings.getClassLoader().loadClass(bootstrap);
+				file = toFile(clazz.getResource(src));
+				lastModified = file == null ? 0 : file.lastModified();
+				lastChecked = System.currentTimeMillis();
+				in = clazz.getResourceAsStream(src);
+				return XmlTools.loadFromInputStream(in);
+			}catch (Exception ex){
+				LOG.error("The config file is not a valid file,url = " + src + "#" + bootstrap,ex);
+				return null;
+			}finally{
+				IOTools.close(in);
+			}
+		}
+	}
+
+	protected static ScriptCache instance = null;
+
+	public static synchronized ScriptCache get(){
+		if (instance == null){
+			instance = new ScriptCache(Settings.get());
+		}
+		return instance;
+	}
+}
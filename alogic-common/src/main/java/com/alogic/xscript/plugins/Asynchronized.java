@@ -1,14 +1,12 @@
 package com.alogic.xscript.plugins;
 
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import com.alogic.tracer.Tool;
 import com.alogic.tracer.TraceContext;
+import com.alogic.xscript.AsyncExecutor;
 import com.alogic.xscript.Block;
 import com.alogic.xscript.ExecuteWatcher;
 import com.alogic.xscript.Logiclet;
@@ -27,10 +25,13 @@ import com.anysoft.util.PropertiesConstants;
  * @version 1.6.10.2 [20170925 duanyy] <br>
  * - 采用私有线程池，可指定线程池大小，并且可关闭线程池 <br>
  * 
+ * @version 1.6.10.28 [20171213 duanyy] <br>
+ * - 不再为每次执行创建线程池，改为使用共享的有界线程池{@link AsyncExecutor}，通过async.executor指定名称; <br>
+ * - async.threadPoolSize不再生效;async.shutdownGracefully为false时，超时之后中断尚未完成的子语句 <br>
  */
 public class Asynchronized extends Block {
 	protected long timeout = 1000L;	
-	protected int threadPoolSize = 5;
+	protected String executorId = AsyncExecutor.DEFAULT_ID;
 	protected boolean shutdownGracefully = true;
 	
 	public Asynchronized(String tag, Logiclet p) {
@@ -41,15 +42,14 @@ public class Asynchronized extends Block {
 	public void configure(Properties p) {
 		super.configure(p);
 		timeout = PropertiesConstants.getLong(p, "async.timeout", timeout);
-		threadPoolSize = PropertiesConstants.getInt(p, "async.threadPoolSize", threadPoolSize);
+		executorId = PropertiesConstants.getString(p, "async.executor", executorId);
 		shutdownGracefully = PropertiesConstants.getBoolean(p, "async.shutdownGracefully", shutdownGracefully);
 	}
 
 	@Override
 	protected void onExecute(final XsObject root,final XsObject current, final LogicletContext ctx, final ExecuteWatcher watcher) {
 		final List<Logiclet> list = children;
-		final ScheduledThreadPoolExecutor exec = new  ScheduledThreadPoolExecutor(threadPoolSize);
-		final CountDownLatch latch = new CountDownLatch(list.size());
+		final AsyncExecutor.Join join = AsyncExecutor.get(executorId).newJoin(list.size());
 		
 		boolean error = false;
 		String msg = "OK";
@@ -58,7 +58,7 @@ public class Asynchronized extends Block {
 		try {
 			for (int i = 0 ; i < list.size(); i ++){
 				final Logiclet logiclet = list.get(i);
-				exec.schedule(new Runnable(){
+				boolean accepted = join.submit(new Runnable(){
 	
 					@Override
 					public void run() {
@@ -74,19 +74,19 @@ public class Asynchronized extends Block {
 							log(msg,"error");
 							error = true;
 						}finally{
-							if (latch != null){
-								latch.countDown();
-							}
 							if (traceEnable()&&tc != null){
 								Tool.end(child, "ASYNC-CHILD",getXmlTag(), error?"FAILED":"OK", msg);
 							}
 						}
 					}
 					
-				}, 0, TimeUnit.MICROSECONDS);
+				});
+				if (!accepted){
+					log("The async child is rejected by executor:" + executorId,"warn");
+				}
 			}
 			
-			if (!latch.await(timeout, TimeUnit.MILLISECONDS)){
+			if (!join.await(timeout, !shutdownGracefully)){
 				logger.warn("The async executing is timtout.");
 			}
 			
@@ -95,11 +95,6 @@ public class Asynchronized extends Block {
 			log(msg,"error");
 			error = true;
 		}finally{
-			if (shutdownGracefully){
-				exec.shutdown();
-			}else{
-				exec.shutdownNow();
-			}
 			if (traceEnable()){
 				Tool.end(tc, "ASYNC", getXmlTag(), error?"FAILED":"OK", msg);
 			}				
@@ -1,14 +1,12 @@
 package com.alogic.xscript.plugins;
 
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import com.alogic.tracer.Tool;
 import com.alogic.tracer.TraceContext;
+import com.alogic.xscript.AsyncExecutor;
 import com.alogic.xscript.ExecuteWatcher;
 import com.alogic.xscript.Logiclet;
 import com.alogic.xscript.LogicletContext;
@@ -25,6 +23,9 @@ import com.anysoft.util.PropertiesConstants;
  * 
  * @version 1.6.10.2 [20170925 duanyy] <br>
  * - 增加异步执行功能 <br>
+ * 
+ * @version 1.6.10.28 [20171213 duanyy] <br>
+ * - 异步模式下使用共享的有界线程池{@link AsyncExecutor}，通过async.executor指定名称，async.threadPoolSize不再生效 <br>
  */
 public class ForEach extends Segment{
 	protected String in;
@@ -33,7 +34,7 @@ public class ForEach extends Segment{
 	protected String async = "false";
 	protected long timeout = 1000L;	
 	protected boolean shutdownGracefully = true;
-	protected int threadPoolSize = 5;	
+	protected String executorId = AsyncExecutor.DEFAULT_ID;
 	
 	public ForEach(String tag, Logiclet p) {
 		super(tag, p);
@@ -47,7 +48,7 @@ public class ForEach extends Segment{
 		async = PropertiesConstants.getRaw(p, "async", async);
 		timeout = PropertiesConstants.getLong(p, "async.timeout", timeout);
 		shutdownGracefully = PropertiesConstants.getBoolean(p, "async.shutdownGracefully", shutdownGracefully);
-		threadPoolSize = PropertiesConstants.getInt(p, "async.threadPoolSize", threadPoolSize);		
+		executorId = PropertiesConstants.getString(p, "async.executor", executorId);		
 	}
 
 	@Override
@@ -57,15 +58,14 @@ public class ForEach extends Segment{
 		if (values.length > 0){
 			boolean asyncMode = PropertiesConstants.transform(ctx, async, false);
 			if (asyncMode){
-				final ScheduledThreadPoolExecutor exec = new  ScheduledThreadPoolExecutor(threadPoolSize);
-				final CountDownLatch latch = new CountDownLatch(values.length);
+				final AsyncExecutor.Join join = AsyncExecutor.get(executorId).newJoin(values.length);
 	
 				boolean error = false;
 				String msg = "OK";
 				final TraceContext tc = traceEnable()?Tool.start():null;				
 				try {
 					for (final String value:values){						
-						exec.schedule(new Runnable(){
+						boolean accepted = join.submit(new Runnable(){
 			
 							@Override
 							public void run() {
@@ -81,19 +81,19 @@ public class ForEach extends Segment{
 									log(msg,"error");
 									error = true;
 								}finally{
-									if (latch != null){
-										latch.countDown();
-									}
 									if (traceEnable()&&tc != null){
 										Tool.end(child, "ASYNC-CHILD", getXmlTag(),error?"FAILED":"OK", msg);
 									}
 								}
 							}
 							
-						}, 0, TimeUnit.MICROSECONDS);
+						});
+						if (!accepted){
+							log("The async child is rejected by executor:" + executorId,"warn");
+						}
 					}
 					
-					if (!latch.await(timeout, TimeUnit.MILLISECONDS)){
+					if (!join.await(timeout, !shutdownGracefully)){
 						logger.warn("The async executing is timtout.");
 					}
 					
@@ -102,11 +102,6 @@ public class ForEach extends Segment{
 					log(msg,"error");
 					error = true;
 				}finally{
-					if (shutdownGracefully){
-						exec.shutdown();
-					}else{
-						exec.shutdownNow();
-					}
 					if (traceEnable()){
 						Tool.end(tc, "ASYNC", getXmlTag(), error?"FAILED":"OK", msg);
 					}				
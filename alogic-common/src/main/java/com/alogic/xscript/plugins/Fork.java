@@ -0,0 +1,456 @@
+package com.alogic.xscript.plugins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.alogic.tracer.Tool;
+import com.alogic.tracer.TraceContext;
+import com.alogic.xscript.AsyncExecutor;
+import com.alogic.xscript.Block;
+import com.alogic.xscript.ExecuteWatcher;
+import com.alogic.xscript.Logiclet;
+import com.alogic.xscript.LogicletContext;
+import com.alogic.xscript.doc.XsObject;
+import com.alogic.xscript.doc.json.JsonObject;
+import com.alogic.xscript.doc.xml.XmlObject;
+import com.anysoft.util.BaseException;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.XmlElementProperties;
+import com.anysoft.util.XmlTools;
+
+/**
+ * 并行分支(fork/join)
+ *
+ * <p>
+ * 每个子语句作为一个分支，提交到共享的线程池({@link AsyncExecutor})中并行执行，所有分支结束之后(join)再继续执行后续语句：<br>
+ * - 每个分支具有独立的上下文(以当前上下文为父节点)，分支中设置的变量不影响其他分支; <br>
+ * - 每个分支写入独立的局部文档对象(current)，root仍指向原文档，分支中只应读取; <br>
+ * - join之后，按分支的定义顺序将局部文档合并到当前文档：json对象递归合并，数组追加，其他值由后面的分支覆盖;xml节点按顺序追加; <br>
+ *
+ * <p>
+ * 参数如下：<br>
+ * - executor : 线程池名称，缺省为default; <br>
+ * - timeout : 分支的超时时间(ms)，自fork开始计算，缺省为3000，子语句可通过branch.timeout单独指定; <br>
+ * - policy : 分支失败(异常或超时)时的处理策略，缺省为failFast; <br>
+ * - id : 结果变量的前缀，缺省为$fork; <br>
+ * - helpDelay : 分支进入线程池之后，超过该时间(ms)仍未开始执行，由fork所在线程自行执行，缺省为10; <br>
+ *
+ * <p>
+ * 分支只放入线程池排队，不会因为当前线程是工作线程或线程池已满而在提交时同步执行.fork所在线程在等待期间，
+ * 自行执行未被线程池接受或迟迟未开始的分支，因此嵌套的fork不会因线程池被占满而死锁.
+ * 由fork所在线程执行的分支无法被中断，其执行期间不检查其他分支的超时，结束之后再统一检查;
+ * 这类分支的数量记录在上下文变量[id].inline中，并计入线程池的callerRuns.
+ *
+ * <p>
+ * 失败处理策略：<br>
+ * - failFast : 任一分支失败，中断其余分支，不合并任何结果，抛出该分支的异常(超时为core.fork_timeout); <br>
+ * - collectErrors : 等待所有分支结束，合并成功分支的结果，失败信息写入上下文变量：
+ * [id].failed为失败的分支数，[id].[序号].code和[id].[序号].reason为对应分支的错误代码和原因(序号从0开始); <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.29
+ */
+public class Fork extends Block {
+
+	/**
+	 * 失败处理策略
+	 */
+	public static enum Policy {
+		failFast,
+		collectErrors
+	}
+
+	protected String executorId = AsyncExecutor.DEFAULT_ID;
+	protected long timeout = 3000L;
+	protected Policy policy = Policy.failFast;
+	protected String id = "$fork";
+	protected long helpDelay = 10L;
+
+	/**
+	 * 各分支的超时时间
+	 */
+	protected List<Long> timeouts = new ArrayList<Long>();
+
+	public Fork(String tag, Logiclet p) {
+		super(tag, p);
+	}
+
+	@Override
+	public void configure(Element element, Properties props) {
+		XmlElementProperties p = new XmlElementProperties(element, props);
+		configure(p);
+
+		NodeList nodeList = element.getChildNodes();
+		for (int i = 0 ; i < nodeList.getLength() ; i ++){
+			Node n = nodeList.item(i);
+
+			if (n.getNodeType() != Node.ELEMENT_NODE){
+				//只处理Element节点
+				continue;
+			}
+
+			Element e = (Element)n;
+			String xmlTag = e.getNodeName();
+			Logiclet statement = createLogiclet(xmlTag, this);
+
+			if (statement != null){
+				statement.configure(e, p);
+				if (statement.isExecutable()){
+					children.add(statement);
+					timeouts.add(getBranchTimeout(e));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void configure(Properties p) {
+		super.configure(p);
+		executorId = PropertiesConstants.getString(p, "executor", executorId,true);
+		timeout = PropertiesConstants.getLong(p, "timeout", timeout,true);
+		id = PropertiesConstants.getString(p, "id", id,true);
+		helpDelay = PropertiesConstants.getLong(p, "helpDelay", helpDelay,true);
+		String value = PropertiesConstants.getString(p, "policy", policy.name(),true);
+		try {
+			policy = Policy.valueOf(value);
+		}catch (IllegalArgumentException ex){
+			logger.error("Unknown fork policy:" + value + ",use failFast instead.");
+			policy = Policy.failFast;
+		}
+	}
+
+	protected long getBranchTimeout(Element e){
+		String value = e.getAttribute("branch.timeout");
+		if (StringUtils.isNotEmpty(value)){
+			try {
+				return Long.parseLong(value);
+			}catch (NumberFormatException ex){
+				logger.error("Invalid branch.timeout:" + value);
+			}
+		}
+		return timeout;
+	}
+
+	@Override
+	protected void onExecute(final XsObject root,final XsObject current, final LogicletContext ctx, final ExecuteWatcher watcher) {
+		if (!(current instanceof JsonObject) && !(current instanceof XmlObject)){
+			throw new BaseException("core.not_supported",
+					String.format("Tag %s does not support protocol %s",this.getXmlTag(),current.getClass().getName()));
+		}
+
+		List<Logiclet> list = children;
+		if (list.isEmpty()){
+			return;
+		}
+
+		AsyncExecutor executor = AsyncExecutor.get(executorId);
+		final BlockingQueue<Branch> done = new LinkedBlockingQueue<Branch>();
+		final TraceContext tc = traceEnable()?Tool.start():null;
+		long start = System.currentTimeMillis();
+
+		List<Branch> branches = new ArrayList<Branch>(list.size());
+		for (int i = 0 ; i < list.size() ; i ++){
+			final Branch branch = new Branch(i,list.get(i),newBranchObject(current),new LogicletContext(ctx),start + timeouts.get(i));
+			branches.add(branch);
+			branch.body = new Runnable(){
+				@Override
+				public void run() {
+					TraceContext child = (traceEnable()&&tc != null)?tc.newChild():null;
+					try {
+						branch.logiclet.execute(root, branch.current, branch.ctx, watcher);
+					}catch (Throwable t){
+						branch.error = t;
+					}finally{
+						done.offer(branch);
+						if (traceEnable()&&tc != null){
+							Tool.end(child, "FORK-BRANCH", getXmlTag(), branch.error != null?"FAILED":"OK",
+									branch.error != null ? String.valueOf(branch.error.getMessage()) : "OK");
+						}
+					}
+				}
+			};
+			branch.future = executor.offer(new Runnable(){
+				@Override
+				public void run() {
+					//如果已由fork所在线程执行或已取消，直接返回
+					if (branch.started.compareAndSet(false, true)){
+						branch.body.run();
+					}
+				}
+			});
+		}
+
+		BaseException failed = null;
+		try {
+			failed = join(executor,branches,done);
+		}finally{
+			if (traceEnable()){
+				Tool.end(tc, "FORK", getXmlTag(), failed != null?"FAILED":"OK", failed != null ? failed.getMessage() : "OK");
+			}
+		}
+
+		if (failed != null){
+			throw failed;
+		}
+
+		int errors = 0;
+		int inline = 0;
+		for (Branch branch:branches){
+			if (branch.inline){
+				inline ++;
+			}
+			if (branch.failure == null){
+				merge(current,branch.current);
+			}else{
+				BaseException ex = branch.failure;
+				ctx.SetValue(id + "." + branch.index + ".code", ex.getCode());
+				ctx.SetValue(id + "." + branch.index + ".reason", String.valueOf(ex.getMessage()));
+				errors ++;
+			}
+		}
+		ctx.SetValue(id + ".failed", String.valueOf(errors));
+		ctx.SetValue(id + ".inline", String.valueOf(inline));
+	}
+
+	/**
+	 * 等待所有分支结束，等待期间自行执行尚未开始的分支
+	 * @param executor 线程池
+	 * @param branches 分支列表
+	 * @param done 已结束的分支
+	 * @return failFast模式下失败的异常，否则为null
+	 */
+	protected BaseException join(AsyncExecutor executor,List<Branch> branches,BlockingQueue<Branch> done){
+		int pending = branches.size();
+		while (pending > 0){
+			long now = System.currentTimeMillis();
+			long deadline = Long.MAX_VALUE;
+			for (Branch branch:branches){
+				if (!branch.finished){
+					if (branch.deadline <= now){
+						//超时
+						branch.finished = true;
+						branch.failure = new BaseException("core.fork_timeout",
+								String.format("The branch %d of %s is timeout.", branch.index,getXmlTag()));
+						cancel(branch);
+						pending --;
+						if (policy == Policy.failFast){
+							cancelAll(branches);
+							return branch.failure;
+						}
+					}else{
+						deadline = Math.min(deadline, branch.deadline);
+					}
+				}
+			}
+			if (pending <= 0){
+				break;
+			}
+
+			Branch idle = getIdleBranch(branches);
+			long wait = deadline - now;
+			if (idle != null){
+				//未被线程池接受的分支立即执行，已排队的分支等待helpDelay
+				wait = idle.future == null ? 0 : Math.min(wait, helpDelay);
+			}
+
+			Branch branch = null;
+			try {
+				branch = done.poll(wait, TimeUnit.MILLISECONDS);
+			}catch (InterruptedException ex){
+				Thread.currentThread().interrupt();
+				cancelAll(branches);
+				return new BaseException("core.interrupted","Interrupted when waiting for branches.",ex);
+			}
+			if (branch == null){
+				if (idle != null && idle.started.compareAndSet(false, true)){
+					idle.inline = true;
+					executor.ranInCaller();
+					idle.body.run();
+				}
+				continue;
+			}
+			if (branch.finished){
+				continue;
+			}
+			branch.finished = true;
+			pending --;
+			if (branch.error != null){
+				branch.failure = toException(branch.index,branch.error);
+				log(String.format("The branch %d failed:%s", branch.index,ExceptionUtils.getStackTrace(branch.error)),"error");
+				if (policy == Policy.failFast){
+					cancelAll(branches);
+					return branch.failure;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 查找尚未开始执行的分支
+	 * @param branches 分支列表
+	 * @return 分支，如果没有，返回null
+	 */
+	protected Branch getIdleBranch(List<Branch> branches){
+		for (Branch branch:branches){
+			if (!branch.finished && !branch.started.get()){
+				return branch;
+			}
+		}
+		return null;
+	}
+
+	protected void cancelAll(List<Branch> branches){
+		for (Branch branch:branches){
+			if (!branch.finished){
+				branch.finished = true;
+				cancel(branch);
+			}
+		}
+	}
+
+	protected void cancel(Branch branch){
+		//尚未开始的分支不再执行
+		branch.started.set(true);
+		if (branch.future != null){
+			branch.future.cancel(true);
+		}
+	}
+
+	protected BaseException toException(int index,Throwable t){
+		if (t instanceof BaseException){
+			return (BaseException)t;
+		}
+		return new BaseException("core.fork_error",
+				String.format("The branch %d of %s failed:%s", index,getXmlTag(),t.getMessage()),
+				t instanceof Exception ? (Exception)t : null);
+	}
+
+	/**
+	 * 创建分支的局部文档对象
+	 * @param current 当前文档对象
+	 * @return 局部文档对象
+	 */
+	protected XsObject newBranchObject(XsObject current){
+		if (current instanceof JsonObject){
+			return new JsonObject(current.getTag(),new HashMap<String,Object>());
+		}
+		try {
+			Document doc = XmlTools.newDocument(current.getTag());
+			return new XmlObject(current.getTag(),doc.getDocumentElement());
+		}catch (ParserConfigurationException ex){
+			throw new BaseException("core.fork_error","Can not create document for branch.",ex);
+		}
+	}
+
+	/**
+	 * 将分支的局部文档合并到当前文档
+	 * @param to 当前文档
+	 * @param from 局部文档
+	 */
+	@SuppressWarnings("unchecked")
+	protected void merge(XsObject to,XsObject from){
+		if (to instanceof JsonObject){
+			merge((Map<String,Object>)to.getContent(),(Map<String,Object>)from.getContent());
+		}else{
+			merge((Element)to.getContent(),(Element)from.getContent());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static void merge(Map<String,Object> to,Map<String,Object> from){
+		for (Entry<String,Object> entry:from.entrySet()){
+			Object value = entry.getValue();
+			Object existed = to.get(entry.getKey());
+			if (existed instanceof Map && value instanceof Map){
+				merge((Map<String,Object>)existed,(Map<String,Object>)value);
+			}else if (existed instanceof List && value instanceof List){
+				((List<Object>)existed).addAll((List<Object>)value);
+			}else{
+				to.put(entry.getKey(), value);
+			}
+		}
+	}
+
+	protected static void merge(Element to,Element from){
+		Document doc = to.getOwnerDocument();
+		NamedNodeMap attrs = from.getAttributes();
+		for (int i = 0 ; i < attrs.getLength() ; i ++){
+			Node attr = attrs.item(i);
+			to.setAttribute(attr.getNodeName(), attr.getNodeValue());
+		}
+		NodeList nodeList = from.getChildNodes();
+		for (int i = 0 ; i < nodeList.getLength() ; i ++){
+			to.appendChild(doc.importNode(nodeList.item(i), true));
+		}
+	}
+
+	/**
+	 * 分支
+	 */
+	protected static class Branch {
+		protected final int index;
+		protected final Logiclet logiclet;
+		protected final XsObject current;
+		protected final LogicletContext ctx;
+		protected final long deadline;
+		protected Future<?> future = null;
+
+		/**
+		 * 分支的执行体
+		 */
+		protected Runnable body = null;
+
+		/**
+		 * 是否已开始执行(或已取消)，由线程池和fork所在线程竞争
+		 */
+		protected final AtomicBoolean started = new AtomicBoolean(false);
+
+		/**
+		 * 是否由fork所在线程执行(仅由join线程访问)
+		 */
+		protected boolean inline = false;
+
+		/**
+		 * 分支执行时的异常(由分支线程写入，通过完成队列对join线程可见)
+		 */
+		protected Throwable error = null;
+
+		/**
+		 * 分支的失败原因，包括超时(仅由join线程访问)
+		 */
+		protected BaseException failure = null;
+
+		/**
+		 * 是否已结束(仅由join线程访问)
+		 */
+		protected boolean finished = false;
+
+		protected Branch(int index,Logiclet logiclet,XsObject current,LogicletContext ctx,long deadline){
+			this.index = index;
+			this.logiclet = logiclet;
+			this.current = current;
+			this.ctx = ctx;
+			this.deadline = deadline;
+		}
+	}
+}
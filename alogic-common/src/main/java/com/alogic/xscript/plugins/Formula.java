@@ -6,9 +6,8 @@ import com.alogic.xscript.AbstractLogiclet;
 import com.alogic.xscript.ExecuteWatcher;
 import com.alogic.xscript.Logiclet;
 import com.alogic.xscript.LogicletContext;
-import com.anysoft.formula.DefaultFunctionHelper;
+import com.anysoft.formula.CompiledExpression;
 import com.anysoft.formula.Expression;
-import com.anysoft.formula.Parser;
 import com.anysoft.util.Properties;
 import com.anysoft.util.PropertiesConstants;
 
@@ -18,6 +17,9 @@ import com.anysoft.util.PropertiesConstants;
  * @author duanyy
  * @version 1.6.8.14 [20170509 duanyy] <br>
  * - 增加xscript的中间文档模型,以便支持多种报文协议 <br>
+ * 
+ * @version 1.6.10.20 [20171124 duanyy] <br>
+ * - 采用编译之后的公式计算 <br>
  */
 public class Formula extends AbstractLogiclet {
 	protected String id;
@@ -35,8 +37,7 @@ public class Formula extends AbstractLogiclet {
 		
 		String formula = PropertiesConstants.getString(p,"expr","",true);
 		if (StringUtils.isNotEmpty(formula)){
-			Parser parser = new Parser(new DefaultFunctionHelper(null));			
-			expr = parser.parse(formula);
+			expr = CompiledExpression.compile(formula);
 		}
 	}
 
@@ -1,19 +1,15 @@
 package com.alogic.xscript.plugins;
 
-import java.io.InputStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.alogic.xscript.Logiclet;
-import com.anysoft.util.IOTools;
+import com.alogic.xscript.ScriptCache;
 import com.anysoft.util.Properties;
 import com.anysoft.util.PropertiesConstants;
-import com.anysoft.util.Settings;
 import com.anysoft.util.XmlElementProperties;
-import com.anysoft.util.XmlTools;
-import com.anysoft.util.resource.ResourceFactory;
 
 /**
  * Include
@@ -23,6 +19,8 @@ import com.anysoft.util.resource.ResourceFactory;
  *  
  * @author duanyy
  *
+ * @version 1.6.10.27 [20171211 duanyy] <br>
+ * - 所包含的文档通过ScriptCache缓存 <br>
  */
 
 public class Include extends Segment{
@@ -42,25 +40,28 @@ public class Include extends Segment{
 		if (src != null && src.length() > 0){
 			Document doc = loadDocument(src,secondary);
 			if (doc != null){
-				Element root = doc.getDocumentElement();
-				if (root != null){
-					NodeList _children = root.getChildNodes();
-					for (int i = 0 ; i < _children.getLength() ; i ++){
-						Node n = _children.item(i);
-						
-						if (n.getNodeType() != Node.ELEMENT_NODE){
-							//只处理Element节点
-							continue;
-						}
-						
-						Element e = (Element)n;
-						String xmlTag = e.getNodeName();		
-						Logiclet logiclet = createLogiclet(xmlTag, this);
-						
-						if (logiclet != null){
-							logiclet.configure(e, p);
-							if (logiclet.isExecutable()){
-								children.add(logiclet);
+				//文档被多个线程共享，DOM的读取不保证线程安全
+				synchronized (doc){
+					Element root = doc.getDocumentElement();
+					if (root != null){
+						NodeList _children = root.getChildNodes();
+						for (int i = 0 ; i < _children.getLength() ; i ++){
+							Node n = _children.item(i);
+							
+							if (n.getNodeType() != Node.ELEMENT_NODE){
+								//只处理Element节点
+								continue;
+							}
+							
+							Element e = (Element)n;
+							String xmlTag = e.getNodeName();		
+							Logiclet logiclet = createLogiclet(xmlTag, this);
+							
+							if (logiclet != null){
+								logiclet.configure(e, p);
+								if (logiclet.isExecutable()){
+									children.add(logiclet);
+								}
 							}
 						}
 					}
@@ -70,17 +71,6 @@ public class Include extends Segment{
 	}
 
 	protected Document loadDocument(String url,String secondary){
-		ResourceFactory resourceFactory = Settings.getResourceFactory();
-		InputStream in = null;
-		Document doc = null;
-		try {
-			in = resourceFactory.load(url, secondary);
-			doc = XmlTools.loadFromInputStream(in);
-		}catch (Exception ex){
-			logger.error("The config file is not a valid file,url = " + url);
-		}finally{
-			IOTools.close(in);
-		}
-		return doc;
+		return ScriptCache.get().getDocument(url, secondary);
 	}	
 }
\ No newline at end of file
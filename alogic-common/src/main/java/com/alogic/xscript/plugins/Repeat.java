@@ -4,15 +4,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import com.alogic.tracer.Tool;
 import com.alogic.tracer.TraceContext;
+import com.alogic.xscript.AsyncExecutor;
 import com.alogic.xscript.ExecuteWatcher;
 import com.alogic.xscript.Logiclet;
 import com.alogic.xscript.LogicletContext;
@@ -35,6 +33,9 @@ import com.jayway.jsonpath.JsonPath;
  * 
  * @version 1.6.9.1 [20170516 duanyy] <br>
  * - 修复部分插件由于使用新的文档模型产生的兼容性问题 <br>
+ * 
+ * @version 1.6.10.28 [20171213 duanyy] <br>
+ * - 异步模式下使用共享的有界线程池{@link AsyncExecutor}，通过async.executor指定名称，async.threadPoolSize不再生效 <br>
  */
 public class Repeat extends Segment{
 	protected String jsonPath;
@@ -43,7 +44,7 @@ public class Repeat extends Segment{
 	protected String async = "false";
 	protected long timeout = 1000L;	
 	protected boolean shutdownGracefully = true;
-	protected int threadPoolSize = 5;	
+	protected String executorId = AsyncExecutor.DEFAULT_ID;
 	
 	public Repeat(String tag, Logiclet p) {
 		super(tag, p);
@@ -57,7 +58,7 @@ public class Repeat extends Segment{
 		async = PropertiesConstants.getRaw(p, "async", async);
 		timeout = PropertiesConstants.getLong(p, "async.timeout", timeout);
 		shutdownGracefully = PropertiesConstants.getBoolean(p, "async.shutdownGracefully", shutdownGracefully);
-		threadPoolSize = PropertiesConstants.getInt(p, "async.threadPoolSize", threadPoolSize);				
+		executorId = PropertiesConstants.getString(p, "async.executor", executorId);				
 	}
 
 	@SuppressWarnings("unchecked")
@@ -94,15 +95,14 @@ public class Repeat extends Segment{
 	protected void repeat(boolean async,final List<Object> list,final XsObject root,final XsObject current, 
 			final LogicletContext ctx, final ExecuteWatcher watcher){
 		if (async){
-			final ScheduledThreadPoolExecutor exec = new  ScheduledThreadPoolExecutor(threadPoolSize);
-			final CountDownLatch latch = new CountDownLatch(list.size());
+			final AsyncExecutor.Join join = AsyncExecutor.get(executorId).newJoin(list.size());
 
 			boolean error = false;
 			String msg = "OK";
 			final TraceContext tc = traceEnable()?Tool.start():null;				
 			try {
 				for (final Object o:list){				
-					exec.schedule(new Runnable(){
+					boolean accepted = join.submit(new Runnable(){
 		
 						@Override
 						public void run() {
@@ -122,19 +122,19 @@ public class Repeat extends Segment{
 								log(msg,"error");
 								error = true;
 							}finally{
-								if (latch != null){
-									latch.countDown();
-								}
 								if (traceEnable()&&tc != null){
 									Tool.end(child, "ASYNC-CHILD", getXmlTag(),error?"FAILED":"OK", msg);
 								}
 							}
 						}
 						
-					}, 0, TimeUnit.MICROSECONDS);
+					});
+					if (!accepted){
+						log("The async child is rejected by executor:" + executorId,"warn");
+					}
 				}
 				
-				if (!latch.await(timeout, TimeUnit.MILLISECONDS)){
+				if (!join.await(timeout, !shutdownGracefully)){
 					logger.warn("The async executing is timtout.");
 				}
 				
@@ -143,11 +143,6 @@ public class Repeat extends Segment{
 				log(msg,"error");
 				error = true;
 			}finally{
-				if (shutdownGracefully){
-					exec.shutdown();
-				}else{
-					exec.shutdownNow();
-				}
 				if (traceEnable()){
 					Tool.end(tc, "ASYNC", getXmlTag(), error?"FAILED":"OK", msg);
 				}				
@@ -167,8 +162,7 @@ public class Repeat extends Segment{
 	protected void repeat(boolean async,final Map<String,Object> map,final XsObject root,final XsObject current, 
 			final LogicletContext ctx, final ExecuteWatcher watcher){
 		if (async){
-			final ScheduledThreadPoolExecutor exec = new  ScheduledThreadPoolExecutor(threadPoolSize);
-			final CountDownLatch latch = new CountDownLatch(map.size());
+			final AsyncExecutor.Join join = AsyncExecutor.get(executorId).newJoin(map.size());
 
 			boolean error = false;
 			String msg = "OK";
@@ -177,7 +171,7 @@ public class Repeat extends Segment{
 				final Iterator<Entry<String,Object>> iter = map.entrySet().iterator();
 				while (iter.hasNext()){
 					final Entry<String,Object> entry = iter.next();
-					exec.schedule(new Runnable(){
+					boolean accepted = join.submit(new Runnable(){
 		
 						@Override
 						public void run() {
@@ -197,19 +191,19 @@ public class Repeat extends Segment{
 								log(msg,"error");
 								error = true;
 							}finally{
-								if (latch != null){
-									latch.countDown();
-								}
 								if (traceEnable()&&tc != null){
 									Tool.end(child, "ASYNC-CHILD", getXmlTag(),error?"FAILED":"OK", msg);
 								}
 							}
 						}
 						
-					}, 0, TimeUnit.MICROSECONDS);
+					});
+					if (!accepted){
+						log("The async child is rejected by executor:" + executorId,"warn");
+					}
 				}
 				
-				if (!latch.await(timeout, TimeUnit.MILLISECONDS)){
+				if (!join.await(timeout, !shutdownGracefully)){
 					logger.warn("The async executing is timtout.");
 				}
 				
@@ -218,11 +212,6 @@ public class Repeat extends Segment{
 				log(msg,"error");
 				error = true;
 			}finally{
-				if (shutdownGracefully){
-					exec.shutdown();
-				}else{
-					exec.shutdownNow();
-				}
 				if (traceEnable()){
 					Tool.end(tc, "ASYNC", getXmlTag(), error?"FAILED":"OK", msg);
 				}				
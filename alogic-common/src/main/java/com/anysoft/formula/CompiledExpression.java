@@ -0,0 +1,522 @@
+package com.anysoft.formula;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.anysoft.formula.ExprValue.DataType;
+
+/**
+ * 编译之后的公式
+ *
+ * <p>
+ * 将{@link Parser}生成的表达式树编译为扁平的计算计划：<br>
+ * - 常量子表达式在编译时计算(常量折叠); <br>
+ * - 变量按名称分配槽位，变量的上下文在同一{@link DataProvider}上只获取一次; <br>
+ * - 比较和逻辑运算直接计算布尔值，不再为中间结果创建{@link ExprValue}; <br>
+ * - 函数参数同样被编译，函数本身仍按原有的方式计算(插件函数可能有副作用，不进行折叠); <br>
+ *
+ * <p>
+ * 计算结果和原有的表达式一致，编译之后的公式是线程安全的.
+ * 通过{@link #compile(String)}编译的公式按公式文本缓存，缓存数量通过系统属性formula.cache.max配置，缺省为1024.
+ *
+ * <p>
+ * 注意：编译时，函数的参数会被替换为编译之后的公式.
+ *
+ * @author duanyy
+ * @since 1.6.10.20
+ */
+public final class CompiledExpression extends Expression {
+
+	/**
+	 * 缓存的公式最大数量
+	 */
+	protected static int maxCached = Integer.getInteger("formula.cache.max", 1024);
+
+	/**
+	 * 公式缓存
+	 */
+	private static final ConcurrentHashMap<String,CompiledExpression> cache = new ConcurrentHashMap<String,CompiledExpression>();
+
+	private static final Object [] EMPTY = new Object[0];
+
+	/**
+	 * 原始的表达式
+	 */
+	private final Expression source;
+
+	/**
+	 * 计算计划的根节点
+	 */
+	private final Node root;
+
+	/**
+	 * 变量槽位
+	 */
+	private final String [] slots;
+
+	/**
+	 * 最近一次的变量绑定
+	 */
+	private volatile Binding binding = null;
+
+	private CompiledExpression(Expression source,Node root,String [] slots){
+		super(source.getOperator());
+		this.source = source;
+		this.root = root;
+		this.slots = slots;
+	}
+
+	/**
+	 * 编译公式文本(采用缺省的函数辅助器)，并按文本缓存
+	 * @param text 公式文本
+	 * @return 编译之后的公式
+	 */
+	public static CompiledExpression compile(String text){
+		CompiledExpression found = cache.get(text);
+		if (found == null){
+			found = compile(new Parser(new DefaultFunctionHelper(null)).parse(text));
+			if (cache.size() >= maxCached){
+				cache.clear();
+			}
+			CompiledExpression exist = cache.putIfAbsent(text, found);
+			if (exist != null){
+				found = exist;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 编译公式文本(采用指定的函数辅助器)，不缓存
+	 * @param text 公式文本
+	 * @param helper 函数辅助器
+	 * @return 编译之后的公式
+	 */
+	public static CompiledExpression compile(String text,FunctionHelper helper){
+		return compile(new Parser(helper).parse(text));
+	}
+
+	/**
+	 * 编译表达式
+	 * @param expr 表达式
+	 * @return 编译之后的公式
+	 */
+	public static CompiledExpression compile(Expression expr){
+		if (expr instanceof CompiledExpression){
+			return (CompiledExpression)expr;
+		}
+		List<String> slots = new ArrayList<String>();
+		Node root = compile(expr,slots);
+		return new CompiledExpression(expr,root,slots.toArray(new String[slots.size()]));
+	}
+
+	private static Node compile(Expression expr,List<String> slots){ // NOSONAR
+		switch (expr.getOperator()){
+		case OP_String_Constant:
+			return new Const(new ExprValue(((StringConstant)expr).value));
+		case OP_Integer_Constant:
+			return new Const(new ExprValue(((LongConstant)expr).value));
+		case OP_Float_Constant:
+			return new Const(new ExprValue(((DoubleConstant)expr).value));
+		case OP_Boolean_Constant:
+			return new Const(new ExprValue(((BooleanConstant)expr).value));
+		case OP_Variant:{
+			String name = ((Variant)expr).varName;
+			int index = slots.indexOf(name);
+			if (index < 0){
+				index = slots.size();
+				slots.add(name);
+			}
+			return new Slot(index,name);
+		}
+		case OP_Add:
+		case OP_Sub:
+		case OP_Mul:
+		case OP_Div:
+		case OP_Mod:{
+			BinaryExpression binary = (BinaryExpression)expr;
+			return fold(new Arithmetic(expr.getOperator(),compile(binary.getLeft(),slots),compile(binary.getRight(),slots)));
+		}
+		case OP_Greater:
+		case OP_Greater_Equal:
+		case OP_Equal:
+		case OP_Not_Equal:
+		case OP_Less:
+		case OP_Less_Equal:{
+			BinaryExpression binary = (BinaryExpression)expr;
+			return fold(new Compare(expr.getOperator(),compile(binary.getLeft(),slots),compile(binary.getRight(),slots)));
+		}
+		case OP_And:
+		case OP_Or:{
+			BinaryExpression binary = (BinaryExpression)expr;
+			return fold(new Logical(expr.getOperator(),compile(binary.getLeft(),slots),compile(binary.getRight(),slots)));
+		}
+		case OP_Negative:
+		case OP_Positive:
+		case OP_Not:
+			if (expr instanceof UnaryExpression){
+				return fold(new Unary(expr.getOperator(),compile(((UnaryExpression)expr).expr,slots)));
+			}
+			break;
+		case OP_Extend:
+			if (expr instanceof Function){
+				Function f = (Function)expr;
+				for (int i = 0 ; i < f.args.size() ; i ++){
+					f.args.set(i, compile(f.args.get(i)));
+				}
+				return new Interpreted(f);
+			}
+			break;
+		default:
+		}
+		//无法识别的表达式，仍按原有的方式计算
+		return new Interpreted(expr);
+	}
+
+	/**
+	 * 常量折叠
+	 * @param node 节点
+	 * @return 折叠之后的节点
+	 */
+	private static Node fold(Node node){
+		if (!node.isConstant()){
+			return node;
+		}
+		try {
+			return new Const(node.eval(null, EMPTY, true));
+		}catch (RuntimeException ex){
+			//计算出错(例如除0)，保留到运行时按原有的方式报错
+			return node;
+		}
+	}
+
+	/**
+	 * 获取原始的表达式
+	 * @return 表达式
+	 */
+	public Expression getSource(){
+		return source;
+	}
+
+	@Override
+	public ExprValue getValue(DataProvider provider) {
+		return root.eval(provider, bind(provider), true);
+	}
+
+	/**
+	 * 计算布尔值
+	 * @param provider 变量提供者
+	 * @return 布尔值
+	 */
+	public boolean getBoolean(DataProvider provider){
+		return root.test(provider, bind(provider));
+	}
+
+	@Override
+	public String getOperatorPrototype() {
+		return source.getOperatorPrototype();
+	}
+
+	@Override
+	public String toString(){
+		return source.toString();
+	}
+
+	/**
+	 * 在指定的变量提供者上绑定变量的上下文
+	 * @param provider 变量提供者
+	 * @return 变量上下文
+	 */
+	private Object [] bind(DataProvider provider){
+		if (slots.length == 0){
+			return EMPTY;
+		}
+		if (provider == null){
+			throw new FormulaException("Data provider is null,can not get value of " + slots[0]);
+		}
+		Binding current = binding;
+		if (current != null && current.get() == provider){
+			return current.contexts;
+		}
+		Object [] contexts = new Object[slots.length];
+		for (int i = 0 ; i < slots.length ; i ++){
+			contexts[i] = provider.getContext(slots[i]);
+		}
+		binding = new Binding(provider,contexts);
+		return contexts;
+	}
+
+	/**
+	 * 变量绑定，不阻止变量提供者被回收
+	 */
+	private static final class Binding extends WeakReference<DataProvider>{
+		protected final Object [] contexts;
+
+		protected Binding(DataProvider provider,Object [] contexts){
+			super(provider);
+			this.contexts = contexts;
+		}
+	}
+
+	/**
+	 * 复制值
+	 * @param value 值
+	 * @return 新的值
+	 */
+	private static ExprValue copy(ExprValue value){
+		switch (value.getDataType()){
+		case Long:
+			return new ExprValue(value.getLong());
+		case Double:
+			return new ExprValue(value.getDouble());
+		case Boolean:
+			return new ExprValue(value.getBoolean());
+		case String:
+			return new ExprValue(value.getString());
+		case Date:
+			return new ExprValue((Date)value.getValue());
+		default:
+		}
+		return new ExprValue();
+	}
+
+	/**
+	 * 计算计划的节点
+	 */
+	private abstract static class Node {
+		/**
+		 * 计算
+		 * @param provider 变量提供者
+		 * @param contexts 变量上下文
+		 * @param fresh 是否需要新的值(调用者可能修改返回值)，为false时可返回共享的只读值
+		 * @return 计算结果
+		 */
+		abstract ExprValue eval(DataProvider provider,Object [] contexts,boolean fresh);
+
+		/**
+		 * 计算布尔值
+		 */
+		boolean test(DataProvider provider,Object [] contexts){
+			return eval(provider,contexts,false).getBoolean();
+		}
+
+		/**
+		 * 是否常量
+		 */
+		boolean isConstant(){
+			return false;
+		}
+	}
+
+	private static final class Const extends Node{
+		private final ExprValue value;
+
+		Const(ExprValue value){
+			this.value = value;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			return fresh ? copy(value) : value;
+		}
+
+		@Override
+		boolean isConstant(){
+			return true;
+		}
+	}
+
+	private static final class Slot extends Node{
+		private final int index;
+		private final String name;
+
+		Slot(int index,String name){
+			this.index = index;
+			this.name = name;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			String value = provider.getValue(name, contexts[index], null);
+			return value != null ? new ExprValue(value): null;
+		}
+	}
+
+	private static final class Arithmetic extends Node{
+		private final Operator operator;
+		private final Node left;
+		private final Node right;
+
+		Arithmetic(Operator operator,Node left,Node right){
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			//左操作数会被修改，需要新的值
+			ExprValue l = left.eval(provider, contexts, true);
+			ExprValue r = right.eval(provider, contexts, false);
+			switch (operator) {
+			case OP_Add:
+				return l.add(r);
+			case OP_Sub:
+				return l.sub(r);
+			case OP_Mul:
+				return l.mul(r);
+			case OP_Div:
+				return l.div(r);
+			case OP_Mod:
+				return l.mod(r);
+			default:
+			}
+			throw new FormulaException("Unsupport operator:" + operator);
+		}
+
+		@Override
+		boolean isConstant(){
+			return left.isConstant() && right.isConstant();
+		}
+	}
+
+	private static final class Compare extends Node{
+		private final Operator operator;
+		private final Node left;
+		private final Node right;
+
+		Compare(Operator operator,Node left,Node right){
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			return new ExprValue(test(provider,contexts));
+		}
+
+		@Override
+		boolean test(DataProvider provider,Object [] contexts){
+			int result = left.eval(provider, contexts, false).compareTo(right.eval(provider, contexts, false));
+			switch (operator){
+			case OP_Greater:
+				return result > 0;
+			case OP_Greater_Equal:
+				return result >= 0;
+			case OP_Equal:
+				return result == 0;
+			case OP_Not_Equal:
+				return result != 0;
+			case OP_Less:
+				return result < 0;
+			case OP_Less_Equal:
+				return result <= 0;
+			default:
+			}
+			throw new FormulaException("Unsupport operator:" + operator);
+		}
+
+		@Override
+		boolean isConstant(){
+			return left.isConstant() && right.isConstant();
+		}
+	}
+
+	private static final class Logical extends Node{
+		private final boolean and;
+		private final Node left;
+		private final Node right;
+
+		Logical(Operator operator,Node left,Node right){
+			this.and = operator == Operator.OP_And;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			return new ExprValue(test(provider,contexts));
+		}
+
+		@Override
+		boolean test(DataProvider provider,Object [] contexts){
+			return and ? left.test(provider, contexts) && right.test(provider, contexts)
+					: left.test(provider, contexts) || right.test(provider, contexts);
+		}
+
+		@Override
+		boolean isConstant(){
+			return left.isConstant() && right.isConstant();
+		}
+	}
+
+	private static final class Unary extends Node{
+		private final Operator operator;
+		private final Node child;
+
+		Unary(Operator operator,Node child){
+			this.operator = operator;
+			this.child = child;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			switch (operator){
+			case OP_Negative:{
+				ExprValue value = child.eval(provider, contexts, false);
+				switch (value.getDataType()){
+				case Long:
+					return new ExprValue(-value.getLong());
+				case Double:
+					return new ExprValue(-value.getDouble());
+				default:
+				}
+				throw new FormulaException("Can not get a negative value of " + value.getDataType());
+			}
+			case OP_Positive:
+				return child.eval(provider, contexts, fresh);
+			case OP_Not:
+				return new ExprValue(test(provider,contexts));
+			default:
+			}
+			throw new FormulaException("Unsupported operator:" + operator.toString());
+		}
+
+		@Override
+		boolean test(DataProvider provider,Object [] contexts){
+			if (operator == Operator.OP_Not){
+				ExprValue value = child.eval(provider, contexts, false);
+				if (value.getDataType() == DataType.Boolean){
+					return !value.getBoolean();
+				}
+				throw new FormulaException("Can not get a negative value of " + value.getDataType());
+			}
+			return super.test(provider, contexts);
+		}
+
+		@Override
+		boolean isConstant(){
+			return child.isConstant();
+		}
+	}
+
+	/**
+	 * 按原有方式计算的节点(函数等)
+	 */
+	private static final class Interpreted extends Node{
+		private final Expression expr;
+
+		Interpreted(Expression expr){
+			this.expr = expr;
+		}
+
+		@Override
+		ExprValue eval(DataProvider provider, Object[] contexts, boolean fresh) {
+			return expr.getValue(provider);
+		}
+	}
+}
@@ -0,0 +1,475 @@
+package com.anysoft.rrm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.alogic.metrics.Fragment.Method;
+import com.anysoft.util.Reportable;
+
+/**
+ * 基于内存映射文件的环形数据库(Round Robin Database)
+ *
+ * <p>
+ * 参照rrdtool的模型，每个模型对应一个固定大小的文件，文件中包含多个数据源(ds)和多个归档(archive)：<br>
+ * - 数据源 : 具有名称和归并方法(sum/avg/max/min/lst); <br>
+ * - 归档 : 具有步长(ms)和行数，按时间槽环形存储，例如1分钟*1440,1小时*720,1天*730; <br>
+ *
+ * <p>
+ * 每次更新同时归并到所有的归档，各归档按自身的步长对原始数据进行归并，效果等同于由细粒度的归档向粗粒度的归档逐级归并.
+ * 每行包括时间槽的开始时间、归并次数以及各数据源的值.
+ *
+ * <p>
+ * 更新时只锁定所在的行(按行号分段加锁)，不同的行可以并发更新；数据直接写入映射内存，由操作系统负责回写文件，
+ * 因此进程重启之后历史数据仍然保留.
+ *
+ * <p>
+ * 如果已有文件的结构(数据源或归档)和定义不一致，原有文件将被改名备份，并按新的定义创建文件.
+ *
+ * @author duanyy
+ * @since 1.6.10.22
+ */
+public class RRDFile implements Reportable{
+
+	/**
+	 * 文件标识
+	 */
+	protected static final int MAGIC = 0x52524446;
+
+	/**
+	 * 文件格式版本
+	 */
+	protected static final int VERSION = 1;
+
+	/**
+	 * 模型id所占的字节数
+	 */
+	protected static final int ID_SIZE = 256;
+
+	/**
+	 * 数据源名称所占的字节数
+	 */
+	protected static final int DS_NAME_SIZE = 32;
+
+	/**
+	 * 固定头部的长度
+	 */
+	protected static final int FIXED_HEADER_SIZE = 24 + ID_SIZE;
+
+	protected static final Charset UTF8 = Charset.forName("utf-8");
+
+	/**
+	 * 模型id
+	 */
+	protected String id;
+
+	/**
+	 * 文件
+	 */
+	protected File file;
+
+	/**
+	 * 数据源名称
+	 */
+	protected String [] ds;
+
+	/**
+	 * 数据源的归并方法
+	 */
+	protected Method [] methods;
+
+	/**
+	 * 归档的步长(ms)
+	 */
+	protected long [] steps;
+
+	/**
+	 * 归档的行数
+	 */
+	protected int [] rows;
+
+	/**
+	 * 归档在文件中的偏移量
+	 */
+	protected int [] offsets;
+
+	/**
+	 * 行的长度
+	 */
+	protected int rowSize;
+
+	/**
+	 * 映射内存
+	 */
+	protected MappedByteBuffer buffer;
+
+	/**
+	 * 分段锁
+	 */
+	protected Object [] locks;
+
+	/**
+	 * 构造
+	 * @param id 模型id
+	 * @param file 文件
+	 * @param ds 数据源名称
+	 * @param methods 数据源的归并方法
+	 * @param steps 归档的步长(ms)，按从小到大排列
+	 * @param rows 归档的行数
+	 * @param stripes 分段锁的数量
+	 * @throws IOException
+	 */
+	public RRDFile(String id,File file,String [] ds,Method [] methods,long [] steps,int [] rows,int stripes) throws IOException{
+		if (ds.length != methods.length || steps.length != rows.length){
+			throw new IllegalArgumentException("The definition of rrd is not valid:" + id);
+		}
+		this.id = id;
+		this.file = file;
+		this.ds = ds;
+		this.methods = methods;
+		this.steps = steps;
+		this.rows = rows;
+
+		rowSize = 16 + 8 * ds.length;
+		offsets = new int[steps.length];
+		long offset = align(FIXED_HEADER_SIZE + ds.length * (DS_NAME_SIZE + 4) + steps.length * 12);
+		for (int i = 0 ;i < steps.length ; i ++){
+			if (steps[i] <= 0 || rows[i] <= 0){
+				throw new IllegalArgumentException("The definition of rrd archive is not valid:" + id);
+			}
+			offsets[i] = (int)offset;
+			offset += (long)rows[i] * rowSize;
+			if (offset > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("The rrd file is too large:" + id);
+			}
+		}
+
+		int size = 1;
+		while (size < stripes){
+			size <<= 1;
+		}
+		locks = new Object[size];
+		for (int i = 0 ; i < size ; i ++){
+			locks[i] = new Object();
+		}
+
+		buffer = open(file,(int)offset);
+	}
+
+	public String getId(){
+		return id;
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	public String [] getDataSources(){
+		return ds;
+	}
+
+	public long [] getSteps(){
+		return steps;
+	}
+
+	/**
+	 * 更新数据
+	 * @param timestamp 时间戳(ms)
+	 * @param values 各数据源的值，和数据源的定义一一对应
+	 */
+	public void update(long timestamp,double... values){
+		int count = Math.min(values.length, ds.length);
+		for (int i = 0 ; i < steps.length ; i ++){
+			long slot = timestamp - timestamp % steps[i];
+			int row = (int)((slot / steps[i]) % rows[i]);
+			int pos = offsets[i] + row * rowSize;
+
+			synchronized (locks[(i * 31 + row) & (locks.length - 1)]){
+				long n = buffer.getLong(pos) == slot ? buffer.getLong(pos + 8) : 0;
+				for (int j = 0 ; j < count ; j ++){
+					int valuePos = pos + 16 + j * 8;
+					buffer.putDouble(valuePos, n <= 0 ? values[j] : consolidate(methods[j],buffer.getDouble(valuePos),values[j],n));
+				}
+				buffer.putLong(pos + 8, n + 1);
+				buffer.putLong(pos, slot);
+			}
+		}
+	}
+
+	/**
+	 * 归并
+	 * @param method 归并方法
+	 * @param current 当前值
+	 * @param value 新的值
+	 * @param n 当前的归并次数
+	 * @return 归并之后的值
+	 */
+	protected double consolidate(Method method,double current,double value,long n){
+		switch (method){
+		case sum:
+			return current + value;
+		case avg:
+			return current + (value - current) / (n + 1);
+		case max:
+			return Math.max(current, value);
+		case min:
+			return Math.min(current, value);
+		default:
+			return value;
+		}
+	}
+
+	/**
+	 * 查询数据
+	 *
+	 * <p>
+	 * 选择步长不小于指定步长的最细粒度的归档，如果没有，则选择最粗粒度的归档.没有数据的时间槽不输出.
+	 *
+	 * @param step 期望的步长(ms)
+	 * @param from 开始时间(ms)
+	 * @param to 结束时间(ms)
+	 * @param result 结果
+	 * @return 实际的步长
+	 */
+	public long fetch(long step,long from,long to,List<Row> result){
+		int archive = steps.length - 1;
+		for (int i = 0 ; i < steps.length ; i ++){
+			if (steps[i] >= step){
+				archive = i;
+				break;
+			}
+		}
+
+		long current = steps[archive];
+		long start = Math.max(from - from % current, to - to % current - (rows[archive] - 1) * current);
+		for (long slot = start ; slot <= to ; slot += current){
+			int row = (int)((slot / current) % rows[archive]);
+			int pos = offsets[archive] + row * rowSize;
+			synchronized (locks[(archive * 31 + row) & (locks.length - 1)]){
+				if (buffer.getLong(pos) == slot){
+					double [] values = new double[ds.length];
+					for (int j = 0 ; j < values.length ; j ++){
+						values[j] = buffer.getDouble(pos + 16 + j * 8);
+					}
+					result.add(new Row(slot,buffer.getLong(pos + 8),values));
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * 将映射内存中的修改写入文件
+	 */
+	public void force(){
+		buffer.force();
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			Document doc = xml.getOwnerDocument();
+			xml.setAttribute("id", id);
+			xml.setAttribute("file", file.getPath());
+			for (int i = 0 ; i < ds.length ; i ++){
+				Element e = doc.createElement("ds");
+				e.setAttribute("id", ds[i]);
+				e.setAttribute("method", methods[i].name());
+				xml.appendChild(e);
+			}
+			for (int i = 0 ; i < steps.length ; i ++){
+				Element e = doc.createElement("archive");
+				e.setAttribute("step", String.valueOf(steps[i]));
+				e.setAttribute("rows", String.valueOf(rows[i]));
+				xml.appendChild(e);
+			}
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			json.put("id", id);
+			json.put("file", file.getPath());
+			List<Object> list = new ArrayList<Object>(); // NOSONAR
+			for (int i = 0 ; i < ds.length ; i ++){
+				Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+				map.put("id", ds[i]);
+				map.put("method", methods[i].name());
+				list.add(map);
+			}
+			json.put("ds", list);
+			list = new ArrayList<Object>(); // NOSONAR
+			for (int i = 0 ; i < steps.length ; i ++){
+				Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+				map.put("step", steps[i]);
+				map.put("rows", rows[i]);
+				list.add(map);
+			}
+			json.put("archive", list);
+		}
+	}
+
+	/**
+	 * 打开文件，如果文件结构和定义不一致，重新创建
+	 * @param file 文件
+	 * @param size 文件大小
+	 * @return 映射内存
+	 * @throws IOException
+	 */
+	protected MappedByteBuffer open(File file,int size) throws IOException{
+		boolean exist = file.exists();
+		if (exist && file.length() != size){
+			backup(file);
+			exist = false;
+		}
+
+		MappedByteBuffer mapped = map(file,size);
+		if (exist && !isCompatible(mapped)){
+			backup(file);
+			mapped = map(file,size);
+			exist = false;
+		}
+		if (!exist){
+			writeHeader(mapped);
+		}
+		return mapped;
+	}
+
+	protected MappedByteBuffer map(File file,int size) throws IOException{
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()){
+			throw new IOException("Can not create directory:" + parent.getPath());
+		}
+		RandomAccessFile raf = new RandomAccessFile(file,"rw");
+		try {
+			if (raf.length() != size){
+				raf.setLength(size);
+			}
+			FileChannel channel = raf.getChannel();
+			//关闭文件之后，映射内存仍然有效
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}finally{
+			raf.close();
+		}
+	}
+
+	protected void backup(File file) throws IOException{
+		File bak = new File(file.getPath() + "." + System.currentTimeMillis() + ".bak");
+		if (!file.renameTo(bak)){
+			throw new IOException("Can not backup rrd file:" + file.getPath());
+		}
+	}
+
+	protected boolean isCompatible(MappedByteBuffer mapped){
+		if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+				|| mapped.getInt(8) != ds.length || mapped.getInt(12) != steps.length){
+			return false;
+		}
+		int pos = FIXED_HEADER_SIZE;
+		for (int i = 0 ; i < ds.length ; i ++){
+			if (!ds[i].equals(getString(mapped,pos,DS_NAME_SIZE)) || mapped.getInt(pos + DS_NAME_SIZE) != methods[i].ordinal()){
+				return false;
+			}
+			pos += DS_NAME_SIZE + 4;
+		}
+		for (int i = 0 ; i < steps.length ; i ++){
+			if (mapped.getLong(pos) != steps[i] || mapped.getInt(pos + 8) != rows[i]){
+				return false;
+			}
+			pos += 12;
+		}
+		return true;
+	}
+
+	protected void writeHeader(MappedByteBuffer mapped){
+		mapped.putInt(0, MAGIC);
+		mapped.putInt(4, VERSION);
+		mapped.putInt(8, ds.length);
+		mapped.putInt(12, steps.length);
+		mapped.putLong(16, System.currentTimeMillis());
+		putString(mapped,24,ID_SIZE,id);
+		int pos = FIXED_HEADER_SIZE;
+		for (int i = 0 ; i < ds.length ; i ++){
+			putString(mapped,pos,DS_NAME_SIZE,ds[i]);
+			mapped.putInt(pos + DS_NAME_SIZE, methods[i].ordinal());
+			pos += DS_NAME_SIZE + 4;
+		}
+		for (int i = 0 ; i < steps.length ; i ++){
+			mapped.putLong(pos, steps[i]);
+			mapped.putInt(pos + 8, rows[i]);
+			pos += 12;
+		}
+		mapped.force();
+	}
+
+	protected static long align(long value){
+		return (value + 7) & ~7L;
+	}
+
+	protected static void putString(MappedByteBuffer mapped,int pos,int size,String value){
+		byte [] bytes = value.getBytes(UTF8);
+		int length = Math.min(bytes.length, size - 2);
+		mapped.putShort(pos, (short)length);
+		for (int i = 0 ; i < length ; i ++){
+			mapped.put(pos + 2 + i, bytes[i]);
+		}
+	}
+
+	protected static String getString(MappedByteBuffer mapped,int pos,int size){
+		int length = Math.max(0, Math.min(mapped.getShort(pos), size - 2));
+		byte [] bytes = new byte[length];
+		for (int i = 0 ; i < length ; i ++){
+			bytes[i] = mapped.get(pos + 2 + i);
+		}
+		return new String(bytes,UTF8);
+	}
+
+	/**
+	 * 数据行
+	 */
+	public static class Row {
+		/**
+		 * 时间槽的开始时间
+		 */
+		protected long timestamp;
+
+		/**
+		 * 归并次数
+		 */
+		protected long count;
+
+		/**
+		 * 各数据源的值
+		 */
+		protected double [] values;
+
+		public Row(long timestamp,long count,double [] values){
+			this.timestamp = timestamp;
+			this.count = count;
+			this.values = values;
+		}
+
+		public long getTimestamp(){
+			return timestamp;
+		}
+
+		public long getCount(){
+			return count;
+		}
+
+		public double [] getValues(){
+			return values;
+		}
+	}
+}
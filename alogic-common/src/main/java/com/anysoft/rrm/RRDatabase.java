@@ -0,0 +1,166 @@
+package com.anysoft.rrm;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alogic.metrics.Fragment.Method;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+
+/**
+ * 环形数据库
+ *
+ * <p>
+ * 管理所有的{@link RRDFile}，每个模型对应目录rrm.db.home下的一个文件.如果没有配置rrm.db.home，数据库不启用.<br>
+ * 参数如下：<br>
+ * - rrm.db.home : 文件所在目录; <br>
+ * - rrm.db.archives : 归档定义，格式为[步长(ms)]:[行数],多个归档用逗号分隔，缺省为1分钟*1440,1小时*720,1天*730; <br>
+ * - rrm.db.stripes : 每个文件的分段锁数量，缺省为64; <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.22
+ */
+public class RRDatabase {
+	protected static final Logger LOG = LoggerFactory.getLogger(RRDatabase.class);
+
+	/**
+	 * 缺省的归档定义
+	 */
+	public static final String DFT_ARCHIVES = "60000:1440,3600000:720,86400000:730";
+
+	/**
+	 * 文件所在目录
+	 */
+	protected File home = null;
+
+	/**
+	 * 归档的步长
+	 */
+	protected long [] steps;
+
+	/**
+	 * 归档的行数
+	 */
+	protected int [] rows;
+
+	/**
+	 * 分段锁的数量
+	 */
+	protected int stripes = 64;
+
+	/**
+	 * 已经打开的文件
+	 */
+	protected Map<String,RRDFile> files = new ConcurrentHashMap<String,RRDFile>();
+
+	public RRDatabase(Properties p){
+		String path = PropertiesConstants.getString(p, "rrm.db.home", "");
+		if (StringUtils.isNotEmpty(path)){
+			home = new File(path);
+		}
+		stripes = PropertiesConstants.getInt(p, "rrm.db.stripes", stripes);
+
+		String [] archives = PropertiesConstants.getString(p, "rrm.db.archives", DFT_ARCHIVES).split(",");
+		steps = new long[archives.length];
+		rows = new int[archives.length];
+		try {
+			for (int i = 0 ; i < archives.length ; i ++){
+				String [] pair = archives[i].trim().split(":");
+				steps[i] = Long.parseLong(pair[0].trim());
+				rows[i] = Integer.parseInt(pair[1].trim());
+			}
+		}catch (Exception ex){
+			LOG.error("rrm.db.archives is not valid,use default:" + DFT_ARCHIVES,ex);
+			steps = new long[]{60000L,3600000L,86400000L};
+			rows = new int[]{1440,720,730};
+		}
+	}
+
+	/**
+	 * 是否启用
+	 * @return 如果配置了rrm.db.home,返回true
+	 */
+	public boolean isEnabled(){
+		return home != null;
+	}
+
+	/**
+	 * 打开模型，如果模型文件不存在，则创建
+	 * @param id 模型id
+	 * @param ds 数据源名称
+	 * @param methods 数据源的归并方法
+	 * @return 模型文件，如果数据库没有启用或者打开失败，返回null
+	 */
+	public RRDFile open(String id,String [] ds,Method [] methods){
+		if (!isEnabled()){
+			return null;
+		}
+		RRDFile found = files.get(id);
+		if (found == null){
+			synchronized (this){
+				found = files.get(id);
+				if (found == null){
+					try {
+						found = new RRDFile(id,new File(home,getFileName(id)),ds,methods,steps,rows,stripes);
+						files.put(id, found);
+					}catch (Exception ex){
+						LOG.error("Can not open rrd file:" + id,ex);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 获取已经打开的模型
+	 * @param id 模型id
+	 * @return 模型文件
+	 */
+	public RRDFile get(String id){
+		return files.get(id);
+	}
+
+	public Collection<RRDFile> list(){
+		return files.values();
+	}
+
+	/**
+	 * 将所有的修改写入文件
+	 */
+	public void force(){
+		for (RRDFile file:files.values()){
+			file.force();
+		}
+	}
+
+	/**
+	 * 由模型id生成文件名
+	 * @param id 模型id
+	 * @return 文件名
+	 */
+	protected String getFileName(String id){
+		StringBuilder name = new StringBuilder(id.length() + 4);
+		for (int i = 0 ; i < id.length() ; i ++){
+			char c = id.charAt(i);
+			name.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+		}
+		return name.append(".rrd").toString();
+	}
+
+	protected static RRDatabase instance = null;
+
+	public static synchronized RRDatabase get(){
+		if (instance == null){
+			instance = new RRDatabase(Settings.get());
+		}
+		return instance;
+	}
+}
@@ -2,10 +2,9 @@ package com.anysoft.selector.impl;
 
 import org.w3c.dom.Element;
 
+import com.anysoft.formula.CompiledExpression;
 import com.anysoft.formula.DataProvider;
-import com.anysoft.formula.DefaultFunctionHelper;
 import com.anysoft.formula.Expression;
-import com.anysoft.formula.Parser;
 import com.anysoft.util.BaseException;
 import com.anysoft.util.Properties;
 import com.anysoft.util.PropertiesConstants;
@@ -17,14 +16,15 @@ import com.anysoft.selector.Selector;
  * @author duanyy
  * @since 1.5.2
  * 
+ * @version 1.6.10.20 [20171124 duanyy] <br>
+ * - 采用编译之后的公式计算 <br>
  */
 public class Formula extends Selector {
 
 	
 	public void onConfigure(Element _e, Properties _p) throws BaseException {
 		formula = PropertiesConstants.getString(_p, "formula", formula,true);
-		Parser parser = new Parser(new DefaultFunctionHelper(null));
-		expr = parser.parse(formula);
+		expr = CompiledExpression.compile(formula);
 	}
 
 	
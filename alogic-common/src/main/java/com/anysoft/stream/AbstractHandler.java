@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -50,6 +51,11 @@ import com.anysoft.util.XmlTools;
  * 
  * @version 1.6.8.1 [20170321 duanyy] <br>
  * - 增加配置参数abandonWhenFull,当异步队列满的时候，可选择抛弃后续的数据; <br>
+ * 
+ * @version 1.6.10.24 [20171204 duanyy] <br>
+ * - 异步工作者抽象为AsyncWorker接口，通过async.worker选择，缺省仍为原有的Worker(queue); <br>
+ * - 可通过async.worker=ring选用基于环形缓冲区的{@link RingBufferWorker}，注意其abandonWhenFull=false时最多等待async.blockTimeout，flush为异步触发; <br>
+ * - 原有的Worker(async.worker=queue)的队列长度改为原子计数; <br>
  */
 public abstract class AbstractHandler<data extends Flowable> implements Handler<data> {
 	
@@ -86,7 +92,7 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 	/**
 	 * 异步模式下工作线程
 	 */
-	protected Worker<data> asyncWorker = null;	
+	protected AsyncWorker<data> asyncWorker = null;	
 	
 	protected String id;
 	
@@ -110,12 +116,24 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 		
 		async = PropertiesConstants.getBoolean(p,"async",async);
 		if (async){
-			asyncWorker = new Worker<data>(this,p);
+			asyncWorker = createAsyncWorker(p);
 		}
 		
 		onConfigure(_e, p);
 	}
 
+	/**
+	 * 创建异步工作者
+	 * @param p 变量集
+	 * @return 异步工作者
+	 */
+	protected AsyncWorker<data> createAsyncWorker(Properties p){
+		String worker = PropertiesConstants.getString(p,"async.worker","queue",true);
+		if ("ring".equals(worker)){
+			return new RingBufferWorker<data>(this,p);
+		}
+		return new Worker<data>(this,p);
+	}
 	
 	public void close() throws Exception {
 		if (async && asyncWorker != null){
@@ -328,7 +346,30 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 		}
 	}
 	
-	public static class Worker<data extends Flowable> implements Runnable,Reportable,AutoCloseable{
+	/**
+	 * 异步工作者
+	 * 
+	 * @since 1.6.10.24
+	 */
+	public static interface AsyncWorker<data extends Flowable> extends Reportable,AutoCloseable{
+		/**
+		 * 提交数据
+		 * @param _data 数据
+		 * @param timestamp 时间戳
+		 */
+		public void handle(data _data,long timestamp);
+		
+		/**
+		 * 请求处理缓冲的数据
+		 * @param timestamp 时间戳
+		 */
+		public void flush(long timestamp);
+		
+		@Override
+		public void close();
+	}
+	
+	public static class Worker<data extends Flowable> implements Runnable,AsyncWorker<data>{
 		/**
 		 * 异步模式下的时间间隔
 		 */
@@ -349,7 +390,7 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 		/**
 		 * 当前队列长度
 		 */
-		protected volatile int currentQueueLength = 0;
+		protected final AtomicInteger currentQueueLength = new AtomicInteger(0);
 		
 		private boolean stopped = false;
 		
@@ -362,7 +403,6 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 			interval = PropertiesConstants.getLong(p,"async.interval", interval,true);
 			maxQueueLength = PropertiesConstants.getInt(p,"async.maxQueueLength", maxQueueLength,true);
 			abandonWhenFull = PropertiesConstants.getBoolean(p,"async.abandonWhenFull", abandonWhenFull,true);
-			currentQueueLength = 0;
 			queue = new ConcurrentLinkedQueue<data>();
 			
 			thread = new Thread(this);
@@ -384,7 +424,7 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 			if (xml != null){
 				xml.setAttribute("interval", String.valueOf(interval));
 				xml.setAttribute("maxQueueLength", String.valueOf(maxQueueLength));
-				xml.setAttribute("currentQueueLength", String.valueOf(currentQueueLength));
+				xml.setAttribute("currentQueueLength", String.valueOf(currentQueueLength.get()));
 			}
 		}
 		
@@ -392,29 +432,29 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 			if (json != null){
 				json.put("interval", interval);
 				json.put("maxQueueLength", String.valueOf(maxQueueLength));
-				json.put("currentQueueLength", String.valueOf(currentQueueLength));
+				json.put("currentQueueLength", String.valueOf(currentQueueLength.get()));
 			}
 		}
 		
 		public void handle(data _data,long timestamp){
 			if (abandonWhenFull){
 				//开启了abandonWhenFull
-				if (currentQueueLength <= maxQueueLength){
+				if (currentQueueLength.get() <= maxQueueLength){
 					queue.offer(_data);
-					currentQueueLength ++;
+					currentQueueLength.incrementAndGet();
 				} 
 				//队列满的时候，抛弃掉
 			}else{
-				if (currentQueueLength > maxQueueLength){
+				if (currentQueueLength.get() > maxQueueLength){
 					//当队列已经满的时候，必须先出一个，才能进一个
 					data item = queue.poll();
 					if (item != null){
 						handler.onHandle(item,timestamp);
-						currentQueueLength --;
+						currentQueueLength.decrementAndGet();
 					}
 				}
 				queue.offer(_data);
-				currentQueueLength ++;
+				currentQueueLength.incrementAndGet();
 			}
 		}
 		
@@ -423,7 +463,7 @@ public abstract class AbstractHandler<data extends Flowable> implements Handler<
 				data item = null;	
 				while ((item = queue.poll()) != null){
 					handler.onHandle(item,timestamp);
-					currentQueueLength --;
+					currentQueueLength.decrementAndGet();
 				}
 				handler.onFlush(timestamp);
 			}
@@ -26,6 +26,9 @@ import com.anysoft.util.XmlTools;
  * 
  * @version 1.6.7.9 [20170201 duanyy] <br>
  * - 采用SLF4j日志框架输出日志 <br>
+ * 
+ * @version 1.6.10.25 [20171206 duanyy] <br>
+ * - 修正分发序号计算的运算符优先级问题，hash值经过混合之后再映射到子handler <br>
  */
 public class DispatchHandler<data extends Flowable> extends AbstractHandler<data> {
 	protected Handler<data>[] children = null;
@@ -35,7 +38,7 @@ public class DispatchHandler<data extends Flowable> extends AbstractHandler<data
 	
 	protected void onHandle(data _data,long timestamp) {
 		if (children != null){
-			int idx = _data.hashCode() & Integer.MAX_VALUE % threadCnt;
+			int idx = indexOf(_data.hashCode(),children.length);
 			
 			if (children[idx] != null){
 				children[idx].handle(_data,timestamp);
@@ -54,6 +57,24 @@ public class DispatchHandler<data extends Flowable> extends AbstractHandler<data
 		}
 	}
 	
+	/**
+	 * 将hash值映射到[0,n)
+	 * 
+	 * <p>先采用murmur3的fmix32混合hash值的各位，再按乘法映射到区间，避免低位分布不均造成的倾斜.
+	 * 
+	 * @param hash hash值
+	 * @param n 区间大小
+	 * @return 序号
+	 */
+	protected static int indexOf(int hash,int n){
+		int h = hash;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return (int)(((h & 0xffffffffL) * n) >>> 32);
+	}
 	
 	public void report(Element root){
 		super.report(root);
@@ -0,0 +1,450 @@
+package com.anysoft.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import org.w3c.dom.Element;
+
+import com.anysoft.util.IOTools;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+
+/**
+ * 文件输出的数据处理器基类
+ *
+ * <p>
+ * 数据被格式化到可重用的缓冲区中，批量编码之后通过FileChannel写出，不再经过日志框架.参数如下：<br>
+ * - file.path : 文件路径，可包含变量，例如${log.home}/bizlog${thread}.log; <br>
+ * - file.encoding : 字符集，缺省为utf-8; <br>
+ * - file.bufferSize : 缓冲区大小(字节)，缓冲区满或flush时写出，缺省为64k; <br>
+ * - file.maxSize : 单个文件的最大长度(字节)，超出则滚动，缺省为100m，小于等于0时不按大小滚动; <br>
+ * - file.rollCycle : 按时间滚动的周期(ms)，按本地时区对齐，例如3600000为每小时，缺省为86400000，小于等于0时不按时间滚动; <br>
+ * - file.gzip : 滚动之后的文件是否在后台压缩为gz，缺省为false; <br>
+ * - file.fsync : 同步到磁盘的策略，none(由操作系统决定),flush(每次flush),always(每次写出)，缺省为none; <br>
+ * - file.maxPending : 写出失败时保留待重试的最大长度(字符)，超出则抛弃，缺省为file.bufferSize的4倍; <br>
+ *
+ * <p>
+ * 写出失败时，如果尚未写出任何字节，缓冲区中的数据保留到下次flush或1秒之后重试;如果已部分写出或超出file.maxPending，
+ * 则抛弃并计入discarded.
+ *
+ * <p>
+ * 滚动之后的文件名为[file.path].[周期开始时间yyyyMMddHHmmss].[序号].
+ *
+ * <p>
+ * 子类实现{@link #format(Flowable, StringBuilder)}，将数据追加到缓冲区.
+ *
+ * @author duanyy
+ * @since 1.6.10.26
+ */
+public abstract class FileHandler<data extends Flowable> extends AbstractHandler<data> {
+
+	/**
+	 * 同步到磁盘的策略
+	 */
+	public static enum FSync {
+		none,
+		flush,
+		always
+	}
+
+	/**
+	 * 压缩滚动文件的线程
+	 */
+	protected static final ExecutorService compressor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r,"file-handler-gzip");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	protected String path;
+
+	protected Charset charset = Charset.forName("utf-8");
+
+	protected int bufferSize = 64 * 1024;
+
+	protected long maxSize = 100 * 1024 * 1024L;
+
+	protected long rollCycle = 24 * 60 * 60 * 1000L;
+
+	protected boolean gzip = false;
+
+	protected FSync fsync = FSync.none;
+
+	protected int maxPending = 0;
+
+	/**
+	 * 格式化缓冲区
+	 */
+	protected StringBuilder text = null;
+
+	/**
+	 * 编码缓冲区
+	 */
+	protected ByteBuffer bytes = null;
+
+	protected CharsetEncoder encoder = null;
+
+	/**
+	 * 当前文件
+	 */
+	protected FileChannel channel = null;
+
+	/**
+	 * 当前文件的长度
+	 */
+	protected long fileSize = 0;
+
+	/**
+	 * 当前周期的开始时间
+	 */
+	protected long cycleStart = 0;
+
+	/**
+	 * 当前周期内滚动的序号
+	 */
+	protected int sequence = 0;
+
+	/**
+	 * 缓冲区中尚未写出的数据量
+	 */
+	protected int pending = 0;
+
+	/**
+	 * 写出的数据量
+	 */
+	protected long written = 0;
+
+	/**
+	 * 写出失败而抛弃的数据量
+	 */
+	protected long discarded = 0;
+
+	/**
+	 * 写出失败之后，下次重试的时间
+	 */
+	protected long nextRetry = 0;
+
+	/**
+	 * 写出的字节数
+	 */
+	protected long writtenBytes = 0;
+
+	/**
+	 * 写出失败的次数
+	 */
+	protected long errors = 0;
+
+	@Override
+	protected void onConfigure(Element e, Properties p) {
+		path = PropertiesConstants.getString(p, "file.path", "${log.home}/" + getClass().getSimpleName().toLowerCase() + "${thread}.log");
+		charset = Charset.forName(PropertiesConstants.getString(p, "file.encoding", "utf-8"));
+		bufferSize = Math.max(1024, PropertiesConstants.getInt(p, "file.bufferSize", bufferSize));
+		maxSize = PropertiesConstants.getLong(p, "file.maxSize", maxSize);
+		rollCycle = PropertiesConstants.getLong(p, "file.rollCycle", rollCycle);
+		gzip = PropertiesConstants.getBoolean(p, "file.gzip", gzip);
+		String value = PropertiesConstants.getString(p, "file.fsync", fsync.name());
+		try {
+			fsync = FSync.valueOf(value);
+		}catch (IllegalArgumentException ex){
+			LOG.error("Unknown file.fsync:" + value + ",use none instead.");
+			fsync = FSync.none;
+		}
+
+		maxPending = Math.max(bufferSize, PropertiesConstants.getInt(p, "file.maxPending", bufferSize * 4));
+
+		text = new StringBuilder(bufferSize);
+		bytes = ByteBuffer.allocateDirect(bufferSize);
+		encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * 将数据格式化到缓冲区
+	 * @param item 数据
+	 * @param buf 缓冲区
+	 */
+	protected abstract void format(data item,StringBuilder buf);
+
+	@Override
+	protected synchronized void onHandle(data item, long timestamp) {
+		int length = text.length();
+		try {
+			format(item,text);
+		}catch (Exception ex){
+			text.setLength(length);
+			LOG.error("Failed to format data:" + item.id(),ex);
+			return;
+		}
+		if (text.length() > length){
+			pending ++;
+		}
+		if (text.length() >= maxPending || (text.length() >= bufferSize && (nextRetry <= 0 || System.currentTimeMillis() >= nextRetry))){
+			write(fsync == FSync.always);
+		}
+	}
+
+	@Override
+	protected synchronized void onFlush(long timestamp) {
+		write(fsync != FSync.none);
+	}
+
+	/**
+	 * 将缓冲区中的内容写出
+	 * @param force 是否同步到磁盘
+	 */
+	protected void write(boolean force){
+		if (text.length() <= 0){
+			return;
+		}
+		long before = writtenBytes;
+		try {
+			FileChannel current = getChannel(System.currentTimeMillis());
+			CharBuffer chars = CharBuffer.wrap(text);
+			encoder.reset();
+			boolean endOfInput = false;
+			while (true){
+				CoderResult result = endOfInput ? encoder.flush(bytes) : encoder.encode(chars, bytes, true);
+				if (result.isOverflow()){
+					drain(current);
+					continue;
+				}
+				if (endOfInput){
+					break;
+				}
+				endOfInput = true;
+			}
+			drain(current);
+			written += pending;
+			pending = 0;
+			nextRetry = 0;
+			text.setLength(0);
+			if (force){
+				current.force(false);
+			}
+		}catch (IOException ex){
+			errors ++;
+			LOG.error("Failed to write file:" + path,ex);
+			closeChannel();
+			nextRetry = System.currentTimeMillis() + 1000L;
+			if (text.length() > 0 && (writtenBytes != before || text.length() >= maxPending)){
+				//已部分写出(重试会导致重复)或积压过多，抛弃
+				LOG.error(String.format("Discard %d items for file:%s",pending,path));
+				discarded += pending;
+				pending = 0;
+				text.setLength(0);
+			}
+		}finally{
+			bytes.clear();
+		}
+	}
+
+	protected void drain(FileChannel current) throws IOException{
+		bytes.flip();
+		while (bytes.hasRemaining()){
+			int size = current.write(bytes);
+			fileSize += size;
+			writtenBytes += size;
+		}
+		bytes.clear();
+	}
+
+	/**
+	 * 获取当前的文件，如果需要滚动，则先滚动
+	 * @param now 当前时间
+	 * @return 文件
+	 * @throws IOException
+	 */
+	protected FileChannel getChannel(long now) throws IOException{
+		long start = rollCycle > 0 ? getCycleStart(now) : 0;
+		if (channel != null){
+			if (start != cycleStart){
+				roll();
+				sequence = 0;
+			}else if (maxSize > 0 && fileSize >= maxSize){
+				roll();
+			}
+		}
+		if (channel == null){
+			File file = new File(path);
+			File parent = file.getParentFile();
+			if (parent != null && !parent.exists() && !parent.mkdirs()){
+				throw new IOException("Can not create directory:" + parent.getPath());
+			}
+			RandomAccessFile raf = new RandomAccessFile(file,"rw");
+			channel = raf.getChannel();
+			fileSize = channel.size();
+			channel.position(fileSize);
+			if (cycleStart == 0 && rollCycle > 0 && fileSize > 0){
+				//重启之后，如果已有文件属于之前的周期，先滚动
+				long modified = getCycleStart(file.lastModified());
+				if (modified != start){
+					cycleStart = modified;
+					roll();
+					return getChannel(now);
+				}
+			}
+		}
+		cycleStart = start;
+		return channel;
+	}
+
+	/**
+	 * 计算周期的开始时间(按本地时区对齐)
+	 * @param t 时间
+	 * @return 周期的开始时间
+	 */
+	protected long getCycleStart(long t){
+		long offset = TimeZone.getDefault().getOffset(t);
+		return ((t + offset) / rollCycle) * rollCycle - offset;
+	}
+
+	/**
+	 * 滚动当前文件
+	 * @throws IOException
+	 */
+	protected void roll() throws IOException{
+		closeChannel();
+
+		File file = new File(path);
+		if (!file.exists() || file.length() <= 0){
+			return;
+		}
+		String suffix = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(cycleStart > 0 ? cycleStart : file.lastModified()));
+		File rolled = new File(path + "." + suffix + "." + sequence);
+		while (rolled.exists() || new File(rolled.getPath() + ".gz").exists()){
+			sequence ++;
+			rolled = new File(path + "." + suffix + "." + sequence);
+		}
+		sequence ++;
+		if (!file.renameTo(rolled)){
+			throw new IOException("Can not roll file:" + path);
+		}
+		if (gzip){
+			compress(rolled);
+		}
+	}
+
+	/**
+	 * 在后台压缩文件
+	 * @param file 文件
+	 */
+	protected void compress(final File file){
+		compressor.execute(new Runnable(){
+			@Override
+			public void run() {
+				File gz = new File(file.getPath() + ".gz");
+				InputStream in = null;
+				OutputStream out = null;
+				try {
+					in = new FileInputStream(file);
+					out = new GZIPOutputStream(new FileOutputStream(gz),64 * 1024);
+					byte [] buf = new byte[64 * 1024];
+					int size = 0;
+					while ((size = in.read(buf)) > 0){
+						out.write(buf, 0, size);
+					}
+					out.close();
+					out = null;
+					if (!file.delete()){
+						LOG.warn("Can not delete file after gzip:" + file.getPath());
+					}
+				}catch (IOException ex){
+					LOG.error("Failed to gzip file:" + file.getPath(),ex);
+				}finally{
+					IOTools.close(in,out);
+				}
+			}
+		});
+	}
+
+	protected void closeChannel(){
+		if (channel != null){
+			try {
+				channel.close();
+			}catch (IOException ex){
+				LOG.error("Failed to close file:" + path,ex);
+			}
+			channel = null;
+			fileSize = 0;
+		}
+	}
+
+	@Override
+	public void close() throws Exception{
+		super.close();
+		synchronized (this){
+			write(fsync != FSync.none);
+			closeChannel();
+		}
+	}
+
+	@Override
+	public void report(Element xml) {
+		super.report(xml);
+		if (xml != null){
+			xml.setAttribute("path", path);
+			xml.setAttribute("fsync", fsync.name());
+			xml.setAttribute("written", String.valueOf(written));
+			xml.setAttribute("pending", String.valueOf(pending));
+			xml.setAttribute("discarded", String.valueOf(discarded));
+			xml.setAttribute("writtenBytes", String.valueOf(writtenBytes));
+			xml.setAttribute("errors", String.valueOf(errors));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		super.report(json);
+		if (json != null){
+			json.put("path", path);
+			json.put("fsync", fsync.name());
+			json.put("written", written);
+			json.put("pending", pending);
+			json.put("discarded", discarded);
+			json.put("writtenBytes", writtenBytes);
+			json.put("errors", errors);
+		}
+	}
+
+	/**
+	 * 追加文本，去掉其中的回车换行
+	 * @param buf 缓冲区
+	 * @param value 文本
+	 * @return 缓冲区
+	 */
+	protected static StringBuilder appendLine(StringBuilder buf,String value){
+		if (value != null){
+			for (int i = 0 ; i < value.length() ; i ++){
+				char c = value.charAt(i);
+				if (c != '\n' && c != '\r'){
+					buf.append(c);
+				}
+			}
+		}
+		return buf;
+	}
+}
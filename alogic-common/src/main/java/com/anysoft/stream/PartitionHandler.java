@@ -0,0 +1,231 @@
+package com.anysoft.stream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.anysoft.util.Properties;
+
+/**
+ * 按key分区的分发器
+ *
+ * <p>
+ * 和{@link DispatchHandler}一样按模板创建threadCnt个子handler，每个子handler对应一个分区，
+ * 每个分区具有独立的异步工作者({@link RingBufferWorker})：<br>
+ * - 按数据的getStatsDimesion()计算分区，hash值经过混合之后映射，分布均匀; <br>
+ * - 同一key的数据总是进入同一分区，由该分区唯一的工作线程按顺序处理，保证同一key的顺序; <br>
+ * - 各分区独立缓冲和flush，缓冲区满时的处理策略由async.policy决定; <br>
+ *
+ * <p>
+ * 分区的异步工作者参数取自本节点的async.*参数(参见{@link RingBufferWorker})，
+ * report中输出每个分区的分发数量、队列长度、丢弃数量和吞吐量，以及最大分区和平均值之比(skew).
+ *
+ * @author duanyy
+ * @since 1.6.10.25
+ */
+public class PartitionHandler<data extends Flowable> extends DispatchHandler<data> {
+
+	/**
+	 * 分区
+	 */
+	protected Partition<data> [] partitions = null;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	protected void onConfigure(Element e, Properties p) {
+		super.onConfigure(e, p);
+
+		if (children != null){
+			partitions = new Partition[children.length];
+			for (int i = 0 ; i < children.length ; i ++){
+				partitions[i] = new Partition<data>(i,children[i],p);
+			}
+		}
+	}
+
+	@Override
+	protected void onHandle(data _data,long timestamp) {
+		if (partitions != null){
+			String key = _data.getStatsDimesion();
+			int idx = indexOf(key == null ? 0 : key.hashCode(),partitions.length);
+			partitions[idx].handle(_data, timestamp);
+		}
+	}
+
+	@Override
+	protected void onFlush(long timestamp) {
+		if (partitions != null){
+			for (Partition<data> partition:partitions){
+				partition.flush(timestamp);
+			}
+		}
+	}
+
+	@Override
+	public void report(Element root){
+		super.report(root);
+
+		if (partitions != null){
+			Document doc = root.getOwnerDocument();
+			long max = 0;
+			long total = 0;
+			for (Partition<data> partition:partitions){
+				Element e = doc.createElement("partition");
+				partition.report(e);
+				root.appendChild(e);
+
+				max = Math.max(max, partition.dispatched.get());
+				total += partition.dispatched.get();
+			}
+			root.setAttribute("skew", String.valueOf(getSkew(max,total)));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json){
+		super.report(json);
+
+		if (partitions != null){
+			List<Object> array = new ArrayList<Object>(partitions.length);
+			long max = 0;
+			long total = 0;
+			for (Partition<data> partition:partitions){
+				Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+				partition.report(map);
+				array.add(map);
+
+				max = Math.max(max, partition.dispatched.get());
+				total += partition.dispatched.get();
+			}
+			json.put("partition", array);
+			json.put("skew", getSkew(max,total));
+		}
+	}
+
+	/**
+	 * 计算最大分区和平均值之比
+	 * @param max 最大分区的数量
+	 * @param total 总数量
+	 * @return 比值，分布均匀时接近1
+	 */
+	protected double getSkew(long max,long total){
+		return total <= 0 ? 0 : Math.round(max * partitions.length * 100.0 / total) / 100.0;
+	}
+
+	@Override
+	public void close() throws Exception{
+		if (partitions != null){
+			for (Partition<data> partition:partitions){
+				partition.close();
+			}
+		}
+		super.close();
+	}
+
+	/**
+	 * 分区
+	 *
+	 * <p>以异步方式将数据交给对应的子handler.
+	 */
+	public static class Partition<data extends Flowable> extends AbstractHandler<data>{
+		/**
+		 * 分区序号
+		 */
+		protected int index;
+
+		/**
+		 * 子handler
+		 */
+		protected Handler<data> child;
+
+		/**
+		 * 分发的数量
+		 */
+		protected final AtomicLong dispatched = new AtomicLong(0);
+
+		/**
+		 * 上次计算吞吐量的时间
+		 */
+		protected long lastReportTime = System.currentTimeMillis();
+
+		/**
+		 * 上次计算吞吐量时已处理的数量
+		 */
+		protected long lastHandled = 0;
+
+		public Partition(int index,Handler<data> child,Properties p){
+			this.index = index;
+			this.child = child;
+			async = true;
+			asyncWorker = new RingBufferWorker<data>(this,p);
+		}
+
+		@Override
+		public void handle(data _data,long timestamp){
+			dispatched.incrementAndGet();
+			super.handle(_data, timestamp);
+		}
+
+		@Override
+		protected void onHandle(data _data, long timestamp) {
+			if (child != null){
+				child.handle(_data, timestamp);
+			}
+		}
+
+		@Override
+		protected void onFlush(long timestamp) {
+			if (child != null){
+				child.flush(timestamp);
+			}
+		}
+
+		@Override
+		protected void onConfigure(Element e, Properties p) {
+			// 由构造函数初始化
+		}
+
+		/**
+		 * 计算自上次报告以来的吞吐量
+		 * @param handled 已处理的数量
+		 * @return 每秒处理的数量
+		 */
+		protected synchronized long getThroughput(long handled){
+			long now = System.currentTimeMillis();
+			long duration = now - lastReportTime;
+			long tps = duration <= 0 ? 0 : (handled - lastHandled) * 1000 / duration;
+			lastReportTime = now;
+			lastHandled = handled;
+			return tps;
+		}
+
+		@Override
+		public void report(Element xml){
+			if (xml != null){
+				xml.setAttribute("index", String.valueOf(index));
+				xml.setAttribute("dispatched", String.valueOf(dispatched.get()));
+				asyncWorker.report(xml);
+				if (asyncWorker instanceof RingBufferWorker){
+					xml.setAttribute("tps", String.valueOf(getThroughput(((RingBufferWorker<data>)asyncWorker).handled.get())));
+				}
+			}
+		}
+
+		@Override
+		public void report(Map<String,Object> json){
+			if (json != null){
+				json.put("index", index);
+				json.put("dispatched", dispatched.get());
+				asyncWorker.report(json);
+				if (asyncWorker instanceof RingBufferWorker){
+					json.put("tps", getThroughput(((RingBufferWorker<data>)asyncWorker).handled.get()));
+				}
+			}
+		}
+	}
+}
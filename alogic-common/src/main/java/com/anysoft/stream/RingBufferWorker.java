@@ -0,0 +1,363 @@
+package com.anysoft.stream;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+
+/**
+ * 基于环形缓冲区的异步工作者
+ *
+ * <p>
+ * 数据写入有界的环形缓冲区(无锁，多生产者)，由一个工作线程批量处理，满足以下任一条件即触发处理：<br>
+ * - 缓冲区中的数据达到async.batchSize; <br>
+ * - 距离上次处理超过async.interval(ms); <br>
+ * - 调用了flush; <br>
+ * 每次处理先对所有数据调用onHandle,再调用一次onFlush.
+ *
+ * <p>
+ * 缓冲区满时的处理策略(async.policy)：<br>
+ * - drop : 抛弃新的数据(缺省，对应async.abandonWhenFull=true); <br>
+ * - dropOldest : 抛弃最早的数据，写入新的数据; <br>
+ * - block : 等待工作线程处理，最多等待async.blockTimeout(ms)，超时则抛弃新的数据(对应async.abandonWhenFull=false); <br>
+ *
+ * <p>
+ * 其他参数：<br>
+ * - async.maxQueueLength : 缓冲区大小，向上取整到2的幂，缺省为1024; <br>
+ *
+ * <p>
+ * 与原有的{@link AbstractHandler.Worker}不同，block策略超时后仍会抛弃数据，flush只是唤醒工作线程，并不等待处理完成，
+ * 因此需通过async.worker=ring显式选用。
+ *
+ * @author duanyy
+ * @since 1.6.10.24
+ */
+public class RingBufferWorker<data extends Flowable> implements AbstractHandler.AsyncWorker<data>,Runnable{
+	protected static final Logger LOG = LoggerFactory.getLogger(RingBufferWorker.class);
+
+	/**
+	 * 缓冲区满时的处理策略
+	 */
+	public static enum Policy {
+		drop,
+		dropOldest,
+		block
+	}
+
+	protected AbstractHandler<data> handler = null;
+
+	/**
+	 * 最长的处理间隔(ms)
+	 */
+	protected long interval = 1000;
+
+	/**
+	 * 批量处理的数据量
+	 */
+	protected int batchSize = 256;
+
+	/**
+	 * 缓冲区满时的处理策略
+	 */
+	protected Policy policy = Policy.drop;
+
+	/**
+	 * block策略下的最长等待时间(ms)
+	 */
+	protected long blockTimeout = 1000;
+
+	/**
+	 * 缓冲区
+	 */
+	protected AtomicReferenceArray<data> items;
+
+	/**
+	 * 槽位的序号
+	 */
+	protected AtomicLongArray sequences;
+
+	protected int mask;
+
+	/**
+	 * 写位置
+	 */
+	protected final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * 读位置
+	 */
+	protected final AtomicLong head = new AtomicLong(0);
+
+	/**
+	 * 写入的数据量
+	 */
+	protected final AtomicLong accepted = new AtomicLong(0);
+
+	/**
+	 * 抛弃的数据量
+	 */
+	protected final AtomicLong dropped = new AtomicLong(0);
+
+	/**
+	 * 已处理的数据量
+	 */
+	protected final AtomicLong handled = new AtomicLong(0);
+
+	/**
+	 * 处理的批次
+	 */
+	protected final AtomicLong batches = new AtomicLong(0);
+
+	/**
+	 * 工作线程是否在等待
+	 */
+	protected final AtomicBoolean sleeping = new AtomicBoolean(false);
+
+	/**
+	 * 是否请求了flush
+	 */
+	protected volatile boolean flushRequested = false;
+
+	protected volatile boolean stopped = false;
+
+	protected Thread thread = null;
+
+	public RingBufferWorker(AbstractHandler<data> handler,Properties p){
+		this.handler = handler;
+		interval = PropertiesConstants.getLong(p,"async.interval", interval,true);
+		batchSize = PropertiesConstants.getInt(p,"async.batchSize", batchSize,true);
+		blockTimeout = PropertiesConstants.getLong(p,"async.blockTimeout", blockTimeout,true);
+
+		boolean abandonWhenFull = PropertiesConstants.getBoolean(p,"async.abandonWhenFull", true,true);
+		String value = PropertiesConstants.getString(p,"async.policy", abandonWhenFull ? "drop":"block",true);
+		try {
+			policy = Policy.valueOf(value);
+		}catch (IllegalArgumentException ex){
+			LOG.error("Unknown async.policy:" + value + ",use drop instead.");
+			policy = Policy.drop;
+		}
+
+		int capacity = 1;
+		int maxQueueLength = PropertiesConstants.getInt(p,"async.maxQueueLength", 1024,true);
+		while (capacity < maxQueueLength){
+			capacity <<= 1;
+		}
+		mask = capacity - 1;
+		items = new AtomicReferenceArray<data>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0 ; i < capacity ; i ++){
+			sequences.set(i, i);
+		}
+		batchSize = Math.max(1, Math.min(batchSize, capacity));
+
+		thread = new Thread(this,"async-" + handler.getHandlerType() + "-" + handler.getClass().getSimpleName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * 当前缓冲区中的数据量
+	 * @return 数据量
+	 */
+	public int size(){
+		long size = tail.get() - head.get();
+		return (int)Math.max(0, Math.min(size, mask + 1L));
+	}
+
+	@Override
+	public void handle(data item,long timestamp){
+		if (stopped){
+			dropped.incrementAndGet();
+			return;
+		}
+		boolean ok = offer(item);
+		if (!ok){
+			switch (policy){
+			case dropOldest:
+				while (!ok){
+					if (poll() != null){
+						dropped.incrementAndGet();
+					}
+					ok = offer(item);
+				}
+				break;
+			case block:
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+				while (!ok && !stopped && System.nanoTime() < deadline){
+					wakeup();
+					LockSupport.parkNanos(100000L);
+					ok = offer(item);
+				}
+				if (!ok){
+					dropped.incrementAndGet();
+					return;
+				}
+				break;
+			default:
+				dropped.incrementAndGet();
+				return;
+			}
+		}
+		accepted.incrementAndGet();
+		if (size() >= batchSize && sleeping.get()){
+			wakeup();
+		}
+	}
+
+	@Override
+	public void flush(long timestamp){
+		flushRequested = true;
+		wakeup();
+	}
+
+	protected void wakeup(){
+		if (sleeping.compareAndSet(true, false)){
+			LockSupport.unpark(thread);
+		}
+	}
+
+	@Override
+	public void run() {
+		long lastFlush = System.currentTimeMillis();
+		while (!stopped){
+			long now = System.currentTimeMillis();
+			if (flushRequested || size() >= batchSize || now - lastFlush >= interval){
+				flushRequested = false;
+				drain(now);
+				lastFlush = now;
+				continue;
+			}
+
+			sleeping.set(true);
+			//登记之后再检查一次，避免错过唤醒
+			if (!flushRequested && size() < batchSize){
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1,interval - (now - lastFlush))));
+			}
+			sleeping.set(false);
+		}
+		drain(System.currentTimeMillis());
+	}
+
+	/**
+	 * 处理缓冲区中的所有数据
+	 * @param timestamp 时间戳
+	 */
+	protected void drain(long timestamp){
+		long count = 0;
+		data item = null;
+		while ((item = poll()) != null){
+			try {
+				handler.onHandle(item, timestamp);
+			}catch (Exception ex){
+				LOG.error("Failed to handle data in async worker",ex);
+			}
+			count ++;
+		}
+		if (count > 0){
+			handled.addAndGet(count);
+			batches.incrementAndGet();
+			try {
+				handler.onFlush(timestamp);
+			}catch (Exception ex){
+				LOG.error("Failed to flush data in async worker",ex);
+			}
+		}
+	}
+
+	/**
+	 * 写入缓冲区
+	 * @param item 数据
+	 * @return 如果缓冲区已满，返回false
+	 */
+	protected boolean offer(data item){
+		while (true){
+			long pos = tail.get();
+			int index = (int)(pos & mask);
+			long diff = sequences.get(index) - pos;
+			if (diff == 0){
+				if (tail.compareAndSet(pos, pos + 1)){
+					items.lazySet(index, item);
+					sequences.set(index, pos + 1);
+					return true;
+				}
+			}else if (diff < 0){
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * 从缓冲区读取
+	 * @return 数据，如果缓冲区为空，返回null
+	 */
+	protected data poll(){
+		while (true){
+			long pos = head.get();
+			int index = (int)(pos & mask);
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0){
+				if (head.compareAndSet(pos, pos + 1)){
+					data item = items.get(index);
+					items.lazySet(index, null);
+					sequences.set(index, pos + mask + 1);
+					return item;
+				}
+			}else if (diff < 0){
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public void close(){
+		stopped = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(Math.max(interval, 1000));
+		}catch (InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			xml.setAttribute("worker", getClass().getName());
+			xml.setAttribute("interval", String.valueOf(interval));
+			xml.setAttribute("batchSize", String.valueOf(batchSize));
+			xml.setAttribute("policy", policy.name());
+			xml.setAttribute("maxQueueLength", String.valueOf(mask + 1));
+			xml.setAttribute("currentQueueLength", String.valueOf(size()));
+			xml.setAttribute("accepted", String.valueOf(accepted.get()));
+			xml.setAttribute("dropped", String.valueOf(dropped.get()));
+			xml.setAttribute("handled", String.valueOf(handled.get()));
+			xml.setAttribute("batches", String.valueOf(batches.get()));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			json.put("worker", getClass().getName());
+			json.put("interval", interval);
+			json.put("batchSize", batchSize);
+			json.put("policy", policy.name());
+			json.put("maxQueueLength", mask + 1);
+			json.put("currentQueueLength", size());
+			json.put("accepted", accepted.get());
+			json.put("dropped", dropped.get());
+			json.put("handled", handled.get());
+			json.put("batches", batches.get());
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package com.anysoft.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 编译之后的变量模板
+ *
+ * <p>
+ * 模板字符串被解析为常量和变量(${var})片段的列表，并按模板字符串缓存，
+ * 计算时依次拼接常量和变量值，不再每次都扫描字符串、截取子串并递归.
+ *
+ * <p>
+ * 计算规则和{@link Properties#FillValue(String, String)}原有的规则一致：<br>
+ * - 变量值取原始值，如果变量值中包含变量，继续计算; <br>
+ * - 变量没有结束符时，忽略其后的所有内容; <br>
+ * - 变量引用了最初的变量名时，忽略其后的所有内容; <br>
+ * - 变量之间存在循环引用时，按引用自身处理，忽略其后的所有内容(原有的规则会导致栈溢出); <br>
+ *
+ * <p>
+ * 缓存的模板数量通过系统属性template.cache.max配置，缺省为4096，超出时清空缓存.
+ *
+ * @author duanyy
+ * @since 1.6.10.19
+ */
+public final class CompiledTemplate {
+
+	/**
+	 * 缓存的模板最大数量
+	 */
+	protected static int maxCached = Integer.getInteger("template.cache.max", 4096);
+
+	/**
+	 * 模板缓存
+	 */
+	private static final ConcurrentHashMap<String,CompiledTemplate> cache = new ConcurrentHashMap<String,CompiledTemplate>();
+
+	/**
+	 * 按线程复用的计算缓冲区
+	 */
+	private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>(){
+		@Override
+		protected Buffer initialValue(){
+			return new Buffer();
+		}
+	};
+
+	/**
+	 * 复用的缓冲区最大容量，超出时不再复用
+	 */
+	private static final int MAX_BUFFER = 8192;
+
+	/**
+	 * 常量片段，和变量片段交替出现，数量比变量片段多1
+	 */
+	private final String [] literals;
+
+	/**
+	 * 变量名片段
+	 */
+	private final String [] vars;
+
+	/**
+	 * 是否以未结束的变量结尾
+	 */
+	private final boolean truncated;
+
+	private CompiledTemplate(String [] literals,String [] vars,boolean truncated){
+		this.literals = literals;
+		this.vars = vars;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * 是否包含变量
+	 * @param pattern 模板字符串
+	 * @return 是否包含变量
+	 */
+	public static boolean hasVariable(String pattern){
+		return pattern != null && pattern.indexOf(Properties.VariableStart) >= 0;
+	}
+
+	/**
+	 * 获取编译之后的模板
+	 * @param pattern 模板字符串
+	 * @return 模板
+	 */
+	public static CompiledTemplate get(String pattern){
+		CompiledTemplate found = cache.get(pattern);
+		if (found == null){
+			found = compile(pattern);
+			if (cache.size() >= maxCached){
+				cache.clear();
+			}
+			CompiledTemplate exist = cache.putIfAbsent(pattern, found);
+			if (exist != null){
+				found = exist;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 编译模板
+	 * @param pattern 模板字符串
+	 * @return 模板
+	 */
+	public static CompiledTemplate compile(String pattern){
+		List<String> literals = new ArrayList<String>(4);
+		List<String> vars = new ArrayList<String>(4);
+		boolean truncated = false;
+
+		int start = Properties.VariableStart.length();
+		int end = Properties.VariableEnd.length();
+		int current = 0;
+		while (true){
+			int startIndex = pattern.indexOf(Properties.VariableStart,current);
+			if (startIndex < 0){
+				literals.add(pattern.substring(current));
+				break;
+			}
+			literals.add(pattern.substring(current,startIndex));
+			int endIndex = pattern.indexOf(Properties.VariableEnd,startIndex + start);
+			if (endIndex < 0){
+				truncated = true;
+				break;
+			}
+			vars.add(pattern.substring(startIndex + start,endIndex));
+			current = endIndex + end;
+		}
+		return new CompiledTemplate(literals.toArray(new String[literals.size()]),
+				vars.toArray(new String[vars.size()]),truncated);
+	}
+
+	/**
+	 * 计算模板
+	 * @param p 变量集
+	 * @param name 最初的变量名，为空时表示不是变量值
+	 * @return 计算结果
+	 */
+	public String evaluate(Properties p,String name){
+		if (vars.length == 0 && !truncated){
+			return literals[0];
+		}
+		Buffer buffer = buffers.get();
+		if (buffer.inUse){
+			//嵌套调用(例如变量集在取值时又进行了计算)
+			buffer = new Buffer();
+		}
+		buffer.open();
+		try {
+			evaluate(p,name,buffer,0);
+			return buffer.builder.toString();
+		}finally{
+			buffer.close();
+		}
+	}
+
+	/**
+	 * 计算模板到缓冲区
+	 * @param p 变量集
+	 * @param name 最初的变量名
+	 * @param buffer 缓冲区
+	 * @param depth 当前正在计算的变量数
+	 * @return 是否继续计算，为false时忽略其后的所有内容
+	 */
+	private boolean evaluate(Properties p,String name,Buffer buffer,int depth){
+		StringBuilder builder = buffer.builder;
+		for (int i = 0 ; i < vars.length ; i ++){
+			builder.append(literals[i]);
+			String var = vars[i];
+			if (var.equals(name) || buffer.isExpanding(var,depth)){
+				return false;
+			}
+			String value = p.GetValue(var, "", false, false);
+			if (value == null || value.length() <= 0){
+				continue;
+			}
+			if (value.indexOf(Properties.VariableStart) < 0){
+				builder.append(value);
+				continue;
+			}
+			buffer.push(var, depth);
+			if (!get(value).evaluate(p, name, buffer, depth + 1)){
+				return false;
+			}
+		}
+		builder.append(literals[vars.length]);
+		return !truncated;
+	}
+
+	/**
+	 * 计算缓冲区
+	 */
+	private static class Buffer {
+		protected StringBuilder builder = new StringBuilder(256);
+		protected String [] expanding = new String[8];
+		protected boolean inUse = false;
+
+		protected void open(){
+			inUse = true;
+			builder.setLength(0);
+		}
+
+		protected void close(){
+			inUse = false;
+			if (builder.capacity() > MAX_BUFFER){
+				builder = new StringBuilder(256);
+			}
+		}
+
+		/**
+		 * 记录在第depth层正在计算的变量
+		 */
+		protected void push(String var,int depth){
+			if (depth >= expanding.length){
+				String [] newArray = new String[expanding.length * 2];
+				System.arraycopy(expanding, 0, newArray, 0, expanding.length);
+				expanding = newArray;
+			}
+			expanding[depth] = var;
+		}
+
+		/**
+		 * 变量是否正在计算(循环引用)
+		 */
+		protected boolean isExpanding(String var,int depth){
+			for (int i = 0 ; i < depth ; i ++){
+				if (var.equals(expanding[i])){
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
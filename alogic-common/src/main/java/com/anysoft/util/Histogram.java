@@ -0,0 +1,196 @@
+package com.anysoft.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数线性分桶的直方图
+ *
+ * <p>
+ * 参照HdrHistogram的分桶方式：小于2^precision的值按1精确分桶，之后每个2的幂区间再等分为2^precision个桶，
+ * 因此相对误差不超过1/2^precision，所占内存固定，和记录的次数无关.
+ *
+ * <p>
+ * 记录操作无锁(原子计数)，可在多个线程中并发记录；计算百分位时扫描所有的桶，结果是近似值(桶的上界).
+ * 超出最大值的记录计入最后一个桶.
+ *
+ * @author duanyy
+ * @since 1.6.10.21
+ */
+public class Histogram {
+
+	/**
+	 * 精度(每个2的幂区间的桶数为2^precision)
+	 */
+	protected final int precision;
+
+	/**
+	 * 可记录的最大值的位数
+	 */
+	protected final int maxBits;
+
+	/**
+	 * 桶
+	 */
+	protected final AtomicLongArray buckets;
+
+	/**
+	 * 记录次数
+	 */
+	protected final AtomicLong count = new AtomicLong(0);
+
+	/**
+	 * 记录值之和
+	 */
+	protected final AtomicLong sum = new AtomicLong(0);
+
+	/**
+	 * 最大值
+	 */
+	protected final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * 最小值
+	 */
+	protected final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	/**
+	 * 构造
+	 * @param precision 精度(1-10)
+	 * @param maxBits 可记录的最大值的位数(precision+1 - 62)
+	 */
+	public Histogram(int precision,int maxBits){
+		this.precision = Math.max(1, Math.min(precision, 10));
+		this.maxBits = Math.max(this.precision + 1, Math.min(maxBits, 62));
+		buckets = new AtomicLongArray((this.maxBits - this.precision + 1) << this.precision);
+	}
+
+	/**
+	 * 获取值所在的桶
+	 * @param value 值
+	 * @return 桶的序号
+	 */
+	protected int indexOf(long value){
+		if (value < (1L << precision)){
+			return value < 0 ? 0 : (int)value;
+		}
+		int bits = 63 - Long.numberOfLeadingZeros(value);
+		if (bits >= maxBits){
+			return buckets.length() - 1;
+		}
+		int shift = bits - precision;
+		int sub = (int)(value >>> shift) - (1 << precision);
+		return ((shift + 1) << precision) + sub;
+	}
+
+	/**
+	 * 获取桶的上界
+	 * @param index 桶的序号
+	 * @return 上界
+	 */
+	protected long valueOf(int index){
+		int size = 1 << precision;
+		if (index < size){
+			return index;
+		}
+		int shift = (index >>> precision) - 1;
+		long sub = index & (size - 1);
+		return ((size + sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * 记录
+	 * @param value 值
+	 */
+	public void record(long value){
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)){
+			current = max.get();
+		}
+		current = min.get();
+		while (value < current && !min.compareAndSet(current, value)){
+			current = min.get();
+		}
+	}
+
+	/**
+	 * 清除所有记录
+	 */
+	public void reset(){
+		for (int i = 0 ; i < buckets.length() ; i ++){
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+		min.set(Long.MAX_VALUE);
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public long getMin(){
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	public double getMean(){
+		long times = count.get();
+		return times <= 0 ? 0 : (double)sum.get() / times;
+	}
+
+	/**
+	 * 获取指定百分位的值
+	 * @param percentile 百分位(0-100)
+	 * @return 近似值，没有记录时为0
+	 */
+	public long getValueAtPercentile(double percentile){
+		return getValuesAtPercentiles(new double[]{percentile})[0];
+	}
+
+	/**
+	 * 一次扫描获取多个百分位的值
+	 * @param percentiles 百分位列表(0-100)，按升序排列
+	 * @return 近似值列表，没有记录时为0
+	 */
+	public long [] getValuesAtPercentiles(double [] percentiles){
+		long [] result = new long[percentiles.length];
+
+		//以桶中的计数为准，避免和count之间的不一致
+		long total = 0;
+		int length = buckets.length();
+		long [] snapshot = new long[length];
+		for (int i = 0 ; i < length ; i ++){
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total <= 0){
+			return result;
+		}
+
+		long maxValue = max.get();
+		int index = 0;
+		long accumulated = 0;
+		for (int i = 0 ; i < percentiles.length ; i ++){
+			long target = (long)Math.ceil(Math.min(100.0, Math.max(0.0,percentiles[i])) * total / 100.0);
+			target = Math.max(1, target);
+			while (index < length && accumulated + snapshot[index] < target){
+				accumulated += snapshot[index];
+				index ++;
+			}
+			long value = valueOf(Math.min(index, length - 1));
+			//不超过实际的最大值
+			result[i] = maxValue > 0 ? Math.min(value, maxValue) : value;
+		}
+		return result;
+	}
+}
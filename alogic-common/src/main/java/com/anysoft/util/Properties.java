@@ -36,6 +36,8 @@ import com.anysoft.formula.DataProvider;
  * @version 1.6.8.10 [20170418 duanyy] <br>
  * - 在装入xml配置文件时，可从env中获取变量 <br>
  * 
+ * @version 1.6.10.19 [20171122 duanyy] <br>
+ * - 变量填充改为编译之后的模板计算(参见{@link CompiledTemplate})，并检测循环引用 <br>
  */
 abstract public class Properties implements DataProvider{
 	/**
@@ -318,39 +320,11 @@ abstract public class Properties implements DataProvider{
 	 * @return　计算后的取值
 	 */
 	public String FillValue(String _name,String _value){
-		int __startIndex = _value.indexOf(VariableStart);
-		if (__startIndex < 0){
+		if (_value.indexOf(VariableStart) < 0){
 			//没有找到变量
 			return _value;
 		}
-		
-		//在变量之前的字符串
-		String __tmpValue = _value.substring(0,__startIndex);
-		int __endIndex = _value.indexOf(VariableEnd,__startIndex + VariableStart.length());
-		if (__endIndex < 0){
-			//没有发现变量结束符
-			return __tmpValue;
-		}
-		//变量名
-		String __varName = _value.substring(
-				__startIndex + VariableStart.length(),
-				__endIndex - VariableStart.length() + VariableStart.length()
-				);
-		
-		//在变量之后的字符串
-		String __afterValue = _value.substring(__endIndex + VariableEnd.length());
-		
-		//取变量的值
-		String __varValue;
-		if (!__varName.equals(_name)){ 
-			__varValue = GetValue(__varName,"",false,false);
-			if (__varValue.length() >= 0){
-				__tmpValue += __varValue;
-			}
-			__tmpValue += __afterValue;
-			return FillValue(_name,__tmpValue);
-		}
-		return __tmpValue;
+		return CompiledTemplate.get(_value).evaluate(this, _name);
 	}
 	/**
 	 * 获取变量值
@@ -3,10 +3,14 @@ package com.anysoft.util;
 import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.alogic.metrics.Fragment.Method;
+import com.anysoft.rrm.RRDFile;
+import com.anysoft.rrm.RRDatabase;
 
 /**
  * 简单统计模型
@@ -21,6 +25,11 @@ import org.w3c.dom.Element;
  * @version 1.6.4.31 [20160128 duanyy] <br>
  * - 增加活跃度和健康度接口 <br>
  * - 增加可配置性 <br>
+ * 
+ * @version 1.6.10.22 [20171129 duanyy] <br>
+ * - 如果设置了counter.id并且启用了环形数据库(rrm.db.home)，统计数据同时写入环形数据库 <br>
+ * - 环形数据库的数据先在原子计数器中按时间槽汇总，时间槽切换或输出报告时写入一次，不再每次访问都写入 <br>
+ * - 环形数据库中的duration为总时长(sum)，平均时长按duration/times计算，各归档按访问次数加权 <br>
  */
 public class SimpleCounter implements Counter {
 	/**
@@ -53,6 +62,53 @@ public class SimpleCounter implements Counter {
 	 */
 	private long cycle = 5 * 60 * 1000L;
 	
+	/**
+	 * 环形数据库中的数据源
+	 */
+	public static final String [] RRD_DS = {"times","error","duration","max"};
+	
+	/**
+	 * 环形数据库中数据源的归并方法
+	 *
+	 * <p>duration为总时长，平均时长由查询方按duration/times计算，以免粗粒度的归档对各时间槽的平均值等权平均.
+	 */
+	public static final Method [] RRD_METHODS = {Method.sum,Method.sum,Method.sum,Method.max};
+	
+	/**
+	 * 环形数据库中的模型
+	 */
+	protected RRDFile rrd = null;
+	
+	/**
+	 * 汇总的时间槽长度，取环形数据库中最细的步长
+	 */
+	protected long rrdStep = 60 * 1000L;
+	
+	/**
+	 * 当前汇总的时间槽
+	 */
+	protected final AtomicLong rrdSlot = new AtomicLong(0);
+	
+	/**
+	 * 当前时间槽中尚未写入环形数据库的次数
+	 */
+	protected final AtomicLong rrdTimes = new AtomicLong(0);
+	
+	/**
+	 * 当前时间槽中尚未写入环形数据库的错误次数
+	 */
+	protected final AtomicLong rrdErrors = new AtomicLong(0);
+	
+	/**
+	 * 当前时间槽中尚未写入环形数据库的总时长
+	 */
+	protected final AtomicLong rrdDuration = new AtomicLong(0);
+	
+	/**
+	 * 当前时间槽中尚未写入环形数据库的最大时长
+	 */
+	protected final AtomicLong rrdMax = new AtomicLong(0);
+	
 	public SimpleCounter(){
 		// Nothing to do
 	}
@@ -73,6 +129,30 @@ public class SimpleCounter implements Counter {
 	@Override
 	public void configure(Properties p) {
 		cycle = getStatCycle(p);
+		
+		String id = PropertiesConstants.getString(p, "counter.id", "");
+		if (id.length() > 0 && PropertiesConstants.getBoolean(p, "counter.rrd", true)){
+			RRDatabase db = RRDatabase.get();
+			if (db.isEnabled()){
+				rrd = db.open(getRRDModule(p) + ":" + id, RRD_DS, RRD_METHODS);
+				if (rrd != null){
+					for (long step:rrd.getSteps()){
+						if (step > 0 && step < rrdStep){
+							rrdStep = step;
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 获取环形数据库中模型id的前缀
+	 * @param p 变量集
+	 * @return 前缀
+	 */
+	protected String getRRDModule(Properties p){
+		return PropertiesConstants.getString(p, "counter.rrd.module", "counter");
 	}
 
 	protected long getStatCycle(Properties p){
@@ -112,10 +192,49 @@ public class SimpleCounter implements Counter {
 			currentCycleStart = (now / cycle) * cycle;
 		}
 		lastVisitedTime = now;
+		
+		if (rrd != null){
+			flushRRD(now);
+			rrdTimes.incrementAndGet();
+			if (error){
+				rrdErrors.incrementAndGet();
+			}
+			rrdDuration.addAndGet(duration);
+			long max = rrdMax.get();
+			while (duration > max && !rrdMax.compareAndSet(max, duration)){
+				max = rrdMax.get();
+			}
+		}
+	}
+	
+	/**
+	 * 如果时间槽已经切换，将上一时间槽汇总的数据写入环形数据库
+	 * 
+	 * <p>
+	 * 每个时间槽只写入一次，由切换时间槽的线程完成.
+	 * 
+	 * @param now 当前时间
+	 */
+	protected void flushRRD(long now){
+		if (rrd == null){
+			return;
+		}
+		long slot = now - now % rrdStep;
+		long last = rrdSlot.get();
+		if (slot != last && rrdSlot.compareAndSet(last, slot)){
+			long times = rrdTimes.getAndSet(0);
+			long errors = rrdErrors.getAndSet(0);
+			long duration = rrdDuration.getAndSet(0);
+			long max = rrdMax.getAndSet(0);
+			if (times > 0 && last > 0){
+				rrd.update(last, times, errors, duration, max);
+			}
+		}
 	}
 	
 	@Override
 	public void report(Element root) {
+		flushRRD(System.currentTimeMillis());
 		if (root != null){
 			Document doc = root.getOwnerDocument();
 			
@@ -146,6 +265,7 @@ public class SimpleCounter implements Counter {
 
 	@Override
 	public void report(Map<String, Object> json) {
+		flushRRD(System.currentTimeMillis());
 		if (json != null){
 			json.put("module", getClass().getName());
 			json.put("start", startTime);
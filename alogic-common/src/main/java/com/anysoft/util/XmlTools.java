@@ -26,12 +26,99 @@ import org.xml.sax.*;
  * @version 1.6.5.6 [20160523 duanyy] <br>
  * - node2string不再抛出异常，以便使用 <br>
  * 
+ * @version 1.6.10.18 [20171120 duanyy] <br>
+ * - DocumentBuilder,Transformer和XPath按线程复用，不再每次调用都查找并创建工厂 <br>
+ * - loadFromContent直接解析字符串，不再按平台缺省编码转换为字节 <br>
  */
 public class XmlTools {
 	private XmlTools(){
 		
 	}
 	
+	/**
+	 * 共享的DocumentBuilderFactory，仅用于创建DocumentBuilder
+	 */
+	private static final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+	static {
+		builderFactory.setNamespaceAware(true);
+	}
+	
+	/**
+	 * 按线程复用的DocumentBuilder
+	 */
+	private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
+	
+	/**
+	 * 按线程复用的TransformerFactory,用于xslt模板的编译
+	 */
+	private static final ThreadLocal<TransformerFactory> transformerFactories = new ThreadLocal<TransformerFactory>(){
+		@Override
+		protected TransformerFactory initialValue(){
+			return TransformerFactory.newInstance();
+		}
+	};
+	
+	/**
+	 * 按线程复用的Transformer
+	 */
+	private static final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+	
+	/**
+	 * 按线程复用的XPath
+	 */
+	private static final ThreadLocal<XPath> xpaths = new ThreadLocal<XPath>(){
+		@Override
+		protected XPath initialValue(){
+			return XPathFactory.newInstance().newXPath();
+		}
+	};
+	
+	/**
+	 * 获取当前线程的DocumentBuilder
+	 * 
+	 * <p>
+	 * DocumentBuilder在返回之前已经被重置，不要将其保存或者跨线程使用.
+	 * 
+	 * @return DocumentBuilder
+	 * @throws ParserConfigurationException
+	 * 
+	 * @since 1.6.10.18
+	 */
+	public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException{
+		DocumentBuilder builder = builders.get();
+		if (builder == null){
+			synchronized (builderFactory){
+				builder = builderFactory.newDocumentBuilder();
+			}
+			builders.set(builder);
+		}else{
+			builder.reset();
+		}
+		return builder;
+	}
+	
+	/**
+	 * 获取当前线程的Transformer(无模板)
+	 * 
+	 * <p>
+	 * Transformer在返回之前已经被重置，不要将其保存或者跨线程使用.
+	 * 
+	 * @return Transformer
+	 * @throws TransformerConfigurationException
+	 * 
+	 * @since 1.6.10.18
+	 */
+	public static Transformer getTransformer() throws TransformerConfigurationException{
+		Transformer transformer = transformers.get();
+		if (transformer == null){
+			transformer = transformerFactories.get().newTransformer();
+			transformers.set(transformer);
+		}else{
+			transformer.reset();
+		}
+		return transformer;
+	}
+	
 	/**
 	 * 获取指定属性的整型值
 	 * @param e XML节点
@@ -250,9 +337,7 @@ public class XmlTools {
 	 * @throws ParserConfigurationException
 	 */
 	public static Document newDocument(String _root) throws ParserConfigurationException{
-	      DocumentBuilderFactory __factory = DocumentBuilderFactory.newInstance();
-	      __factory.setNamespaceAware(true);
-	      DocumentBuilder __db = __factory.newDocumentBuilder();
+	      DocumentBuilder __db = getDocumentBuilder();
 	      Document __doc = __db.newDocument();
 	      Element __root = __doc.createElement(_root);
 	      __doc.appendChild(__root);
@@ -264,9 +349,7 @@ public class XmlTools {
 	 * @throws ParserConfigurationException
 	 */
 	public static Document newDocument() throws ParserConfigurationException{
-	      DocumentBuilderFactory __factory = DocumentBuilderFactory.newInstance();
-	      __factory.setNamespaceAware(true);
-	      DocumentBuilder __db = __factory.newDocumentBuilder();
+	      DocumentBuilder __db = getDocumentBuilder();
 	      Document __doc = __db.newDocument();
 	      return __doc;
 	}	
@@ -279,9 +362,7 @@ public class XmlTools {
 	 * @throws SAXException 
 	 */
 	public static Document loadFromInputStream(InputStream _in) throws ParserConfigurationException, SAXException, IOException{
-		DocumentBuilderFactory __factory = DocumentBuilderFactory.newInstance();
-		__factory.setNamespaceAware(true);
-		DocumentBuilder __db = __factory.newDocumentBuilder();
+		DocumentBuilder __db = getDocumentBuilder();
 		return __db.parse(_in);
 	}
 	
@@ -294,9 +375,7 @@ public class XmlTools {
 	 * @throws IOException
 	 */
 	public static Document loadFromFile(File _file) throws ParserConfigurationException, SAXException, IOException{
-		DocumentBuilderFactory __factory = DocumentBuilderFactory.newInstance();
-		__factory.setNamespaceAware(true);
-		DocumentBuilder __db = __factory.newDocumentBuilder();
+		DocumentBuilder __db = getDocumentBuilder();
 		return __db.parse(_file);		
 	}
 	
@@ -309,9 +388,7 @@ public class XmlTools {
 	 * @throws IOException
 	 */
 	public static Document loadFromURI(String _uri) throws ParserConfigurationException, SAXException, IOException{
-		DocumentBuilderFactory __factory = DocumentBuilderFactory.newInstance();
-		__factory.setNamespaceAware(true);
-		DocumentBuilder __db = __factory.newDocumentBuilder();
+		DocumentBuilder __db = getDocumentBuilder();
 		return __db.parse(_uri);			
 	}
 	
@@ -324,7 +401,8 @@ public class XmlTools {
 	 * @throws IOException
 	 */
 	public static Document loadFromContent(String _content) throws ParserConfigurationException, SAXException, IOException{
-		return loadFromInputStream(new ByteArrayInputStream(_content.getBytes()));
+		DocumentBuilder __db = getDocumentBuilder();
+		return __db.parse(new InputSource(new StringReader(_content)));
 	}
 	
 	/**
@@ -346,8 +424,7 @@ public class XmlTools {
 	 * @throws IOException 
 	 */	
 	public static void saveToOutputStream(Node _node,OutputStream _out,boolean out_head) throws TransformerException{
-		TransformerFactory __factory = TransformerFactory.newInstance();
-		Transformer __transformer = __factory.newTransformer();
+		Transformer __transformer = getTransformer();
 		if (!out_head){
 			__transformer.setOutputProperty("omit-xml-declaration","yes");
 		}
@@ -367,8 +444,7 @@ public class XmlTools {
 	 */
 	public static String node2String(Node _node){
 		try {
-			TransformerFactory __factory = TransformerFactory.newInstance();
-			Transformer __transformer = __factory.newTransformer();
+			Transformer __transformer = getTransformer();
 			__transformer.setOutputProperty("omit-xml-declaration","yes");
 			__transformer.setOutputProperty("encoding",encoding);
 			Source __source = new DOMSource(_node);
@@ -389,7 +465,7 @@ public class XmlTools {
 	 * @throws TransformerException
 	 */
 	public static void xslt(Document data,Document xsl,Result result,boolean outHead) throws TransformerException{
-		TransformerFactory __factory = TransformerFactory.newInstance();
+		TransformerFactory __factory = transformerFactories.get();
 		Templates __templates = __factory.newTemplates(new DOMSource(xsl));
 		Transformer __transformer = __templates.newTransformer();
 		if (!outHead){
@@ -441,8 +517,8 @@ public class XmlTools {
 	 * @return 查找结果
 	 */
 	public static Node getNodeByPath(Element root,String path){
-		XPathFactory factory = XPathFactory.newInstance();
-		XPath xpath = factory.newXPath();
+		XPath xpath = xpaths.get();
+		xpath.reset();
 		try {
 			XPathExpression expr = xpath.compile(path);
 			return (Node) expr.evaluate(root, XPathConstants.NODE);
@@ -458,8 +534,8 @@ public class XmlTools {
 	 * @return 符合条件的节点列表
 	 */
 	public static NodeList getNodeListByPath(Element root,String path){
-		XPathFactory factory = XPathFactory.newInstance();
-		XPath xpath = factory.newXPath();
+		XPath xpath = xpaths.get();
+		xpath.reset();
 		try {
 			XPathExpression expr = xpath.compile(path);
 			return (NodeList) expr.evaluate(root, XPathConstants.NODESET);
@@ -0,0 +1,126 @@
+package com.alogic.metrics.demo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.w3c.dom.Element;
+
+import com.alogic.metrics.Fragment;
+import com.alogic.metrics.Fragment.Method;
+import com.alogic.metrics.impl.DefaultFragment;
+import com.alogic.metrics.stream.handler.Summator;
+import com.anysoft.stream.AbstractHandler;
+import com.anysoft.stream.Handler;
+import com.anysoft.util.Properties;
+
+/**
+ * Summator的并发压力测试
+ *
+ * <p>
+ * 多个线程并发写入指标，同时另一线程不断flush，检查后续handler收到的累计值是否和写入的总数一致.
+ *
+ * @author duanyy
+ * @since 1.6.10.23
+ */
+public class SummatorStress {
+
+	/**
+	 * 收集flush输出的handler
+	 */
+	public static class Collector extends AbstractHandler<Fragment>{
+		protected long times = 0;
+		protected long amount = 0;
+
+		@Override
+		protected synchronized void onHandle(Fragment f, long timestamp) {
+			times += f.getMeasures().getAsLong("times", 0);
+			amount += f.getMeasures().getAsLong("amount", 0);
+		}
+
+		@Override
+		protected void onFlush(long timestamp) {
+			// nothing to do
+		}
+
+		@Override
+		protected void onConfigure(Element e, Properties p) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * 直接挂接Collector的Summator
+	 */
+	public static class TestSummator extends Summator{
+		protected Collector collector = new Collector();
+
+		@Override
+		public Handler<Fragment> getSlidingHandler(){
+			return collector;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+		final int loops = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+		final int keys = 64;
+
+		final TestSummator summator = new TestSummator();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+
+		for (int i = 0 ; i < threads ; i ++){
+			final int seed = i;
+			new Thread(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0 ; j < loops ; j ++){
+							Fragment f = new DefaultFragment("test");
+							f.getDimensions().set("key", String.valueOf((seed + j) % keys), true);
+							f.getMeasures().set("times", 1L, Method.sum);
+							f.getMeasures().set("amount", (long)(j % 10), Method.sum);
+							summator.handle(f, System.currentTimeMillis());
+						}
+					}catch (InterruptedException ex){
+						Thread.currentThread().interrupt();
+					}finally{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+
+		Thread flusher = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while (!stopped.get()){
+					summator.flush(System.currentTimeMillis());
+				}
+			}
+		});
+		flusher.start();
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long duration = System.nanoTime() - begin;
+		stopped.set(true);
+		flusher.join();
+		summator.flush(System.currentTimeMillis());
+
+		long expectedAmount = 0;
+		for (int j = 0 ; j < loops ; j ++){
+			expectedAmount += j % 10;
+		}
+		long expectedTimes = (long)threads * loops;
+		expectedAmount *= threads;
+
+		System.out.println(String.format("threads=%d,loops=%d,%d ns/op", threads, loops, duration / expectedTimes));
+		System.out.println(String.format("times : expected=%d,actual=%d", expectedTimes, summator.collector.times));
+		System.out.println(String.format("amount : expected=%d,actual=%d", expectedAmount, summator.collector.amount));
+		System.out.println(expectedTimes == summator.collector.times && expectedAmount == summator.collector.amount ? "OK" : "FAILED");
+	}
+}
@@ -0,0 +1,101 @@
+package com.alogic.xscript.demo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.alogic.xscript.AsyncExecutor;
+import com.alogic.xscript.ExecuteWatcher;
+import com.alogic.xscript.LogicletContext;
+import com.alogic.xscript.Script;
+import com.alogic.xscript.doc.XsObject;
+import com.alogic.xscript.doc.json.JsonObject;
+import com.anysoft.util.CommandLine;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+
+/**
+ * xscript异步块的压力测试
+ *
+ * <p>
+ * 多个线程反复执行包含async块的脚本，同时采样JVM的线程数，检查线程数是否保持平稳(不随执行次数增长).
+ *
+ * @author duanyy
+ * @since 1.6.10.28
+ */
+public class AsyncStress {
+
+	public static void main(String[] args) throws Exception {
+		Settings settings = Settings.get();
+		settings.addSettings(new CommandLine(args));
+
+		int callers = PropertiesConstants.getInt(settings, "callers", 32);
+		final int loops = PropertiesConstants.getInt(settings, "loops", 200);
+
+		final Script script = Script.create("java:///xscript/async.stress.xml#" + AsyncStress.class.getName(), settings);
+		if (script == null){
+			System.out.println("Fail to compile the script");
+			return;
+		}
+		AsyncExecutor executor = AsyncExecutor.get();
+
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		final AtomicInteger peak = new AtomicInteger(0);
+		Thread sampler = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				while (!stopped.get()){
+					int current = Thread.activeCount();
+					if (current > peak.get()){
+						peak.set(current);
+					}
+					try {
+						Thread.sleep(10);
+					}catch (InterruptedException ex){
+						return;
+					}
+				}
+			}
+		});
+		sampler.setDaemon(true);
+
+		final CountDownLatch done = new CountDownLatch(callers);
+		final AtomicInteger executed = new AtomicInteger(0);
+		int before = Thread.activeCount();
+		sampler.start();
+		long start = System.currentTimeMillis();
+		for (int i = 0 ; i < callers ; i ++){
+			new Thread(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						for (int j = 0 ; j < loops ; j ++){
+							Map<String,Object> root = new HashMap<String,Object>();
+							XsObject doc = new JsonObject("root",root);
+							script.execute(doc, doc, new LogicletContext(Settings.get()), new ExecuteWatcher.Quiet());
+							executed.incrementAndGet();
+						}
+					}finally{
+						done.countDown();
+					}
+				}
+			},"caller-" + i).start();
+		}
+		done.await();
+		long duration = System.currentTimeMillis() - start;
+		stopped.set(true);
+		sampler.join();
+
+		Map<String,Object> report = new HashMap<String,Object>();
+		executor.report(report);
+
+		//调用线程 + 采样线程 + 线程池的最大线程数
+		int limit = before + callers + 1 + executor.getMaximumPoolSize();
+		System.out.println(String.format("executions=%d,duration=%dms", executed.get(), duration));
+		System.out.println(String.format("threads : before=%d,peak=%d,limit=%d,after=%d", before, peak.get(), limit, Thread.activeCount()));
+		System.out.println("executor : " + report);
+		System.out.println(peak.get() <= limit && executed.get() == callers * loops ? "OK" : "FAILED");
+	}
+}
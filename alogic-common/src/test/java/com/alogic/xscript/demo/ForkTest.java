@@ -0,0 +1,116 @@
+package com.alogic.xscript.demo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.alogic.xscript.ExecuteWatcher;
+import com.alogic.xscript.LogicletContext;
+import com.alogic.xscript.Script;
+import com.alogic.xscript.doc.XsObject;
+import com.alogic.xscript.doc.json.JsonObject;
+import com.anysoft.util.BaseException;
+import com.anysoft.util.CommandLine;
+import com.anysoft.util.JsonTools;
+import com.anysoft.util.Settings;
+
+/**
+ * fork的测试
+ *
+ * <p>
+ * 依次验证：<br>
+ * - collectErrors : 分支并行执行，超时的分支不合并，错误写入上下文变量(fork.xml); <br>
+ * - failFast : 分支失败之后立即返回该分支的异常，不等待其余分支(fork.failfast.xml); <br>
+ * - failFast : 分支超时之后立即返回core.fork_timeout(fork.timeout.xml); <br>
+ * - 嵌套的fork在只有一个线程的线程池中不会死锁，未被接受的分支由fork所在线程执行(fork.nested.xml); <br>
+ * 任一检查失败时，进程以1退出.
+ *
+ * @author duanyy
+ * @since 1.6.10.29
+ */
+public class ForkTest {
+	protected static int failed = 0;
+
+	protected static void check(String name,boolean ok,String detail){
+		System.out.println(String.format("[%s] %s : %s", ok ? "OK" : "FAILED",name,detail));
+		if (!ok){
+			failed ++;
+		}
+	}
+
+	protected static class Result {
+		protected Map<String,Object> root = new HashMap<String,Object>();
+		protected BaseException error = null;
+		protected long duration = 0;
+	}
+
+	protected static Result run(String path,Settings settings){
+		Result result = new Result();
+		Script script = Script.create("java:///xscript/" + path + "#" + ForkTest.class.getName(), settings);
+		if (script == null){
+			result.error = new BaseException("core.compile_failed","Fail to compile the script:" + path);
+			return result;
+		}
+		XsObject doc = new JsonObject("root",result.root);
+		long start = System.currentTimeMillis();
+		try {
+			script.execute(doc, doc, new LogicletContext(settings), new ExecuteWatcher.Quiet());
+		}catch (BaseException ex){
+			result.error = ex;
+		}finally{
+			result.duration = System.currentTimeMillis() - start;
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static String getString(Map<String,Object> root,String obj,String id){
+		Object found = root.get(obj);
+		return found instanceof Map ? JsonTools.getString((Map<String,Object>)found, id, "") : "";
+	}
+
+	public static void main(String[] args) {
+		Settings settings = Settings.get();
+		settings.SetValue("xscript.executor.master", "java:///xscript/fork.executor.xml#" + ForkTest.class.getName());
+		settings.addSettings(new CommandLine(args));
+
+		Result result = run("fork.xml",settings);
+		check("collectErrors",result.error == null
+				&& "1".equals(JsonTools.getString(result.root, "failed", ""))
+				&& "core.fork_timeout".equals(JsonTools.getString(result.root, "code", ""))
+				&& "alogic".equals(getString(result.root,"user","id"))
+				&& "eason".equals(getString(result.root,"user","name"))
+				&& !result.root.containsKey("timeout")
+				&& result.duration < 600,
+				result.duration + "ms," + result.root);
+
+		result = run("fork.failfast.xml",settings);
+		check("failFast on error",result.error != null
+				&& "demo.branch_failed".equals(result.error.getCode())
+				&& !result.root.containsKey("slow")
+				&& !result.root.containsKey("afterFork")
+				&& result.duration < 500,
+				result.duration + "ms," + (result.error == null ? "no error" : result.error.getCode()));
+
+		result = run("fork.timeout.xml",settings);
+		check("failFast on timeout",result.error != null
+				&& "core.fork_timeout".equals(result.error.getCode())
+				&& !result.root.containsKey("fast")
+				&& !result.root.containsKey("afterFork")
+				&& result.duration < 500,
+				result.duration + "ms," + (result.error == null ? "no error" : result.error.getCode()));
+
+		result = run("fork.nested.xml",settings);
+		check("nested fork",result.error == null
+				&& "0".equals(JsonTools.getString(result.root, "failed", ""))
+				&& Integer.parseInt(JsonTools.getString(result.root, "inline", "0")) > 0
+				&& "1".equals(getString(result.root,"a","x"))
+				&& "2".equals(getString(result.root,"a","y"))
+				&& "3".equals(getString(result.root,"b","x"))
+				&& "4".equals(getString(result.root,"b","y"))
+				&& result.duration < 2000,
+				result.duration + "ms," + result.root);
+
+		System.out.println(failed > 0 ? failed + " check(s) failed." : "All checks passed.");
+		System.exit(failed > 0 ? 1 : 0);
+	}
+}
@@ -80,6 +80,7 @@ public class Main {
 		
 		//runAsJson("java:///xscript/foreach.xml#com.alogic.xscript.demo.Main",settings);
 		//runAsJson("java:///xscript/repeat.xml#com.alogic.xscript.demo.Main",settings);
+		//runAsJson("java:///xscript/fork.xml#com.alogic.xscript.demo.Main",settings);
 		runAsJson("java:///xscript/rand.xml#com.alogic.xscript.demo.Main",settings);
 	}
 
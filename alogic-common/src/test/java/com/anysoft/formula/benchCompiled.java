@@ -0,0 +1,65 @@
+package com.anysoft.formula;
+
+import com.anysoft.util.DefaultProperties;
+import com.anysoft.util.Properties;
+
+/**
+ * 比较解释执行和编译之后的公式的计算性能
+ *
+ * @author duanyy
+ * @since 1.6.10.20
+ */
+public class benchCompiled {
+
+	protected static long run(Expression expr,Properties p,int loops){
+		long length = 0;
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < loops ; i ++){
+			length += expr.getValue(p).toString().length();
+		}
+		long duration = System.nanoTime() - begin;
+		if (length == 0){
+			System.out.println(length);
+		}
+		return duration / loops;
+	}
+
+	public static void main(String[] args) {
+		int loops = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		Properties p = new DefaultProperties();
+		p.SetValue("amount", "1024");
+		p.SetValue("rate", "0.75");
+		p.SetValue("type", "shop");
+		p.SetValue("name", "alogic");
+
+		String [] formulas = {
+			"23 % 10 + (200 / 20 - 2*20) + 0.1 * 100",
+			"to_long(amount) * 2 + 60 * 60 * 24",
+			"choice(type == 'shop' && to_long(amount) > 1000, 'big', 'small')",
+			"nvl(name,'none') + '.' + type + '.' + (1000 * 10)",
+			"to_double(rate) * to_long(amount) >= 100.0 || strlen(name) < 3"
+		};
+
+		for (String formula:formulas){
+			Expression interpreted = new Parser().parse(formula);
+			Expression compiled = CompiledExpression.compile(formula);
+
+			String v1 = interpreted.getValue(p).toString();
+			String v2 = compiled.getValue(p).toString();
+			System.out.println(formula + " = " + v2);
+			if (!v1.equals(v2)){
+				System.out.println("The results are not the same:" + v1);
+				return;
+			}
+
+			for (int round = 0 ; round < 2 ; round ++){
+				long t1 = run(interpreted,p,loops);
+				long t2 = run(compiled,p,loops);
+				if (round > 0){
+					System.out.println(String.format("\tinterpreted : %d ns/op,compiled : %d ns/op", t1,t2));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.anysoft.stream.demo;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.anysoft.stream.FileHandler;
+import com.anysoft.stream.Flowable;
+import com.anysoft.util.DefaultProperties;
+import com.anysoft.util.Properties;
+
+/**
+ * FileHandler的写出性能以及写出失败时的处理
+ *
+ * <p>
+ * 先测试连续写出的性能(ns/op)，然后将文件路径指向无法创建的目录，验证：<br>
+ * - 失败时数据保留在缓冲区中(pending)，恢复之后重试写出; <br>
+ * - 积压超出file.maxPending时数据被抛弃并计入discarded; <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.26
+ */
+public class FileHandlerBench {
+
+	public static class Item implements Flowable{
+		protected String id;
+		protected String content;
+
+		public Item(String id,String content){
+			this.id = id;
+			this.content = content;
+		}
+
+		@Override
+		public String getValue(String varName, Object context, String defaultValue) {
+			return defaultValue;
+		}
+
+		@Override
+		public String getRawValue(String varName, Object context, String dftValue) {
+			return dftValue;
+		}
+
+		@Override
+		public Object getContext(String varName) {
+			return this;
+		}
+
+		@Override
+		public String getStatsDimesion() {
+			return "demo";
+		}
+
+		@Override
+		public String id() {
+			return id;
+		}
+	}
+
+	public static class ItemWriter extends FileHandler<Item>{
+		@Override
+		protected void format(Item item, StringBuilder buf) {
+			buf.append(item.id).append('|');
+			appendLine(buf,item.content).append('\n');
+		}
+
+		public synchronized void setPath(String path){
+			closeChannel();
+			this.path = path;
+		}
+	}
+
+	protected static ItemWriter newWriter(File dir,String name) throws Exception{
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		Element e = doc.createElement("handler");
+		e.setAttribute("file.path", new File(dir,name).getPath());
+		e.setAttribute("file.bufferSize", "4096");
+		e.setAttribute("file.maxPending", "16384");
+
+		Properties p = new DefaultProperties("Default",null);
+		ItemWriter writer = new ItemWriter();
+		writer.configure(e, p);
+		return writer;
+	}
+
+	protected static Map<String,Object> report(ItemWriter writer){
+		Map<String,Object> json = new HashMap<String,Object>();
+		writer.report(json);
+		return json;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int loops = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		File dir = new File(System.getProperty("java.io.tmpdir"),"file-handler-" + System.currentTimeMillis());
+		if (!dir.mkdirs()){
+			System.out.println("Can not create directory:" + dir.getPath());
+			return;
+		}
+
+		String content = "The quick brown fox jumps over the lazy dog.\r\n中文内容";
+		ItemWriter writer = newWriter(dir,"bench.log");
+		for (int round = 0 ; round < 3 ; round ++){
+			long begin = System.nanoTime();
+			for (int i = 0 ; i < loops ; i ++){
+				writer.handle(new Item(String.valueOf(i),content), 0);
+			}
+			writer.flush(0);
+			System.out.println(String.format("%s : %d ns/op",round == 0 ? "Warm up" : "Measure",(System.nanoTime() - begin) / loops));
+		}
+		System.out.println(report(writer));
+		writer.close();
+
+		//父路径是一个文件，无法创建目录
+		File blocker = new File(dir,"blocker");
+		if (!blocker.createNewFile()){
+			System.out.println("Can not create file:" + blocker.getPath());
+			return;
+		}
+		writer = newWriter(dir,"retry.log");
+		writer.setPath(new File(blocker,"retry.log").getPath());
+		for (int i = 0 ; i < 10 ; i ++){
+			writer.handle(new Item(String.valueOf(i),content), 0);
+		}
+		writer.flush(0);
+		System.out.println("After failure : " + report(writer));
+
+		writer.setPath(new File(dir,"retry.log").getPath());
+		writer.flush(0);
+		System.out.println("After recovery : " + report(writer));
+
+		writer.setPath(new File(blocker,"retry.log").getPath());
+		for (int i = 0 ; i < 1000 ; i ++){
+			writer.handle(new Item(String.valueOf(i),content), 0);
+		}
+		writer.flush(0);
+		System.out.println("After overflow : " + report(writer));
+		writer.setPath(new File(dir,"retry.log").getPath());
+		writer.close();
+	}
+}
@@ -0,0 +1,96 @@
+package com.anysoft.util.demo;
+
+import com.anysoft.util.DefaultProperties;
+import com.anysoft.util.Properties;
+
+/**
+ * 比较原有的变量填充算法和编译模板在多层DefaultProperties上的GetValue性能
+ *
+ * <p>
+ * 变量集为三层嵌套(全局-服务-调用)，取值时需要计算多个变量，其中部分变量的值又包含变量.
+ *
+ * @author duanyy
+ * @since 1.6.10.19
+ */
+public class TemplateBench {
+
+	/**
+	 * 采用原有算法的变量集
+	 */
+	public static class LegacyProperties extends DefaultProperties{
+		public LegacyProperties(String domain,Properties parent){
+			super(domain,parent);
+		}
+
+		@Override
+		public String FillValue(String _name,String _value){
+			int __startIndex = _value.indexOf(VariableStart);
+			if (__startIndex < 0){
+				return _value;
+			}
+			String __tmpValue = _value.substring(0,__startIndex);
+			int __endIndex = _value.indexOf(VariableEnd,__startIndex + VariableStart.length());
+			if (__endIndex < 0){
+				return __tmpValue;
+			}
+			String __varName = _value.substring(__startIndex + VariableStart.length(),__endIndex);
+			String __afterValue = _value.substring(__endIndex + VariableEnd.length());
+			if (!__varName.equals(_name)){
+				__tmpValue += GetValue(__varName,"",false,false);
+				__tmpValue += __afterValue;
+				return FillValue(_name,__tmpValue);
+			}
+			return __tmpValue;
+		}
+	}
+
+	protected static Properties newChain(boolean legacy){
+		Properties global = legacy ? new LegacyProperties("global",null) : new DefaultProperties("global",null);
+		global.SetValue("host", "10.0.0.1");
+		global.SetValue("port", "8080");
+		global.SetValue("base", "http://${host}:${port}");
+		global.SetValue("app", "alogic");
+
+		Properties service = legacy ? new LegacyProperties("service",global) : new DefaultProperties("service",global);
+		service.SetValue("path", "/${app}/services/${module}");
+		service.SetValue("module", "core");
+
+		Properties call = legacy ? new LegacyProperties("call",service) : new DefaultProperties("call",service);
+		call.SetValue("id", "1024");
+		call.SetValue("url", "${base}${path}?id=${id}&app=${app}");
+		return call;
+	}
+
+	protected static long run(Properties p,int loops){
+		long length = 0;
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < loops ; i ++){
+			length += p.GetValue("url", "").length();
+			length += p.transform("${module}.${id}").length();
+		}
+		long duration = System.nanoTime() - begin;
+		if (length == 0){
+			System.out.println(length);
+		}
+		return duration / loops;
+	}
+
+	public static void main(String[] args) {
+		int loops = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		Properties legacy = newChain(true);
+		Properties compiled = newChain(false);
+
+		System.out.println("url=" + compiled.GetValue("url", ""));
+		if (!legacy.GetValue("url", "").equals(compiled.GetValue("url", ""))){
+			System.out.println("The results are not the same!");
+			return;
+		}
+
+		for (int round = 0 ; round < 3 ; round ++){
+			System.out.println(round == 0 ? "Warm up..." : "Measure...");
+			System.out.println(String.format("legacy   : %d ns/op", run(legacy,loops)));
+			System.out.println(String.format("compiled : %d ns/op", run(compiled,loops)));
+		}
+	}
+}
@@ -3,10 +3,13 @@ package com.logicbus.backend;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
@@ -61,17 +64,22 @@ import com.logicbus.models.servant.ServiceDescription;
  * 
  * @version 1.6.7.4 [20170118 duanyy] <br>
  * - 淘汰com.anysoft.metrics包 ，改用新的指标框架<br>
+ * 
+ * @version 1.6.10.13 [20171108 duanyy] <br>
+ * - 去掉共享锁，访问统计改为无锁的原子计数 <br>
+ * - 访问列表有界，空闲的会话将被清除(acm.maxSessions,acm.idleTime) <br>
  */
 public abstract class AbstractAccessController implements AccessController {
 	/**
 	 * 访问列表
 	 */
-	protected Hashtable<String,AccessStat> acl = new Hashtable<String,AccessStat>();
+	protected ConcurrentHashMap<String,AccessStat> acl = new ConcurrentHashMap<String,AccessStat>();
 
 	/**
-	 * 锁
+	 * 访问列表的清除器
 	 */
-	protected ReentrantLock lock = new ReentrantLock();
+	protected Sweeper sweeper = new Sweeper();
+	
 	/**
 	 * 指标ID
 	 */
@@ -94,19 +102,15 @@ public abstract class AbstractAccessController implements AccessController {
 	@Override
 	public void configure(Properties p) {
 		metricsId = PropertiesConstants.getString(p, "acm.metrics.id", metricsId);
+		sweeper.configure(p);
 	}	
 	
 	@Override
 	public int accessEnd(String sessionId,Path serviceId, ServiceDescription servant,
 			Context ctx) {
-		lock.lock();
-		try {
-			AccessStat current = acl.get(sessionId);
-			if (current != null){
-				current.thread --;
-			}
-		}finally{
-			lock.unlock();
+		AccessStat current = acl.get(sessionId);
+		if (current != null){
+			current.end();
 		}
 		return 0;
 	}
@@ -114,32 +118,21 @@ public abstract class AbstractAccessController implements AccessController {
 	@Override
 	public int accessStart(String sessionId,Path serviceId, ServiceDescription servant,
 			Context ctx) {
-		lock.lock();
-		try {
-			AccessStat current = acl.get(sessionId);	
-			if (current == null){
-				current = new AccessStat();
-				acl.put(sessionId, current);
+		long now = System.currentTimeMillis();
+		AccessStat current = acl.get(sessionId);	
+		while (current == null || !current.start(now)){
+			if (current != null){
+				//已经被清除
+				acl.remove(sessionId, current);
 			}
-			
-			current.timesTotal ++;
-			current.thread ++;
-			current.waitCnt = lock.getQueueLength();
-			
-			long timestamp = System.currentTimeMillis();
-			timestamp = (timestamp / 60000)*60000;
-			if (timestamp != current.timestamp){
-				//新的周期
-				current.timesOneMin = 1;
-				current.timestamp = timestamp;
-			}else{
-				current.timesOneMin ++;
+			AccessStat newStat = new AccessStat();
+			current = acl.putIfAbsent(sessionId, newStat);
+			if (current == null){
+				current = newStat;
+				sweeper.sweep(acl, now);
 			}
-			
-			return getClientPriority(sessionId,serviceId,servant,ctx,current);
-		}finally{
-			lock.unlock();
 		}
+		return getClientPriority(sessionId,serviceId,servant,ctx,current);
 	}
 		
 	/**
@@ -177,6 +170,10 @@ public abstract class AbstractAccessController implements AccessController {
 				if (match){
 					if (current >= offset && current < offset + limit){
 						AccessStat value = acl.get(key);
+						if (value == null){
+							//已经被清除
+							continue;
+						}
 						Element eAcl = doc.createElement("acl");
 						
 						eAcl.setAttribute("session", key);
@@ -217,6 +214,10 @@ public abstract class AbstractAccessController implements AccessController {
 				if (match){
 						if (current >= offset && current < offset + limit){
 							AccessStat value = acl.get(key);
+							if (value == null){
+								//已经被清除
+								continue;
+							}
 							
 							Map<String,Object> mAcl = new HashMap<String,Object>();
 
@@ -246,6 +247,9 @@ public abstract class AbstractAccessController implements AccessController {
 			while (keys.hasMoreElements()){
 				String key = keys.nextElement();
 				AccessStat value = acl.get(key);
+				if (value == null){
+					continue;
+				}
 				
 				Fragment f = new DefaultFragment(metricsId);
 				
@@ -268,31 +272,185 @@ public abstract class AbstractAccessController implements AccessController {
 	
 	/**
 	 * 访问统计
+	 * 
+	 * <p>
+	 * 各计数器通过原子操作更新，无需加锁.
+	 * 
 	 * @author duanyy
 	 *
+	 * @version 1.6.10.13 [20171108 duanyy] <br>
+	 * - 改为原子计数，增加最后访问时间 <br>
+	 * - 增加清除标记，被清除的统计对象不再接受访问 <br>
 	 */
 	public static class AccessStat {
+		/**
+		 * 被清除之后的并发数
+		 */
+		private static final int RETIRED = Integer.MIN_VALUE / 2;
+		
+		private static final AtomicLongFieldUpdater<AccessStat> TIMES_TOTAL = 
+				AtomicLongFieldUpdater.newUpdater(AccessStat.class, "timesTotal");
+		private static final AtomicIntegerFieldUpdater<AccessStat> TIMES_ONE_MIN = 
+				AtomicIntegerFieldUpdater.newUpdater(AccessStat.class, "timesOneMin");
+		private static final AtomicIntegerFieldUpdater<AccessStat> THREAD = 
+				AtomicIntegerFieldUpdater.newUpdater(AccessStat.class, "thread");
+		private static final AtomicLongFieldUpdater<AccessStat> TIMESTAMP = 
+				AtomicLongFieldUpdater.newUpdater(AccessStat.class, "timestamp");
+		
 		/**
 		 * 总调用次数
 		 */
-		public long timesTotal = 0;
+		public volatile long timesTotal = 0;
 		/**
 		 * 最近一分钟调用次数
 		 */
-		public int timesOneMin = 0;
+		public volatile int timesOneMin = 0;
 		/**
 		 * 当前接入进程个数
 		 */
-		public int thread = 0;
+		public volatile int thread = 0;
 		/**
 		 * 时间戳(用于定义最近一分钟)
 		 */
-		public long timestamp = 0;
+		public volatile long timestamp = 0;
 		
 		/**
 		 * 等待进程数
+		 * 
+		 * <p>
+		 * 去掉共享锁之后不再有等待，保留以兼容原有的报告.
+		 * 
 		 * @since 1.2.1
 		 */
-		public int waitCnt = 0;
+		public volatile int waitCnt = 0;
+		
+		/**
+		 * 最后访问时间
+		 * @since 1.6.10.13
+		 */
+		public volatile long lastVisited = 0;
+		
+		/**
+		 * 开始访问
+		 * 
+		 * <p>
+		 * 如果统计对象已经被清除，返回false，调用者应使用新的统计对象.
+		 * 
+		 * @param now 当前时间
+		 * @return 是否成功
+		 * @since 1.6.10.13
+		 */
+		public boolean start(long now){
+			if (THREAD.incrementAndGet(this) <= 0){
+				//已经被清除
+				THREAD.decrementAndGet(this);
+				return false;
+			}
+			TIMES_TOTAL.incrementAndGet(this);
+			lastVisited = now;
+			
+			long period = (now / 60000)*60000;
+			long last = timestamp;
+			int lastCount = timesOneMin;
+			if (period != last && TIMESTAMP.compareAndSet(this, last, period)){
+				//新的周期,仅扣除上一周期的计数，不丢失切换期间其他线程的计数
+				TIMES_ONE_MIN.addAndGet(this, 1 - lastCount);
+			}else{
+				TIMES_ONE_MIN.incrementAndGet(this);
+			}
+			return true;
+		}
+		
+		/**
+		 * 结束访问
+		 * @since 1.6.10.13
+		 */
+		public void end(){
+			THREAD.decrementAndGet(this);
+		}
+		
+		/**
+		 * 是否空闲
+		 * @param now 当前时间
+		 * @param idleTime 空闲时间
+		 * @return 没有并发访问且空闲超过idleTime时为true
+		 * @since 1.6.10.13
+		 */
+		public boolean isIdle(long now,long idleTime){
+			return thread <= 0 && now - lastVisited > idleTime;
+		}
+		
+		/**
+		 * 标记为已清除
+		 * 
+		 * <p>
+		 * 仅当没有正在进行的访问时才能成功，成功之后{@link #start(long)}将返回false.
+		 * 
+		 * @return 是否成功
+		 * @since 1.6.10.13
+		 */
+		public boolean retire(){
+			return THREAD.compareAndSet(this, 0, RETIRED);
+		}
+	}
+	
+	/**
+	 * 访问列表的清除器
+	 * 
+	 * <p>
+	 * 当会话数超出maxSessions，或者距离上次清除超过idleTime时进行，同一时刻只有一个线程执行清除.
+	 * 正在访问的会话不会被清除.
+	 * 
+	 * @since 1.6.10.13
+	 */
+	public static class Sweeper {
+		/**
+		 * 访问列表的最大会话数，超出时清除空闲的会话
+		 */
+		protected int maxSessions = 10240;
+		
+		/**
+		 * 会话的空闲时间(毫秒)，超过该时间且无并发的会话可被清除
+		 */
+		protected long idleTime = 10 * 60 * 1000L;
+		
+		/**
+		 * 上次清除的时间
+		 */
+		protected volatile long lastSweep = System.currentTimeMillis();
+		
+		/**
+		 * 是否正在清除
+		 */
+		protected AtomicBoolean sweeping = new AtomicBoolean(false);
+		
+		public void configure(Properties p){
+			maxSessions = PropertiesConstants.getInt(p, "acm.maxSessions", maxSessions);
+			idleTime = PropertiesConstants.getLong(p, "acm.idleTime", idleTime);
+		}
+		
+		/**
+		 * 清除空闲的会话
+		 * @param acl 访问列表
+		 * @param now 当前时间
+		 */
+		public <S extends AccessStat> void sweep(ConcurrentHashMap<String,S> acl,long now){
+			if ((maxSessions > 0 && acl.size() > maxSessions) || now - lastSweep > idleTime){
+				if (sweeping.compareAndSet(false, true)){
+					try {
+						lastSweep = now;
+						Iterator<S> iter = acl.values().iterator();
+						while (iter.hasNext()){
+							S stat = iter.next();
+							if (stat.isIdle(now, idleTime) && stat.retire()){
+								iter.remove();
+							}
+						}
+					}finally{
+						sweeping.set(false);
+					}
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,735 @@
+package com.logicbus.backend;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.alogic.metrics.Dimensions;
+import com.alogic.metrics.Fragment;
+import com.alogic.metrics.Measures;
+import com.alogic.metrics.Fragment.Method;
+import com.alogic.metrics.impl.DefaultFragment;
+import com.alogic.metrics.stream.MetricsCollector;
+import com.alogic.metrics.stream.MetricsReportable;
+import com.anysoft.util.Counter;
+import com.anysoft.util.IOTools;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+import com.logicbus.models.servant.ServiceDescription;
+
+/**
+ * 无锁的ServantPool
+ *
+ * <p>
+ * 和{@link QueuedServantPool2}相比：<br>
+ * - 借出和归还的快速路径无锁，空闲对象保存在无锁的双端队列中，后进先出; <br>
+ * - 已分配的对象数(空闲+工作+创建中)通过CAS精确控制，不会超出maxActive; <br>
+ * - 无法立即获得对象的线程按优先级和先后顺序排队等待，对象归还或者名额释放时直接交给排在最前面的等待者; <br>
+ * - 服务统计不再加锁，拿不到统计锁的线程将数据交给持有锁的线程合并记录; <br>
+ *
+ * <p>
+ * 可通过servant.pool参数启用，参数和{@link QueuedServantPool2}相同：<br>
+ * - servant.maxActive : 普通优先级下的最大对象数，缺省为10; <br>
+ * - servant.maxIdle : 最大空闲对象数，缺省为5; <br>
+ * - servant.queueTimeout : 等待超时时间(毫秒)，缺省为10; <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.15
+ * 
+ * @version 1.6.10.21 [20171127 duanyy] <br>
+ * - 服务统计支持指标输出时，输出服务统计的指标 <br>
+ */
+public class ConcurrentServantPool implements ServantPool{
+	/**
+	 * a slf4j logger
+	 */
+	protected static final Logger logger = LoggerFactory.getLogger(ConcurrentServantPool.class);
+
+	/**
+	 * 交给等待者的名额，等待者获得后自行创建对象
+	 */
+	protected static final Object PERMIT = new Object();
+
+	/**
+	 * 等待者已经放弃
+	 */
+	protected static final Object CANCELLED = new Object();
+
+	/**
+	 * 服务池已经关闭或重新装入，等待者不再等待
+	 */
+	protected static final Object CLOSED = new Object();
+
+	/**
+	 * 尚未记录到服务统计中的数据的最大条数
+	 */
+	protected static final int PENDING_SIZE = 1024;
+
+	/**
+	 * 服务描述
+	 */
+	private ServiceDescription m_desc;
+
+	/**
+	 * 服务统计
+	 */
+	private Counter m_stat;
+
+	/**
+	 * 指标ID
+	 */
+	protected String metricsId = "svc.pool";
+
+	/**
+	 * 状态
+	 */
+	protected volatile String status = "running";
+
+	/**
+	 * 超时缺省时间
+	 */
+	protected int queueTimeout = 10;
+
+	/**
+	 * 普通优先级下的最大对象数
+	 */
+	protected int maxActive = 10;
+
+	/**
+	 * 最大空闲对象数
+	 */
+	protected int maxIdle = 5;
+
+	/**
+	 * 空闲对象
+	 */
+	protected ConcurrentLinkedDeque<Servant> idle = new ConcurrentLinkedDeque<Servant>();
+
+	/**
+	 * 等待者，按优先级和先后顺序排列
+	 */
+	protected ConcurrentSkipListMap<Waiter,Boolean> waiters = new ConcurrentSkipListMap<Waiter,Boolean>();
+
+	/**
+	 * 等待者序号
+	 */
+	protected AtomicLong waiterSeq = new AtomicLong(0);
+
+	/**
+	 * 已分配的对象数，包括空闲，工作和创建中的对象
+	 */
+	protected AtomicInteger allocatedCnt = new AtomicInteger(0);
+
+	protected AtomicInteger idleCnt = new AtomicInteger(0);
+
+	protected AtomicInteger workingCnt = new AtomicInteger(0);
+
+	protected AtomicInteger creatingCnt = new AtomicInteger(0);
+
+	protected AtomicInteger waitCnt = new AtomicInteger(0);
+
+	/**
+	 * 等待超时次数
+	 */
+	protected AtomicLong timeoutCnt = new AtomicLong(0);
+
+	/**
+	 * 服务统计的锁
+	 */
+	protected ReentrantLock lockStat = new ReentrantLock();
+
+	/**
+	 * 尚未记录到服务统计中的数据
+	 *
+	 * <p>
+	 * 预先分配的环形缓冲区，每条数据编码为一个长整数(时长*2+是否错误+1)，0表示尚未写入或已经记录.
+	 */
+	protected AtomicLongArray pendingStat = new AtomicLongArray(PENDING_SIZE);
+
+	/**
+	 * 环形缓冲区的写入位置
+	 */
+	protected AtomicLong pendingTail = new AtomicLong(0);
+
+	/**
+	 * 环形缓冲区的读取位置，只由持有统计锁的线程修改
+	 */
+	protected volatile long pendingHead = 0;
+
+	public ConcurrentServantPool(ServiceDescription sd){
+		m_desc = sd;
+
+		Properties props = m_desc.getProperties();
+		props.SetValue("counter.id", m_desc.getPath());
+		m_stat = createCounter(props);
+
+		queueTimeout = PropertiesConstants.getInt(props, "servant.queueTimeout", queueTimeout);
+		metricsId = PropertiesConstants.getString(props, "servant.metrics.id", metricsId);
+		maxActive = PropertiesConstants.getInt(props, "servant.maxActive", maxActive,false);
+		maxActive = maxActive <= 0 ? 10 : maxActive;
+		maxIdle = PropertiesConstants.getInt(props, "servant.maxIdle", maxIdle,false);
+		maxIdle = maxIdle <= 0 ? maxActive : maxIdle;
+
+		logger.info("Initialize the servant pool..");
+		logger.info("Id:" + m_desc.getServiceID());
+		logger.info("Name:" + m_desc.getName());
+		logger.info("Module:" + m_desc.getModule());
+		logger.info("MaxActive:" + maxActive);
+		logger.info("MaxIdle:" + maxIdle);
+	}
+
+	protected Counter createCounter(Properties p){
+		String module = PropertiesConstants.getString(p,"servant.stat.module", ServantStat.class.getName());
+		try {
+			p.SetValue("counter.id", m_desc.getPath());
+			return Counter.TheFactory.getCounter(module, p);
+		}catch (Exception ex){
+			logger.warn("Can not create servant counter:" + module + ",default counter is instead.");
+			return new ServantStat(p);
+		}
+	}
+
+	@Override
+	public ServiceDescription getDescription() {
+		return m_desc;
+	}
+
+	/**
+	 * 获取服务统计
+	 * @return 服务统计
+	 */
+	public Counter getStat(){
+		drainStat();
+		return m_stat;
+	}
+
+	public int getMaxActive(){return maxActive;}
+	public int getMaxIdle(){return maxIdle;}
+	public int getIdleCnt(){return idleCnt.get();}
+	public int getWorkingCnt(){return workingCnt.get();}
+	public int getCreatingCnt(){return creatingCnt.get();}
+	public int getWaitCnt(){return waitCnt.get();}
+	public int getAllocatedCnt(){return allocatedCnt.get();}
+
+	@Override
+	public void reload(ServiceDescription sd) {
+		m_desc = sd;
+		close();
+		ServantExecutor.reload(sd);
+	}
+
+	@Override
+	public void pause() {
+		status = "pause";
+	}
+
+	@Override
+	public void resume() {
+		status = "running";
+	}
+
+	@Override
+	public boolean isRunning() {
+		return status.equals("running");
+	}
+
+	/**
+	 * 关闭服务池
+	 *
+	 * <p>
+	 * 关闭空闲对象，正在等待的线程将立即返回null，不再向其分配对象或名额.
+	 */
+	@Override
+	public void close() {
+		Servant found = null;
+		while ((found = idle.pollFirst()) != null){
+			idleCnt.decrementAndGet();
+			allocatedCnt.decrementAndGet();
+			IOTools.close(found);
+		}
+		Map.Entry<Waiter,Boolean> head = null;
+		while ((head = waiters.pollFirstEntry()) != null){
+			head.getKey().offer(CLOSED);
+		}
+	}
+
+	@Override
+	public void visited(long duration, String code) {
+		boolean error = !code.equals("core.ok");
+		if (lockStat.tryLock()){
+			try {
+				drainPending();
+				m_stat.count(duration, error);
+			}finally{
+				lockStat.unlock();
+			}
+			return;
+		}
+		//由持有锁的线程或者下一次访问合并记录
+		while (true){
+			long tail = pendingTail.get();
+			if (tail - pendingHead >= PENDING_SIZE){
+				break;
+			}
+			if (pendingTail.compareAndSet(tail, tail + 1)){
+				pendingStat.set((int)(tail % PENDING_SIZE), (duration << 1 | (error ? 1 : 0)) + 1);
+				return;
+			}
+		}
+		//缓冲区已满，等待统计锁
+		lockStat.lock();
+		try {
+			drainPending();
+			m_stat.count(duration, error);
+		}finally{
+			lockStat.unlock();
+		}
+	}
+
+	/**
+	 * 将尚未记录的数据记录到服务统计中
+	 */
+	protected void drainStat(){
+		if (pendingHead != pendingTail.get()){
+			lockStat.lock();
+			try {
+				drainPending();
+			}finally{
+				lockStat.unlock();
+			}
+		}
+	}
+
+	private void drainPending(){
+		long head = pendingHead;
+		while (head != pendingTail.get()){
+			int index = (int)(head % PENDING_SIZE);
+			long found = pendingStat.get(index);
+			if (found == 0){
+				//已经预留但尚未写入，留待下一次
+				break;
+			}
+			pendingStat.set(index, 0);
+			head ++;
+			pendingHead = head;
+			found --;
+			m_stat.count(found >> 1, (found & 1) != 0);
+		}
+	}
+
+	@Override
+	public Servant borrowObject(int priority) {
+		return borrowObject(priority,queueTimeout);
+	}
+
+	/**
+	 * 从服务池中借取服务对象
+	 * @param priority 优先级
+	 * @param timeout 等待超时时间(毫秒)
+	 * @return 服务对象，超时返回null
+	 */
+	public Servant borrowObject(int priority,int timeout){
+		//当前优先级所允许的最大对象数
+		int limit = maxActive * (1 + priority);
+
+		//已有等待者时不走快速路径，以保证按优先级和先后顺序分配
+		if (waitCnt.get() <= 0){
+			Servant found = pollIdle();
+			if (found != null){
+				return found;
+			}
+			if (reserve(limit)){
+				return create();
+			}
+		}
+
+		if (timeout <= 0){
+			return null;
+		}
+
+		return await(priority,limit,timeout);
+	}
+
+	@Override
+	public void returnObject(Servant obj, boolean hasError) {
+		workingCnt.decrementAndGet();
+		if (hasError || idleCnt.get() >= maxIdle){
+			allocatedCnt.decrementAndGet();
+			IOTools.close(obj);
+		}else{
+			idleCnt.incrementAndGet();
+			idle.offerFirst(obj);
+		}
+		dispatch();
+	}
+
+	/**
+	 * 从空闲队列中获取对象
+	 * @return 对象，没有空闲对象时返回null
+	 */
+	protected Servant pollIdle(){
+		Servant found = idle.pollFirst();
+		if (found != null){
+			idleCnt.decrementAndGet();
+			workingCnt.incrementAndGet();
+		}
+		return found;
+	}
+
+	/**
+	 * 将对象放回空闲队列
+	 * @param obj 对象
+	 */
+	protected void pushIdle(Servant obj){
+		workingCnt.decrementAndGet();
+		idleCnt.incrementAndGet();
+		idle.offerFirst(obj);
+	}
+
+	/**
+	 * 预留一个名额
+	 * @param limit 最大对象数
+	 * @return 是否成功
+	 */
+	protected boolean reserve(int limit){
+		while (true){
+			int current = allocatedCnt.get();
+			if (current >= limit){
+				return false;
+			}
+			if (allocatedCnt.compareAndSet(current, current + 1)){
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 在已预留的名额上创建对象
+	 * @return 对象
+	 */
+	protected Servant create(){
+		creatingCnt.incrementAndGet();
+		boolean created = false;
+		try {
+			Servant found = createServant(m_desc);
+			workingCnt.incrementAndGet();
+			created = true;
+			return found;
+		}finally{
+			creatingCnt.decrementAndGet();
+			if (!created){
+				allocatedCnt.decrementAndGet();
+				dispatch();
+			}
+		}
+	}
+
+	/**
+	 * 排队等待
+	 * @param priority 优先级
+	 * @param limit 最大对象数
+	 * @param timeout 超时时间(毫秒)
+	 * @return 对象，超时返回null
+	 */
+	protected Servant await(int priority,int limit,int timeout){
+		Waiter waiter = new Waiter(priority,waiterSeq.incrementAndGet(),limit);
+		waiters.put(waiter, Boolean.TRUE);
+		waitCnt.incrementAndGet();
+		boolean interrupted = false;
+		try {
+			//入队之前可能已经有对象归还
+			dispatch();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (waiter.get() == null){
+				long nanos = deadline - System.nanoTime();
+				if (nanos <= 0L){
+					break;
+				}
+				LockSupport.parkNanos(this, nanos);
+				if (Thread.interrupted()){
+					interrupted = true;
+					break;
+				}
+			}
+
+			if (waiter.compareAndSet(null, CANCELLED)){
+				timeoutCnt.incrementAndGet();
+				return null;
+			}
+
+			Object found = waiter.get();
+			if (found == CLOSED){
+				return null;
+			}
+			return found == PERMIT ? create() : (Servant)found;
+		}finally{
+			waiters.remove(waiter);
+			waitCnt.decrementAndGet();
+			if (interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * 将空闲对象或者空闲名额交给等待者
+	 */
+	protected void dispatch(){
+		while (true){
+			Map.Entry<Waiter,Boolean> head = waiters.firstEntry();
+			if (head == null){
+				return;
+			}
+			Waiter waiter = head.getKey();
+			if (waiter.get() != null){
+				//已经超时或者已经拿到
+				waiters.remove(waiter);
+				continue;
+			}
+
+			Servant found = pollIdle();
+			if (found != null){
+				if (!waiter.offer(found)){
+					pushIdle(found);
+				}
+				waiters.remove(waiter);
+				continue;
+			}
+
+			if (!reserve(waiter.limit)){
+				return;
+			}
+
+			if (!waiter.offer(PERMIT)){
+				allocatedCnt.decrementAndGet();
+			}
+			waiters.remove(waiter);
+		}
+	}
+
+	/**
+	 * 根据服务描述创建服务员
+	 * @param desc 服务描述
+	 * @return 服务员
+	 */
+	protected Servant createServant(ServiceDescription desc){
+		String class_name = desc.getModule();
+		Servant temp = null;
+		try {
+			ClassLoader cl = (ClassLoader)Settings.get().get("classLoader");
+			cl = cl == null ? Thread.currentThread().getContextClassLoader() : cl;
+
+			String [] modules = desc.getModules();
+			if (modules != null && modules.length > 0){
+				logger.info("Load class from remote..");
+				URL[] urls = new URL[modules.length];
+				int i = 0;
+				for (String module:modules){
+					String url = desc.getProperties().transform(module);
+					urls[i] = new URL(url);
+					logger.info("url=" + url);
+					i++;
+				}
+				URLClassLoader classLoader = new URLClassLoader(urls,cl);
+				try {
+					temp = (Servant)classLoader.loadClass(class_name).newInstance();
+				}finally{
+					IOTools.closeStream(classLoader);
+				}
+			}else{
+				temp = (Servant)(cl.loadClass(class_name).newInstance());
+			}
+			temp.create(desc);
+			return temp;
+		}catch (ServantException e){
+			throw e;
+		} catch (InstantiationException e) {
+			logger.error("Can not create servant:" + class_name,e);
+			throw new ServantException("core.error_module",e.getMessage());
+		} catch (IllegalAccessException e) {
+			logger.error("Can not create servant:" + class_name,e);
+			throw new ServantException("core.error_module",e.getMessage());
+		} catch (ClassNotFoundException e) {
+			logger.error("Can not create servant:" + class_name,e);
+			throw new ServantException("core.error_module",e.getMessage());
+		} catch (MalformedURLException e) {
+			logger.error("Can not create servant:" + class_name,e);
+			throw new ServantException("core.error_remote_module",e.getMessage());
+		}
+	}
+
+	@Override
+	public int getHealthScore() {
+		return getStat().getHealthScore();
+	}
+
+	@Override
+	public int getActiveScore() {
+		return getStat().getActiveScore();
+	}
+
+	protected void reportPool(Element xml){
+		xml.setAttribute("idle", String.valueOf(idleCnt.get()));
+		xml.setAttribute("wait", String.valueOf(waitCnt.get()));
+		xml.setAttribute("creating", String.valueOf(creatingCnt.get()));
+		xml.setAttribute("working", String.valueOf(workingCnt.get()));
+		xml.setAttribute("allocated", String.valueOf(allocatedCnt.get()));
+		xml.setAttribute("timeout", String.valueOf(timeoutCnt.get()));
+		xml.setAttribute("maxIdle", String.valueOf(maxIdle));
+		xml.setAttribute("maxActive", String.valueOf(maxActive));
+		xml.setAttribute("module", getClass().getName());
+	}
+
+	protected void reportPool(Map<String,Object> json){
+		json.put("idle", idleCnt.get());
+		json.put("wait", waitCnt.get());
+		json.put("creating", creatingCnt.get());
+		json.put("working", workingCnt.get());
+		json.put("allocated", allocatedCnt.get());
+		json.put("timeout", timeoutCnt.get());
+		json.put("maxIdle", maxIdle);
+		json.put("maxActive", maxActive);
+		json.put("module", getClass().getName());
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			Document doc = xml.getOwnerDocument();
+
+			Element runtime = doc.createElement("runtime");
+			runtime.setAttribute("status", status);
+
+			Element stat = doc.createElement("stat");
+			getStat().report(stat);
+			runtime.appendChild(stat);
+
+			Element pool = doc.createElement("pool");
+			reportPool(pool);
+			runtime.appendChild(pool);
+
+			ServantExecutor executor = ServantExecutor.find(m_desc);
+			if (executor != null){
+				Element exec = doc.createElement("executor");
+				executor.report(exec);
+				runtime.appendChild(exec);
+			}
+
+			xml.appendChild(runtime);
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			Map<String,Object> runtime = new HashMap<String,Object>();
+			runtime.put("status", status);
+			Map<String,Object> stat = new HashMap<String,Object>();
+			getStat().report(stat);
+			runtime.put("stat", stat);
+
+			Map<String,Object> pool = new HashMap<String,Object>();
+			reportPool(pool);
+			runtime.put("pool", pool);
+
+			ServantExecutor executor = ServantExecutor.find(m_desc);
+			if (executor != null){
+				Map<String,Object> exec = new HashMap<String,Object>();
+				executor.report(exec);
+				runtime.put("executor", exec);
+			}
+
+			json.put("runtime", runtime);
+		}
+	}
+
+	@Override
+	public void report(MetricsCollector collector) {
+		if (collector != null){
+			Fragment f = new DefaultFragment(metricsId);
+
+			Dimensions dims = f.getDimensions();
+			if (dims != null){
+				dims.set("svc", m_desc.getPath(), true);
+			}
+			Measures meas = f.getMeasures();
+			if (meas != null){
+				meas.set("idle", idleCnt.get(), Method.avg);
+				meas.set("wait", waitCnt.get(),Method.avg);
+				meas.set("creating", creatingCnt.get(),Method.avg);
+				meas.set("working", workingCnt.get(),Method.avg);
+				meas.set("maxActive", maxActive,Method.avg);
+				meas.set("maxIdle", maxIdle,Method.avg);
+			}
+			collector.metricsIncr(f);
+
+			if (m_stat instanceof MetricsReportable){
+				((MetricsReportable)m_stat).report(collector);
+			}
+
+			ServantExecutor executor = ServantExecutor.find(m_desc);
+			if (executor != null){
+				executor.report(collector);
+			}
+		}
+	}
+
+	/**
+	 * 等待者
+	 *
+	 * <p>
+	 * 值为null时表示正在等待，交给等待者的可能是对象，也可能是名额(PERMIT).
+	 */
+	protected static class Waiter extends AtomicReference<Object> implements Comparable<Waiter>{
+		private static final long serialVersionUID = 1L;
+		protected final int priority;
+		protected final long seq;
+		protected final int limit;
+		protected final transient Thread thread = Thread.currentThread();
+
+		protected Waiter(int priority,long seq,int limit){
+			this.priority = priority;
+			this.seq = seq;
+			this.limit = limit;
+		}
+
+		/**
+		 * 交给等待者
+		 * @param item 对象或者名额
+		 * @return 如果等待者已经放弃或者已经拿到，返回false
+		 */
+		protected boolean offer(Object item){
+			if (compareAndSet(null, item)){
+				LockSupport.unpark(thread);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public int compareTo(Waiter o) {
+			//优先级高的在前，同优先级先到的在前
+			if (priority != o.priority){
+				return priority > o.priority ? -1 : 1;
+			}
+			return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+		}
+	}
+}
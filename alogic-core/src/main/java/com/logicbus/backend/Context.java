@@ -55,6 +55,9 @@ import com.logicbus.backend.message.Message;
  * 
  * @version 1.6.9.8 [20170821 duanyy] <br>
  * - 服务上下文增加keyword关键字，和tlog对接; <br>
+ * 
+ * @version 1.6.10.17 [20171117 duanyy] <br>
+ * - 增加响应输出长度和压缩后长度; <br>
  */
 public abstract class Context extends DefaultProperties implements DataProvider{
 	/**
@@ -254,6 +257,26 @@ public abstract class Context extends DefaultProperties implements DataProvider{
 	 */
 	abstract public long getContentLength();
 	
+	/**
+	 * 获取响应输出长度(压缩前)
+	 * @return 输出长度，未知时为0
+	 * 
+	 * @since 1.6.10.17
+	 */
+	public long getOutputLength(){
+		return 0;
+	}
+	
+	/**
+	 * 获取响应压缩后的长度
+	 * @return 压缩后长度，未压缩时为0
+	 * 
+	 * @since 1.6.10.17
+	 */
+	public long getCompressedLength(){
+		return 0;
+	}
+	
 	/**
 	 * 获取全局序列号
 	 * @return 全局序列号
@@ -0,0 +1,224 @@
+package com.logicbus.backend;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.alogic.metrics.Dimensions;
+import com.alogic.metrics.Fragment;
+import com.alogic.metrics.Fragment.Method;
+import com.alogic.metrics.Measures;
+import com.alogic.metrics.impl.DefaultFragment;
+import com.alogic.metrics.stream.MetricsCollector;
+import com.alogic.metrics.stream.MetricsReportable;
+import com.anysoft.util.Histogram;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+
+/**
+ * 基于直方图的服务统计
+ *
+ * <p>
+ * 在{@link ServantStat}的基础上，按服务记录耗时的直方图(参见{@link Histogram})，输出p50,p90,p95,p99和p999.
+ * 直方图包括：<br>
+ * - total : 自启动以来; <br>
+ * - current : 当前周期(servant.stat.cycle)，周期按时间对齐; <br>
+ * - last : 上一个完整的周期; <br>
+ *
+ * <p>
+ * 通过servant.stat.module=com.logicbus.backend.HistogramServantStat启用，参数如下：<br>
+ * - servant.stat.precision : 精度，每个2的幂区间的桶数为2^precision，缺省为4(误差不超过6.25%); <br>
+ * - servant.stat.metrics.id : 指标id，缺省为svc.stat; <br>
+ *
+ * <p>
+ * 耗时的单位为ns，可记录的最大耗时约为18分钟，超出时计入最后一个桶.
+ *
+ * @author duanyy
+ * @since 1.6.10.21
+ */
+public class HistogramServantStat extends ServantStat implements MetricsReportable{
+
+	/**
+	 * 输出的百分位
+	 */
+	protected static final double [] PERCENTILES = {50,90,95,99,99.9};
+
+	/**
+	 * 百分位的名称
+	 */
+	protected static final String [] NAMES = {"p50","p90","p95","p99","p999"};
+
+	/**
+	 * 可记录的最大值的位数(2^40ns约为18分钟)
+	 */
+	protected static final int MAX_BITS = 40;
+
+	/**
+	 * 服务id
+	 */
+	protected String id;
+
+	/**
+	 * 指标id
+	 */
+	protected String metricsId = "svc.stat";
+
+	/**
+	 * 周期
+	 */
+	protected long cycle = 5 * 60 * 1000L;
+
+	/**
+	 * 自启动以来的直方图
+	 */
+	protected Histogram total;
+
+	/**
+	 * 周期窗口(按周期序号轮换)
+	 */
+	protected Window [] windows;
+
+	public HistogramServantStat(Properties p) {
+		super(p);
+		id = PropertiesConstants.getString(p, "counter.id", "");
+		metricsId = PropertiesConstants.getString(p, "servant.stat.metrics.id", metricsId);
+		cycle = getStatCycle(p);
+		cycle = cycle <= 0 ? 5 * 60 * 1000L : cycle;
+
+		int precision = PropertiesConstants.getInt(p, "servant.stat.precision", 4);
+		total = new Histogram(precision,MAX_BITS);
+		windows = new Window[]{new Window(precision),new Window(precision)};
+	}
+
+	@Override
+	public void count(long duration, boolean error) {
+		super.count(duration, error);
+		total.record(duration);
+		getWindow(System.currentTimeMillis() / cycle).record(duration);
+	}
+
+	/**
+	 * 获取指定周期的窗口，如果窗口属于更早的周期则清空
+	 * @param epoch 周期序号
+	 * @return 窗口
+	 */
+	protected Window getWindow(long epoch){
+		Window window = windows[(int)(epoch & 1)];
+		long current = window.epoch.get();
+		if (current < epoch && window.epoch.compareAndSet(current, epoch)){
+			//轮换期间的并发记录可能计入新的周期，误差可以忽略
+			window.histogram.reset();
+		}
+		return window;
+	}
+
+	/**
+	 * 获取指定周期的直方图
+	 * @param epoch 周期序号
+	 * @return 直方图，如果该周期没有记录，返回null
+	 */
+	protected Histogram getHistogram(long epoch){
+		Window window = windows[(int)(epoch & 1)];
+		return window.epoch.get() == epoch ? window.histogram : null;
+	}
+
+	@Override
+	public void report(Element root) {
+		super.report(root);
+		if (root != null){
+			Document doc = root.getOwnerDocument();
+			long epoch = System.currentTimeMillis() / cycle;
+
+			Element percentiles = doc.createElement("percentiles");
+			percentiles.setAttribute("unit", "ns");
+			report(percentiles,"total",total);
+			report(percentiles,"current",getHistogram(epoch));
+			report(percentiles,"last",getHistogram(epoch - 1));
+			root.appendChild(percentiles);
+		}
+	}
+
+	protected void report(Element root,String name,Histogram histogram){
+		Element e = root.getOwnerDocument().createElement(name);
+		long [] values = histogram == null ? new long[PERCENTILES.length] : histogram.getValuesAtPercentiles(PERCENTILES);
+		e.setAttribute("times", String.valueOf(histogram == null ? 0 : histogram.getCount()));
+		for (int i = 0 ; i < NAMES.length ; i ++){
+			e.setAttribute(NAMES[i], String.valueOf(values[i]));
+		}
+		root.appendChild(e);
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		super.report(json);
+		if (json != null){
+			long epoch = System.currentTimeMillis() / cycle;
+
+			Map<String,Object> percentiles = new HashMap<String,Object>(); // NOSONAR
+			percentiles.put("unit", "ns");
+			report(percentiles,"total",total);
+			report(percentiles,"current",getHistogram(epoch));
+			report(percentiles,"last",getHistogram(epoch - 1));
+			json.put("percentiles", percentiles);
+		}
+	}
+
+	protected void report(Map<String,Object> json,String name,Histogram histogram){
+		Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+		long [] values = histogram == null ? new long[PERCENTILES.length] : histogram.getValuesAtPercentiles(PERCENTILES);
+		map.put("times", histogram == null ? 0 : histogram.getCount());
+		for (int i = 0 ; i < NAMES.length ; i ++){
+			map.put(NAMES[i], values[i]);
+		}
+		json.put(name, map);
+	}
+
+	/**
+	 * 输出上一个完整周期的百分位指标
+	 */
+	@Override
+	public void report(MetricsCollector collector) {
+		if (collector != null){
+			Histogram histogram = getHistogram(System.currentTimeMillis() / cycle - 1);
+			if (histogram == null || histogram.getCount() <= 0){
+				return;
+			}
+			Fragment f = new DefaultFragment(metricsId);
+			Dimensions dims = f.getDimensions();
+			if (dims != null){
+				dims.set("svc", id, true);
+			}
+			Measures meas = f.getMeasures();
+			if (meas != null){
+				long [] values = histogram.getValuesAtPercentiles(PERCENTILES);
+				//同一周期可能被多次输出，采用lst方法避免重复累计
+				meas.set("times", histogram.getCount(), Method.lst);
+				meas.set("avg", histogram.getMean(), Method.lst);
+				meas.set("max", histogram.getMax(), Method.lst);
+				for (int i = 0 ; i < NAMES.length ; i ++){
+					meas.set(NAMES[i], values[i], Method.lst);
+				}
+			}
+			collector.metricsIncr(f);
+		}
+	}
+
+	/**
+	 * 周期窗口
+	 */
+	protected static class Window {
+		protected final AtomicLong epoch = new AtomicLong(-1);
+		protected final Histogram histogram;
+
+		protected Window(int precision){
+			histogram = new Histogram(precision,MAX_BITS);
+		}
+
+		protected void record(long value){
+			histogram.record(value);
+		}
+	}
+}
@@ -33,6 +33,9 @@ import com.logicbus.models.servant.ServiceDescription;
  * 
  * @version 1.6.7.9 [20170201 duanyy] <br>
  * - 采用SLF4j日志框架输出日志 <br>
+ * 
+ * @version 1.6.10.5 [20171020 duanyy] <br>
+ * - 关闭时同时关闭服务执行线程池 <br>
  */
 public class QueuedServantFactory extends ServantFactory.Abstract {
 
@@ -169,6 +172,7 @@ public class QueuedServantFactory extends ServantFactory.Abstract {
 		}finally{
 			lockPools.unlock();
 		}
+		ServantExecutor.closeAll();
 	}
 	
 	public void changed(Path id, ServiceDescription desc) {
@@ -16,6 +16,7 @@ import com.alogic.metrics.Measures;
 import com.alogic.metrics.Fragment.Method;
 import com.alogic.metrics.impl.DefaultFragment;
 import com.alogic.metrics.stream.MetricsCollector;
+import com.alogic.metrics.stream.MetricsReportable;
 import com.alogic.pool.impl.Queued;
 import com.anysoft.util.Counter;
 import com.anysoft.util.IOTools;
@@ -51,6 +52,12 @@ import com.logicbus.models.servant.ServiceDescription;
  * 
  * @version 1.6.9.9 [20170829 duanyy] <br>
  * - Pool的returnObject接口增加是否出错的参数 <br>
+ * 
+ * @version 1.6.10.5 [20171020 duanyy] <br>
+ * - 在报告中输出服务执行线程池的信息 <br>
+ * 
+ * @version 1.6.10.21 [20171127 duanyy] <br>
+ * - 服务统计支持指标输出时，输出服务统计的指标 <br>
  */
 public class QueuedServantPool2 extends Queued implements ServantPool{
 	/**
@@ -175,6 +182,7 @@ public class QueuedServantPool2 extends Queued implements ServantPool{
 	public void reload(ServiceDescription sd){
 		m_desc = sd;
 		close();
+		ServantExecutor.reload(sd);
 	}	
 	
 	/**
@@ -280,6 +288,15 @@ public class QueuedServantPool2 extends Queued implements ServantPool{
 				meas.set("maxIdle", getMaxIdle(),Method.avg);
 			}
 			collector.metricsIncr(f);
+			
+			if (m_stat instanceof MetricsReportable){
+				((MetricsReportable)m_stat).report(collector);
+			}
+			
+			ServantExecutor executor = ServantExecutor.find(m_desc);
+			if (executor != null){
+				executor.report(collector);
+			}
 		}
 	}
 	
@@ -299,6 +316,13 @@ public class QueuedServantPool2 extends Queued implements ServantPool{
 			super.report(pool);
 			runtime.appendChild(pool);
 			
+			ServantExecutor executor = ServantExecutor.find(m_desc);
+			if (executor != null){
+				Element exec = doc.createElement("executor");
+				executor.report(exec);
+				runtime.appendChild(exec);
+			}
+			
 			xml.appendChild(runtime);
 		}
 	}
@@ -316,6 +340,13 @@ public class QueuedServantPool2 extends Queued implements ServantPool{
 			super.report(pool);
 			runtime.put("pool", pool);
 			
+			ServantExecutor executor = ServantExecutor.find(m_desc);
+			if (executor != null){
+				Map<String,Object> exec = new HashMap<String,Object>();
+				executor.report(exec);
+				runtime.put("executor", exec);
+			}
+			
 			json.put("runtime", runtime);
 		}
 	}
@@ -105,7 +105,18 @@ public abstract class Servant implements Pooled{
 	 */
 	public void create(ServiceDescription sd){
 		desc = sd;
-		timeOut = PropertiesConstants.getLong(sd.getProperties(), "time_out", 3000);
+		timeOut = getTimeOutValue(sd);
+	}
+
+	/**
+	 * 从服务描述中获取超时时长
+	 * @param sd 服务描述
+	 * @return 超时时长(ms)
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public static long getTimeOutValue(ServiceDescription sd){
+		return PropertiesConstants.getLong(sd.getProperties(), "time_out", 3000);
 	}
 
 	/**
@@ -0,0 +1,431 @@
+package com.logicbus.backend;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.alogic.metrics.Dimensions;
+import com.alogic.metrics.Fragment;
+import com.alogic.metrics.Fragment.Method;
+import com.alogic.metrics.Measures;
+import com.alogic.metrics.impl.DefaultFragment;
+import com.alogic.metrics.stream.MetricsCollector;
+import com.alogic.metrics.stream.MetricsReportable;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Reportable;
+import com.logicbus.models.servant.ServiceDescription;
+
+/**
+ * 服务执行线程池
+ *
+ * <p>
+ * 在pooled执行模式下，MessageRouter不再为每次请求创建线程，而是将服务提交到有界线程池中执行，
+ * 并通过Future来实现服务超时和中断.
+ *
+ * <p>
+ * 线程池按组进行划分，组名由服务参数servant.executor.group指定，缺省为服务路径，即每个服务一个线程池;
+ * 同组的服务共享一个线程池。线程池的参数取自该组第一个服务的参数:<br>
+ * - servant.executor.threads : 最大线程数，缺省为32 <br>
+ * - servant.executor.queueLength : 等待队列长度，缺省为128，为0时不排队 <br>
+ * - servant.executor.keepAlive : 空闲线程的存活时间(毫秒)，缺省为60000 <br>
+ * - servant.executor.virtual : 是否采用虚拟线程(需JVM支持)，缺省为false <br>
+ *
+ * <p>
+ * 采用虚拟线程时不再使用线程池，每个任务创建一个虚拟线程，并发数由信号量限制为servant.executor.threads，
+ * 超出时任务被拒绝(不排队，servant.executor.queueLength和servant.executor.keepAlive不生效).
+ *
+ * <p>
+ * 服务重新装入时，如果线程池参数发生变化，将按新的参数重建该组的线程池，原线程池中的任务继续执行完成.
+ *
+ * @author duanyy
+ * @since 1.6.10.5
+ */
+public class ServantExecutor implements AutoCloseable,Reportable,MetricsReportable{
+	/**
+	 * a slf4j logger
+	 */
+	protected static final Logger logger = LoggerFactory.getLogger(ServantExecutor.class);
+
+	/**
+	 * 已创建的线程池，以组名为key
+	 */
+	protected static Map<String,ServantExecutor> executors = new ConcurrentHashMap<String,ServantExecutor>();
+
+	/**
+	 * 组名
+	 */
+	protected String group;
+
+	/**
+	 * 指标ID
+	 */
+	protected String metricsId = "svc.executor";
+
+	/**
+	 * 线程池
+	 */
+	protected ThreadPoolExecutor executor = null;
+
+	/**
+	 * 是否采用虚拟线程
+	 */
+	protected boolean virtual = false;
+
+	/**
+	 * 线程池参数，用于判断服务重新装入时参数是否变化
+	 */
+	protected String signature;
+
+	/**
+	 * 虚拟线程模式下的线程工厂
+	 */
+	protected ThreadFactory virtualFactory = null;
+
+	/**
+	 * 虚拟线程模式下限制并发数的信号量
+	 */
+	protected Semaphore permits = null;
+
+	/**
+	 * 虚拟线程模式下的最大并发数
+	 */
+	protected int maxThreads = 0;
+
+	/**
+	 * 虚拟线程模式下正在执行的任务数
+	 */
+	protected AtomicInteger activeCnt = new AtomicInteger(0);
+
+	/**
+	 * 虚拟线程模式下已完成的任务数
+	 */
+	protected AtomicLong completedCnt = new AtomicLong(0);
+
+	/**
+	 * 被拒绝的任务数
+	 */
+	protected AtomicLong rejectedCnt = new AtomicLong(0);
+
+	/**
+	 * 超时的任务数
+	 */
+	protected AtomicLong timeoutCnt = new AtomicLong(0);
+
+	public ServantExecutor(String group,Properties p){
+		this.group = group;
+
+		int threads = PropertiesConstants.getInt(p, "servant.executor.threads", 32);
+		threads = threads <= 0 ? 32 : threads;
+		int queueLength = PropertiesConstants.getInt(p, "servant.executor.queueLength", 128);
+		long keepAlive = PropertiesConstants.getLong(p, "servant.executor.keepAlive", 60000L);
+		metricsId = PropertiesConstants.getString(p, "servant.executor.metrics.id", metricsId);
+		signature = getSignature(p);
+
+		if (PropertiesConstants.getBoolean(p, "servant.executor.virtual", false)){
+			virtualFactory = getVirtualThreadFactory(group);
+			if (virtualFactory == null){
+				logger.warn("Virtual thread is not supported by current jvm,platform thread is instead.");
+			}
+		}
+		virtual = virtualFactory != null;
+		if (virtual){
+			//每个任务一个虚拟线程，由信号量限制并发数
+			maxThreads = threads;
+			permits = new Semaphore(threads);
+		}else{
+			BlockingQueue<Runnable> queue = queueLength > 0 ? new ArrayBlockingQueue<Runnable>(queueLength)
+					: new SynchronousQueue<Runnable>();
+			executor = new ThreadPoolExecutor(threads,threads,keepAlive,TimeUnit.MILLISECONDS,queue,new WorkerThreadFactory(group));
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		logger.info("Initialize the servant executor..");
+		logger.info("Group:" + group);
+		logger.info("Threads:" + threads);
+		logger.info("QueueLength:" + queueLength);
+		logger.info("Virtual:" + virtual);
+	}
+
+	/**
+	 * 获取组名
+	 * @return 组名
+	 */
+	public String getGroup(){
+		return group;
+	}
+
+	/**
+	 * 提交服务任务
+	 * @param task 任务
+	 * @return Future，如果线程池已满，返回为null
+	 */
+	public Future<?> submit(Runnable task){
+		if (virtual){
+			return submitVirtual(task);
+		}
+		try {
+			return executor.submit(task);
+		}catch (RejectedExecutionException ex){
+			rejectedCnt.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * 在新的虚拟线程中执行任务
+	 * @param task 任务
+	 * @return Future，如果超出并发数，返回为null
+	 */
+	protected Future<?> submitVirtual(final Runnable task){
+		if (!permits.tryAcquire()){
+			rejectedCnt.incrementAndGet();
+			return null;
+		}
+		FutureTask<Object> future = new FutureTask<Object>(new Runnable(){
+			@Override
+			public void run() {
+				activeCnt.incrementAndGet();
+				try {
+					task.run();
+				}finally{
+					activeCnt.decrementAndGet();
+					completedCnt.incrementAndGet();
+					permits.release();
+				}
+			}
+		},null);
+		try {
+			virtualFactory.newThread(future).start();
+		}catch (RuntimeException ex){
+			permits.release();
+			rejectedCnt.incrementAndGet();
+			logger.error("Failed to start virtual thread:" + group,ex);
+			return null;
+		}
+		return future;
+	}
+
+	/**
+	 * 记录一次超时
+	 */
+	public void timeout(){
+		timeoutCnt.incrementAndGet();
+	}
+
+	/**
+	 * 获取当前等待的任务数
+	 * @return 等待的任务数
+	 */
+	public int getQueueDepth(){
+		return virtual ? 0 : executor.getQueue().size();
+	}
+
+	public int getMaxThreads(){
+		return virtual ? maxThreads : executor.getMaximumPoolSize();
+	}
+
+	public int getThreads(){
+		return virtual ? activeCnt.get() : executor.getPoolSize();
+	}
+
+	public int getActiveCnt(){
+		return virtual ? activeCnt.get() : executor.getActiveCount();
+	}
+
+	public long getCompletedCnt(){
+		return virtual ? completedCnt.get() : executor.getCompletedTaskCount();
+	}
+
+	public long getRejectedCnt(){
+		return rejectedCnt.get();
+	}
+
+	public long getTimeoutCnt(){
+		return timeoutCnt.get();
+	}
+
+	@Override
+	public void close(){
+		if (executor != null){
+			executor.shutdown();
+		}
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			xml.setAttribute("group", group);
+			xml.setAttribute("virtual", Boolean.toString(virtual));
+			xml.setAttribute("maxThreads", String.valueOf(getMaxThreads()));
+			xml.setAttribute("threads", String.valueOf(getThreads()));
+			xml.setAttribute("active", String.valueOf(getActiveCnt()));
+			xml.setAttribute("queue", String.valueOf(getQueueDepth()));
+			xml.setAttribute("completed", String.valueOf(getCompletedCnt()));
+			xml.setAttribute("rejected", String.valueOf(getRejectedCnt()));
+			xml.setAttribute("timeout", String.valueOf(getTimeoutCnt()));
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			json.put("group", group);
+			json.put("virtual", virtual);
+			json.put("maxThreads", getMaxThreads());
+			json.put("threads", getThreads());
+			json.put("active", getActiveCnt());
+			json.put("queue", getQueueDepth());
+			json.put("completed", getCompletedCnt());
+			json.put("rejected", getRejectedCnt());
+			json.put("timeout", getTimeoutCnt());
+		}
+	}
+
+	@Override
+	public void report(MetricsCollector collector) {
+		if (collector != null){
+			Fragment f = new DefaultFragment(metricsId);
+
+			Dimensions dims = f.getDimensions();
+			if (dims != null){
+				dims.set("group", group, true);
+			}
+			Measures meas = f.getMeasures();
+			if (meas != null){
+				meas.set("active", getActiveCnt(), Method.avg);
+				meas.set("queue", getQueueDepth(), Method.avg);
+				meas.set("rejected", getRejectedCnt(), Method.lst);
+				meas.set("timeout", getTimeoutCnt(), Method.lst);
+			}
+			collector.metricsIncr(f);
+		}
+	}
+
+	/**
+	 * 获取服务所对应的线程池，如果不存在，则创建
+	 * @param sd 服务描述
+	 * @return 线程池
+	 */
+	public static ServantExecutor get(ServiceDescription sd){
+		String group = getGroup(sd);
+		ServantExecutor found = executors.get(group);
+		if (found == null){
+			synchronized (executors){
+				found = executors.get(group);
+				if (found == null){
+					found = new ServantExecutor(group,sd.getProperties());
+					executors.put(group, found);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 服务重新装入时调用，如果线程池参数发生变化，按新的参数重建线程池
+	 * @param sd 新的服务描述
+	 */
+	public static void reload(ServiceDescription sd){
+		String group = getGroup(sd);
+		synchronized (executors){
+			ServantExecutor found = executors.get(group);
+			if (found != null && !found.signature.equals(getSignature(sd.getProperties()))){
+				executors.put(group, new ServantExecutor(group,sd.getProperties()));
+				//原线程池中的任务继续执行完成
+				found.close();
+			}
+		}
+	}
+
+	/**
+	 * 查找服务所对应的线程池
+	 * @param sd 服务描述
+	 * @return 线程池，如果尚未创建，返回为null
+	 */
+	public static ServantExecutor find(ServiceDescription sd){
+		return executors.get(getGroup(sd));
+	}
+
+	/**
+	 * 关闭所有的线程池
+	 */
+	public static void closeAll(){
+		synchronized (executors){
+			Iterator<ServantExecutor> iter = executors.values().iterator();
+			while (iter.hasNext()){
+				ServantExecutor executor = iter.next();
+				executor.close();
+			}
+			executors.clear();
+		}
+	}
+
+	/**
+	 * 获取线程池参数的签名
+	 * @param p 服务参数
+	 * @return 签名
+	 */
+	protected static String getSignature(Properties p){
+		return PropertiesConstants.getInt(p, "servant.executor.threads", 32) + ":"
+				+ PropertiesConstants.getInt(p, "servant.executor.queueLength", 128) + ":"
+				+ PropertiesConstants.getLong(p, "servant.executor.keepAlive", 60000L) + ":"
+				+ PropertiesConstants.getBoolean(p, "servant.executor.virtual", false) + ":"
+				+ PropertiesConstants.getString(p, "servant.executor.metrics.id", "svc.executor");
+	}
+
+	protected static String getGroup(ServiceDescription sd){
+		return PropertiesConstants.getString(sd.getProperties(), "servant.executor.group", sd.getPath());
+	}
+
+	/**
+	 * 通过反射获取虚拟线程工厂
+	 * @param group 组名
+	 * @return 线程工厂，当JVM不支持虚拟线程时返回null
+	 */
+	protected static ThreadFactory getVirtualThreadFactory(String group){
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class,long.class).invoke(builder, "servant-" + group + "-", 0L);
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		}catch (Exception ex){
+			return null;
+		}
+	}
+
+	/**
+	 * 工作线程工厂
+	 */
+	public static class WorkerThreadFactory implements ThreadFactory{
+		protected String prefix;
+		protected AtomicInteger seq = new AtomicInteger(0);
+
+		public WorkerThreadFactory(String group){
+			prefix = "servant-" + group + "-";
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r,prefix + seq.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -22,6 +22,9 @@ import com.anysoft.util.*;
  * @version 1.6.4.31 [20160128 duanyy] <br>
  * - 增加活跃度和健康度接口 <br>
  * - 增加可配置性 <br>
+ * 
+ * @version 1.6.10.22 [20171129 duanyy] <br>
+ * - 在环形数据库中的模型id前缀为svc <br>
  */
 public class ServantStat extends SimpleCounter {
 
@@ -33,4 +36,9 @@ public class ServantStat extends SimpleCounter {
 	public long getStatCycle(Properties p){
 		return PropertiesConstants.getLong(p, "servant.stat.cycle", 5 * 60 * 1000L);
 	}	
+	
+	@Override
+	protected String getRRDModule(Properties p){
+		return "svc";
+	}
 }
@@ -0,0 +1,81 @@
+package com.logicbus.backend;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.alogic.tracer.Tool;
+import com.alogic.tracer.TraceContext;
+
+/**
+ * 服务员工作任务
+ *
+ * <p>
+ * 从{@link ServantWorkerThread}中分离出来，既可以由独立线程执行，也可以提交到{@link ServantExecutor}中执行.
+ *
+ * @author duanyy
+ * @since 1.6.10.5
+ */
+public class ServantWorker implements Runnable {
+	/**
+	 * 当前工作的服务员
+	 */
+	protected Servant servant = null;
+
+	/**
+	 * Count Down Latch
+	 */
+	protected CountDownLatch latch = null;
+
+	/**
+	 * 上下文
+	 */
+	protected Context ctx = null;
+
+	/**
+	 * 调用者的trace上下文
+	 */
+	protected TraceContext traceCtx = null;
+
+	public ServantWorker(Servant servant,Context ctx,CountDownLatch latch,TraceContext trace){
+		this.servant = servant;
+		this.ctx = ctx;
+		this.latch = latch;
+		this.traceCtx = trace;
+	}
+
+	@Override
+	public void run() {
+		TraceContext tc = null;
+		if (traceCtx != null){
+			tc = Tool.start(traceCtx.sn(), traceCtx.order());
+		}
+		boolean error = false;
+		try
+		{
+			servant.actionBefore(ctx);
+			servant.actionProcess(ctx);
+			servant.actionAfter(ctx);
+		}catch (ServantException ex){
+			error = true;
+			ex.printStackTrace();
+			servant.actionException(ctx ,ex);
+		}catch (Exception ex){
+			error = true;
+			ex.printStackTrace();
+			servant.actionException( ctx,
+					new ServantException("core.fatalerror",ex.getMessage()));
+		}catch (Throwable t){
+			error = true;
+			t.printStackTrace();
+			servant.actionException( ctx,
+					new ServantException("core.fatalerror",t.getMessage()));
+		}finally{
+			if (latch != null){
+				//告知，事情已经做完
+				latch.countDown();
+			}
+			if (traceCtx != null){
+				Tool.end(tc, "ALOGIC", "SyncCall", error?"FAILED":"OK", "");
+			}
+		}
+	}
+}
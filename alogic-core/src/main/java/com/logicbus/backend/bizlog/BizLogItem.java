@@ -32,6 +32,9 @@ import com.logicbus.models.servant.ServiceDescription;
  * 
  * @version 1.6.5.6 [20160523 duanyy] <br>
  * - 增加id()接口
+ * 
+ * @version 1.6.10.17 [20171117 duanyy] <br>
+ * - 增加输出长度和压缩后长度 <br>
  */
 public class BizLogItem implements Comparable<BizLogItem>,Flowable {
 	
@@ -95,6 +98,16 @@ public class BizLogItem implements Comparable<BizLogItem>,Flowable {
 	 */
 	public long contentLength;
 	
+	/**
+	 * 响应输出长度(压缩前)
+	 */
+	public long outputLength;
+	
+	/**
+	 * 响应压缩后的长度，未压缩时为0
+	 */
+	public long compressedLength;
+	
 	@Override
 	public String id(){
 		return sn;
@@ -35,7 +35,10 @@ public class Debug extends AbstractHandler<BizLogItem> implements BizLogger {
 		.append(item.id).append(delimeter)
 		.append(item.result).append(delimeter)
 		.append(item.result.equals("core.ok")?"":item.reason).append(delimeter)
-		.append(item.url).append(delimeter);
+		.append(item.url).append(delimeter)
+		.append(item.contentLength).append(delimeter)
+		.append(item.outputLength).append(delimeter)
+		.append(item.compressedLength).append(delimeter);
 		
 		if (item.content != null && item.content.length() > 0){
 			buf.append(item.content.replaceAll("\n", "").replaceAll("\r",""));
@@ -31,6 +31,9 @@ import com.logicbus.models.servant.ServiceDescription.LogType;
  * 
  * @version 1.6.7.10 [20170202 duanyy] <br>
  * - 修正bizlog作为logger输出时的缓冲区并发问题 <br>
+ * 
+ * @version 1.6.10.17 [20171117 duanyy] <br>
+ * - 可输出报文长度，输出长度和压缩后长度(lengths) <br>
  */
 public class Log4jBizLogger extends AbstractHandler<BizLogItem> implements BizLogger {
 
@@ -72,6 +75,15 @@ public class Log4jBizLogger extends AbstractHandler<BizLogItem> implements BizLo
 	
 	protected String host = null;
 	
+	/**
+	 * 是否输出报文长度，输出长度和压缩后长度(lengths)，缺省为false
+	 * 
+	 * <p>
+	 * 输出时位于url之后，content之前，会改变原有的字段顺序，需要下游同步调整.
+	 * 
+	 * @since 1.6.10.17
+	 */
+	protected boolean lengths = false;
 	
 	protected void onConfigure(Element _e, Properties p) throws BaseException {
 		thread = PropertiesConstants.getInt(p, "thread", 0);
@@ -80,6 +92,7 @@ public class Log4jBizLogger extends AbstractHandler<BizLogItem> implements BizLo
 		isBilling = PropertiesConstants.getBoolean(p,"billing", isBilling);
 		app = PropertiesConstants.getString(p, "app", "${server.app}");
 		hostPattern = PropertiesConstants.getRaw(p,"host",hostPattern);
+		lengths = PropertiesConstants.getBoolean(p, "lengths", lengths);
 		
 		logger = LoggerFactory.getLogger("Bizlog" + thread);
 	}
@@ -112,6 +125,12 @@ public class Log4jBizLogger extends AbstractHandler<BizLogItem> implements BizLo
 		.append(item.result.equals("core.ok")?"":item.reason).append(delimeter)
 		.append(item.url).append(delimeter);
 		
+		if (lengths){
+			buf.append(item.contentLength).append(delimeter)
+			.append(item.outputLength).append(delimeter)
+			.append(item.compressedLength).append(delimeter);
+		}
+		
 		if (item.content != null && item.content.length() > 0){
 			buf.append(item.content.replaceAll("\n", "").replaceAll("\r",""));
 		}
@@ -0,0 +1,98 @@
+package com.logicbus.backend.bizlog.handler;
+
+import org.w3c.dom.Element;
+
+import com.anysoft.stream.FileHandler;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+import com.logicbus.backend.bizlog.BizLogItem;
+import com.logicbus.backend.bizlog.BizLogger;
+import com.logicbus.models.servant.ServiceDescription.LogType;
+
+/**
+ * 直接写文件的业务日志输出
+ * 
+ * <p>
+ * 输出格式和{@link Log4j}一致，但不经过日志框架，批量写出，支持按大小和时间滚动(参见{@link FileHandler}).
+ * 
+ * @author duanyy
+ * @since 1.6.10.26
+ */
+public class FileLogger extends FileHandler<BizLogItem> implements BizLogger {
+	
+	/**
+	 * 输出间隔符
+	 */
+	protected String delimeter = "%%";
+	
+	protected String eol = "$$";
+	
+	/**
+	 * 计费标志
+	 */
+	protected boolean isBilling = true;
+	
+	/**
+	 * 应用
+	 */
+	protected String app;
+	
+	/**
+	 * 服务主机(ip:port)
+	 */
+	protected String hostPattern = "${server.host}:${server.port}";
+	
+	protected String host = null;
+	
+	/**
+	 * 是否输出报文长度，输出长度和压缩后长度(lengths)，缺省为false
+	 * 
+	 * <p>
+	 * 输出时位于url之后，content之前，会改变原有的字段顺序，需要下游同步调整.
+	 */
+	protected boolean lengths = false;
+	
+	@Override
+	protected void onConfigure(Element e, Properties p) {
+		super.onConfigure(e, p);
+		delimeter = PropertiesConstants.getString(p,"delimeter", delimeter);
+		eol = PropertiesConstants.getString(p,"eol", eol);
+		isBilling = PropertiesConstants.getBoolean(p,"billing", isBilling);
+		app = PropertiesConstants.getString(p, "app", "${server.app}");
+		hostPattern = PropertiesConstants.getRaw(p,"host",hostPattern);
+		lengths = PropertiesConstants.getBoolean(p, "lengths", lengths);
+	}
+
+	@Override
+	protected void format(BizLogItem item, StringBuilder buf) {
+		if (item.logType == LogType.none){
+			return;
+		}
+		
+		if (host == null){
+			host = Settings.get().transform(hostPattern);
+		}
+		
+		buf.append(isBilling?1:0).append(delimeter)
+		.append(item.sn).append(delimeter)
+		.append(item.startTime).append(delimeter)
+		.append(app).append(delimeter)
+		.append(host).append(delimeter)
+		.append(item.clientIP).append(delimeter)
+		.append(item.client).append(delimeter)
+		.append(item.duration).append(delimeter)
+		.append(item.id).append(delimeter)
+		.append(item.result).append(delimeter)
+		.append("core.ok".equals(item.result)?"":item.reason).append(delimeter)
+		.append(item.url).append(delimeter);
+		
+		if (lengths){
+			buf.append(item.contentLength).append(delimeter)
+			.append(item.outputLength).append(delimeter)
+			.append(item.compressedLength).append(delimeter);
+		}
+		
+		appendLine(buf,item.content).append(eol).append('\n');
+	}
+}
@@ -18,6 +18,9 @@ import com.logicbus.models.servant.ServiceDescription.LogType;
  * @author yyduan
  *
  * @since 1.6.7.12
+ * 
+ * @version 1.6.10.17 [20171117 duanyy] <br>
+ * - 可输出报文长度，输出长度和压缩后长度(lengths) <br>
  */
 public class Log4j extends AbstractHandler<BizLogItem> implements BizLogger {
 
@@ -59,6 +62,15 @@ public class Log4j extends AbstractHandler<BizLogItem> implements BizLogger {
 	
 	protected String host = null;
 	
+	/**
+	 * 是否输出报文长度，输出长度和压缩后长度(lengths)，缺省为false
+	 * 
+	 * <p>
+	 * 输出时位于url之后，content之前，会改变原有的字段顺序，需要下游同步调整.
+	 * 
+	 * @since 1.6.10.17
+	 */
+	protected boolean lengths = false;
 	
 	protected void onConfigure(Element _e, Properties p) throws BaseException {
 		thread = PropertiesConstants.getInt(p, "thread", 0);
@@ -67,6 +79,7 @@ public class Log4j extends AbstractHandler<BizLogItem> implements BizLogger {
 		isBilling = PropertiesConstants.getBoolean(p,"billing", isBilling);
 		app = PropertiesConstants.getString(p, "app", "${server.app}");
 		hostPattern = PropertiesConstants.getRaw(p,"host",hostPattern);
+		lengths = PropertiesConstants.getBoolean(p, "lengths", lengths);
 		
 		logger = LoggerFactory.getLogger("Bizlog" + thread);
 	}
@@ -99,6 +112,12 @@ public class Log4j extends AbstractHandler<BizLogItem> implements BizLogger {
 		.append(item.result.equals("core.ok")?"":item.reason).append(delimeter)
 		.append(item.url).append(delimeter);
 		
+		if (lengths){
+			buf.append(item.contentLength).append(delimeter)
+			.append(item.outputLength).append(delimeter)
+			.append(item.compressedLength).append(delimeter);
+		}
+		
 		if (item.content != null && item.content.length() > 0){
 			buf.append(item.content.replaceAll("\n", "").replaceAll("\r",""));
 		}
@@ -0,0 +1,16 @@
+package com.logicbus.backend.bizlog.handler;
+
+import com.anysoft.stream.PartitionHandler;
+import com.logicbus.backend.bizlog.BizLogItem;
+import com.logicbus.backend.bizlog.BizLogger;
+
+/**
+ * 分区分发处理
+ * @author duanyy
+ * @since 1.6.10.25
+ */
+public class Partition extends PartitionHandler<BizLogItem> implements BizLogger{
+	public String getHandlerType(){
+		return "logger";
+	}
+}
@@ -2,6 +2,7 @@ package com.logicbus.backend.message;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -47,6 +48,11 @@ import com.logicbus.backend.message.Message;
  * 
  * @version 1.6.7.15 [20170221 duanyy] <br>
  * - 输出时设置Content-Length以便支持keepalive <br>
+ * 
+ * @version 1.6.10.16 [20171115 duanyy] <br>
+ * - 解析时复用JsonProvider，不再为了计算长度而重新编码 <br>
+ * - 增加{@link #fillRoot(Context)}，以便子类改变输出方式 <br>
+ * - 报文长度取自请求头的Content-Length，没有时按编码后的字节数计算 <br>
  */
 public class JsonMessage implements Message {
 	protected static final Logger logger = LoggerFactory.getLogger(JsonMessage.class);
@@ -61,14 +67,52 @@ public class JsonMessage implements Message {
 				"application/x-www-form-urlencoded");
 	}
 	
-	private String contentType = "application/json;charset=utf-8";
+	protected String contentType = "application/json;charset=utf-8";
 	
 	/**
 	 * Json结构的根节点
 	 */
 	protected Map<String,Object> root = null;	
 	
-	private long contentLength = 0;
+	protected long contentLength = 0;
+	
+	/**
+	 * 计算字符串编码后的字节数
+	 * 
+	 * <p>
+	 * UTF-8编码时直接按字符计算，不再重新编码.
+	 * 
+	 * @param data 字符串
+	 * @param encoding 编码
+	 * @return 字节数
+	 * 
+	 * @since 1.6.10.16
+	 */
+	protected static long getByteLength(String data,String encoding){
+		if (encoding == null || "utf-8".equalsIgnoreCase(encoding)){
+			long length = 0;
+			int size = data.length();
+			for (int i = 0 ; i < size ; i ++){
+				char ch = data.charAt(i);
+				if (ch < 0x80){
+					length ++;
+				}else if (ch < 0x800){
+					length += 2;
+				}else if (Character.isHighSurrogate(ch) && i + 1 < size && Character.isLowSurrogate(data.charAt(i + 1))){
+					length += 4;
+					i ++;
+				}else{
+					length += 3;
+				}
+			}
+			return length;
+		}
+		try {
+			return data.getBytes(encoding).length;
+		}catch (UnsupportedEncodingException ex){
+			return data.length();
+		}
+	}
 	
 	@SuppressWarnings("unchecked")
 	public void init(Context ctx) {
@@ -79,6 +123,7 @@ public class JsonMessage implements Message {
 			if (inputData != null){
 				try {
 					data = new String(inputData,ctx.getEncoding());
+					contentLength += inputData.length;
 				}catch (Exception ex){
 					
 				}
@@ -102,8 +147,17 @@ public class JsonMessage implements Message {
 		}
 		
 		if (data != null && data.length() > 0){
-			contentLength += data.getBytes().length;
-			JsonProvider provider = JsonProviderFactory.createProvider();
+			if (contentLength <= 0){
+				//优先采用请求头中的Content-Length，避免为了计算长度而重新编码
+				long length = 0;
+				try {
+					String header = ctx.getRequestHeader("Content-Length");
+					length = header == null ? 0 : Long.parseLong(header.trim());
+				}catch (NumberFormatException ex){
+					length = 0;
+				}
+				contentLength += length > 0 ? length : getByteLength(data,ctx.getEncoding());
+			}
 			Object rootObj = provider.parse(data);
 			if (rootObj instanceof Map){
 				root = (Map<String,Object>)rootObj;
@@ -116,13 +170,25 @@ public class JsonMessage implements Message {
 		contentType = "application/json;charset=" + ctx.getEncoding();
 	}
 
-	public void finish(Context ctx,boolean closeStream) {
+	/**
+	 * 在根节点中填入服务结果信息
+	 * @param ctx 上下文
+	 * @return 根节点
+	 * 
+	 * @since 1.6.10.16
+	 */
+	protected Map<String,Object> fillRoot(Context ctx){
 		Map<String,Object> _root = getRoot();
 		JsonTools.setString(_root, "code", ctx.getReturnCode());
 		JsonTools.setString(_root, "reason", ctx.getReason());
 		JsonTools.setString(_root, "duration", String.valueOf(ctx.getDuration()));
 		JsonTools.setString(_root, "host", ctx.getHost());
 		JsonTools.setString(_root, "serial", ctx.getGlobalSerial());
+		return _root;
+	}
+
+	public void finish(Context ctx,boolean closeStream) {
+		Map<String,Object> _root = fillRoot(ctx);
 				
 		OutputStream out = null;
 		try {
@@ -0,0 +1,240 @@
+package com.logicbus.backend.message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+import com.logicbus.backend.Context;
+
+/**
+ * 直接写出到响应输出流的Writer
+ *
+ * <p>
+ * 字符在本地缓冲区中编码，缓冲区满时直接写出到输出流，此时内容长度未知，由容器采用chunked方式传输；
+ * 如果到结束时都没有写满缓冲区，则先设置Content-Length再一次性写出，以便支持keepalive.
+ *
+ * <p>
+ * 缓冲区和编码器按线程复用，通过{@link #get(Context, OutputStream)}获取，使用完毕之后调用{@link #close()}归还.
+ * 缓冲区大小通过环境变量http.stream.bufferSize配置，缺省为16384.
+ *
+ * @author duanyy
+ * @since 1.6.10.16
+ */
+public class ResponseWriter extends Writer {
+
+	/**
+	 * 缓冲区大小
+	 */
+	protected static int bufferSize = 16384;
+	static {
+		bufferSize = PropertiesConstants.getInt(Settings.get(), "http.stream.bufferSize", bufferSize);
+		bufferSize = bufferSize <= 0 ? 16384 : bufferSize;
+	}
+
+	/**
+	 * 线程复用的实例
+	 */
+	private static final ThreadLocal<ResponseWriter> writers = new ThreadLocal<ResponseWriter>(){
+		@Override
+		protected ResponseWriter initialValue(){
+			return new ResponseWriter();
+		}
+	};
+
+	/**
+	 * 字符缓冲区
+	 */
+	protected final CharBuffer chars = CharBuffer.allocate(4096);
+
+	/**
+	 * 字节缓冲区
+	 */
+	protected final ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+
+	/**
+	 * 编码器
+	 */
+	protected CharsetEncoder encoder = null;
+
+	/**
+	 * 输出流
+	 */
+	protected OutputStream out = null;
+
+	/**
+	 * 上下文
+	 */
+	protected Context ctx = null;
+
+	/**
+	 * 是否已经向输出流写出过数据
+	 */
+	protected boolean committed = false;
+
+	/**
+	 * 已写出的字节数
+	 */
+	protected long written = 0;
+
+	/**
+	 * 是否正在使用
+	 */
+	protected boolean inUse = false;
+
+	/**
+	 * 获取当前线程的Writer
+	 *
+	 * <p>
+	 * 如果当前线程的Writer正在使用中(例如嵌套输出)，则创建一个新的Writer.
+	 *
+	 * @param ctx 上下文
+	 * @param out 输出流
+	 * @return Writer
+	 */
+	public static ResponseWriter get(Context ctx,OutputStream out){
+		ResponseWriter writer = writers.get();
+		if (writer.inUse){
+			writer = new ResponseWriter();
+		}
+		writer.open(ctx,out,ctx.getEncoding());
+		return writer;
+	}
+
+	protected void open(Context context,OutputStream output,String encoding){
+		if (encoder == null || !encoder.charset().name().equalsIgnoreCase(encoding)){
+			encoder = Charset.forName(encoding).newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}else{
+			encoder.reset();
+		}
+		chars.clear();
+		bytes.clear();
+		ctx = context;
+		out = output;
+		committed = false;
+		written = 0;
+		inUse = true;
+	}
+
+	/**
+	 * 获取已写出的字节数
+	 * @return 字节数
+	 */
+	public long getWritten(){
+		return written;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (!chars.hasRemaining()){
+			encode(false);
+		}
+		chars.put((char)c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		while (len > 0){
+			if (!chars.hasRemaining()){
+				encode(false);
+			}
+			int n = Math.min(len, chars.remaining());
+			chars.put(cbuf, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		while (len > 0){
+			if (!chars.hasRemaining()){
+				encode(false);
+			}
+			int n = Math.min(len, chars.remaining());
+			chars.put(str, off, off + n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		String str = String.valueOf(csq);
+		write(str, 0, str.length());
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		encode(false);
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * 结束输出，并归还Writer
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!inUse){
+			return;
+		}
+		try {
+			encode(true);
+			while (encoder.flush(bytes).isOverflow()){
+				drain();
+			}
+			if (!committed){
+				//全部内容都在缓冲区中，内容长度已知
+				ctx.setResponseContentLength(bytes.position());
+			}
+			drain();
+			out.flush();
+		}finally{
+			out = null;
+			ctx = null;
+			inUse = false;
+		}
+	}
+
+	/**
+	 * 将字符缓冲区中的字符编码到字节缓冲区，字节缓冲区满时写出
+	 * @param endOfInput 是否输入结束
+	 * @throws IOException
+	 */
+	protected void encode(boolean endOfInput) throws IOException{
+		chars.flip();
+		while (true){
+			CoderResult result = encoder.encode(chars, bytes, endOfInput);
+			if (result.isOverflow()){
+				drain();
+			}else{
+				break;
+			}
+		}
+		chars.compact();
+	}
+
+	/**
+	 * 将字节缓冲区写出到输出流
+	 * @throws IOException
+	 */
+	protected void drain() throws IOException{
+		if (bytes.position() > 0){
+			committed = true;
+			out.write(bytes.array(), 0, bytes.position());
+			written += bytes.position();
+			bytes.clear();
+		}
+	}
+}
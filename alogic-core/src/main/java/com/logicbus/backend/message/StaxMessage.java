@@ -0,0 +1,224 @@
+package com.logicbus.backend.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.anysoft.util.IOTools;
+import com.anysoft.util.Settings;
+import com.logicbus.backend.Context;
+
+/**
+ * 基于StAX的流式XML消息
+ *
+ * <p>
+ * 和{@link XMLMessage}不同，本消息不构建DOM：<br>
+ * - 请求通过{@link #getReader()}以拉模式读取，服务只需读取所需的字段，读取在首次调用时才开始; <br>
+ * - 响应通过{@link #setContent(Content)}设置的回调直接写出到输出流，适用于输出大量结果的服务; <br>
+ *
+ * <p>
+ * 响应的根节点为root，结果信息(code,reason,duration,host,serial)作为根节点的属性输出，和{@link XMLMessage}保持一致.
+ * 输出时的缓冲区和编码器按线程复用(参见{@link ResponseWriter}).
+ *
+ * <p>
+ * 解析时不支持DTD和外部实体.
+ *
+ * @author duanyy
+ * @since 1.6.10.18
+ */
+public class StaxMessage implements Message {
+	protected static final Logger logger = LoggerFactory.getLogger(StaxMessage.class);
+
+	/**
+	 * 共享的XMLInputFactory,配置之后线程安全
+	 */
+	protected static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	/**
+	 * 共享的XMLOutputFactory,配置之后线程安全
+	 */
+	protected static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	protected static String formContentType = "application/x-www-form-urlencoded";
+	static {
+		formContentType = Settings.get().GetValue("http.formContentType",
+				"application/x-www-form-urlencoded");
+	}
+
+	/**
+	 * 响应的内容
+	 */
+	public static interface Content {
+		/**
+		 * 在根节点之下写出内容
+		 * @param writer XMLStreamWriter
+		 * @throws XMLStreamException
+		 */
+		public void write(XMLStreamWriter writer) throws XMLStreamException;
+	}
+
+	protected String contentType = "text/xml;charset=utf-8";
+
+	protected long contentLength = 0;
+
+	/**
+	 * 上下文
+	 */
+	protected Context context = null;
+
+	/**
+	 * 请求的输入流
+	 */
+	protected StreamJsonMessage.CountingInputStream in = null;
+
+	/**
+	 * 请求的读取器
+	 */
+	protected XMLStreamReader reader = null;
+
+	/**
+	 * 响应的内容
+	 */
+	protected Content content = null;
+
+	@Override
+	public void init(Context ctx) {
+		context = ctx;
+		contentType = "text/xml;charset=" + ctx.getEncoding();
+	}
+
+	/**
+	 * 获取请求的读取器
+	 *
+	 * <p>
+	 * 读取器在首次调用时创建，定位在文档开始处；当请求为空或者为表单时返回null.
+	 *
+	 * @return XMLStreamReader
+	 * @throws XMLStreamException
+	 */
+	public XMLStreamReader getReader() throws XMLStreamException{
+		if (reader == null && context != null){
+			InputStream input = null;
+			byte [] inputData = context.getRequestRaw();
+			if (inputData != null){
+				input = new ByteArrayInputStream(inputData);
+			}else{
+				//当客户端通过form来post的时候，Message不去读取输入流。
+				String _contentType = context.getRequestContentType();
+				if (_contentType == null || !_contentType.startsWith(formContentType)){
+					try {
+						input = context.getInputStream();
+					}catch (Exception ex){
+						logger.error("Error when reading data from inputstream",ex);
+					}
+				}
+			}
+			if (input != null){
+				in = new StreamJsonMessage.CountingInputStream(input);
+				reader = inputFactory.createXMLStreamReader(in,context.getEncoding());
+			}
+			//只尝试一次
+			context = null;
+		}
+		return reader;
+	}
+
+	/**
+	 * 设置响应的内容
+	 * @param content 内容
+	 */
+	public void setContent(Content content){
+		this.content = content;
+	}
+
+	@Override
+	public void finish(Context ctx, boolean closeStream) {
+		closeReader();
+
+		OutputStream out = null;
+		ResponseWriter writer = null;
+		try {
+			ctx.setResponseContentType(contentType);
+			out = ctx.getOutputStream();
+			writer = ResponseWriter.get(ctx, out);
+
+			XMLStreamWriter xml = outputFactory.createXMLStreamWriter(writer);
+			try {
+				xml.writeStartDocument(ctx.getEncoding(), "1.0");
+				xml.writeStartElement("root");
+				writeAttribute(xml,"code",ctx.getReturnCode());
+				writeAttribute(xml,"reason",ctx.getReason());
+				writeAttribute(xml,"duration",String.valueOf(ctx.getDuration()));
+				writeAttribute(xml,"host",ctx.getHost());
+				writeAttribute(xml,"serial",ctx.getGlobalSerial());
+				if (content != null){
+					content.write(xml);
+				}
+				xml.writeEndDocument();
+				xml.flush();
+			}finally{
+				xml.close();
+			}
+			writer.close();
+			contentLength += writer.getWritten();
+		}catch (Exception ex){
+			logger.error("Error when writing data to outputstream",ex);
+		}finally{
+			IOTools.close(writer);
+			if (closeStream)
+				IOTools.close(out);
+		}
+	}
+
+	protected static void writeAttribute(XMLStreamWriter xml,String name,String value) throws XMLStreamException{
+		if (value != null){
+			xml.writeAttribute(name, value);
+		}
+	}
+
+	protected void closeReader(){
+		if (reader != null){
+			try {
+				reader.close();
+			}catch (XMLStreamException ex){
+				//nothing to do
+			}
+			reader = null;
+		}
+		if (in != null){
+			contentLength += in.getCount();
+			IOTools.close(in);
+			in = null;
+		}
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	@Override
+	public String toString(){
+		return "StaxMessage";
+	}
+}
@@ -0,0 +1,148 @@
+package com.logicbus.backend.message;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minidev.json.JSONValue;
+
+import com.anysoft.util.IOTools;
+import com.logicbus.backend.Context;
+
+/**
+ * 流式的JSON消息
+ *
+ * <p>
+ * 和{@link JsonMessage}的接口一致，服务可通过{@link #getRoot()}访问数据，区别在于：<br>
+ * - 直接从请求的输入流中解析，不再先读入为字符串; <br>
+ * - 直接序列化到响应的输出流，不再先生成字符串和字节数组，缓冲区和编码器按线程复用(参见{@link ResponseWriter}); <br>
+ * - 内容超出缓冲区时，不设置Content-Length，由容器采用chunked方式传输; <br>
+ *
+ * <p>
+ * 适用于大报文的服务，通过ctx.asMessage(StreamJsonMessage.class)使用.
+ *
+ * @author duanyy
+ * @since 1.6.10.16
+ */
+public class StreamJsonMessage extends JsonMessage {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void init(Context ctx) {
+		InputStream in = null;
+		CountingInputStream counting = null;
+		try {
+			byte [] inputData = ctx.getRequestRaw();
+			if (inputData != null){
+				in = new ByteArrayInputStream(inputData);
+			}else{
+				//当客户端通过form来post的时候，Message不去读取输入流。
+				String _contentType = ctx.getRequestContentType();
+				if (_contentType == null || !_contentType.startsWith(formContentType)){
+					in = ctx.getInputStream();
+				}
+			}
+
+			if (in != null){
+				counting = new CountingInputStream(in);
+				Object rootObj = provider.parse(new BufferedReader(new InputStreamReader(counting,ctx.getEncoding())));
+				if (rootObj instanceof Map){
+					root = (Map<String,Object>)rootObj;
+				}
+			}
+		}catch (Exception ex){
+			//空报文同样会导致解析失败
+			if (counting != null && counting.getCount() > 0){
+				logger.error("Error when parsing json from inputstream",ex);
+			}
+		}finally{
+			if (counting != null){
+				contentLength += counting.getCount();
+			}
+			IOTools.close(in);
+		}
+
+		if (root == null){
+			root = new HashMap<String,Object>();
+		}
+
+		contentType = "application/json;charset=" + ctx.getEncoding();
+	}
+
+	@Override
+	public void finish(Context ctx, boolean closeStream) {
+		Map<String,Object> _root = fillRoot(ctx);
+
+		OutputStream out = null;
+		ResponseWriter writer = null;
+		try {
+			ctx.setResponseContentType(contentType);
+			out = ctx.getOutputStream();
+			writer = ResponseWriter.get(ctx, out);
+
+			String jsonp = ctx.GetValue("jsonp", "");
+			if (jsonp != null && jsonp.length() > 0){
+				writer.write(jsonp);
+				writer.write('(');
+				JSONValue.writeJSONString(_root, writer);
+				writer.write(')');
+			}else{
+				JSONValue.writeJSONString(_root, writer);
+			}
+			writer.close();
+			contentLength += writer.getWritten();
+		}catch (Exception ex){
+			logger.error("Error when writing data to outputstream",ex);
+		}finally{
+			IOTools.close(writer);
+			if (closeStream)
+				IOTools.close(out);
+		}
+	}
+
+	/**
+	 * 计数的输入流
+	 */
+	protected static class CountingInputStream extends FilterInputStream{
+		protected long count = 0;
+
+		protected CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public long getCount(){
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0){
+				count ++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0){
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package com.logicbus.backend.server;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,8 +18,10 @@ import com.logicbus.backend.AccessController;
 import com.logicbus.backend.Context;
 import com.logicbus.backend.Servant;
 import com.logicbus.backend.ServantException;
+import com.logicbus.backend.ServantExecutor;
 import com.logicbus.backend.ServantFactory;
 import com.logicbus.backend.ServantPool;
+import com.logicbus.backend.ServantWorker;
 import com.logicbus.backend.ServantWorkerThread;
 import com.logicbus.backend.bizlog.BizLogItem;
 import com.logicbus.backend.bizlog.BizLogger;
@@ -99,6 +104,16 @@ import com.logicbus.models.servant.ServiceDescription;
  * 
  * @version 1.6.9.9 [20170829 duanyy] <br>
  * - Pool的returnObject接口增加是否出错的参数 <br>
+ * 
+ * @version 1.6.10.5 [20171020 duanyy] <br>
+ * - 增加pooled执行模式，服务在有界线程池中执行，不再为每次请求创建线程 <br>
+ * - 通过servant.executeMode选择执行模式(direct,thread,pooled) <br>
+ * 
+ * @version 1.6.10.6 [20171023 duanyy] <br>
+ * - 允许调用者指定执行模式，以便支持Servlet异步模式 <br>
+ * 
+ * @version 1.6.10.17 [20171117 duanyy] <br>
+ * - 业务日志增加输出长度和压缩后长度 <br>
  */
 public class MessageRouter {
 	
@@ -114,7 +129,21 @@ public class MessageRouter {
 	 * @param ac 访问控制器
 	 * @return 调用结果
 	 */
-	static public int action(Path id,Context ctx,AccessController ac){		
+	static public int action(Path id,Context ctx,AccessController ac){
+		return action(id,ctx,ac,executeMode);
+	}
+	
+	/**
+	 * 按指定的执行模式进行服务调用
+	 * @param id 服务id
+	 * @param ctx 上下文
+	 * @param ac 访问控制器
+	 * @param mode 执行模式
+	 * @return 调用结果
+	 * 
+	 * @since 1.6.10.6
+	 */
+	static public int action(Path id,Context ctx,AccessController ac,ExecuteMode mode){		
 		ServantPool pool = null;
 		Servant servant = null;		
 		String sessionId = "";
@@ -153,10 +182,15 @@ public class MessageRouter {
 				logger.warn("Can not get a servant from pool in the limited time,check servant.queueTimeout variable.");
 				ctx.setReturn("core.time_out", "Can not get a servant from pool in the limited time,check servant.queueTimeout variable.");
 			}else{
-				if (!threadMode){
+				switch (mode){
+				case direct:
 					//在非线程模式下,不支持服务超时
 					execute(servant,ctx);
-				}else{
+					break;
+				case pooled:
+					execute(servant,ctx,ServantExecutor.get(pool.getDescription()),tc != null ? tc.newChild() : null);
+					break;
+				default:
 					CountDownLatch latch = new CountDownLatch(1);
 					ServantWorkerThread thread = new ServantWorkerThread(servant,ctx,latch,tc != null ? tc.newChild() : null);
 					thread.start();
@@ -225,6 +259,8 @@ public class MessageRouter {
 		item.url = ctx.getRequestURI();
 		item.content = logType == ServiceDescription.LogType.detail ? ctx.toString() : null;
 		item.contentLength = ctx.getContentLength();
+		item.outputLength = ctx.getOutputLength();
+		item.compressedLength = ctx.getCompressedLength();
 		
 		bizLogger.handle(item,System.currentTimeMillis());
 				
@@ -238,7 +274,63 @@ public class MessageRouter {
 		return 0;
 	}
 	
+	/**
+	 * 在线程池中执行服务
+	 * 
+	 * <p>
+	 * 当服务超时时，将中断正在执行的线程.
+	 * 
+	 * @param servant 服务员
+	 * @param ctx 上下文
+	 * @param executor 线程池
+	 * @param tc trace上下文
+	 * @return 0
+	 * @throws InterruptedException
+	 * 
+	 * @since 1.6.10.5
+	 */
+	protected static int execute(Servant servant,Context ctx,ServantExecutor executor,TraceContext tc) throws InterruptedException{
+		Future<?> future = executor.submit(new ServantWorker(servant,ctx,null,tc));
+		if (future == null){
+			logger.warn("The servant executor is busy,check servant.executor.threads and servant.executor.queueLength variables.");
+			ctx.setReturn("core.service_busy","The servant executor is busy,check servant.executor.threads and servant.executor.queueLength variables.");
+			return 0;
+		}
+		try {
+			future.get(servant.getTimeOutValue(), TimeUnit.MILLISECONDS);
+		}catch (TimeoutException ex){
+			future.cancel(true);
+			executor.timeout();
+			ctx.setReturn("core.time_out","Time out or interrupted.");
+		}catch (ExecutionException ex){
+			ctx.setReturn("core.fatalerror",ex.getMessage());
+			logger.error("core.fatalerror:" + ex.getMessage(),ex);
+		}
+		return 0;
+	}
+	
+	/**
+	 * 执行模式
+	 * 
+	 * @since 1.6.10.5
+	 */
+	public static enum ExecuteMode {
+		/**
+		 * 在当前线程中直接执行，不支持超时
+		 */
+		direct,
+		/**
+		 * 每次请求创建一个工作线程
+		 */
+		thread,
+		/**
+		 * 在有界的线程池中执行
+		 */
+		pooled
+	}
+	
 	protected static boolean threadMode = true;
+	protected static ExecuteMode executeMode = ExecuteMode.thread;
 	protected static boolean tracerEnable = false;
 	protected static BizLogger bizLogger = null;
 	protected static ServantFactory servantFactory = null;
@@ -249,6 +341,15 @@ public class MessageRouter {
 		
 		//初始化threadMode
 		threadMode = PropertiesConstants.getBoolean(settings, "servant.threadMode", true);
+		//初始化executeMode,缺省根据threadMode来确定
+		String mode = PropertiesConstants.getString(settings, "servant.executeMode", threadMode ? "thread" : "direct");
+		try {
+			executeMode = ExecuteMode.valueOf(mode);
+		}catch (IllegalArgumentException ex){
+			logger.warn("Unsupported execute mode:" + mode + ",thread mode is instead.");
+			executeMode = ExecuteMode.thread;
+		}
+		threadMode = executeMode != ExecuteMode.direct;
 		tracerEnable = PropertiesConstants.getBoolean(settings, "tracer.servant.enable", false);
 		bizlogEnable = PropertiesConstants.getBoolean(settings, "bizlog.enable", true);
 		acmEnable = PropertiesConstants.getBoolean(settings, "acm.enable", true);
@@ -0,0 +1,377 @@
+package com.logicbus.backend.server.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.Settings;
+
+/**
+ * 支持压缩的响应输出流
+ *
+ * <p>
+ * 根据请求的Accept-Encoding协商压缩方式(gzip或deflate)，仅当内容长度不小于阈值，并且内容类型在许可列表之中时才进行压缩.
+ * 在无法确定是否压缩之前，数据暂存在不超过阈值大小的缓冲区中；一旦确定压缩，数据流式地写入压缩器，不再整体缓存.
+ *
+ * <p>
+ * 由于压缩之后的长度无法预知，压缩时忽略Content-Length，由容器采用chunked方式传输.
+ *
+ * <p>
+ * 内容类型可压缩的响应，无论最终是否压缩，均输出Vary: Accept-Encoding，以免中间缓存将未压缩的内容返回给支持压缩的客户端(或者相反).
+ *
+ * <p>
+ * 环境变量如下：<br>
+ * - http.compress.enable : 是否启用，缺省为false; <br>
+ * - http.compress.threshold : 压缩的最小长度(字节)，缺省为1024; <br>
+ * - http.compress.types : 可压缩的内容类型，以逗号分隔，缺省为常见的文本类型; <br>
+ * - http.compress.level : 压缩级别(1-9)，缺省为-1(使用压缩器的缺省级别); <br>
+ *
+ * @author duanyy
+ * @since 1.6.10.17
+ */
+public class CompressOutputStream extends OutputStream {
+
+	/**
+	 * 是否启用
+	 */
+	protected static boolean enable = false;
+
+	/**
+	 * 压缩的最小长度
+	 */
+	protected static int threshold = 1024;
+
+	/**
+	 * 可压缩的内容类型
+	 */
+	protected static String [] types = null;
+
+	/**
+	 * 压缩级别
+	 */
+	protected static int level = Deflater.DEFAULT_COMPRESSION;
+
+	static {
+		Properties p = Settings.get();
+		enable = PropertiesConstants.getBoolean(p, "http.compress.enable", enable);
+		threshold = PropertiesConstants.getInt(p, "http.compress.threshold", threshold);
+		threshold = threshold <= 0 ? 1024 : threshold;
+		level = PropertiesConstants.getInt(p, "http.compress.level", level);
+		types = StringUtils.split(PropertiesConstants.getString(p, "http.compress.types",
+				"application/json,text/xml,application/xml,text/plain,text/html,text/css,text/javascript,application/javascript"), ",");
+	}
+
+	/**
+	 * 响应
+	 */
+	protected HttpServletResponse response;
+
+	/**
+	 * 协商的压缩方式，为空时不压缩
+	 */
+	protected String encoding;
+
+	/**
+	 * 实际的输出流
+	 */
+	protected OutputStream wire = null;
+
+	/**
+	 * 写入的目标，决定之后为wire或者压缩器
+	 */
+	protected OutputStream target = null;
+
+	/**
+	 * 压缩器
+	 */
+	protected DeflaterOutputStream compressor = null;
+
+	/**
+	 * deflate方式下自行创建的Deflater，需要自行释放
+	 */
+	protected Deflater deflater = null;
+
+	/**
+	 * 决定之前的缓冲区
+	 */
+	protected byte [] buffer = null;
+
+	protected int count = 0;
+
+	/**
+	 * 原始的字节数
+	 */
+	protected long originalLength = 0;
+
+	/**
+	 * 实际输出的字节数
+	 */
+	protected long wireLength = 0;
+
+	protected boolean finished = false;
+
+	public CompressOutputStream(HttpServletResponse response,String acceptEncoding){
+		this.response = response;
+		this.encoding = negotiate(acceptEncoding);
+	}
+
+	/**
+	 * 是否启用压缩
+	 * @return 是否启用
+	 */
+	public static boolean isEnable(){
+		return enable;
+	}
+
+	/**
+	 * 根据Accept-Encoding协商压缩方式
+	 * @param acceptEncoding Accept-Encoding
+	 * @return 压缩方式，gzip或者deflate，不支持压缩时返回null
+	 */
+	public static String negotiate(String acceptEncoding){
+		if (StringUtils.isEmpty(acceptEncoding)){
+			return null;
+		}
+		boolean gzip = false;
+		boolean deflate = false;
+		for (String item:StringUtils.split(acceptEncoding, ',')){
+			String [] parts = StringUtils.split(item, ';');
+			if (parts.length <= 0){
+				continue;
+			}
+			String name = parts[0].trim();
+			boolean accepted = true;
+			for (int i = 1 ; i < parts.length ; i ++){
+				String param = parts[i].trim();
+				if (param.startsWith("q=")){
+					try {
+						accepted = Double.parseDouble(param.substring(2)) > 0;
+					}catch (NumberFormatException ex){
+						accepted = false;
+					}
+				}
+			}
+			if (accepted){
+				if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")){
+					gzip = true;
+				}else if (name.equalsIgnoreCase("deflate")){
+					deflate = true;
+				}
+			}
+		}
+		return gzip ? "gzip" : (deflate ? "deflate" : null);
+	}
+
+	/**
+	 * 是否已经压缩
+	 * @return 是否压缩
+	 */
+	public boolean isCompressed(){
+		return compressor != null;
+	}
+
+	/**
+	 * 原始的字节数
+	 * @return 字节数
+	 */
+	public long getOriginalLength(){
+		return originalLength;
+	}
+
+	/**
+	 * 实际输出的字节数
+	 * @return 字节数
+	 */
+	public long getWireLength(){
+		return wireLength;
+	}
+
+	/**
+	 * 设置内容长度
+	 *
+	 * <p>
+	 * 在决定是否压缩之前设置时，按该长度决定；不压缩时设置到响应中.
+	 *
+	 * @param length 内容长度
+	 * @throws IOException
+	 */
+	public void setContentLength(int length) throws IOException{
+		if (target == null){
+			decide(length >= threshold);
+		}
+		if (compressor == null){
+			response.setContentLength(length);
+		}
+	}
+
+	/**
+	 * 决定是否压缩
+	 * @param large 内容是否足够大
+	 * @throws IOException
+	 */
+	protected void decide(boolean large) throws IOException{
+		wire = response.getOutputStream();
+		boolean compressible = isCompressible(response.getContentType()) && !response.containsHeader("Content-Encoding");
+		if (compressible){
+			//是否压缩取决于Accept-Encoding和内容长度
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+		if (large && encoding != null && compressible){
+			response.setHeader("Content-Encoding", encoding);
+			OutputStream counting = new OutputStream(){
+				@Override
+				public void write(int b) throws IOException {
+					wire.write(b);
+					wireLength ++;
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					wire.write(b, off, len);
+					wireLength += len;
+				}
+
+				@Override
+				public void flush() throws IOException {
+					wire.flush();
+				}
+			};
+			if ("gzip".equals(encoding)){
+				compressor = new GZIPOutputStream(counting,8192){
+					{
+						def.setLevel(level);
+					}
+				};
+			}else{
+				deflater = new Deflater(level);
+				compressor = new DeflaterOutputStream(counting,deflater,8192);
+			}
+			target = compressor;
+		}else{
+			target = new OutputStream(){
+				@Override
+				public void write(int b) throws IOException {
+					wire.write(b);
+					wireLength ++;
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					wire.write(b, off, len);
+					wireLength += len;
+				}
+
+				@Override
+				public void flush() throws IOException {
+					wire.flush();
+				}
+			};
+		}
+
+		if (count > 0){
+			target.write(buffer, 0, count);
+			count = 0;
+		}
+		buffer = null;
+	}
+
+	protected boolean isCompressible(String contentType){
+		if (StringUtils.isEmpty(contentType)){
+			return false;
+		}
+		for (String type:types){
+			if (StringUtils.startsWithIgnoreCase(contentType, type.trim())){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte)b},0,1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len <= 0){
+			return;
+		}
+		originalLength += len;
+		if (target == null){
+			if (count + len <= threshold){
+				if (buffer == null){
+					buffer = new byte[threshold];
+				}
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+				return;
+			}
+			decide(true);
+		}
+		target.write(b, off, len);
+	}
+
+	/**
+	 * 刷新
+	 *
+	 * <p>
+	 * 在决定是否压缩之前，数据仍保留在缓冲区中.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (target != null){
+			target.flush();
+		}
+	}
+
+	/**
+	 * 完成输出
+	 *
+	 * <p>
+	 * 可多次调用，仅第一次生效，不关闭实际的输出流.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException{
+		if (finished){
+			return;
+		}
+		finished = true;
+		if (target == null){
+			//全部内容都在缓冲区中
+			int length = count;
+			decide(length >= threshold);
+			if (compressor == null && length > 0){
+				response.setContentLength(length);
+			}
+		}
+		if (compressor != null){
+			//close会结束Deflater并释放本地内存，其下层的计数流不会关闭实际的输出流
+			compressor.close();
+			if (deflater != null){
+				deflater.end();
+			}
+		}
+		target.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		}finally{
+			if (wire != null){
+				wire.close();
+			}
+		}
+	}
+}
@@ -4,7 +4,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -60,6 +62,13 @@ import com.logicbus.backend.Context;
  * 
  * @version 1.6.9.3 [20170615 duanyy] <br>
  * - 修正tlog的全局序列号不规范问题 <br>
+ * 
+ * @version 1.6.10.6 [20171023 duanyy] <br>
+ * - 支持Servlet 3.1的异步模式 <br>
+ * 
+ * @version 1.6.10.17 [20171117 duanyy] <br>
+ * - 根据Accept-Encoding对响应进行压缩(参见{@link CompressOutputStream}) <br>
+ * - 增加输出长度和压缩后长度 <br>
  */
 
 public class HttpContext extends Context {
@@ -88,6 +97,36 @@ public class HttpContext extends Context {
 	 */
 	protected HttpServletResponse response = null;
 	
+	/**
+	 * 异步上下文，仅在异步模式下有效
+	 */
+	protected AsyncContext asyncContext = null;
+	
+	/**
+	 * 报文是否已经输出(异步模式)
+	 */
+	protected AtomicBoolean finished = new AtomicBoolean(false);
+	
+	/**
+	 * 异步上下文是否已经完成(异步模式)
+	 */
+	protected AtomicBoolean completed = new AtomicBoolean(false);
+	
+	/**
+	 * 在异步模式下，预先保存的客户端ip
+	 */
+	private String clientIp = null;
+	
+	/**
+	 * 在异步模式下，预先保存的请求URI
+	 */
+	private String requestURI = null;
+	
+	/**
+	 * 支持压缩的输出流，在首次输出时创建
+	 */
+	protected CompressOutputStream compressOut = null;
+	
 	/**
 	 * constructor
 	 * @param _request HttpServletRequest
@@ -135,6 +174,66 @@ public class HttpContext extends Context {
 	 */
 	public HttpServletResponse getResponse(){return response;}	
 	
+	/**
+	 * 进入异步模式
+	 * 
+	 * <p>
+	 * 进入异步模式之后，{@link #finish()}只会输出一次报文，并通过{@link #complete()}来结束异步上下文.
+	 * 由于异步上下文结束之后request可能会被容器回收，在此预先保存日志中所需的信息。
+	 * 
+	 * @param async 异步上下文
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public void setAsyncContext(AsyncContext async){
+		clientIp = getClientIp();
+		requestURI = getRequestURI();
+		asyncContext = async;
+	}
+	
+	/**
+	 * 是否处于异步模式
+	 * @return 是否异步模式
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public boolean isAsync(){
+		return asyncContext != null;
+	}
+	
+	/**
+	 * 取得输出报文的权利(异步模式)
+	 * 
+	 * <p>
+	 * 异步模式下，工作线程和超时处理都可能输出报文，只有第一个取得权利的一方输出报文并结束异步上下文，
+	 * 另一方不能再修改或输出报文.
+	 * 
+	 * @return 是否取得
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public boolean claim(){
+		return finished.compareAndSet(false, true);
+	}
+	
+	/**
+	 * 结束异步上下文
+	 * 
+	 * <p>
+	 * 可以多次调用，仅第一次生效.
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public void complete(){
+		if (asyncContext != null && completed.compareAndSet(false, true)){
+			try {
+				asyncContext.complete();
+			}catch (IllegalStateException ex){
+				logger.error("Failed to complete async context",ex);
+			}
+		}
+	}
+	
 	@Override
 	public String _GetValue(String _name) {
 		String found = super._GetValue(_name);
@@ -157,6 +256,9 @@ public class HttpContext extends Context {
 
 	@Override
 	public String getClientIp() {
+		if (clientIp != null){
+			return clientIp;
+		}
 		/**
 		 * 支持负载均衡器的X-Forwarded-For
 		 */
@@ -176,6 +278,9 @@ public class HttpContext extends Context {
 
 	@Override
 	public String getRequestURI() {
+		if (requestURI != null){
+			return requestURI;
+		}
 		// since 1.2.0 返回整个URL
 		String queryString = request.getQueryString();
 		if (queryString != null && queryString.length() > 0){
@@ -269,7 +374,16 @@ public class HttpContext extends Context {
 	
 	@Override
 	public void setResponseContentLength(int contentLength) {
-		response.setContentLength(contentLength);
+		CompressOutputStream out = getCompressOutputStream();
+		if (out != null){
+			try {
+				out.setContentLength(contentLength);
+			}catch (IOException ex){
+				logger.error("Error when setting content length",ex);
+			}
+		}else{
+			response.setContentLength(contentLength);
+		}
 	}
 
 	@Override
@@ -279,9 +393,38 @@ public class HttpContext extends Context {
 
 	@Override
 	public OutputStream getOutputStream() throws IOException{
-		return response.getOutputStream();
+		CompressOutputStream out = getCompressOutputStream();
+		return out == null ? response.getOutputStream() : out;
 	}	
 	
+	/**
+	 * 获取支持压缩的输出流
+	 * 
+	 * <p>
+	 * Comet模式下需要即时输出，不进行压缩.
+	 * 
+	 * @return 输出流，不支持压缩时返回null
+	 */
+	protected CompressOutputStream getCompressOutputStream(){
+		if (compressOut == null){
+			if (!CompressOutputStream.isEnable() || cometMode()){
+				return null;
+			}
+			compressOut = new CompressOutputStream(response,request.getHeader("Accept-Encoding"));
+		}
+		return compressOut;
+	}
+	
+	@Override
+	public long getOutputLength(){
+		return compressOut == null ? 0 : compressOut.getOriginalLength();
+	}
+	
+	@Override
+	public long getCompressedLength(){
+		return compressOut != null && compressOut.isCompressed() ? compressOut.getWireLength() : 0;
+	}
+	
 	/**
 	 * requestRow,存放提前截取的输入数据
 	 */
@@ -294,6 +437,33 @@ public class HttpContext extends Context {
 	
 	@Override
 	public void finish() {
+		if (asyncContext != null){
+			if (claim()){
+				finishClaimed();
+			}
+			//否则报文已经由另一方(可能是超时)输出
+			return;
+		}
+		write();
+	}
+	
+	/**
+	 * 在取得输出的权利({@link #claim()})之后，输出报文并结束异步上下文
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public void finishClaimed(){
+		try {
+			write();
+		}finally{
+			complete();
+		}
+	}
+	
+	/**
+	 * 输出报文
+	 */
+	protected void write(){
 		try {
 			if (!isIgnore()){
 				if (msg == null){
@@ -305,6 +475,10 @@ public class HttpContext extends Context {
 				}else{
 					response.setCharacterEncoding(encoding);
 					msg.finish(this,!cometMode());
+					if (compressOut != null){
+						//输出缓冲区中剩余的内容
+						compressOut.finish();
+					}
 				}
 			}
 		}catch (Exception ex){
@@ -1,7 +1,11 @@
 package com.logicbus.backend.server.http;
 
 import java.io.IOException;
+import java.util.concurrent.Future;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -18,8 +22,13 @@ import com.anysoft.webloader.ServletHandler;
 import com.logicbus.backend.AccessController;
 import com.logicbus.backend.DefaultNormalizer;
 import com.logicbus.backend.Normalizer;
+import com.logicbus.backend.Servant;
+import com.logicbus.backend.ServantExecutor;
+import com.logicbus.backend.ServantFactory;
+import com.logicbus.backend.ServantPool;
 import com.logicbus.backend.server.MessageRouter;
 import com.logicbus.models.catalog.Path;
+import com.logicbus.models.servant.ServiceDescription;
 
 /**
  * 基于anyWebLoader的ServletHandler
@@ -67,6 +76,9 @@ import com.logicbus.models.catalog.Path;
  * 
  * @version 1.6.9.8 [20170821 duanyy] <br>
  * - 优化代码 <br>
+ * 
+ * @version 1.6.10.6 [20171023 duanyy] <br>
+ * - 增加Servlet 3.1异步模式，通过Servlet的变量async.mode来控制 <br>
  */
 public class MessageRouterServletHandler implements ServletHandler {
 	/**
@@ -110,6 +122,16 @@ public class MessageRouterServletHandler implements ServletHandler {
 	
 	protected boolean corsSupport = true;
 	
+	/**
+	 * 是否开启异步模式
+	 */
+	protected boolean asyncMode = false;
+	
+	/**
+	 * 服务工厂，用于在异步模式下确定服务的超时时间和执行线程池
+	 */
+	protected ServantFactory servantFactory = null;
+	
 	public void init(ServletConfig servletConfig) throws ServletException {
 		ServletConfigProperties props = new ServletConfigProperties(servletConfig);
 
@@ -119,6 +141,7 @@ public class MessageRouterServletHandler implements ServletHandler {
 		methodAllow = PropertiesConstants.getString(props, "http.method.allow", methodAllow);
 		cacheAllowed = PropertiesConstants.getBoolean(props, "cacheAllowed", cacheAllowed);
 		interceptMode = PropertiesConstants.getBoolean(props, "intercept.mode", interceptMode);
+		asyncMode = PropertiesConstants.getBoolean(props, "async.mode", asyncMode);
 	
 		String normalizerClass = PropertiesConstants.getString(props, "normalizer", "com.logicbus.backend.DefaultNormalizer");
 		logger.info("Normalizer is initializing,module:" + normalizerClass);
@@ -134,6 +157,7 @@ public class MessageRouterServletHandler implements ServletHandler {
 		
 		Settings settings = Settings.get();
 		ac = (AccessController) settings.get("accessController");		
+		servantFactory = (ServantFactory) settings.get("servantFactory");
 	}
 
 	public void doService(HttpServletRequest request,
@@ -168,12 +192,136 @@ public class MessageRouterServletHandler implements ServletHandler {
 		}else{
 			HttpContext ctx = new HttpContext(request,response,encoding,interceptMode);
 			Path id = normalizer.normalize(ctx, request);
+			if (asyncMode && request.isAsyncSupported()){
+				doAsyncService(id,ctx,request,response);
+			}else{
+				MessageRouter.action(id,ctx,ac);
+			}
+		}
+	}
+	
+	/**
+	 * 以异步模式进行服务调用
+	 * 
+	 * <p>
+	 * 服务在其所对应的{@link ServantExecutor}中执行，容器线程立即返回。异步上下文的超时时间取服务的超时时间(time_out)，
+	 * 当超时时，中断服务的执行，并输出core.time_out.
+	 * 
+	 * @param id 服务id
+	 * @param ctx 上下文
+	 * @param request 请求
+	 * @param response 响应
+	 * 
+	 * @since 1.6.10.6
+	 */
+	protected void doAsyncService(Path id,HttpContext ctx,HttpServletRequest request,HttpServletResponse response){
+		ServantPool pool = null;
+		try {
+			pool = servantFactory == null ? null : servantFactory.getPool(id);
+		}catch (Exception ex){
+			//服务不存在等情况下，直接同步执行，由MessageRouter输出错误信息
+			pool = null;
+		}
+		
+		if (pool == null){
 			MessageRouter.action(id,ctx,ac);
+			return ;
+		}
+		
+		ServiceDescription sd = pool.getDescription();
+		AsyncContext asyncContext = request.startAsync(request, response);
+		asyncContext.setTimeout(Servant.getTimeOutValue(sd));
+		ctx.setAsyncContext(asyncContext);
+		
+		AsyncTask task = new AsyncTask(id,ctx,ac);
+		asyncContext.addListener(task);
+		
+		Future<?> future = ServantExecutor.get(sd).submit(task);
+		if (future == null){
+			logger.warn("The servant executor is busy,check servant.executor.threads and servant.executor.queueLength variables.");
+			ctx.setReturn("core.service_busy","The servant executor is busy,check servant.executor.threads and servant.executor.queueLength variables.");
+			ctx.finish();
+		}else{
+			task.setFuture(future);
 		}
 	}
 
 	public void destroy() {
 
 	}
+	
+	/**
+	 * 异步任务
+	 * 
+	 * <p>
+	 * 工作线程和超时(或错误)处理通过{@link HttpContext#claim()}竞争输出报文的权利，
+	 * 只有取得权利的一方输出报文并结束异步上下文.
+	 * 
+	 * @since 1.6.10.6
+	 */
+	public static class AsyncTask implements Runnable,AsyncListener{
+		protected Path id;
+		protected HttpContext ctx;
+		protected AccessController ac;
+		protected volatile Future<?> future = null;
+		
+		public AsyncTask(Path id,HttpContext ctx,AccessController ac){
+			this.id = id;
+			this.ctx = ctx;
+			this.ac = ac;
+		}
+		
+		public void setFuture(Future<?> future){
+			this.future = future;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				//已经在工作线程中，直接执行
+				MessageRouter.action(id, ctx, ac, MessageRouter.ExecuteMode.direct);
+			}finally{
+				//MessageRouter已经输出报文时，此处不再重复输出
+				ctx.finish();
+			}
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+			// nothing to do
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			if (!ctx.claim()){
+				//工作线程正在输出报文，由工作线程结束异步上下文
+				return;
+			}
+			Future<?> f = future;
+			if (f != null){
+				f.cancel(true);
+			}
+			ctx.setReturn("core.time_out","Time out or interrupted.");
+			ctx.finishClaimed();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			Throwable t = event.getThrowable();
+			logger.error("Error occurs in async context:" + (t == null ? "" : t.getMessage()));
+			if (ctx.claim()){
+				Future<?> f = future;
+				if (f != null){
+					f.cancel(true);
+				}
+				ctx.complete();
+			}
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+			// nothing to do
+		}
+	}
 
 }
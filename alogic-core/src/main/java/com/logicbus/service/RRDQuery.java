@@ -0,0 +1,171 @@
+package com.logicbus.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.anysoft.rrm.RRDFile;
+import com.anysoft.rrm.RRDatabase;
+import com.logicbus.backend.AbstractServant;
+import com.logicbus.backend.Context;
+import com.logicbus.backend.ServantException;
+import com.logicbus.backend.message.JsonMessage;
+import com.logicbus.backend.message.XMLMessage;
+import com.logicbus.models.servant.ServiceDescription;
+
+/**
+ * 查询环形数据库中的历史统计数据
+ *
+ * <p>
+ * 参数如下：<br>
+ * - id : 模型id，例如svc:/core/ServiceQuery,dbcp:default,cache:user，为空时列出所有已打开的模型; <br>
+ * - step : 期望的步长(ms),缺省为60000,将选择步长不小于该值的最细粒度的归档; <br>
+ * - from : 开始时间(ms),缺省为1小时之前; <br>
+ * - to : 结束时间(ms),缺省为当前时间; <br>
+ *
+ * <p>
+ * 如果模型中包含times和duration(总时长)，每行额外输出平均时长avg(duration/times).
+ *
+ * @author duanyy
+ * @since 1.6.10.22
+ */
+public class RRDQuery extends AbstractServant {
+
+	@Override
+	protected void onDestroy() {
+		// nothing to do
+	}
+
+	@Override
+	protected void onCreate(ServiceDescription sd) throws ServantException {
+		// nothing to do
+	}
+
+	@Override
+	protected int onXml(Context ctx) throws Exception {
+		XMLMessage msg = (XMLMessage) ctx.asMessage(XMLMessage.class);
+		Element root = msg.getRoot();
+		Document doc = root.getOwnerDocument();
+
+		RRDatabase db = RRDatabase.get();
+		String id = getArgument("id", "", ctx);
+		if (id.length() <= 0){
+			for (RRDFile file:db.list()){
+				Element e = doc.createElement("rrd");
+				file.report(e);
+				root.appendChild(e);
+			}
+			return 0;
+		}
+
+		RRDFile file = db.get(id);
+		if (file == null){
+			throw new ServantException("user.data_not_found","The rrd model does not exist:" + id);
+		}
+
+		long now = System.currentTimeMillis();
+		List<RRDFile.Row> rows = new ArrayList<RRDFile.Row>();
+		long step = file.fetch(getArgument("step", 60000L, ctx),
+				getArgument("from", now - 3600000L, ctx),
+				getArgument("to", now, ctx),rows);
+
+		String [] ds = file.getDataSources();
+		int timesIdx = indexOf(ds,"times");
+		int durationIdx = indexOf(ds,"duration");
+		Element rrd = doc.createElement("rrd");
+		rrd.setAttribute("id", id);
+		rrd.setAttribute("step", String.valueOf(step));
+		for (RRDFile.Row row:rows){
+			Element e = doc.createElement("row");
+			e.setAttribute("t", String.valueOf(row.getTimestamp()));
+			e.setAttribute("n", String.valueOf(row.getCount()));
+			double [] values = row.getValues();
+			for (int i = 0 ; i < ds.length ; i ++){
+				e.setAttribute(ds[i], String.valueOf(values[i]));
+			}
+			if (timesIdx >= 0 && durationIdx >= 0){
+				e.setAttribute("avg", String.valueOf(getAverage(values[durationIdx],values[timesIdx])));
+			}
+			rrd.appendChild(e);
+		}
+		root.appendChild(rrd);
+		return 0;
+	}
+
+	@Override
+	protected int onJson(Context ctx) throws Exception {
+		JsonMessage msg = (JsonMessage) ctx.asMessage(JsonMessage.class);
+		Map<String,Object> root = msg.getRoot();
+
+		RRDatabase db = RRDatabase.get();
+		String id = getArgument("id", "", ctx);
+		if (id.length() <= 0){
+			List<Object> list = new ArrayList<Object>();
+			for (RRDFile file:db.list()){
+				Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+				file.report(map);
+				list.add(map);
+			}
+			root.put("rrd", list);
+			return 0;
+		}
+
+		RRDFile file = db.get(id);
+		if (file == null){
+			throw new ServantException("user.data_not_found","The rrd model does not exist:" + id);
+		}
+
+		long now = System.currentTimeMillis();
+		List<RRDFile.Row> rows = new ArrayList<RRDFile.Row>();
+		long step = file.fetch(getArgument("step", 60000L, ctx),
+				getArgument("from", now - 3600000L, ctx),
+				getArgument("to", now, ctx),rows);
+
+		String [] ds = file.getDataSources();
+		int timesIdx = indexOf(ds,"times");
+		int durationIdx = indexOf(ds,"duration");
+		Map<String,Object> rrd = new HashMap<String,Object>();
+		rrd.put("id", id);
+		rrd.put("step", step);
+		List<Object> list = new ArrayList<Object>();
+		for (RRDFile.Row row:rows){
+			Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+			map.put("t", row.getTimestamp());
+			map.put("n", row.getCount());
+			double [] values = row.getValues();
+			for (int i = 0 ; i < ds.length ; i ++){
+				map.put(ds[i], values[i]);
+			}
+			if (timesIdx >= 0 && durationIdx >= 0){
+				map.put("avg", getAverage(values[durationIdx],values[timesIdx]));
+			}
+			list.add(map);
+		}
+		rrd.put("row", list);
+		root.put("rrd", rrd);
+		return 0;
+	}
+
+	protected static int indexOf(String [] ds,String name){
+		for (int i = 0 ; i < ds.length ; i ++){
+			if (name.equals(ds[i])){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 按总时长和次数计算平均时长
+	 * @param duration 总时长
+	 * @param times 次数
+	 * @return 平均时长
+	 */
+	protected static double getAverage(double duration,double times){
+		return times > 0 ? duration / times : 0;
+	}
+}
@@ -0,0 +1,59 @@
+package com.logicbus.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.alogic.xscript.ScriptCache;
+import com.logicbus.backend.AbstractServant;
+import com.logicbus.backend.Context;
+import com.logicbus.backend.ServantException;
+import com.logicbus.backend.message.JsonMessage;
+import com.logicbus.backend.message.XMLMessage;
+import com.logicbus.models.servant.ServiceDescription;
+
+/**
+ * xscript脚本缓存报告
+ * 
+ * <p>
+ * 输出脚本缓存的文档数，脚本数，命中率，配置次数以及重新加载的次数.
+ * 
+ * @author duanyy
+ * @since 1.6.10.27
+ */
+public class ScriptCacheReport extends AbstractServant {
+
+	@Override
+	protected void onDestroy() {
+		// nothing to do
+	}
+
+	@Override
+	protected void onCreate(ServiceDescription sd) throws ServantException {
+		// nothing to do
+	}
+
+	@Override
+	protected int onXml(Context ctx) throws Exception {
+		XMLMessage msg = (XMLMessage) ctx.asMessage(XMLMessage.class);
+		Element root = msg.getRoot();
+		Document doc = root.getOwnerDocument();
+		
+		Element cache = doc.createElement("cache");
+		ScriptCache.get().report(cache);
+		root.appendChild(cache);
+		return 0;
+	}
+
+	@Override
+	protected int onJson(Context ctx) throws Exception {
+		JsonMessage msg = (JsonMessage) ctx.asMessage(JsonMessage.class);
+		
+		Map<String,Object> cache = new HashMap<String,Object>();
+		ScriptCache.get().report(cache);
+		msg.getRoot().put("cache", cache);
+		return 0;
+	}
+}
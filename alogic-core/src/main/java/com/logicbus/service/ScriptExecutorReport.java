@@ -0,0 +1,67 @@
+package com.logicbus.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.alogic.xscript.AsyncExecutor;
+import com.logicbus.backend.AbstractServant;
+import com.logicbus.backend.Context;
+import com.logicbus.backend.ServantException;
+import com.logicbus.backend.message.JsonMessage;
+import com.logicbus.backend.message.XMLMessage;
+import com.logicbus.models.servant.ServiceDescription;
+
+/**
+ * xscript异步执行线程池报告
+ * 
+ * <p>
+ * 输出各线程池的线程数，活跃线程数，队列长度，以及拒绝和超时次数.
+ * 
+ * @author duanyy
+ * @since 1.6.10.28
+ */
+public class ScriptExecutorReport extends AbstractServant {
+
+	@Override
+	protected void onDestroy() {
+		// nothing to do
+	}
+
+	@Override
+	protected void onCreate(ServiceDescription sd) throws ServantException {
+		// nothing to do
+	}
+
+	@Override
+	protected int onXml(Context ctx) throws Exception {
+		XMLMessage msg = (XMLMessage) ctx.asMessage(XMLMessage.class);
+		Element root = msg.getRoot();
+		Document doc = root.getOwnerDocument();
+		
+		for (AsyncExecutor executor:AsyncExecutor.list()){
+			Element e = doc.createElement("executor");
+			executor.report(e);
+			root.appendChild(e);
+		}
+		return 0;
+	}
+
+	@Override
+	protected int onJson(Context ctx) throws Exception {
+		JsonMessage msg = (JsonMessage) ctx.asMessage(JsonMessage.class);
+		
+		List<Object> list = new ArrayList<Object>();
+		for (AsyncExecutor executor:AsyncExecutor.list()){
+			Map<String,Object> map = new HashMap<String,Object>(); // NOSONAR
+			executor.report(map);
+			list.add(map);
+		}
+		msg.getRoot().put("executor", list);
+		return 0;
+	}
+}
@@ -0,0 +1,104 @@
+package com.logicbus.backend.demo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.logicbus.backend.ConcurrentServantPool;
+import com.logicbus.backend.Context;
+import com.logicbus.backend.QueuedServantPool2;
+import com.logicbus.backend.Servant;
+import com.logicbus.backend.ServantPool;
+import com.logicbus.models.servant.DefaultServiceDescription;
+
+/**
+ * 比较QueuedServantPool2和ConcurrentServantPool在不同并发下的借出/归还性能
+ *
+ * <p>
+ * 每个线程反复借出对象，模拟少量工作，记录访问并归还，输出吞吐量和借不到对象的次数.
+ *
+ * @author duanyy
+ * @since 1.6.10.15
+ */
+public class ServantPoolBench {
+
+	public static class Nothing extends Servant{
+		@Override
+		public int actionProcess(Context ctx) throws Exception {
+			return 0;
+		}
+	}
+
+	protected static DefaultServiceDescription newDescription(){
+		DefaultServiceDescription sd = new DefaultServiceDescription("bench");
+		sd.setPath("/demo/bench");
+		sd.setName("bench");
+		sd.setModule(Nothing.class.getName());
+		sd.getProperties().SetValue("servant.maxActive", "16");
+		sd.getProperties().SetValue("servant.maxIdle", "16");
+		sd.getProperties().SetValue("servant.queueTimeout", "100");
+		return sd;
+	}
+
+	protected static void run(final ServantPool pool,int threads,final int loops) throws InterruptedException{
+		final AtomicLong missed = new AtomicLong(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int i = 0 ;i < threads ; i ++){
+			Thread thread = new Thread(){
+				public void run(){
+					try {
+						start.await();
+						for (int j = 0 ; j < loops ; j ++){
+							Servant servant = pool.borrowObject(0);
+							if (servant == null){
+								missed.incrementAndGet();
+								continue;
+							}
+							try {
+								//模拟少量工作
+								long sum = 0;
+								for (int k = 0 ; k < 200 ; k ++){
+									sum += k * j;
+								}
+								if (sum == -1){
+									System.out.println(sum);
+								}
+								pool.visited(1, "core.ok");
+							}finally{
+								pool.returnObject(servant, false);
+							}
+						}
+					}catch (InterruptedException ex){
+						Thread.currentThread().interrupt();
+					}finally{
+						done.countDown();
+					}
+				}
+			};
+			thread.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long duration = System.nanoTime() - begin;
+
+		long total = (long)threads * loops;
+		System.out.println(String.format("%-24s threads=%-4d ops/s=%-12d missed=%d",
+				pool.getClass().getSimpleName(),threads,total * 1000000000L / duration,missed.get()));
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int loops = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int [] threads = {8,32,128};
+
+		for (int round = 0 ; round < 2 ; round ++){
+			System.out.println(round == 0 ? "Warm up..." : "Measure...");
+			for (int t:threads){
+				run(new QueuedServantPool2(newDescription()),t,loops);
+				run(new ConcurrentServantPool(newDescription()),t,loops);
+			}
+		}
+	}
+}
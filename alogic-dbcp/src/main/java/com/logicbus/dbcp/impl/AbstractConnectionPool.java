@@ -14,6 +14,7 @@ import com.alogic.pool.impl.Queued;
 import com.anysoft.loadbalance.LoadBalance;
 import com.anysoft.loadbalance.LoadBalanceFactory;
 import com.anysoft.util.Counter;
+import com.anysoft.util.DefaultProperties;
 import com.anysoft.util.IOTools;
 import com.anysoft.util.KeyGen;
 import com.anysoft.util.Properties;
@@ -62,6 +63,9 @@ import com.logicbus.dbcp.util.ConnectionPoolStat;
  * 
  * @version 1.6.9.9 [20170829 duanyy] <br>
  * - Pool的returnObject接口增加是否出错的参数 <br>
+ * 
+ * @version 1.6.10.22 [20171129 duanyy] <br>
+ * - 以连接池的名称作为统计的counter.id，以便写入环形数据库 <br>
  */
 abstract public class AbstractConnectionPool extends Queued implements ConnectionPool{
 	protected Counter stat = null;
@@ -96,7 +100,12 @@ abstract public class AbstractConnectionPool extends Queued implements Connectio
 		super.configure(props);
 	}
 	
-	protected Counter createCounter(Properties p){
+	protected Counter createCounter(Properties props){
+		Properties p = new DefaultProperties("dbcp",props);
+		String name = getName();
+		if (name != null && name.length() > 0){
+			p.SetValue("counter.id", name);
+		}
 		String module = PropertiesConstants.getString(p,"dbcp.stat.module", ConnectionPoolStat.class.getName());
 		try {
 			return Counter.TheFactory.getCounter(module, p);
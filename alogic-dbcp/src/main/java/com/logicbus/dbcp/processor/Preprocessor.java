@@ -3,6 +3,7 @@ package com.logicbus.dbcp.processor;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.anysoft.formula.CompiledExpression;
 import com.anysoft.formula.DefaultFunctionHelper;
 import com.anysoft.formula.ExprValue;
 import com.anysoft.formula.Expression;
@@ -15,6 +16,9 @@ import com.anysoft.util.Properties;
  * SQL预处理器
  * @author duanyy
  * @since 1.6.3.30
+ * 
+ * @version 1.6.10.20 [20171124 duanyy] <br>
+ * - 公式编译之后再计算 <br>
  */
 final public class Preprocessor implements BindedListener{
 	
@@ -116,7 +120,7 @@ final public class Preprocessor implements BindedListener{
 		Expression expr = parser.parse(formula);
 		
 		if (expr != null){
-			segments.add(expr);
+			segments.add(CompiledExpression.compile(expr));
 		}
 	}
 	
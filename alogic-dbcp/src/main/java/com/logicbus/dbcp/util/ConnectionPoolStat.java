@@ -13,6 +13,9 @@ import com.anysoft.util.SimpleCounter;
  *
  * @version 1.2.9.1 [20141017 duanyy]
  *  - 从Counter模型中继承
+ *  
+ * @version 1.6.10.22 [20171129 duanyy] <br>
+ * - 在环形数据库中的模型id前缀为dbcp <br>
  */
 public class ConnectionPoolStat extends SimpleCounter{
 
@@ -23,4 +26,9 @@ public class ConnectionPoolStat extends SimpleCounter{
 	public long getStatCycle(Properties p){
 		return PropertiesConstants.getLong(p, "dbcp.stat.cycle", 5 * 60 * 1000L);
 	}		
+	
+	@Override
+	protected String getRRDModule(Properties p){
+		return "dbcp";
+	}
 }
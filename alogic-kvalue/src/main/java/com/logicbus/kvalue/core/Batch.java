@@ -0,0 +1,185 @@
+package com.logicbus.kvalue.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量操作
+ * 
+ * <p>
+ * 批量操作从{@link Table#batch()}获取，所有的操作先排队，在{@link #flush()}时一次性发出，
+ * 同一数据源上的操作只需一次网络往返。在flush之前，{@link Result#get()}不可用。
+ * 
+ * <p>
+ * close时尚未flush的操作将被放弃，不会发出.
+ * 
+ * <pre>
+ * Batch batch = table.batch();
+ * try {
+ *     Batch.Result&lt;Long&gt; r1 = batch.hIncr("k1", "count", 1);
+ *     Batch.Result&lt;Long&gt; r2 = batch.hIncr("k2", "count", 1);
+ *     batch.flush();
+ *     long v1 = r1.get();
+ * }finally{
+ *     IOTools.close(batch);
+ * }
+ * </pre>
+ * 
+ * @author duanyy
+ * @since 1.6.10.8
+ */
+public interface Batch extends AutoCloseable{
+	
+	/**
+	 * 操作结果
+	 * 
+	 * @param <T> 结果的数据类型
+	 */
+	public static interface Result<T>{
+		/**
+		 * 是否已经完成
+		 * @return 是否已经完成
+		 */
+		public boolean isDone();
+		
+		/**
+		 * 获取结果
+		 * @return 结果
+		 */
+		public T get();
+	}
+	
+	/**
+	 * 删除数据行
+	 * @param key 数据行的key
+	 * @return 结果
+	 */
+	public Result<Long> delete(final String key);
+	
+	/**
+	 * 数据行是否存在
+	 * @param key 数据行的key
+	 * @return 结果
+	 */
+	public Result<Boolean> exists(final String key);
+	
+	/**
+	 * 设置ttl(相对当前值)
+	 * @param key 数据行的key
+	 * @param time 时间
+	 * @param timeUnit 时间单位
+	 * @return 结果
+	 */
+	public Result<Boolean> ttl(final String key,final long time,final TimeUnit timeUnit);
+	
+	/**
+	 * 获取字符串值
+	 * @param key 数据行的key
+	 * @return 结果
+	 */
+	public Result<String> get(final String key);
+	
+	/**
+	 * 设置字符串值
+	 * @param key 数据行的key
+	 * @param value 值
+	 * @return 结果
+	 */
+	public Result<Boolean> set(final String key,final String value);
+	
+	/**
+	 * 对数值进行增量
+	 * @param key 数据行的key
+	 * @param increment 增量
+	 * @return 结果
+	 */
+	public Result<Long> incr(final String key,final long increment);
+	
+	/**
+	 * 获取Hash的字段值
+	 * @param key 数据行的key
+	 * @param field 字段
+	 * @return 结果
+	 */
+	public Result<String> hGet(final String key,final String field);
+	
+	/**
+	 * 获取Hash的多个字段值
+	 * @param key 数据行的key
+	 * @param fields 字段列表
+	 * @return 结果
+	 */
+	public Result<List<String>> hMGet(final String key,final String...fields);
+	
+	/**
+	 * 获取Hash的所有字段
+	 * @param key 数据行的key
+	 * @return 结果
+	 */
+	public Result<Map<String,String>> hGetAll(final String key);
+	
+	/**
+	 * 设置Hash的字段值
+	 * @param key 数据行的key
+	 * @param field 字段
+	 * @param value 值
+	 * @return 结果
+	 */
+	public Result<Boolean> hSet(final String key,final String field,final String value);
+	
+	/**
+	 * 设置Hash的多个字段值
+	 * @param key 数据行的key
+	 * @param keyvalues 字段和值，依次排列
+	 * @return 结果
+	 */
+	public Result<Boolean> hMSet(final String key,final String...keyvalues);
+	
+	/**
+	 * 对Hash的字段进行增量
+	 * @param key 数据行的key
+	 * @param field 字段
+	 * @param increment 增量
+	 * @return 结果
+	 */
+	public Result<Long> hIncr(final String key,final String field,final long increment);
+	
+	/**
+	 * 删除Hash的字段
+	 * @param key 数据行的key
+	 * @param fields 字段列表
+	 * @return 结果
+	 */
+	public Result<Long> hDel(final String key,final String...fields);
+	
+	/**
+	 * 向集合中增加成员
+	 * @param key 数据行的key
+	 * @param members 成员列表
+	 * @return 结果
+	 */
+	public Result<Long> sAdd(final String key,final String...members);
+	
+	/**
+	 * 从集合中删除成员
+	 * @param key 数据行的key
+	 * @param members 成员列表
+	 * @return 结果
+	 */
+	public Result<Long> sDel(final String key,final String...members);
+	
+	/**
+	 * 当前排队的操作数
+	 * @return 操作数
+	 */
+	public int size();
+	
+	/**
+	 * 发出所有排队的操作，并获取结果
+	 * 
+	 * <p>
+	 * flush之后，批量操作可以继续使用.
+	 */
+	public void flush();
+}
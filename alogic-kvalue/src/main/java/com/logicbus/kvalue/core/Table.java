@@ -8,6 +8,8 @@ import com.anysoft.util.XMLConfigurable;
  * 
  * @author duanyy
  *
+ * @version 1.6.10.8 [20171027 duanyy] <br>
+ * - 增加批量操作接口{@link #batch()} <br>
  */
 public interface Table extends XMLConfigurable,Reportable{
 	
@@ -46,4 +48,12 @@ public interface Table extends XMLConfigurable,Reportable{
 	 */
 	public KeyValueRow select(String key,boolean enableRWSplit);
 	
+	/**
+	 * 创建批量操作
+	 * @return 批量操作
+	 * 
+	 * @since 1.6.10.8
+	 */
+	public Batch batch();
+	
 }
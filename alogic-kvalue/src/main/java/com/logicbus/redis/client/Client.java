@@ -16,6 +16,13 @@ import com.logicbus.redis.util.RedisException;
  * 
  * @version 1.6.6.9 [20161209 duanyy] <br>
  * - 从新的框架下继承 <br>
+ * 
+ * @version 1.6.10.7 [20171025 duanyy] <br>
+ * - 仅在建立新的连接时进行密码验证和db选择 <br>
+ * - 已出错的连接在关闭时不再发送QUIT指令 <br>
+ * 
+ * @version 1.6.10.8 [20171027 duanyy] <br>
+ * - 增加{@link #pipeline()}，支持管道模式 <br>
  */
 public class Client extends Connection implements PooledCloseable{
 	
@@ -80,8 +87,8 @@ public class Client extends Connection implements PooledCloseable{
 	}
 	
 
-	public void connect() {
-		super.connect();
+	@Override
+	protected void onConnect() {
 		if (password != null && password.length() > 0) {
 			auth(password);
 		}
@@ -93,7 +100,7 @@ public class Client extends Connection implements PooledCloseable{
 	
 	public void disconnect() {
 		db = 0;
-		if (isConnected(false)){
+		if (!isBroken() && isConnected(false)){
 			// to ask the server to close
 			try {
 				quit();
@@ -121,6 +128,17 @@ public class Client extends Connection implements PooledCloseable{
 		closeAware = null;
 	}		
 	
+	/**
+	 * 在当前连接上创建管道
+	 * @return 管道
+	 * 
+	 * @since 1.6.10.8
+	 */
+	public Pipeline pipeline(){
+		connect();
+		return new Pipeline(this);
+	}
+	
 	public Toolkit getToolKit(Class<? extends Toolkit> clazz){
 		try {
 			Constructor<? extends Toolkit> c = clazz.getConstructor(Connection.class);
@@ -20,6 +20,10 @@ import com.logicbus.redis.util.SafeEncoder;
  * @version 1.0.0.1 [20141106 duanyy] <br>
  * - 修正设置index或password之后死循环的bug. <br>
  * 
+ * @version 1.6.10.7 [20171025 duanyy] <br>
+ * - 发送指令前不再通过ECHO检测连接，连接的有效性检查由连接池负责 <br>
+ * - 增加{@link #ping()}和{@link #onConnect()} <br>
+ * - 记录最后一次活跃的时间 <br>
  */
 public class Connection implements AutoCloseable {
 	/**
@@ -69,6 +73,19 @@ public class Connection implements AutoCloseable {
 		return broken;
 	}
 
+	/**
+	 * 最后一次活跃的时间
+	 */
+	private long lastActive = 0;
+
+	public long getLastActive() {
+		return lastActive;
+	}
+
+	public void setLastActive(final long lastActive) {
+		this.lastActive = lastActive;
+	}
+
 	private int timeout = Protocol.DEFAULT_TIMEOUT;
 
 	public int getTimeout() {
@@ -159,7 +176,7 @@ public class Connection implements AutoCloseable {
 	}
 
 	public void connect() {
-		if (!isConnected(true)){
+		if (!isConnected(false)){
 			try {
 				socket = new Socket();
 				socket.setReuseAddress(true);
@@ -175,8 +192,19 @@ public class Connection implements AutoCloseable {
 				throw new RedisConnectException("ioexception",
 						"IO Exception when connecting.", ex);
 			}
+			onConnect();
 		}
 	}
+	
+	/**
+	 * 新的连接建立之后的事件
+	 * 
+	 * <p>
+	 * 只在socket建立之后调用一次，子类可在此进行验证，选择db等操作.
+	 */
+	protected void onConnect(){
+		// nothing to do
+	}
 
 	public void disconnect() {
 		if (isConnected(false)) {
@@ -194,6 +222,25 @@ public class Connection implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * 放弃连接
+	 * 
+	 * <p>
+	 * 不发出输出缓冲区中的指令，直接关闭socket，并将连接标记为broken，连接池不再复用该连接.
+	 * 
+	 * @since 1.6.10.8
+	 */
+	public void abort(){
+		broken = true;
+		if (socket != null && !socket.isClosed()){
+			try {
+				socket.close();
+			}catch (IOException ex){
+				//ignore
+			}
+		}
+	}
+
 	public boolean isConnected(boolean ping) {
 		boolean connected = socket != null && socket.isBound() && !socket.isClosed()
 				&& socket.isConnected() && !socket.isInputShutdown()
@@ -213,6 +260,29 @@ public class Connection implements AutoCloseable {
 	}
 	
 	
+	private static final byte [] CMD_PING = SafeEncoder.encode("PING");
+	
+	/**
+	 * 检测连接是否有效
+	 * 
+	 * <p>
+	 * 向服务器发送PING指令，并等待应答。如果连接无效，将标记为broken.
+	 * 
+	 * @return 连接是否有效
+	 */
+	public boolean ping(){
+		if (!isConnected(false)){
+			return false;
+		}
+		try {
+			Protocol.sendCommand(outputStream, CMD_PING);
+			return "PONG".equals(getStatusCodeReply());
+		}catch (Exception ex){
+			broken = true;
+			return false;
+		}
+	}
+	
 	public void close() throws Exception {
 		disconnect();
 	}
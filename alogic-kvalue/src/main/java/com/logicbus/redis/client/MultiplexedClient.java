@@ -0,0 +1,203 @@
+package com.logicbus.redis.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.logicbus.redis.util.RedisConnectException;
+import com.logicbus.redis.util.RedisException;
+import com.logicbus.redis.util.SafeEncoder;
+
+/**
+ * 基于多路复用连接的客户端
+ *
+ * <p>
+ * 客户端本身不持有socket，指令在本地缓存，在读取应答时统一提交到共享的{@link MultiplexedConnection}，
+ * 因此客户端的创建和借出都非常轻量，Toolkit和Pipeline均可照常使用.
+ *
+ * <p>
+ * 由于连接是共享的，不支持阻塞类指令(BLPOP,SUBSCRIBE等)，也不支持切换db.
+ *
+ * @author duanyy
+ * @since 1.6.10.9
+ */
+public class MultiplexedClient extends Client {
+	/**
+	 * 共享的多路复用连接
+	 */
+	protected MultiplexedConnection conn;
+
+	/**
+	 * 本地指令缓冲区
+	 */
+	protected ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+	/**
+	 * 指令输出流
+	 */
+	protected RedisOutputStream os = new RedisOutputStream(buffer);
+
+	/**
+	 * 缓冲区中的指令个数
+	 */
+	protected int pending = 0;
+
+	/**
+	 * 已提交尚未读取的应答
+	 */
+	protected LinkedList<MultiplexedConnection.Reply> replies = new LinkedList<MultiplexedConnection.Reply>();
+
+	/**
+	 * 是否出错
+	 */
+	protected boolean error = false;
+
+	public MultiplexedClient(MultiplexedConnection conn) {
+		super(conn.getHost(), conn.getPort());
+		this.conn = conn;
+		setTimeout(conn.getTimeout());
+	}
+
+	@Override
+	public boolean isBroken() {
+		return error;
+	}
+
+	/**
+	 * 放弃客户端
+	 *
+	 * <p>
+	 * 客户端不持有socket，共享的连接不能关闭，因此只丢弃本地缓存的指令和尚未读取的应答，并标记为出错，
+	 * 连接池不再复用该客户端，避免下一个使用者提交或读取到这些指令的应答.
+	 */
+	@Override
+	public void abort(){
+		error = true;
+		reset();
+	}
+
+	@Override
+	public boolean isConnected(boolean ping) {
+		return ping ? ping() : true;
+	}
+
+	@Override
+	public void connect() {
+		// 连接由MultiplexedConnection维护
+	}
+
+	@Override
+	protected void onConnect() {
+		// 验证和选择db由MultiplexedConnection完成
+	}
+
+	@Override
+	public void disconnect() {
+		reset();
+	}
+
+	@Override
+	public void setTimeoutInfinite() {
+		throw new RedisConnectException("unsupported","Blocking command is not supported in multiplexed mode.");
+	}
+
+	@Override
+	public void rollbackTimeout() {
+		throw new RedisConnectException("unsupported","Blocking command is not supported in multiplexed mode.");
+	}
+
+	@Override
+	public void select(int dbIndex) {
+		throw new RedisConnectException("unsupported","Select is not supported in multiplexed mode.");
+	}
+
+	@Override
+	protected Connection sendCommand(final byte[] cmd, final byte[]... args) {
+		Protocol.sendCommand(os, cmd, args);
+		pending ++;
+		return this;
+	}
+
+	@Override
+	protected Connection sendCommand(final byte[] cmd) {
+		Protocol.sendCommand(os, cmd, new byte[0][]);
+		pending ++;
+		return this;
+	}
+
+	@Override
+	protected void flush() {
+		if (pending <= 0){
+			return ;
+		}
+		try {
+			os.flush();
+			List<MultiplexedConnection.Reply> submitted = conn.submit(buffer.toByteArray(),pending);
+			replies.addAll(submitted);
+		}catch (IOException ex){
+			error = true;
+			throw new RedisConnectException("ioexception","IO Exception when flushing.", ex);
+		}catch (RedisConnectException ex){
+			error = true;
+			throw ex;
+		}finally{
+			buffer.reset();
+			pending = 0;
+		}
+	}
+
+	@Override
+	protected Object readProtocolWithCheckingBroken() {
+		flush();
+		MultiplexedConnection.Reply reply = replies.poll();
+		if (reply == null){
+			throw new RedisConnectException("noreply","No command is waiting for reply.");
+		}
+		Object value = null;
+		try {
+			value = reply.get(getTimeout());
+		}catch (RedisConnectException ex){
+			//后续的应答已无法对齐
+			error = true;
+			reset();
+			throw ex;
+		}
+		if (value instanceof RedisException){
+			if (value instanceof RedisConnectException){
+				error = true;
+				reset();
+			}
+			throw (RedisException)value;
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Long> getIntegerMultiBulkReply() {
+		return (List<Long>) readProtocolWithCheckingBroken();
+	}
+
+	private static final byte [] CMD_PING = SafeEncoder.encode("PING");
+
+	@Override
+	public boolean ping() {
+		try {
+			sendCommand(CMD_PING);
+			return "PONG".equals(getStatusCodeReply());
+		}catch (Exception ex){
+			error = true;
+			return false;
+		}
+	}
+
+	/**
+	 * 清除本地状态
+	 */
+	protected void reset(){
+		buffer.reset();
+		pending = 0;
+		replies.clear();
+	}
+}
@@ -0,0 +1,463 @@
+package com.logicbus.redis.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logicbus.redis.util.RedisConnectException;
+import com.logicbus.redis.util.RedisDataException;
+import com.logicbus.redis.util.SafeEncoder;
+
+/**
+ * 基于NIO的多路复用连接
+ *
+ * <p>
+ * 多个线程的指令通过同一个连接发出。由于Redis的应答是按指令顺序返回的，指令在写出时按顺序登记应答，
+ * IO线程读取到应答之后，按先进先出的顺序匹配。
+ *
+ * <p>
+ * 多路复用连接不支持阻塞类指令(如BLPOP,SUBSCRIBE等)，也不支持事务(MULTI/EXEC)。
+ *
+ * @author duanyy
+ * @since 1.6.10.9
+ */
+public class MultiplexedConnection implements AutoCloseable {
+	/**
+	 * a slf4j logger
+	 */
+	protected static final Logger logger = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+	/**
+	 * 表示应答尚不完整
+	 */
+	protected static final Object INCOMPLETE = new Object();
+
+	protected String host;
+
+	protected int port = Protocol.DEFAULT_PORT;
+
+	/**
+	 * 连接和等待应答的超时时间(毫秒)
+	 */
+	protected int timeout = Protocol.DEFAULT_TIMEOUT;
+
+	protected String password = null;
+
+	protected int db = 0;
+
+	protected SocketChannel channel = null;
+
+	protected Selector selector = null;
+
+	protected Thread ioThread = null;
+
+	protected volatile boolean broken = true;
+
+	protected volatile boolean closed = false;
+
+	/**
+	 * 写锁，保证写出顺序和应答登记顺序一致
+	 */
+	protected final Object writeLock = new Object();
+
+	/**
+	 * 待写出的数据
+	 */
+	protected Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * 已发出尚未收到应答的指令
+	 */
+	protected Queue<Reply> inflight = new ConcurrentLinkedQueue<Reply>();
+
+	/**
+	 * 已发出的指令数
+	 */
+	protected AtomicLong commandCnt = new AtomicLong(0);
+
+	/**
+	 * 重连次数
+	 */
+	protected AtomicLong connectCnt = new AtomicLong(0);
+
+	public MultiplexedConnection(String host,int port,String password,int db,int timeout){
+		this.host = host;
+		this.port = port;
+		this.password = password;
+		this.db = db;
+		this.timeout = timeout;
+	}
+
+	public String getHost(){return host;}
+
+	public int getPort(){return port;}
+
+	public int getTimeout(){return timeout;}
+
+	public int getInflight(){return inflight.size();}
+
+	public long getCommandCnt(){return commandCnt.get();}
+
+	public long getConnectCnt(){return connectCnt.get();}
+
+	public boolean isConnected(){
+		return !broken && !closed;
+	}
+
+	/**
+	 * 提交已编码的指令
+	 * @param commands 已编码的指令
+	 * @param count 指令个数
+	 * @return 应答列表，和指令一一对应
+	 */
+	public List<Reply> submit(byte[] commands,int count){
+		if (closed){
+			throw new RedisConnectException("closed","The connection has been closed.");
+		}
+		if (broken){
+			connect();
+		}
+		List<Reply> replies = new ArrayList<Reply>(count);
+		synchronized (writeLock){
+			if (broken){
+				throw new RedisConnectException("broken","The connection is broken.");
+			}
+			for (int i = 0 ; i < count ; i ++){
+				Reply reply = new Reply();
+				inflight.offer(reply);
+				replies.add(reply);
+			}
+			writeQueue.offer(ByteBuffer.wrap(commands));
+		}
+		commandCnt.addAndGet(count);
+		Selector s = selector;
+		if (s != null){
+			s.wakeup();
+		}
+		return replies;
+	}
+
+	/**
+	 * 建立连接
+	 *
+	 * <p>
+	 * 先以阻塞模式完成连接，验证和db选择，然后切换为非阻塞模式，交由IO线程处理.
+	 */
+	protected synchronized void connect(){
+		if (!broken || closed){
+			return ;
+		}
+		closeChannel();
+		SocketChannel ch = null;
+		Selector sel = null;
+		boolean ok = false;
+		try {
+			ch = SocketChannel.open();
+			ch.socket().setTcpNoDelay(true);
+			ch.socket().setKeepAlive(true);
+			ch.socket().setSoTimeout(timeout);
+			ch.socket().connect(new InetSocketAddress(host, port), timeout);
+
+			if (password != null && password.length() > 0){
+				handshake(ch,"AUTH",password);
+			}
+			if (db > 0){
+				handshake(ch,"SELECT",String.valueOf(db));
+			}
+
+			ch.configureBlocking(false);
+			sel = Selector.open();
+			ch.register(sel, SelectionKey.OP_READ);
+
+			channel = ch;
+			selector = sel;
+			connectCnt.incrementAndGet();
+			broken = false;
+
+			ioThread = new Thread(new Runnable(){
+				@Override
+				public void run() {
+					loop();
+				}
+			},"redis-mux-" + host + ":" + port);
+			ioThread.setDaemon(true);
+			ioThread.start();
+			ok = true;
+		}catch (IOException ex){
+			throw new RedisConnectException("ioexception","IO Exception when connecting.",ex);
+		}finally{
+			if (!ok){
+				//握手失败(例如AUTH被拒绝)时同样关闭，避免每次重连泄漏一个socket
+				broken = true;
+				channel = null;
+				selector = null;
+				closeQuietly(sel,ch);
+			}
+		}
+	}
+
+	/**
+	 * 以阻塞模式执行一个指令，用于连接建立时的AUTH和SELECT
+	 */
+	protected void handshake(SocketChannel ch,String cmd,String arg) throws IOException{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		RedisOutputStream os = new RedisOutputStream(bos);
+		Protocol.sendCommand(os, SafeEncoder.encode(cmd), SafeEncoder.encode(arg));
+		os.flush();
+		ByteBuffer out = ByteBuffer.wrap(bos.toByteArray());
+		while (out.hasRemaining()){
+			ch.write(out);
+		}
+
+		RedisInputStream is = new RedisInputStream(ch.socket().getInputStream());
+		Object reply = Protocol.read(is);
+		if (reply == null){
+			throw new RedisConnectException("handshake", "Failed to execute " + cmd);
+		}
+	}
+
+	/**
+	 * IO线程主循环
+	 */
+	protected void loop(){
+		SocketChannel ch = channel;
+		Selector sel = selector;
+		ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+		try {
+			while (!closed && !broken){
+				SelectionKey key = ch.keyFor(sel);
+				boolean pending = !writeQueue.isEmpty() && !write(ch);
+				key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+				sel.select();
+				Iterator<SelectionKey> iter = sel.selectedKeys().iterator();
+				while (iter.hasNext()){
+					SelectionKey k = iter.next();
+					iter.remove();
+					if (k.isValid() && k.isReadable()){
+						int size = ch.read(in);
+						if (size < 0){
+							throw new IOException("It seems like server has closed the connection.");
+						}
+						in = decode(in);
+					}
+				}
+			}
+		}catch (Exception ex){
+			if (!closed){
+				logger.error("Redis multiplexed connection is broken:" + host + ":" + port,ex);
+			}
+			fail(new RedisConnectException("ioexception","IO Exception when connecting.",ex));
+		}finally{
+			closeQuietly(sel,ch);
+		}
+	}
+
+	/**
+	 * 写出待写的数据
+	 * @return 是否全部写完
+	 */
+	protected boolean write(SocketChannel ch) throws IOException{
+		ByteBuffer found = null;
+		while ((found = writeQueue.peek()) != null){
+			ch.write(found);
+			if (found.hasRemaining()){
+				return false;
+			}
+			writeQueue.poll();
+		}
+		return true;
+	}
+
+	/**
+	 * 从缓冲区中解析应答
+	 * @param in 缓冲区(写模式)
+	 * @return 缓冲区(写模式)，空间不足时将扩大
+	 */
+	protected ByteBuffer decode(ByteBuffer in){
+		in.flip();
+		while (in.hasRemaining()){
+			int mark = in.position();
+			Object reply = decode0(in);
+			if (reply == INCOMPLETE){
+				in.position(mark);
+				break;
+			}
+			Reply r = inflight.poll();
+			if (r != null){
+				r.complete(reply);
+			}
+		}
+		in.compact();
+		if (!in.hasRemaining()){
+			ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+			in.flip();
+			bigger.put(in);
+			in = bigger;
+		}
+		return in;
+	}
+
+	/**
+	 * 解析一个应答
+	 *
+	 * <p>
+	 * 应答的数据类型和{@link Protocol#read(RedisInputStream)}保持一致，错误应答以RedisDataException返回.
+	 *
+	 * @param in 缓冲区
+	 * @return 应答，如果数据不完整，返回INCOMPLETE
+	 */
+	protected static Object decode0(ByteBuffer in){
+		if (!in.hasRemaining()){
+			return INCOMPLETE;
+		}
+		byte b = in.get();
+		String line = readLine(in);
+		if (line == null){
+			return INCOMPLETE;
+		}
+		switch (b){
+		case Protocol.PLUS_BYTE:
+			return SafeEncoder.encode(line);
+		case Protocol.MINUS_BYTE:
+			return new RedisDataException("resp",line);
+		case Protocol.COLON_BYTE:
+			return Long.valueOf(line);
+		case Protocol.DOLLAR_BYTE:{
+			int len = Integer.parseInt(line);
+			if (len == -1){
+				return null;
+			}
+			if (in.remaining() < len + 2){
+				return INCOMPLETE;
+			}
+			byte[] data = new byte[len];
+			in.get(data);
+			in.get();
+			in.get();
+			return data;
+		}
+		case Protocol.ASTERISK_BYTE:{
+			int num = Integer.parseInt(line);
+			if (num == -1){
+				return null;
+			}
+			List<Object> ret = new ArrayList<Object>(num);
+			for (int i = 0 ; i < num ; i ++){
+				Object item = decode0(in);
+				if (item == INCOMPLETE){
+					return INCOMPLETE;
+				}
+				ret.add(item);
+			}
+			return ret;
+		}
+		default:
+			throw new RedisConnectException("unknownreply", "Unknown reply: "+ (char) b);
+		}
+	}
+
+	protected static String readLine(ByteBuffer in){
+		int start = in.position();
+		int limit = in.limit();
+		for (int i = start ; i < limit - 1 ; i ++){
+			if (in.get(i) == '\r' && in.get(i + 1) == '\n'){
+				byte[] line = new byte[i - start];
+				in.get(line);
+				in.get();
+				in.get();
+				return SafeEncoder.encode(line);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 连接出错，所有未完成的应答失败
+	 * @param ex 异常
+	 */
+	protected void fail(RedisConnectException ex){
+		synchronized (writeLock){
+			broken = true;
+			writeQueue.clear();
+			Reply r = null;
+			while ((r = inflight.poll()) != null){
+				r.complete(ex);
+			}
+		}
+	}
+
+	protected synchronized void closeChannel(){
+		closeQuietly(selector,channel);
+		selector = null;
+		channel = null;
+	}
+
+	protected static void closeQuietly(Selector sel,SocketChannel ch){
+		try {
+			if (sel != null){
+				sel.close();
+			}
+		}catch (IOException ex){
+			// ignore
+		}
+		try {
+			if (ch != null){
+				ch.close();
+			}
+		}catch (IOException ex){
+			// ignore
+		}
+	}
+
+	@Override
+	public void close(){
+		closed = true;
+		fail(new RedisConnectException("closed","The connection has been closed."));
+		closeChannel();
+	}
+
+	/**
+	 * 应答
+	 */
+	public static class Reply {
+		protected CountDownLatch latch = new CountDownLatch(1);
+		protected volatile Object value = null;
+
+		protected void complete(Object value){
+			this.value = value;
+			latch.countDown();
+		}
+
+		/**
+		 * 等待应答
+		 * @param timeout 超时时间(毫秒)
+		 * @return 应答，错误应答以RedisException返回
+		 */
+		public Object get(long timeout){
+			try {
+				if (!latch.await(timeout, TimeUnit.MILLISECONDS)){
+					throw new RedisConnectException("timeout","Time out when waiting for reply.");
+				}
+			}catch (InterruptedException ex){
+				throw new RedisConnectException("interrupted","Interrupted when waiting for reply.",ex);
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.logicbus.redis.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.logicbus.redis.util.Builder;
+import com.logicbus.redis.util.RedisException;
+
+/**
+ * 管道
+ * 
+ * <p>
+ * 通过Toolkit的_xxx系列方法发送指令之后，调用{@link #enqueue(Builder)}登记应答的解析器，
+ * 指令保存在连接的输出缓冲区中，直到{@link #sync()}时一次性发出，并按顺序读取所有应答。
+ * 
+ * <pre>
+ * Pipeline pipeline = client.pipeline();
+ * HashTool tool = (HashTool)client.getToolKit(HashTool.class);
+ * tool._hincrby(key,"f1",1);
+ * Pipeline.Response&lt;Long&gt; r1 = pipeline.enqueue(BuilderFactory.LONG);
+ * tool._hincrby(key,"f2",1);
+ * Pipeline.Response&lt;Long&gt; r2 = pipeline.enqueue(BuilderFactory.LONG);
+ * pipeline.sync();
+ * </pre>
+ * 
+ * @author duanyy
+ * @since 1.6.10.8
+ */
+public class Pipeline {
+	/**
+	 * 连接
+	 */
+	protected Connection conn = null;
+	
+	/**
+	 * 尚未获取应答的指令
+	 */
+	protected List<Response<?>> pending = new ArrayList<Response<?>>();
+	
+	public Pipeline(Connection conn){
+		this.conn = conn;
+	}
+	
+	/**
+	 * 登记一个应答
+	 * @param builder 应答的解析器
+	 * @return 应答
+	 */
+	public <T> Response<T> enqueue(Builder<T> builder){
+		Response<T> response = new Response<T>(builder);
+		pending.add(response);
+		return response;
+	}
+	
+	/**
+	 * 尚未获取应答的指令数
+	 * @return 指令数
+	 */
+	public int size(){
+		return pending.size();
+	}
+	
+	/**
+	 * 发出所有指令，并读取应答
+	 * 
+	 * <p>
+	 * 单个指令的错误应答(例如类型不匹配)保存在对应的Response中，不影响其他指令；
+	 * 连接错误将使所有尚未读取的应答失败，并抛出异常。
+	 */
+	public void sync(){
+		if (pending.isEmpty()){
+			return ;
+		}
+		List<Response<?>> toRead = pending;
+		pending = new ArrayList<Response<?>>();
+		try {
+			List<Object> replies = conn.getMany(toRead.size());
+			for (int i = 0 ; i < toRead.size() ; i ++){
+				toRead.get(i).set(replies.get(i));
+			}
+		}catch (RedisException ex){
+			for (Response<?> r:toRead){
+				if (!r.isDone()){
+					r.set(ex);
+				}
+			}
+			throw ex;
+		}
+	}
+	
+	/**
+	 * 放弃所有尚未发出的指令
+	 * 
+	 * <p>
+	 * 尚未获取应答的指令将失败，连接将被放弃({@link Connection#abort()})，以免残留的指令或应答被后续的使用者读取。
+	 * 注意：输出缓冲区已满时自动发出的指令可能已经在服务端执行.
+	 */
+	public void discard(){
+		if (pending.isEmpty()){
+			return ;
+		}
+		List<Response<?>> toDiscard = pending;
+		pending = new ArrayList<Response<?>>();
+		conn.abort();
+		RedisException ex = new RedisException("pipeline","The pipeline has been discarded.");
+		for (Response<?> r:toDiscard){
+			r.set(ex);
+		}
+	}
+	
+	/**
+	 * 管道中的应答
+	 * 
+	 * @param <T> 应答的数据类型
+	 */
+	public static class Response<T> {
+		protected Builder<T> builder;
+		protected Object data = null;
+		protected boolean done = false;
+		protected boolean built = false;
+		protected T value = null;
+		
+		public Response(Builder<T> builder){
+			this.builder = builder;
+		}
+		
+		protected void set(Object data){
+			this.data = data;
+			done = true;
+		}
+		
+		/**
+		 * 是否已经获取到应答
+		 * @return 是否已经获取到应答
+		 */
+		public boolean isDone(){
+			return done;
+		}
+		
+		/**
+		 * 获取应答
+		 * @return 应答
+		 */
+		public T get(){
+			if (!done){
+				throw new RedisException("pipeline","The pipeline has not been synced.");
+			}
+			if (data instanceof RedisException){
+				throw (RedisException)data;
+			}
+			if (!built){
+				value = builder.build(data, null);
+				built = true;
+			}
+			return value;
+		}
+	}
+}
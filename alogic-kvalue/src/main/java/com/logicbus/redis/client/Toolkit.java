@@ -9,6 +9,8 @@ import com.logicbus.redis.util.RedisConnectException;
  * 
  * @author duanyy
  *
+ * @version 1.6.10.12 [20171106 duanyy] <br>
+ * - 增加{@link #flush()}，用于只发送不等待应答的指令 <br>
  */
 public class Toolkit {
 	private Connection conn = null;
@@ -90,6 +92,15 @@ public class Toolkit {
 		return conn().getObjectMultiBulkReply();
 	}
 	
+	/**
+	 * 将已发送的指令写出，不等待应答
+	 * 
+	 * @since 1.6.10.12
+	 */
+	protected void flush(){
+		conn().flush();
+	}
+	
 	private Connection conn(){
 		if (conn == null){
 			throw new RedisConnectException("isnull","the connection instance is null");
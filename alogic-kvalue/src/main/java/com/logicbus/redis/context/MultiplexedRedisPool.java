@@ -0,0 +1,136 @@
+package com.logicbus.redis.context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.anysoft.util.BaseException;
+import com.anysoft.util.Properties;
+import com.anysoft.util.PropertiesConstants;
+import com.anysoft.util.XmlElementProperties;
+import com.logicbus.redis.client.Client;
+import com.logicbus.redis.client.MultiplexedClient;
+import com.logicbus.redis.client.MultiplexedConnection;
+
+/**
+ * 基于多路复用连接的连接池
+ *
+ * <p>
+ * 池中的客户端不再各自持有socket，而是轮流绑定到少量共享的{@link MultiplexedConnection}上，
+ * 多个线程的指令在同一个连接上并发发出，适合大量短小指令的场景.
+ *
+ * <p>
+ * 通过rcp的module属性启用，例如:<br>
+ * {@code <rcp id="default" module="com.logicbus.redis.context.MultiplexedRedisPool" connections="2" .../>}<br>
+ * - connections : 共享连接的个数，缺省为1 <br>
+ *
+ * <p>
+ * 多路复用模式下不支持阻塞类指令(BLPOP,SUBSCRIBE等).
+ *
+ * @author duanyy
+ * @since 1.6.10.9
+ */
+public class MultiplexedRedisPool extends RedisPool {
+
+	/**
+	 * 共享的连接
+	 */
+	protected MultiplexedConnection[] connections = null;
+
+	/**
+	 * 用于轮询分配连接
+	 */
+	protected AtomicInteger round = new AtomicInteger(0);
+
+	@Override
+	public void configure(Element _e, Properties _properties)
+			throws BaseException {
+		super.configure(_e, _properties);
+
+		XmlElementProperties p = new XmlElementProperties(_e,_properties);
+		int count = PropertiesConstants.getInt(p, "connections", 1);
+		count = count <= 0 ? 1 : count;
+
+		closeConnections();
+		String pwd = getPassword();
+		MultiplexedConnection[] conns = new MultiplexedConnection[count];
+		for (int i = 0 ; i < count ; i ++){
+			conns[i] = new MultiplexedConnection(host,port,pwd,db,timeout);
+		}
+		connections = conns;
+	}
+
+	@Override
+	protected Client newClient(String pwd) {
+		MultiplexedConnection[] conns = connections;
+		int idx = (round.getAndIncrement() & Integer.MAX_VALUE) % conns.length;
+		return new MultiplexedClient(conns[idx]);
+	}
+
+	@Override
+	protected boolean validate(Client client) {
+		//连接的有效性由MultiplexedConnection维护，只需检查客户端是否出错
+		return !client.isBroken();
+	}
+
+	@Override
+	public void close(){
+		super.close();
+		closeConnections();
+	}
+
+	protected void closeConnections(){
+		if (connections != null){
+			for (MultiplexedConnection conn:connections){
+				conn.close();
+			}
+			connections = null;
+		}
+	}
+
+	@Override
+	public void report(Element xml) {
+		if (xml != null){
+			super.report(xml);
+			MultiplexedConnection[] conns = connections;
+			if (conns != null){
+				xml.setAttribute("connections", String.valueOf(conns.length));
+				Document doc = xml.getOwnerDocument();
+				for (MultiplexedConnection conn:conns){
+					Element e = doc.createElement("connection");
+					e.setAttribute("connected", Boolean.toString(conn.isConnected()));
+					e.setAttribute("inflight", String.valueOf(conn.getInflight()));
+					e.setAttribute("commands", String.valueOf(conn.getCommandCnt()));
+					e.setAttribute("connects", String.valueOf(conn.getConnectCnt()));
+					xml.appendChild(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void report(Map<String, Object> json) {
+		if (json != null){
+			super.report(json);
+			MultiplexedConnection[] conns = connections;
+			if (conns != null){
+				json.put("connections", conns.length);
+				List<Object> list = new ArrayList<Object>(conns.length);
+				for (MultiplexedConnection conn:conns){
+					Map<String,Object> map = new HashMap<String,Object>();
+					map.put("connected", conn.isConnected());
+					map.put("inflight", conn.getInflight());
+					map.put("commands", conn.getCommandCnt());
+					map.put("connects", conn.getConnectCnt());
+					list.add(map);
+				}
+				json.put("connection", list);
+			}
+		}
+	}
+}
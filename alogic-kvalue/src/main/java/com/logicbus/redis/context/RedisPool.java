@@ -1,6 +1,12 @@
 package com.logicbus.redis.context;
 
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Element;
@@ -28,6 +34,13 @@ import com.logicbus.redis.util.RedisException;
  * 
  * @version 1.6.10.4 [20171017 duanyy] <br>
  * - 优化密码取值功能 <br>
+ * 
+ * @version 1.6.10.7 [20171025 duanyy] <br>
+ * - 增加连接有效性检查策略:空闲一段时间后借出时检查，后台定时检查空闲连接，出错的连接不再归还 <br>
+ * - 报告中输出有效性检查的统计信息 <br>
+ * 
+ * @version 1.6.10.9 [20171030 duanyy] <br>
+ * - 将密码解密和客户端创建分离为{@link #getPassword()}和{@link #newClient(String)}，以便子类扩展 <br>
  */
 public class RedisPool extends Queued{
 
@@ -86,6 +99,58 @@ public class RedisPool extends Queued{
 	 */
 	protected String coder = "Default";	
 	
+	/**
+	 * 连接空闲超过该时间(毫秒)后，在借出时需要进行有效性检查，小于等于0时不检查
+	 */
+	protected long validateIdleTime = 30000L;
+	
+	/**
+	 * 连接空闲超过该时间(毫秒)后，将被后台任务关闭，小于等于0时不关闭
+	 */
+	protected long maxIdleTime = 300000L;
+	
+	/**
+	 * 后台检查空闲连接的时间间隔(毫秒)，小于等于0时不进行后台检查
+	 */
+	protected long idleCheckInterval = 60000L;
+	
+	/**
+	 * 有效性检查次数
+	 */
+	protected AtomicLong validateCnt = new AtomicLong(0);
+	
+	/**
+	 * 有效性检查失败次数
+	 */
+	protected AtomicLong validateFailedCnt = new AtomicLong(0);
+	
+	/**
+	 * 因空闲时间过长而关闭的连接数
+	 */
+	protected AtomicLong evictedCnt = new AtomicLong(0);
+	
+	/**
+	 * 因出错而丢弃的连接数
+	 */
+	protected AtomicLong brokenCnt = new AtomicLong(0);
+	
+	/**
+	 * 后台检查任务
+	 */
+	protected ScheduledFuture<?> idleChecker = null;
+	
+	/**
+	 * 后台检查的线程，所有连接池共享
+	 */
+	protected static ScheduledExecutorService keeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r,"redis-pool-keeper");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	public String getHost(){return host;}
 	
 	public int getPort(){return port;}
@@ -109,12 +174,92 @@ public class RedisPool extends Queued{
 	public Client getClient(int timeout)throws RedisException{
 		Client found = borrowObject(0, timeout);
 		
+		//空闲连接最多检查maxIdle次，避免死循环
+		int retry = getMaxIdle();
+		while (found != null && retry-- > 0 && !validateOnBorrow(found)){
+			super.returnObject(found, true);
+			found = borrowObject(0, timeout);
+		}
+		
 		if (found == null){
 			throw new RedisContextException("busy","The pool is busy , can not get a client.");
 		}
 		return found;
 	}
 	
+	/**
+	 * 借出时对连接进行检查
+	 * 
+	 * <p>
+	 * 只有空闲时间超过validateIdleTime的连接才需要检查，新创建的连接无需检查.
+	 * 
+	 * @param client 连接
+	 * @return 是否有效
+	 */
+	protected boolean validateOnBorrow(Client client){
+		long lastActive = client.getLastActive();
+		if (validateIdleTime <= 0 || lastActive <= 0 
+				|| System.currentTimeMillis() - lastActive < validateIdleTime){
+			return true;
+		}
+		return validate(client);
+	}
+	
+	/**
+	 * 检查连接的有效性
+	 * @param client 连接
+	 * @return 是否有效
+	 */
+	protected boolean validate(Client client){
+		validateCnt.incrementAndGet();
+		if (client.ping()){
+			client.setLastActive(System.currentTimeMillis());
+			return true;
+		}
+		validateFailedCnt.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * 后台检查空闲连接
+	 * 
+	 * <p>
+	 * 空闲时间超过maxIdleTime的连接将被关闭，空闲时间超过validateIdleTime的连接将通过PING保活.
+	 */
+	protected void checkIdle(){
+		final long now = System.currentTimeMillis();
+		scanIdle(new IdleChecker(){
+			@Override
+			public boolean check(Object pooled) {
+				Client client = (Client)pooled;
+				long idle = now - client.getLastActive();
+				if (maxIdleTime > 0 && idle >= maxIdleTime){
+					evictedCnt.incrementAndGet();
+					return false;
+				}
+				if (validateIdleTime > 0 && idle >= validateIdleTime){
+					return validate(client);
+				}
+				return true;
+			}
+		});
+	}
+	
+	@Override
+	public <pooled> void returnObject(pooled obj,boolean hasError) {
+		Client client = (Client)obj;
+		if (client != null){
+			if (client.isBroken()){
+				//出错的连接不再归还到空闲队列
+				brokenCnt.incrementAndGet();
+				hasError = true;
+			}else{
+				client.setLastActive(System.currentTimeMillis());
+			}
+		}
+		super.returnObject(obj, hasError);
+	}
+	
 	public void recycle(Client client,boolean error){
 		returnObject(client,error);
 	}
@@ -127,42 +272,65 @@ public class RedisPool extends Queued{
 	protected <pooled> pooled createObject(){
 		Client instance = null;
 		try {
-			ClassLoader cl = Settings.getClassLoader();
-			if (confirmer == null){
-				if (StringUtils.isNotEmpty(callbackId) 
-						&& StringUtils.isNotEmpty(callback)){
-					try {
-						confirmer = (Confirmer)cl.loadClass(callback).newInstance();
-						confirmer.prepare(callbackId);
-					}catch (Exception ex){
-						
-					}
-				}
-			}	
-			
-			if (confirmer == null){
-				String pwd = password;
-				if (StringUtils.isNotEmpty(coder)){
-					//通过coder进行密码解密
-					try {
-						Coder _coder = CoderFactory.newCoder(coder);
-						pwd = _coder.decode(password, username);
-					}catch (Exception ex){
-						logger.error("Can not find coder:" + coder);
-					}
-				}
-				instance =  new Client(host,port,pwd,db);
-				instance.register(this);
-			}else{
-				String pwd = confirmer.confirm("password", password);
-				instance =  new Client(host,port,pwd,db);
-				instance.register(this);
-			}
+			instance = newClient(getPassword());
+			instance.register(this);
 		}catch (Exception ex){
-			logger.error(String.format("Can not create a connection to redis %d:%d",host,port),ex);
+			logger.error(String.format("Can not create a connection to redis %s:%d",host,port),ex);
 		}
 		return (pooled)instance;
 	}
+	
+	/**
+	 * 创建新的客户端
+	 * @param pwd 已解密的密码
+	 * @return 客户端
+	 * 
+	 * @since 1.6.10.9
+	 */
+	protected Client newClient(String pwd){
+		return new Client(host,port,pwd,db);
+	}
+	
+	/**
+	 * 获取解密后的密码
+	 * 
+	 * <p>
+	 * 优先通过数据确认者获取，否则通过coder进行解密.
+	 * 
+	 * @return 密码
+	 * 
+	 * @since 1.6.10.9
+	 */
+	protected String getPassword(){
+		ClassLoader cl = Settings.getClassLoader();
+		if (confirmer == null){
+			if (StringUtils.isNotEmpty(callbackId) 
+					&& StringUtils.isNotEmpty(callback)){
+				try {
+					confirmer = (Confirmer)cl.loadClass(callback).newInstance();
+					confirmer.prepare(callbackId);
+				}catch (Exception ex){
+					
+				}
+			}
+		}	
+		
+		if (confirmer != null){
+			return confirmer.confirm("password", password);
+		}
+		
+		String pwd = password;
+		if (StringUtils.isNotEmpty(coder)){
+			//通过coder进行密码解密
+			try {
+				Coder _coder = CoderFactory.newCoder(coder);
+				pwd = _coder.decode(password, username);
+			}catch (Exception ex){
+				logger.error("Can not find coder:" + coder);
+			}
+		}
+		return pwd;
+	}
 
 	public void configure(Element _e, Properties _properties)
 			throws BaseException {
@@ -179,7 +347,36 @@ public class RedisPool extends Queued{
 		db = PropertiesConstants.getInt(p, "defaultDB", db,true);
 		
 		timeout = PropertiesConstants.getInt(p,"timeout", timeout);
+		validateIdleTime = PropertiesConstants.getLong(p, "validateIdleTime", validateIdleTime);
+		maxIdleTime = PropertiesConstants.getLong(p, "maxIdleTime", maxIdleTime);
+		idleCheckInterval = PropertiesConstants.getLong(p, "idleCheckInterval", idleCheckInterval);
 		configure(p);
+		
+		if (idleChecker != null){
+			idleChecker.cancel(false);
+			idleChecker = null;
+		}
+		if (idleCheckInterval > 0){
+			idleChecker = keeper.scheduleWithFixedDelay(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						checkIdle();
+					}catch (Exception ex){
+						logger.error("Error when checking idle clients",ex);
+					}
+				}
+			}, idleCheckInterval, idleCheckInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	@Override
+	public void close(){
+		if (idleChecker != null){
+			idleChecker.cancel(false);
+			idleChecker = null;
+		}
+		super.close();
 	}
 	
 	public void report(Element xml) {
@@ -187,6 +384,10 @@ public class RedisPool extends Queued{
 			xml.setAttribute("host", host);
 			xml.setAttribute("port", String.valueOf(port));
 			xml.setAttribute("defaultDB", String.valueOf(db));
+			xml.setAttribute("validate", String.valueOf(validateCnt.get()));
+			xml.setAttribute("validateFailed", String.valueOf(validateFailedCnt.get()));
+			xml.setAttribute("evicted", String.valueOf(evictedCnt.get()));
+			xml.setAttribute("broken", String.valueOf(brokenCnt.get()));
 			
 			super.report(xml);
 		}
@@ -197,6 +398,10 @@ public class RedisPool extends Queued{
 			json.put("host", host);
 			json.put("port", port);
 			json.put("defaultDB", db);
+			json.put("validate", validateCnt.get());
+			json.put("validateFailed", validateFailedCnt.get());
+			json.put("evicted", evictedCnt.get());
+			json.put("broken", brokenCnt.get());
 			
 			super.report(json);
 		}
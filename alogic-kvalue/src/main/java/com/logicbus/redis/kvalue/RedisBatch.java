@@ -0,0 +1,302 @@
+package com.logicbus.redis.kvalue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.logicbus.kvalue.common.Partition;
+import com.logicbus.kvalue.common.Partitioner;
+import com.logicbus.kvalue.core.Batch;
+import com.logicbus.redis.client.Client;
+import com.logicbus.redis.client.Pipeline;
+import com.logicbus.redis.context.RedisContext;
+import com.logicbus.redis.context.RedisPool;
+import com.logicbus.redis.toolkit.HashTool;
+import com.logicbus.redis.toolkit.SetTool;
+import com.logicbus.redis.toolkit.StringTool;
+import com.logicbus.redis.util.Builder;
+import com.logicbus.redis.util.BuilderFactory;
+import com.logicbus.redis.util.RedisException;
+
+/**
+ * 基于Redis管道的批量操作
+ * 
+ * <p>
+ * 按照数据行所在分区的主数据源对操作进行分组，每个数据源一个{@link Pipeline}，flush时每个数据源只需一次网络往返.
+ * 
+ * <p>
+ * close时不会发出尚未flush的操作，这些操作将被放弃(对应的结果失败)，其所在的连接也不再归还到连接池.
+ * 
+ * @author duanyy
+ * @since 1.6.10.8
+ */
+public class RedisBatch implements Batch {
+	
+	/**
+	 * redis context，用于从中获取redis connection
+	 */
+	protected RedisContext source = null;
+	
+	/**
+	 * 分区器
+	 */
+	protected Partitioner partitioner = null;
+	
+	/**
+	 * Table名称，当非独占时作为key的前缀
+	 */
+	protected String prefix = null;
+	
+	/**
+	 * 各数据源的管道
+	 */
+	protected Map<String,Channel> channels = new LinkedHashMap<String,Channel>();
+	
+	/**
+	 * 当前排队的操作数
+	 */
+	protected int size = 0;
+	
+	public RedisBatch(RedisContext source,Partitioner partitioner,String prefix){
+		this.source = source;
+		this.partitioner = partitioner;
+		this.prefix = prefix;
+	}
+	
+	@Override
+	public Result<Long> delete(String key) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.tool._del(k);
+		return enqueue(c,BuilderFactory.LONG);
+	}
+
+	@Override
+	public Result<Boolean> exists(String key) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.tool._exist(k);
+		return enqueue(c,BuilderFactory.BOOLEAN);
+	}
+
+	@Override
+	public Result<Boolean> ttl(String key, long time, TimeUnit timeUnit) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.tool._expire(k, time, timeUnit);
+		return enqueue(c,BuilderFactory.BOOLEAN);
+	}
+
+	@Override
+	public Result<String> get(String key) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.tool._get(k);
+		return enqueue(c,BuilderFactory.STRING);
+	}
+
+	@Override
+	public Result<Boolean> set(String key, String value) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.tool._set(k, value);
+		return enqueue(c,BuilderFactory.STATUS_OK);
+	}
+
+	@Override
+	public Result<Long> incr(String key, long increment) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.tool._incrby(k, increment);
+		return enqueue(c,BuilderFactory.LONG);
+	}
+
+	@Override
+	public Result<String> hGet(String key, String field) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hget(k, field);
+		return enqueue(c,BuilderFactory.STRING);
+	}
+
+	@Override
+	public Result<List<String>> hMGet(String key, String... fields) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hmget(k, fields);
+		return enqueue(c,BuilderFactory.STRING_LIST);
+	}
+
+	@Override
+	public Result<Map<String, String>> hGetAll(String key) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hgetall(k);
+		return enqueue(c,BuilderFactory.STRING_MAP);
+	}
+
+	@Override
+	public Result<Boolean> hSet(String key, String field, String value) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hset(k, field, value);
+		return enqueue(c,BuilderFactory.BOOLEAN);
+	}
+
+	@Override
+	public Result<Boolean> hMSet(String key, String... keyvalues) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hmset(k, keyvalues);
+		return enqueue(c,BuilderFactory.STATUS_OK);
+	}
+
+	@Override
+	public Result<Long> hIncr(String key, String field, long increment) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hincrby(k, field, increment);
+		return enqueue(c,BuilderFactory.LONG);
+	}
+
+	@Override
+	public Result<Long> hDel(String key, String... fields) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.hashTool._hdel(k, fields);
+		return enqueue(c,BuilderFactory.LONG);
+	}
+
+	@Override
+	public Result<Long> sAdd(String key, String... members) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.setTool._sadd(k, members);
+		return enqueue(c,BuilderFactory.LONG);
+	}
+
+	@Override
+	public Result<Long> sDel(String key, String... members) {
+		String k = getKey(key);
+		Channel c = getChannel(k);
+		c.setTool._srem(k, members);
+		return enqueue(c,BuilderFactory.LONG);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void flush() {
+		RedisException error = null;
+		Iterator<Channel> iter = channels.values().iterator();
+		while (iter.hasNext()){
+			Channel channel = iter.next();
+			try {
+				channel.pipeline.sync();
+			}catch (RedisException ex){
+				if (error == null){
+					error = ex;
+				}
+			}finally{
+				channel.client.poolClose();
+			}
+		}
+		channels.clear();
+		size = 0;
+		
+		if (error != null){
+			throw error;
+		}
+	}
+
+	@Override
+	public void close() {
+		Iterator<Channel> iter = channels.values().iterator();
+		while (iter.hasNext()){
+			Channel channel = iter.next();
+			try {
+				channel.pipeline.discard();
+			}finally{
+				channel.client.poolClose();
+			}
+		}
+		channels.clear();
+		size = 0;
+	}
+	
+	protected <T> Result<T> enqueue(Channel channel,Builder<T> builder){
+		size ++;
+		return new RedisResult<T>(channel.pipeline.enqueue(builder));
+	}
+	
+	protected String getKey(String key){
+		return prefix == null ? key : prefix + ":" + key;
+	}
+	
+	protected String getSource(String key){
+		Partition part = partitioner.getPartition(key);
+		return part.getSource();
+	}
+	
+	protected Channel getChannel(String key){
+		String src = getSource(key);
+		Channel found = channels.get(src);
+		if (found == null){
+			RedisPool pool = source.getPool(src);
+			if (pool == null){
+				throw new RedisException("noclient",
+						"Can not get a client by source name:" + src);
+			}
+			found = new Channel(pool.getClient());
+			channels.put(src, found);
+		}
+		return found;
+	}
+	
+	/**
+	 * 单个数据源上的管道
+	 */
+	protected static class Channel {
+		protected Client client;
+		protected Pipeline pipeline;
+		protected StringTool tool;
+		protected HashTool hashTool;
+		protected SetTool setTool;
+		
+		protected Channel(Client client){
+			this.client = client;
+			this.pipeline = client.pipeline();
+			this.tool = new StringTool(client);
+			this.hashTool = new HashTool(client);
+			this.setTool = new SetTool(client);
+		}
+	}
+	
+	/**
+	 * 基于Pipeline.Response的结果
+	 * 
+	 * @param <T> 结果的数据类型
+	 */
+	protected static class RedisResult<T> implements Result<T>{
+		protected Pipeline.Response<T> response;
+		
+		protected RedisResult(Pipeline.Response<T> response){
+			this.response = response;
+		}
+		
+		@Override
+		public boolean isDone() {
+			return response.isDone();
+		}
+
+		@Override
+		public T get() {
+			return response.get();
+		}
+	}
+}
@@ -15,6 +15,7 @@ import com.anysoft.util.XmlElementProperties;
 import com.anysoft.util.XmlTools;
 import com.logicbus.kvalue.common.Partition;
 import com.logicbus.kvalue.common.Partitioner;
+import com.logicbus.kvalue.core.Batch;
 import com.logicbus.kvalue.core.KeyValueRow;
 import com.logicbus.kvalue.core.Table;
 import com.logicbus.redis.context.RedisContext;
@@ -26,6 +27,9 @@ import com.logicbus.redis.context.RedisContext;
  * 
  * @version 1.0.0.2 [20141108 duanyy] <br>
  * - 补充Reportable实现. <br>
+ * 
+ * @version 1.6.10.8 [20171027 duanyy] <br>
+ * - 增加批量操作{@link #batch()} <br>
  */
 public class RedisTable implements Table {
 	
@@ -176,6 +180,17 @@ public class RedisTable implements Table {
 		}
 	}
 
+	/**
+	 * 创建批量操作
+	 * 
+	 * @return 批量操作
+	 * 
+	 * @since 1.6.10.8
+	 */
+	public Batch batch(){
+		return new RedisBatch(source,partitioner,possessive ? null : name);
+	}
+
 	protected static Hashtable<Table.DataType,Class<? extends KeyValueRow>> dataTypeMappping = null;
 	
 	static {
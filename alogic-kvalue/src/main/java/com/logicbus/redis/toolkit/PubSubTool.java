@@ -0,0 +1,117 @@
+package com.logicbus.redis.toolkit;
+
+import java.util.List;
+
+import com.logicbus.redis.client.Connection;
+import com.logicbus.redis.client.Toolkit;
+import com.logicbus.redis.util.SafeEncoder;
+
+/**
+ * 发布/订阅工具
+ *
+ * <p>
+ * 订阅是阻塞操作，订阅期间该连接不能用于其他指令，不支持多路复用连接.
+ *
+ * @author duanyy
+ * @since 1.6.10.12
+ */
+public class PubSubTool extends Toolkit {
+
+	public static enum Command {
+		PUBLISH,
+		SUBSCRIBE,
+		UNSUBSCRIBE;
+
+		public final byte [] raw;
+		Command(){
+			raw = SafeEncoder.encode(name());
+		}
+	}
+
+	/**
+	 * 连接
+	 */
+	protected Connection conn = null;
+
+	public PubSubTool(Connection _conn) {
+		super(_conn);
+		conn = _conn;
+	}
+
+	public void _publish(final String channel,final String message){
+		sendCommand(Command.PUBLISH.raw,channel,message);
+	}
+
+	/**
+	 * 向指定频道发布消息
+	 * @param channel 频道
+	 * @param message 消息
+	 * @return 收到消息的订阅者个数
+	 */
+	public long publish(final String channel,final String message){
+		_publish(channel,message);
+		return getIntegerReply();
+	}
+
+	/**
+	 * 订阅指定的频道，并持续接收消息，直到所有频道被取消订阅
+	 *
+	 * @param listener 消息监听器
+	 * @param channels 频道列表
+	 */
+	public void subscribe(final Listener listener,final String...channels){
+		conn.setTimeoutInfinite();
+		try {
+			sendCommand(Command.SUBSCRIBE.raw,channels);
+			while (true){
+				List<Object> reply = getObjectMultiBulkReply();
+				if (reply == null || reply.size() < 3){
+					continue;
+				}
+				String type = SafeEncoder.encode((byte[])reply.get(0));
+				String channel = SafeEncoder.encode((byte[])reply.get(1));
+				Object payload = reply.get(2);
+
+				if ("message".equals(type)){
+					listener.onMessage(channel, SafeEncoder.encode((byte[])payload));
+				}else if ("subscribe".equals(type)){
+					listener.onSubscribe(channel);
+				}else if ("unsubscribe".equals(type)){
+					if (payload instanceof Long && ((Long)payload).longValue() == 0){
+						break;
+					}
+				}
+			}
+		}finally{
+			conn.rollbackTimeout();
+		}
+	}
+
+	/**
+	 * 取消订阅，可在其他线程中调用
+	 * @param channels 频道列表，为空时取消所有订阅
+	 */
+	public void unsubscribe(final String...channels){
+		sendCommand(Command.UNSUBSCRIBE.raw,channels);
+		//应答由订阅线程接收
+		flush();
+	}
+
+	/**
+	 * 消息监听器
+	 */
+	public static interface Listener {
+		/**
+		 * 订阅成功
+		 * @param channel 频道
+		 */
+		public void onSubscribe(String channel);
+
+		/**
+		 * 收到消息
+		 * @param channel 频道
+		 * @param message 消息
+		 */
+		public void onMessage(String channel,String message);
+	}
+}
@@ -14,6 +14,8 @@ import com.logicbus.redis.util.SafeEncoder;
  * @version 1.6.9.9 [20170829 duanyy] <br>
  * - 增加redis的script指令; <br>
  * 
+ * @version 1.6.10.14 [20171110 duanyy] <br>
+ * - 修正evalsha参数错位的问题; <br>
  */
 public class ScriptTool extends Toolkit {
 
@@ -47,8 +49,8 @@ public class ScriptTool extends Toolkit {
 		final byte[][] bargs = new byte[params.length + 2][];
 		bargs[0] = SafeEncoder.encode(sha1);
 		bargs[1] = SafeEncoder.encode(keys);
-		for (int i = 1; i < params.length + 1; i++) {
-			bargs[i] = SafeEncoder.encode(params[i-1]);
+		for (int i = 2; i < params.length + 2; i++) {
+			bargs[i] = SafeEncoder.encode(params[i-2]);
 		}
 		sendCommand(Command.EVALSHA.raw,bargs);
 	}
@@ -29,6 +29,15 @@ public class BuilderFactory {
 			return "boolean";
 		}
 	};
+	public static final Builder<Boolean> STATUS_OK = new Builder<Boolean>() {
+		public Boolean build(Object data,Boolean t) {
+			return data != null && "OK".equals(SafeEncoder.encode((byte[]) data));
+		}
+
+		public String toString() {
+			return "status";
+		}
+	};
 	public static final Builder<byte[]> BYTE_ARRAY = new Builder<byte[]>() {
 		public byte[] build(Object data,byte [] t) {
 			return ((byte[]) data); // deleted == 1
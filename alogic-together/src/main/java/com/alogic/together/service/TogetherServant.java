@@ -4,6 +4,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import com.alogic.xscript.LogicletContext;
 import com.alogic.xscript.Script;
+import com.alogic.xscript.ScriptCache;
 import com.alogic.xscript.doc.XsObject;
 import com.alogic.xscript.doc.json.JsonObject;
 import com.alogic.xscript.doc.xml.XmlObject;
@@ -21,10 +22,19 @@ import com.logicbus.models.servant.ServiceDescription;
  * @author duanyy
  * @version 1.6.9.8 [20170821 duanyy] <br>
  * - 服务上下文增加keyword关键字，和tlog对接; <br>
+ * 
+ * @version 1.6.10.27 [20171211 duanyy] <br>
+ * - 每次调用时从ScriptCache获取脚本，脚本文件变化之后无需重新加载服务; <br>
+ * - 脚本来源在创建时确定，每次调用不再重新计算缓存的key; <br>
  */
 public class TogetherServant extends AbstractServant {
 	protected Script script = null;
 	protected String service;
+	protected String bootstrap;
+	protected String config;
+	protected Properties props;
+	protected ScriptCache cache;
+	protected ScriptCache.Source source = null;
 	
 	@Override
 	protected void onDestroy() {
@@ -33,25 +43,38 @@ public class TogetherServant extends AbstractServant {
 
 	@Override
 	protected void onCreate(ServiceDescription sd) {
-		Properties p = sd.getProperties();
+		props = sd.getProperties();
 		service = sd.getPath();
-		String bootstrap = PropertiesConstants.getString(p,"bootstrap","",true);
-		if (StringUtils.isEmpty(bootstrap)){
-			String config = PropertiesConstants.getString(p,"script","");
-			if (StringUtils.isNotEmpty(config)){
-				script = Script.create(config, p);
-			}
-		}else{
-			String config = PropertiesConstants.getString(p,"script","");
-			if (StringUtils.isNotEmpty(config)){
-				script = Script.create(bootstrap, config, p);
+		bootstrap = PropertiesConstants.getString(props,"bootstrap","",true);
+		config = PropertiesConstants.getString(props,"script","");
+		cache = ScriptCache.get();
+		if (StringUtils.isNotEmpty(config)){
+			source = StringUtils.isEmpty(bootstrap) ? cache.getSource(config) : cache.getClassSource(bootstrap, config);
+		}
+		script = getScript();
+	}
+	
+	/**
+	 * 获取脚本
+	 * 
+	 * <p>从ScriptCache中获取，如果脚本文件发生变化，将返回重新加载之后的脚本.
+	 * 
+	 * @return 脚本
+	 */
+	protected Script getScript(){
+		if (source != null){
+			Script found = cache.getScript(source, props);
+			if (found != null){
+				script = found;
 			}
 		}
+		return script;
 	}
 
 	@Override
 	protected int onJson(Context ctx) throws Exception {
-		if (script != null){
+		Script current = getScript();
+		if (current != null){
 			JsonMessage msg = (JsonMessage) ctx.asMessage(JsonMessage.class);
 			
 			LogicletContext logicletContext = new SevantLogicletContext(ctx);
@@ -59,7 +82,7 @@ public class TogetherServant extends AbstractServant {
 			logicletContext.SetValue("$service", service);
 			try {
 				XsObject doc = new JsonObject("root",msg.getRoot());
-				script.execute(doc,doc, logicletContext, null);
+				current.execute(doc,doc, logicletContext, null);
 			}finally{
 				logicletContext.removeObject("$context");
 				
@@ -75,7 +98,8 @@ public class TogetherServant extends AbstractServant {
 	}
 
 	protected int onXml(Context ctx) throws Exception{ 
-		if (script != null){
+		Script current = getScript();
+		if (current != null){
 			XMLMessage msg = (XMLMessage) ctx.asMessage(XMLMessage.class);
 			
 			LogicletContext logicletContext = new SevantLogicletContext(ctx);
@@ -83,7 +107,7 @@ public class TogetherServant extends AbstractServant {
 			logicletContext.SetValue("$service", service);
 			try {
 				XsObject doc = new XmlObject("root",msg.getRoot());
-				script.execute(doc,doc, logicletContext, null);
+				current.execute(doc,doc, logicletContext, null);
 			}finally{
 				logicletContext.removeObject("$context");
 				